@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.benchmarks;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The messages the benchmarks run over, and their encodings on the wire.
+ *
+ * By default this is a synthetic sample shaped like the firehose: mostly statuses of varying length, with a few
+ * deletes and limit notices mixed in. To run over a recorded stream instead, pass -Dhbc.corpus=/path/to/file, where
+ * the file holds one message per line (e.g. the output of curl on a stream endpoint without delimited=length).
+ */
+public final class Corpus {
+
+  public static final String CORPUS_PROPERTY = "hbc.corpus";
+  public static final int DEFAULT_SIZE = 5000;
+
+  private static final String CRLF = "\r\n";
+
+  private Corpus() {}
+
+  public static List<String> messages() throws IOException {
+    String path = System.getProperty(CORPUS_PROPERTY);
+    if (path != null) {
+      List<String> messages = new ArrayList<String>();
+      for (String line : Files.readLines(new File(path), Charsets.UTF_8)) {
+        if (!line.trim().isEmpty()) {
+          messages.add(line.trim());
+        }
+      }
+      return messages;
+    }
+    return synthetic(DEFAULT_SIZE);
+  }
+
+  public static List<String> synthetic(int count) throws IOException {
+    String template = Resources.toString(Resources.getResource(Corpus.class, "/status.json"), Charsets.UTF_8).trim();
+    Random random = new Random(count);
+    List<String> messages = new ArrayList<String>(count);
+    long id = 476000000000000000L;
+    for (int i = 0; i < count; i++) {
+      id += random.nextInt(1000);
+      long userId = 10000 + random.nextInt(1000000);
+      int kind = random.nextInt(100);
+      if (kind < 4) {
+        messages.add("{\"delete\":{\"status\":{\"id\":" + id + ",\"id_str\":\"" + id + "\",\"user_id\":" + userId +
+          ",\"user_id_str\":\"" + userId + "\"}}}");
+      } else if (kind < 5) {
+        messages.add("{\"limit\":{\"track\":" + random.nextInt(10000) + "}}");
+      } else {
+        messages.add(template
+          .replace("%ID%", Long.toString(id))
+          .replace("%USER_ID%", Long.toString(userId))
+          .replace("%TEXT%", text(random)));
+      }
+    }
+    return messages;
+  }
+
+  private static String text(Random random) {
+    StringBuilder text = new StringBuilder("#hbc http:\\/\\/t.co\\/abcdefghij @twitterapi");
+    int words = 2 + random.nextInt(18);
+    for (int i = 0; i < words; i++) {
+      text.append(' ').append(Integer.toString(random.nextInt(1 << 20), 36));
+    }
+    return text.toString();
+  }
+
+  /**
+   * The messages as a delimited=length stream
+   */
+  public static byte[] delimited(List<String> messages) {
+    StringBuilder stream = new StringBuilder();
+    for (String message : messages) {
+      byte[] bytes = message.getBytes(Charsets.UTF_8);
+      stream.append(bytes.length + CRLF.length()).append(CRLF).append(message).append(CRLF);
+    }
+    return stream.toString().getBytes(Charsets.UTF_8);
+  }
+
+  /**
+   * The messages as a plain stream, one message per line
+   */
+  public static byte[] lines(List<String> messages) {
+    StringBuilder stream = new StringBuilder();
+    for (String message : messages) {
+      stream.append(message).append(CRLF);
+    }
+    return stream.toString().getBytes(Charsets.UTF_8);
+  }
+
+  /**
+   * A stream over the given bytes that, like a socket, hands over at most maxReadSize bytes per read
+   */
+  public static InputStream stream(byte[] bytes, final int maxReadSize) {
+    return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, maxReadSize));
+      }
+    };
+  }
+
+  public static byte[] gzip(byte[] bytes) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    OutputStream gzip = new GZIPOutputStream(compressed);
+    gzip.write(bytes);
+    gzip.close();
+    return compressed.toByteArray();
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.benchmarks;
+
+import com.google.common.base.Charsets;
+import com.twitter.hbc.common.DelimitedStreamReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing cost of the reader on its own. Each operation is a single message, so the score is in messages/sec and
+ * -prof gc reports the bytes allocated per message (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DelimitedStreamReaderBenchmark {
+
+  /**
+   * The most the stream hands over per read: roughly a TCP segment, and a large socket read
+   */
+  @Param({"1460", "16384"})
+  public int readSize;
+
+  private int numMessages;
+  private byte[] lines;
+  private byte[] delimited;
+
+  private DelimitedStreamReader lineReader;
+  private int linesRead;
+  private DelimitedStreamReader delimitedReader;
+  private int delimitedRead;
+
+  @Setup
+  public void setup() throws IOException {
+    List<String> messages = Corpus.messages();
+    numMessages = messages.size();
+    lines = Corpus.lines(messages);
+    delimited = Corpus.delimited(messages);
+  }
+
+  @Benchmark
+  public String readLine() throws IOException {
+    if (lineReader == null || linesRead == numMessages) {
+      lineReader = new DelimitedStreamReader(Corpus.stream(lines, readSize), Charsets.UTF_8, 50000);
+      linesRead = 0;
+    }
+    linesRead++;
+    return lineReader.readLine();
+  }
+
+  @Benchmark
+  public String readDelimited() throws IOException {
+    if (delimitedReader == null || delimitedRead == numMessages) {
+      delimitedReader = new DelimitedStreamReader(Corpus.stream(delimited, readSize), Charsets.UTF_8, 50000);
+      delimitedRead = 0;
+    }
+    delimitedRead++;
+    int length = Integer.parseInt(delimitedReader.readLine());
+    return delimitedReader.read(length);
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.benchmarks;
+
+import com.google.common.collect.Lists;
+import com.twitter.hbc.core.endpoint.StatusesFilterEndpoint;
+import com.twitter.hbc.httpclient.auth.OAuth1;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.HttpPost;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing the request of a filter stream, which happens on every (re)connect
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OAuth1Benchmark {
+
+  private OAuth1 auth;
+  private HttpPost request;
+  private String postParams;
+
+  @Setup
+  public void setup() {
+    auth = new OAuth1("consumerKey", "consumerSecret", "token", "tokenSecret");
+    StatusesFilterEndpoint endpoint = new StatusesFilterEndpoint()
+      .trackTerms(Lists.newArrayList("twitter", "api", "hosebird client"))
+      .followings(Lists.newArrayList(783214L, 6253282L, 12L, 13L, 17874544L));
+    request = new HttpPost("https://stream.twitter.com" + endpoint.getURI());
+    postParams = endpoint.getPostParamString();
+  }
+
+  @Benchmark
+  public String signRequest() {
+    auth.signRequest(request, postParams);
+    return request.getFirstHeader(HttpHeaders.AUTHORIZATION).getValue();
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.benchmarks;
+
+import com.twitter.hbc.core.processor.AbstractProcessor;
+import com.twitter.hbc.core.processor.LineStringProcessor;
+import com.twitter.hbc.core.processor.StringDelimitedProcessor;
+import com.twitter.hbc.core.sink.MessageSink;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The processors end to end, from the (optionally gzipped) bytes on the wire to the message handed to the sink.
+ * Each operation is a single message, so the score is in messages/sec and -prof gc reports the bytes allocated per
+ * message (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessorBenchmark {
+
+  @Param({"false", "true"})
+  public boolean gzip;
+
+  /**
+   * The most the stream hands over per read, roughly a TCP segment
+   */
+  @Param({"1460"})
+  public int readSize;
+
+  private int numMessages;
+  private byte[] delimited;
+  private byte[] lines;
+
+  private final LastMessageSink sink = new LastMessageSink();
+  private StringDelimitedProcessor delimitedProcessor;
+  private int delimitedProcessed;
+  private LineStringProcessor lineProcessor;
+  private int linesProcessed;
+
+  @Setup
+  public void setup() throws IOException {
+    List<String> messages = Corpus.messages();
+    numMessages = messages.size();
+    delimited = Corpus.delimited(messages);
+    lines = Corpus.lines(messages);
+    if (gzip) {
+      delimited = Corpus.gzip(delimited);
+      lines = Corpus.gzip(lines);
+    }
+    delimitedProcessor = StringDelimitedProcessor.forSink(sink);
+    delimitedProcessed = numMessages;
+    lineProcessor = LineStringProcessor.forSink(sink);
+    linesProcessed = numMessages;
+  }
+
+  @Benchmark
+  public String stringDelimitedProcessor() throws IOException, InterruptedException {
+    if (delimitedProcessed == numMessages) {
+      delimitedProcessor.setup(stream(delimited));
+      delimitedProcessed = 0;
+    }
+    delimitedProcessed++;
+    delimitedProcessor.process();
+    return sink.last;
+  }
+
+  @Benchmark
+  public String lineStringProcessor() throws IOException, InterruptedException {
+    if (linesProcessed == numMessages) {
+      lineProcessor.setup(stream(lines));
+      linesProcessed = 0;
+    }
+    linesProcessed++;
+    lineProcessor.process();
+    return sink.last;
+  }
+
+  private InputStream stream(byte[] bytes) throws IOException {
+    InputStream stream = Corpus.stream(bytes, readSize);
+    // the same decompression the client gets from httpclient
+    return gzip ? new GZIPInputStream(stream) : stream;
+  }
+
+  /**
+   * Keeps only the last message, so the benchmark measures the processor rather than a queue
+   */
+  private static class LastMessageSink implements MessageSink<String> {
+    private String last;
+
+    @Override
+    public boolean offer(String message, long timeout, TimeUnit unit) {
+      last = message;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.benchmarks;
+
+import com.twitter.hbc.BasicRateTracker;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The rate tracker is hit once per message by the processing thread, and read by whoever polls the stats. The
+ * contended group runs several observers against a reader, e.g. clients sharing a tracker. The readers group
+ * measures the cost of each event for a single processing thread, while several threads poll the rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RateTrackerBenchmark {
+
+  private ScheduledExecutorService executor;
+  private BasicRateTracker rateTracker;
+
+  @Setup
+  public void setup() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+    // same settings as ClientBuilder, but ticking quickly enough to contend with the observers
+    rateTracker = new BasicRateTracker(100, 100, false, executor);
+    rateTracker.start();
+  }
+
+  @TearDown
+  public void tearDown() {
+    rateTracker.shutdown();
+  }
+
+  @Benchmark
+  public void uncontended() {
+    rateTracker.eventObserved();
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(3)
+  public void observe() {
+    rateTracker.eventObserved();
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public double read() {
+    return rateTracker.getCurrentRateSeconds();
+  }
+
+  @Benchmark
+  @Group("readers")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void observeWhileRead() {
+    rateTracker.eventObserved();
+  }
+
+  @Benchmark
+  @Group("readers")
+  @GroupThreads(3)
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public double readWhileObserved() {
+    return rateTracker.getCurrentRateSeconds();
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.benchmarks;
+
+import com.google.common.base.Charsets;
+import com.twitter.hbc.ClientBuilder;
+import com.twitter.hbc.core.Client;
+import com.twitter.hbc.core.HttpHosts;
+import com.twitter.hbc.core.endpoint.StatusesSampleEndpoint;
+import com.twitter.hbc.core.processor.LineStringProcessor;
+import com.twitter.hbc.httpclient.RestartableHttpClient;
+import com.twitter.hbc.httpclient.auth.Authentication;
+import com.twitter.hbc.httpclient.auth.BasicAuth;
+import org.apache.http.HttpVersion;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ServerSocketFactory;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconnect-to-first-message latency: a local server sends one message per connection and hangs up, so each
+ * operation is a reconnect, from the disconnect through the (TLS) connect and the request to the first message.
+ * "abort" is the client's own reconnect, which only aborts the connection, "restart" the RestartableHttpClient that
+ * used to build a new client and connection manager on every reconnect.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReconnectBenchmark {
+
+  private static final String KEYSTORE = "/localhost.jks";
+  private static final char[] KEYSTORE_PASSWORD = "hosebird".toCharArray();
+
+  @Param({"http", "https"})
+  public String scheme;
+
+  @Param({"abort", "restart"})
+  public String reconnect;
+
+  private OneMessageServer server;
+  private BlockingQueue<String> queue;
+  private Client client;
+
+  @Setup
+  public void setup() throws Exception {
+    boolean https = "https".equals(scheme);
+    SSLContext sslContext = https ? createSslContext() : null;
+    server = new OneMessageServer(https ? sslContext.getServerSocketFactory() : ServerSocketFactory.getDefault());
+    server.start();
+
+    SchemeRegistry schemeRegistry = new SchemeRegistry();
+    schemeRegistry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+    if (https) {
+      schemeRegistry.register(new Scheme("https", 443, new SSLSocketFactory(sslContext)));
+    }
+    Authentication auth = new BasicAuth("username", "password");
+    queue = new LinkedBlockingQueue<String>();
+    ClientBuilder builder = new ClientBuilder()
+      .hosts(new HttpHosts(scheme + "://localhost:" + server.getPort()))
+      .endpoint(new StatusesSampleEndpoint())
+      .authentication(auth)
+      .processor(new LineStringProcessor(queue))
+      .gzipEnabled(false)
+      .schemeRegistry(schemeRegistry);
+    if ("restart".equals(reconnect)) {
+      HttpParams params = new BasicHttpParams();
+      HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+      HttpConnectionParams.setSoTimeout(params, 60000);
+      HttpConnectionParams.setConnectionTimeout(params, 4000);
+      builder.httpClient(new RestartableHttpClient(auth, false, params, schemeRegistry));
+    }
+    client = builder.build();
+    client.connect();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    client.stop(0);
+    server.stop();
+  }
+
+  @Benchmark
+  public String reconnectToFirstMessage() throws InterruptedException {
+    String message = queue.poll(10, TimeUnit.SECONDS);
+    if (message == null) {
+      throw new IllegalStateException("No message 10s after the last reconnect");
+    }
+    return message;
+  }
+
+  private static SSLContext createSslContext() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    InputStream in = ReconnectBenchmark.class.getResourceAsStream(KEYSTORE);
+    try {
+      keyStore.load(in, KEYSTORE_PASSWORD);
+    } finally {
+      in.close();
+    }
+    KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagers.init(keyStore, KEYSTORE_PASSWORD);
+    TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trustManagers.init(keyStore);
+    // one context for both ends, like the client's shared scheme registry: its sessions are resumed on reconnect
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+    return sslContext;
+  }
+
+  /**
+   * Answers every request with a single chunked message, then closes the connection
+   */
+  private static class OneMessageServer implements Runnable {
+
+    private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n" +
+      "Content-Type: application/json\r\n" +
+      "Transfer-Encoding: chunked\r\n" +
+      "\r\n" +
+      "a\r\n{\"id\":1}\r\n\r\n" +
+      "0\r\n\r\n").getBytes(Charsets.US_ASCII);
+
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    OneMessageServer(ServerSocketFactory factory) throws IOException {
+      this.serverSocket = factory.createServerSocket(0);
+      this.thread = new Thread(this, "reconnect-benchmark-server");
+      this.thread.setDaemon(true);
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    void start() {
+      thread.start();
+    }
+
+    void stop() throws IOException {
+      running = false;
+      serverSocket.close();
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        Socket socket = null;
+        try {
+          socket = serverSocket.accept();
+          socket.setTcpNoDelay(true);
+          readRequest(socket.getInputStream());
+          OutputStream out = socket.getOutputStream();
+          out.write(RESPONSE);
+          out.flush();
+        } catch (IOException e) {
+          // the client went away, or the server was stopped
+        } finally {
+          if (socket != null) {
+            try {
+              socket.close();
+            } catch (IOException e) {
+              // closing anyway
+            }
+          }
+        }
+      }
+    }
+
+    private static void readRequest(InputStream in) throws IOException {
+      // up to the blank line ending the headers; the stream request has no body
+      int matched = 0;
+      while (matched < 4) {
+        int b = in.read();
+        if (b == -1) {
+          throw new IOException("Connection closed before the end of the request");
+        }
+        if (b == (matched % 2 == 0 ? '\r' : '\n')) {
+          matched++;
+        } else {
+          matched = b == '\r' ? 1 : 0;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j;
+
+import com.twitter.hbc.benchmarks.Corpus;
+import com.twitter.hbc.core.Client;
+import com.twitter.hbc.twitter4j.parser.JSONObjectTypeScanner;
+import org.openjdk.jmh.annotations.*;
+import twitter4j.*;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a message into the twitter4j model and dispatching it to a listener. This lives in the twitter4j client's
+ * package since parseMessage isn't public. Each operation is a single message, so -prof gc reports the bytes
+ * allocated per message (gc.alloc.rate.norm).
+ *
+ * The ignored param runs the client with {@link BaseTwitter4jClient#ignoreMessageTypes} set, e.g. -p ignored=DELETE
+ * to see what dropping deletes saves on a corpus recorded from the firehose.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseMessageBenchmark {
+
+  @Param({"", "DELETE"})
+  public String ignored;
+
+  private List<String> messages;
+  private int next;
+  private ExecutorService executorService;
+  private Twitter4jStatusClient client;
+  private CountingListener listener;
+
+  @Setup
+  public void setup() throws IOException {
+    messages = Corpus.messages();
+    listener = new CountingListener();
+    // the client is never connected or processed: parseMessage is called directly
+    Client unused = (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[] { Client.class },
+      new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          throw new UnsupportedOperationException();
+        }
+      });
+    executorService = Executors.newSingleThreadExecutor();
+    client = new Twitter4jStatusClient(unused, new LinkedBlockingQueue<String>(), Collections.singletonList(listener),
+      executorService);
+    if (!ignored.isEmpty()) {
+      client.ignoreMessageTypes(JSONObjectType.Type.valueOf(ignored));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Benchmark
+  public long parseMessage() throws Exception {
+    client.parseMessage(messages.get(next));
+    next = (next + 1) % messages.size();
+    return listener.count;
+  }
+
+  /**
+   * Just classifying the message, as done for ignored types
+   */
+  @Benchmark
+  public JSONObjectType.Type scanType() {
+    String message = messages.get(next);
+    next = (next + 1) % messages.size();
+    return JSONObjectTypeScanner.determine(message);
+  }
+
+  private static class CountingListener implements StatusListener {
+    private long count;
+
+    @Override
+    public void onStatus(Status status) {
+      count += status.getId();
+    }
+
+    @Override
+    public void onDeletionNotice(StatusDeletionNotice statusDeletionNotice) {
+      count++;
+    }
+
+    @Override
+    public void onTrackLimitationNotice(int numberOfLimitedStatuses) {
+      count++;
+    }
+
+    @Override
+    public void onScrubGeo(long userId, long upToStatusId) {}
+
+    @Override
+    public void onStallWarning(StallWarning warning) {}
+
+    @Override
+    public void onException(Exception ex) {}
+  }
+}
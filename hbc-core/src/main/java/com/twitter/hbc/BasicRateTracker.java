@@ -16,6 +16,8 @@ package com.twitter.hbc;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
+import javax.annotation.Nullable;
+
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -32,16 +34,45 @@ public class BasicRateTracker implements RateTracker {
     private final RateUpdater rateUpdater;
 
     private ScheduledFuture<?> future;
+    @Nullable
     private final ScheduledExecutorService executor;
+    private final boolean ownsExecutor;
+    @Nullable
+    private final RateTrackingService service;
+    private boolean registered;
 
     public BasicRateTracker(int granularityMillis, int numBuckets, boolean startPaused, ScheduledExecutorService executor) {
+        this(granularityMillis, numBuckets, startPaused, executor, true);
+    }
+
+    /**
+     * @param ownsExecutor whether {@link #shutdown()} should shut down the executor. Pass false when the executor is
+     *                     shared with other rate trackers.
+     */
+    public BasicRateTracker(int granularityMillis, int numBuckets, boolean startPaused, ScheduledExecutorService executor,
+                            boolean ownsExecutor) {
+        this(granularityMillis, numBuckets, startPaused, Preconditions.checkNotNull(executor), ownsExecutor, null);
+    }
+
+    /**
+     * A tracker ticked by a service shared with other trackers, see {@link RateTrackingService#newRateTracker}
+     */
+    public BasicRateTracker(int granularityMillis, int numBuckets, boolean startPaused, RateTrackingService service) {
+        this(granularityMillis, numBuckets, startPaused, null, false, Preconditions.checkNotNull(service));
+    }
+
+    private BasicRateTracker(int granularityMillis, int numBuckets, boolean startPaused,
+                             @Nullable ScheduledExecutorService executor, boolean ownsExecutor,
+                             @Nullable RateTrackingService service) {
         Preconditions.checkArgument(numBuckets > 0);
         Preconditions.checkArgument(granularityMillis > 0);
         Preconditions.checkArgument(granularityMillis / numBuckets > 0);
 
         this.granularityMillis = granularityMillis;
         this.numBuckets = numBuckets;
-        this.executor = Preconditions.checkNotNull(executor);
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.service = service;
 
         this.rateUpdater = new RateUpdater(startPaused);
     }
@@ -65,27 +96,41 @@ public class BasicRateTracker implements RateTracker {
     }
 
     @Override
-    public void start() {
-        this.future = executor.scheduleAtFixedRate(rateUpdater, granularityMillis / numBuckets, granularityMillis / numBuckets, TimeUnit.MILLISECONDS);
+    public synchronized void start() {
+        if (service != null) {
+            if (!registered) {
+                service.register(granularityMillis / numBuckets, rateUpdater);
+                registered = true;
+            }
+        } else {
+            this.future = executor.scheduleAtFixedRate(rateUpdater, granularityMillis / numBuckets, granularityMillis / numBuckets, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
      * Stops tracking the rate
      */
     @Override
-    public void stop() {
-        if (future != null) {
+    public synchronized void stop() {
+        if (service != null) {
+            if (registered) {
+                service.unregister(granularityMillis / numBuckets, rateUpdater);
+                registered = false;
+            }
+        } else if (future != null) {
             future.cancel(false);
         }
     }
 
     /**
-     * Stops and shuts down the underlying executor
+     * Stops and shuts down the underlying executor, unless it is shared
      */
     @Override
     public void shutdown() {
         stop();
-        executor.shutdown();
+        if (executor != null && ownsExecutor) {
+            executor.shutdown();
+        }
     }
 
     /**
@@ -104,19 +149,24 @@ public class BasicRateTracker implements RateTracker {
         return rateUpdater.getCurrentRateSeconds();
     }
 
+    /**
+     * Observing an event never takes a lock: the events are counted by a {@link StripedCounter}, which the tick
+     * samples, and the rate is published through a volatile. Only the tick updates the buckets.
+     */
     class RateUpdater implements Runnable {
 
         private final int[] buckets;
-        private final Object lock;
+        private final StripedCounter events;
 
-        private boolean paused;
-        private double rate;
+        private volatile boolean paused;
+        private volatile double rate;
 
+        // only touched by the tick
+        private long lastEventCount;
         private boolean rateValid;
         private int total;
         private int currentBucket;
         private boolean previouslyPaused;
-        private int currentBucketCount;
 
         RateUpdater() {
             this(false);
@@ -125,68 +175,62 @@ public class BasicRateTracker implements RateTracker {
         RateUpdater(boolean paused) {
             this.rateValid = false;
             this.buckets = new int[numBuckets];
+            this.events = new StripedCounter();
             this.paused = paused;
             this.rate = Double.NaN;
-            this.lock = new Object();
         }
 
+        /**
+         * Synchronized in case the tick runs on different threads over time, never contended
+         */
         @Override
-        public void run() {
-            synchronized (lock) {
-                int currentCount = currentBucketCount;
-                currentBucketCount = 0;
-
-                if (paused) {
-                    previouslyPaused = true;
-                    return;
-                }
-
-                // skip the first estimation after a pause, since it could be in the middle of an estimation
-                if (previouslyPaused) {
-                    previouslyPaused = false;
-                    return;
-                }
-
-                int prevBucket = currentBucket;
-                currentBucket = (currentBucket + 1) % numBuckets;
-
-                if (currentBucket == 0) {
-                    // we've wrapped around again. this rate is now valid
-                    rateValid = true;
-                }
-
-                int prevBucketCount = buckets[prevBucket];
-                buckets[prevBucket] = currentCount;
-
-                total += currentCount - prevBucketCount;
-                if (rateValid) {
-                    rate = total * 1000d / granularityMillis;
-                }
+        public synchronized void run() {
+            long eventCount = events.sum();
+            int currentCount = (int) (eventCount - lastEventCount);
+            lastEventCount = eventCount;
+
+            if (paused) {
+                previouslyPaused = true;
+                return;
+            }
+
+            // skip the first estimation after a pause, since it could be in the middle of an estimation
+            if (previouslyPaused) {
+                previouslyPaused = false;
+                return;
+            }
+
+            int prevBucket = currentBucket;
+            currentBucket = (currentBucket + 1) % numBuckets;
+
+            if (currentBucket == 0) {
+                // we've wrapped around again. this rate is now valid
+                rateValid = true;
+            }
+
+            int prevBucketCount = buckets[prevBucket];
+            buckets[prevBucket] = currentCount;
+
+            total += currentCount - prevBucketCount;
+            if (rateValid) {
+                rate = total * 1000d / granularityMillis;
             }
         }
 
         public void eventObserved() {
-            synchronized (lock) {
-                currentBucketCount++;
-            }
+            events.increment();
         }
 
         public void pause() {
-            synchronized (lock) {
-                paused = true;
-            }
+            paused = true;
         }
 
         public void resume() {
-            synchronized (lock) {
-                paused = false;
-            }
+            paused = false;
         }
 
         public double getCurrentRateSeconds() {
-            synchronized (lock) {
-                return rate;
-            }
+            return rate;
         }
     }
 }
@@ -16,9 +16,15 @@ package com.twitter.hbc;
 import com.google.common.annotations.VisibleForTesting;
 import com.twitter.hbc.core.Constants;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * This manages all of the reconnection logic. Mostly just keeps a bunch of information about whether we should
  * reconnect at all, how much we should backfill, and how much to back off from connection failures.
+ *
+ * The backoffs wait rather than sleep: {@link #cancel()}, called by the clients when they're stopped, ends a wait
+ * right away. An interrupt ends it too, and is left for the caller to see.
  */
 public class BasicReconnectionManager implements ReconnectionManager {
 
@@ -35,6 +41,13 @@ public class BasicReconnectionManager implements ReconnectionManager {
   private int linearBackoffCount;
   private int backoffMillis;
 
+  private final Object waitLock = new Object();
+  private volatile boolean cancelled;
+  private volatile boolean backingOff;
+  private volatile int lastBackoffMillis;
+  private final AtomicLong numBackoffs = new AtomicLong();
+  private final AtomicLong totalBackoffMillis = new AtomicLong();
+
   public BasicReconnectionManager(int maxRetries) {
     this.maxRetries = maxRetries;
     this.backoffMillis = Constants.MIN_BACKOFF_MILLIS;
@@ -42,12 +55,68 @@ public class BasicReconnectionManager implements ReconnectionManager {
 
   @Override
   public void handleExponentialBackoff() {
-    handleBackoff(incrAndGetExponentialBackoff());
+    await(nextExponentialBackoffMillis());
   }
 
   @Override
   public void handleLinearBackoff() {
-    handleBackoff(incrAndGetLinearBackoff());
+    await(nextLinearBackoffMillis());
+  }
+
+  /**
+   * Ends the current backoff, if any, and makes the next ones return right away: the client is going away. Don't use
+   * this manager with another client afterwards.
+   */
+  public void cancel() {
+    cancelled = true;
+    synchronized (waitLock) {
+      waitLock.notifyAll();
+    }
+  }
+
+  /**
+   * @return whether a {@link #handleExponentialBackoff()} or {@link #handleLinearBackoff()} is waiting
+   */
+  public boolean isBackingOff() {
+    return backingOff;
+  }
+
+  /**
+   * @return the number of backoffs since this was created
+   */
+  public long getNumBackoffs() {
+    return numBackoffs.get();
+  }
+
+  /**
+   * @return the milliseconds of all the backoffs since this was created
+   */
+  public long getTotalBackoffMillis() {
+    return totalBackoffMillis.get();
+  }
+
+  /**
+   * @return the milliseconds of the last backoff, 0 if there's been none since the last established connection
+   */
+  public int getLastBackoffMillis() {
+    return lastBackoffMillis;
+  }
+
+  /**
+   * Like {@link #handleExponentialBackoff()}, but leaves the waiting to the caller, e.g. to schedule the reconnect
+   * instead of blocking a thread.
+   * @return the number of milliseconds to back off for
+   */
+  public int nextExponentialBackoffMillis() {
+    return addBackoff(incrAndGetExponentialBackoff());
+  }
+
+  /**
+   * Like {@link #handleLinearBackoff()}, but leaves the waiting to the caller.
+   * @return the number of milliseconds to back off for
+   */
+  public int nextLinearBackoffMillis() {
+    return addBackoff(incrAndGetLinearBackoff());
   }
 
   @Override
@@ -68,14 +137,32 @@ public class BasicReconnectionManager implements ReconnectionManager {
     exponentialBackoffCount = 0;
     currentRetryCount = 0;
     backoffMillis = 0;
+    lastBackoffMillis = 0;
   }
 
-  private void handleBackoff(int millis) {
+  private int addBackoff(int millis) {
     backoffMillis += millis;
+    lastBackoffMillis = millis;
+    numBackoffs.incrementAndGet();
+    totalBackoffMillis.addAndGet(millis);
+    return millis;
+  }
+
+  private void await(int millis) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    backingOff = true;
     try {
-      Thread.sleep(millis);
+      synchronized (waitLock) {
+        long remaining;
+        while (!cancelled && (remaining = deadline - System.nanoTime()) > 0) {
+          TimeUnit.NANOSECONDS.timedWait(waitLock, remaining);
+        }
+      }
     } catch (InterruptedException e) {
-      // TODO: log an error
+      // stop waiting, and leave the interrupt for the caller
+      Thread.currentThread().interrupt();
+    } finally {
+      backingOff = false;
     }
   }
 
@@ -83,22 +170,30 @@ public class BasicReconnectionManager implements ReconnectionManager {
   int incrAndGetExponentialBackoff() {
     linearBackoffCount = 0;
     exponentialBackoffCount += 1;
-    return calculateExponentialBackoffMillis();
+    return exponentialBackoffMillis(exponentialBackoffCount);
   }
 
   @VisibleForTesting
   int incrAndGetLinearBackoff() {
     exponentialBackoffCount = 0;
     linearBackoffCount += 1;
-    return calculateLinearBackoffMillis();
+    return linearBackoffMillis(linearBackoffCount);
   }
 
-  private int calculateExponentialBackoffMillis() {
-    assert(exponentialBackoffCount > 0);
-    return Math.min(MAX_EXPONENTIAL_BACKOFF_MILLIS, INITIAL_EXPONENTIAL_BACKOFF_MILLIS << (exponentialBackoffCount - 1));
+  /**
+   * @param attempt the number of exponential backoffs in a row, including this one
+   */
+  protected int exponentialBackoffMillis(int attempt) {
+    assert(attempt > 0);
+    // shifting by 31 or more wraps around
+    return attempt > 16 ? MAX_EXPONENTIAL_BACKOFF_MILLIS :
+      Math.min(MAX_EXPONENTIAL_BACKOFF_MILLIS, INITIAL_EXPONENTIAL_BACKOFF_MILLIS << (attempt - 1));
   }
 
-  private int calculateLinearBackoffMillis() {
-    return Math.min(MAX_LINEAR_BACKOFF_MILLIS, INITIAL_LINEAR_BACKOFF_MILLIS * linearBackoffCount);
+  /**
+   * @param attempt the number of linear backoffs in a row, including this one
+   */
+  protected int linearBackoffMillis(int attempt) {
+    return Math.min(MAX_LINEAR_BACKOFF_MILLIS, INITIAL_LINEAR_BACKOFF_MILLIS * attempt);
   }
 }
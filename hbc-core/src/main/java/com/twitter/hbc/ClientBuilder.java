@@ -15,26 +15,41 @@ package com.twitter.hbc;
 
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.hbc.async.AsyncClient;
+import com.twitter.hbc.async.AsyncTransport;
+import com.twitter.hbc.async.Framing;
+import com.twitter.hbc.common.VirtualThreads;
 import com.twitter.hbc.core.Hosts;
 import com.twitter.hbc.core.HttpHosts;
 import com.twitter.hbc.core.endpoint.RawEndpoint;
 import com.twitter.hbc.core.endpoint.StreamingEndpoint;
 import com.twitter.hbc.core.event.Event;
 import com.twitter.hbc.core.processor.HosebirdMessageProcessor;
+import com.twitter.hbc.core.processor.LineStringProcessor;
+import com.twitter.hbc.core.processor.StringDelimitedProcessor;
+import com.twitter.hbc.core.sink.MessageSink;
 import com.twitter.hbc.httpclient.BasicClient;
 import com.twitter.hbc.httpclient.auth.Authentication;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.params.ClientPNames;
 import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.util.Properties;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -52,7 +67,10 @@ public class ClientBuilder {
   protected boolean enableGZip;
   protected String name;
   protected RateTracker rateTracker;
-  protected final ExecutorService executorService;
+  protected ExecutorService executorService;
+  protected ScheduledExecutorService rateTrackerScheduler;
+  protected RateTrackingService rateTrackingService;
+  protected boolean virtualThreads;
   protected BlockingQueue<Event> eventQueue;
   protected ReconnectionManager reconnectionManager;
   protected int socketTimeoutMillis;
@@ -60,6 +78,9 @@ public class ClientBuilder {
   protected SchemeRegistry schemeRegistry;
   protected String proxyHost;
   protected int proxyPort;
+  protected Framing framing;
+  protected HttpClient httpClient;
+  protected StallDetector stallDetector;
 
   private static String loadVersion() {
     String userAgent = "Hosebird-Client";
@@ -85,25 +106,12 @@ public class ClientBuilder {
   public ClientBuilder() {
     enableGZip = true;
     name = "hosebird-client-" + clientNum.getAndIncrement();
-    ThreadFactory threadFactory = new ThreadFactoryBuilder()
-            .setDaemon(true)
-            .setNameFormat("hosebird-client-io-thread-%d")
-            .build();
-    executorService = Executors.newSingleThreadExecutor(threadFactory);
-
-    ThreadFactory rateTrackerThreadFactory = new ThreadFactoryBuilder()
-            .setDaemon(true)
-            .setNameFormat("hosebird-client-rateTracker-thread-%d")
-            .build();
-
-    ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(1, rateTrackerThreadFactory);
-    rateTracker = new BasicRateTracker(30000, 100, true, scheduledExecutor);
     reconnectionManager = new BasicReconnectionManager(5);
 
     socketTimeoutMillis = 60000;
     connectionTimeoutMillis = 4000;
 
-    schemeRegistry = SchemeRegistryFactory.createDefault();
+    schemeRegistry = defaultSchemeRegistry();
   }
 
   /**
@@ -153,6 +161,16 @@ public class ClientBuilder {
     return this;
   }
 
+  /**
+   * Shorthand for a {@link StringDelimitedProcessor} handing messages to the given sink, e.g. a
+   * {@link com.twitter.hbc.core.sink.SingleProducerRingBuffer}. The sink must not be shared with other clients if it
+   * only supports a single producer.
+   */
+  public ClientBuilder messageSink(MessageSink<String> sink) {
+    this.processor = StringDelimitedProcessor.forSink(Preconditions.checkNotNull(sink));
+    return this;
+  }
+
   public ClientBuilder eventMessageQueue(BlockingQueue<Event> events) {
     this.eventQueue = events;
     return this;
@@ -192,6 +210,21 @@ public class ClientBuilder {
       return this;
   }
 
+  /**
+   * @param stallDetector Reconnects as soon as the stream stalls, instead of waiting out the socket timeout. Not to be
+   * shared with other clients. Stall warnings reach it only if they're passed to
+   * {@link StallDetector#onStallWarning(int)}. Not supported by {@link #buildAsync(AsyncTransport)}.
+   */
+  public ClientBuilder stallDetector(StallDetector stallDetector) {
+    this.stallDetector = Preconditions.checkNotNull(stallDetector);
+    return this;
+  }
+
+  /**
+   * @param schemeRegistry The registry of socket factories to connect with. By default, the clients share one whose
+   * TLS sessions are cached, so that a reconnect, or another client to the same host, resumes a session rather than
+   * doing a full handshake.
+   */
   public ClientBuilder schemeRegistry(SchemeRegistry schemeRegistry) {
       this.schemeRegistry = Preconditions.checkNotNull(schemeRegistry);
       return this;
@@ -203,7 +236,127 @@ public class ClientBuilder {
     return this;
   }
 
+  /**
+   * @param httpClient streams over the given HttpClient instead of one of the client's own, e.g. a
+   * {@link com.twitter.hbc.capture.ReplayHttpClient}. The gzip, timeout, proxy and scheme registry settings don't apply
+   * to it.
+   */
+  public ClientBuilder httpClient(HttpClient httpClient) {
+    this.httpClient = Preconditions.checkNotNull(httpClient);
+    return this;
+  }
+
+  /**
+   * @param executorService Runs the client's connection loop, e.g. an executor shared by many clients. Stopping the
+   * client doesn't shut it down. By default, each client gets a thread of its own.
+   */
+  public ClientBuilder executorService(ExecutorService executorService) {
+    this.executorService = Preconditions.checkNotNull(executorService);
+    return this;
+  }
+
+  /**
+   * @param scheduler Ticks the default rate tracker, e.g. a scheduler shared by many clients. Stopping the client
+   * doesn't shut it down. By default, each client gets a scheduler thread of its own. Ignored if a
+   * {@link #rateTracker(RateTracker)} is set.
+   */
+  public ClientBuilder rateTrackerScheduler(ScheduledExecutorService scheduler) {
+    this.rateTrackerScheduler = Preconditions.checkNotNull(scheduler);
+    return this;
+  }
+
+  /**
+   * @param service Ticks the default rate tracker along with the other clients' trackers registered with the service,
+   * with one task per tick instead of one per client. Ignored if a {@link #rateTracker(RateTracker)} is set.
+   */
+  public ClientBuilder rateTrackingService(RateTrackingService service) {
+    this.rateTrackingService = Preconditions.checkNotNull(service);
+    return this;
+  }
+
+  /**
+   * @param virtualThreads Run the connection loop, including its backoff sleeps, on a virtual thread when the JVM
+   * supports them (see {@link VirtualThreads}), instead of a platform thread. Ignored if an
+   * {@link #executorService(ExecutorService)} is set.
+   */
+  public ClientBuilder virtualThreads(boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+    return this;
+  }
+
+  /**
+   * @param framing How the async transport splits the stream into messages, see {@link #buildAsync(AsyncTransport)}.
+   * By default, LINES for a {@link LineStringProcessor} and DELIMITED for any other processor.
+   */
+  public ClientBuilder framing(Framing framing) {
+    this.framing = Preconditions.checkNotNull(framing);
+    return this;
+  }
+
   public BasicClient build() {
+    HttpParams params = createHttpParams(proxyHost, proxyPort, socketTimeoutMillis, connectionTimeoutMillis);
+    boolean ownsExecutor = executorService == null;
+    ExecutorService clientExecutor = ownsExecutor ? createExecutor(virtualThreads) : executorService;
+    RateTracker clientRateTracker = rateTracker != null ? rateTracker : createRateTracker(rateTrackingService, rateTrackerScheduler);
+    if (httpClient != null) {
+      return new BasicClient(name, httpClient, hosts, endpoint, auth, processor, reconnectionManager, clientRateTracker,
+              clientExecutor, ownsExecutor, eventQueue, stallDetector);
+    }
+    return new BasicClient(name, hosts, endpoint, auth, enableGZip, processor, reconnectionManager,
+            clientRateTracker, clientExecutor, ownsExecutor, eventQueue, params, schemeRegistry, stallDetector);
+  }
+
+  private static ExecutorService createExecutor(boolean virtualThreads) {
+    if (virtualThreads && VirtualThreads.isAvailable()) {
+      return VirtualThreads.newThreadPerTaskExecutor("hosebird-client-io-thread-");
+    }
+    ThreadFactory threadFactory = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("hosebird-client-io-thread-%d")
+            .build();
+    return Executors.newSingleThreadExecutor(threadFactory);
+  }
+
+  private static RateTracker createRateTracker(@Nullable RateTrackingService service,
+                                              @Nullable ScheduledExecutorService sharedScheduler) {
+    if (service != null) {
+      return service.newRateTracker(30000, 100, true);
+    } else if (sharedScheduler != null) {
+      return new BasicRateTracker(30000, 100, true, sharedScheduler, false);
+    }
+    ThreadFactory rateTrackerThreadFactory = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("hosebird-client-rateTracker-thread-%d")
+            .build();
+
+    ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(1, rateTrackerThreadFactory);
+    return new BasicRateTracker(30000, 100, true, scheduledExecutor);
+  }
+
+  /**
+   * Builds a client streaming over the given transport instead of a thread of its own. The default rate tracker is
+   * ticked by the transport's rate tracking service. Proxies aren't supported, and the scheme registry is not used: https
+   * connections use the transport's SSLContext.
+   */
+  public AsyncClient buildAsync(AsyncTransport transport) {
+    Preconditions.checkState(proxyHost == null, "Proxies aren't supported by the async transport");
+    Preconditions.checkState(httpClient == null, "The async transport doesn't use an HttpClient");
+    Preconditions.checkState(stallDetector == null, "Stall detection isn't supported by the async transport");
+    Framing clientFraming = framing;
+    if (clientFraming == null) {
+      clientFraming = processor instanceof LineStringProcessor ? Framing.LINES : Framing.DELIMITED;
+    }
+    RateTracker clientRateTracker = rateTracker;
+    if (clientRateTracker == null) {
+      RateTrackingService service = rateTrackingService != null ? rateTrackingService : transport.getRateTrackingService();
+      clientRateTracker = service.newRateTracker(30000, 100, true);
+    }
+    return new AsyncClient(name, transport, hosts, endpoint, auth, enableGZip, processor, clientFraming,
+            reconnectionManager, clientRateTracker, eventQueue, USER_AGENT, connectionTimeoutMillis, socketTimeoutMillis);
+  }
+
+  static HttpParams createHttpParams(@Nullable String proxyHost, int proxyPort, int socketTimeoutMillis,
+                                     int connectionTimeoutMillis) {
     HttpParams params = new BasicHttpParams();
     if (proxyHost != null) {
       HttpHost proxy = new HttpHost(proxyHost, proxyPort);
@@ -213,8 +366,34 @@ public class ClientBuilder {
     HttpProtocolParams.setUserAgent(params, USER_AGENT);
     HttpConnectionParams.setSoTimeout(params, socketTimeoutMillis);
     HttpConnectionParams.setConnectionTimeout(params, connectionTimeoutMillis);
-    return new BasicClient(name, hosts, endpoint, auth, enableGZip, processor, reconnectionManager,
-            rateTracker, executorService, eventQueue, params, schemeRegistry);
+    // waiting on a pooled connection fails like a connect would, rather than blocking the IO thread for good
+    params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, connectionTimeoutMillis);
+    return params;
+  }
+
+  /**
+   * The scheme registry of the clients that don't set their own. Sharing it shares its SSLContext, and so the TLS
+   * session cache: only the first connection to a host pays for a full handshake.
+   */
+  static SchemeRegistry defaultSchemeRegistry() {
+    return DefaultSchemeRegistryHolder.INSTANCE;
   }
-}
 
+  private static class DefaultSchemeRegistryHolder {
+    private static final SchemeRegistry INSTANCE = createDefaultSchemeRegistry();
+  }
+
+  private static SchemeRegistry createDefaultSchemeRegistry() {
+    SSLContext sslContext;
+    try {
+      sslContext = SSLContext.getInstance("TLS");
+      sslContext.init(null, null, null);
+    } catch (GeneralSecurityException e) {
+      return SchemeRegistryFactory.createDefault();
+    }
+    SchemeRegistry registry = new SchemeRegistry();
+    registry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+    registry.register(new Scheme("https", 443, new SSLSocketFactory(sslContext)));
+    return registry;
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+
+/**
+ * A {@link BasicReconnectionManager} whose backoffs are jittered, so that clients that lost their connections at the
+ * same time don't all reconnect at the same time too.
+ *
+ * Each backoff is "decorrelated": drawn at random between the initial backoff and three times the previous one, up to
+ * the maximum. The backoffs grow by half on average rather than doubling, and two clients drift apart from the first
+ * backoff on, rather than retrying in lockstep.
+ */
+public class JitteredReconnectionManager extends BasicReconnectionManager {
+
+  private final Random random;
+
+  private int lastExponentialMillis;
+  private int lastLinearMillis;
+
+  public JitteredReconnectionManager(int maxRetries) {
+    this(maxRetries, new Random());
+  }
+
+  public JitteredReconnectionManager(int maxRetries, Random random) {
+    super(maxRetries);
+    this.random = Preconditions.checkNotNull(random);
+  }
+
+  @Override
+  protected int exponentialBackoffMillis(int attempt) {
+    int previous = attempt == 1 ? INITIAL_EXPONENTIAL_BACKOFF_MILLIS : lastExponentialMillis;
+    lastExponentialMillis = decorrelated(previous, INITIAL_EXPONENTIAL_BACKOFF_MILLIS, MAX_EXPONENTIAL_BACKOFF_MILLIS);
+    return lastExponentialMillis;
+  }
+
+  @Override
+  protected int linearBackoffMillis(int attempt) {
+    int previous = attempt == 1 ? INITIAL_LINEAR_BACKOFF_MILLIS : lastLinearMillis;
+    lastLinearMillis = decorrelated(previous, INITIAL_LINEAR_BACKOFF_MILLIS, MAX_LINEAR_BACKOFF_MILLIS);
+    return lastLinearMillis;
+  }
+
+  private int decorrelated(int previous, int base, int cap) {
+    long upper = Math.min((long) cap, 3L * previous);
+    return (int) (base + (long) (random.nextDouble() * (upper - base)));
+  }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.hbc.core.Constants;
+import com.twitter.hbc.core.HttpHosts;
+import com.twitter.hbc.core.endpoint.PartitionableEndpoint;
+import com.twitter.hbc.core.endpoint.StatusesFirehoseEndpoint;
+import com.twitter.hbc.core.event.Event;
+import com.twitter.hbc.core.processor.HosebirdMessageProcessor;
+import com.twitter.hbc.core.processor.StringDelimitedProcessor;
+import com.twitter.hbc.core.sink.MessageSink;
+import com.twitter.hbc.httpclient.BasicClient;
+import com.twitter.hbc.httpclient.PartitionedClient;
+import com.twitter.hbc.httpclient.SharedConnectionManager;
+import com.twitter.hbc.httpclient.auth.Authentication;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpParams;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A builder for a {@link PartitionedClient}: a single client streaming a partitioned endpoint (the firehose by
+ * default) over several connections, each reading a disjoint subset of the partitions, e.g.
+ *
+ *   new PartitionedClientBuilder()
+ *     .authentication(auth)
+ *     .connections(4)
+ *     .messageQueue(queue)
+ *     .build();
+ *
+ * reads all 16 firehose partitions over 4 connections of 4 partitions each, into a single queue.
+ *
+ * All the connections hand their messages to the same sink, from as many threads, so the sink must support
+ * concurrent producers (a BlockingQueue does; a SingleProducerRingBuffer doesn't).
+ */
+public class PartitionedClientBuilder {
+
+  private static final AtomicInteger clientNum = new AtomicInteger(0);
+
+  protected String name;
+  protected List<String> hosts;
+  protected Authentication auth;
+  protected Set<Integer> partitions;
+  protected int numConnections;
+  protected Supplier<? extends PartitionableEndpoint> endpointSupplier;
+  protected Supplier<? extends HosebirdMessageProcessor> processorSupplier;
+  protected BlockingQueue<Event> eventQueue;
+  protected int retries;
+  protected boolean enableGZip;
+  protected int socketTimeoutMillis;
+  protected int connectionTimeoutMillis;
+  protected SchemeRegistry schemeRegistry;
+  protected String proxyHost;
+  protected int proxyPort;
+
+  public PartitionedClientBuilder() {
+    name = "hosebird-partitioned-client-" + clientNum.getAndIncrement();
+    hosts = ImmutableList.of(Constants.STREAM_HOST);
+    partitions = ContiguousSet.create(Range.closedOpen(0, Constants.NUM_FIREHOSE_PARTITIONS), DiscreteDomain.integers());
+    numConnections = 1;
+    endpointSupplier = new Supplier<PartitionableEndpoint>() {
+      @Override
+      public PartitionableEndpoint get() {
+        return new StatusesFirehoseEndpoint();
+      }
+    };
+    retries = 5;
+    enableGZip = true;
+    socketTimeoutMillis = 60000;
+    connectionTimeoutMillis = 4000;
+    schemeRegistry = ClientBuilder.defaultSchemeRegistry();
+  }
+
+  /**
+   * @param name Name of the client used for logging and other diagnostic purposes. Each connection is named after it.
+   */
+  public PartitionedClientBuilder name(String name) {
+    this.name = Preconditions.checkNotNull(name);
+    return this;
+  }
+
+  /**
+   * @param host Http host in the form of <scheme>://<host>
+   */
+  public PartitionedClientBuilder hosts(String host) {
+    this.hosts = ImmutableList.of(Preconditions.checkNotNull(host));
+    return this;
+  }
+
+  /**
+   * @param hosts Http hosts in the form of <scheme>://<host>. Each connection cycles through them on its own.
+   */
+  public PartitionedClientBuilder hosts(Iterable<String> hosts) {
+    this.hosts = ImmutableList.copyOf(hosts);
+    return this;
+  }
+
+  public PartitionedClientBuilder authentication(Authentication auth) {
+    this.auth = auth;
+    return this;
+  }
+
+  /**
+   * @param partitions The partitions to read. Defaults to all the firehose partitions.
+   */
+  public PartitionedClientBuilder partitions(Set<Integer> partitions) {
+    Preconditions.checkArgument(!partitions.isEmpty());
+    this.partitions = ImmutableSortedSet.copyOf(partitions);
+    return this;
+  }
+
+  /**
+   * @param numConnections The number of connections to spread the partitions over. Defaults to 1.
+   */
+  public PartitionedClientBuilder connections(int numConnections) {
+    Preconditions.checkArgument(numConnections > 0);
+    this.numConnections = numConnections;
+    return this;
+  }
+
+  /**
+   * @param endpointSupplier Creates the endpoint of each connection. Defaults to the firehose.
+   */
+  public PartitionedClientBuilder endpoint(Supplier<? extends PartitionableEndpoint> endpointSupplier) {
+    this.endpointSupplier = Preconditions.checkNotNull(endpointSupplier);
+    return this;
+  }
+
+  /**
+   * @param processorSupplier Creates the processor of each connection. The processors must not share any state
+   *                          other than a sink that supports concurrent producers.
+   */
+  public PartitionedClientBuilder processors(Supplier<? extends HosebirdMessageProcessor> processorSupplier) {
+    this.processorSupplier = Preconditions.checkNotNull(processorSupplier);
+    return this;
+  }
+
+  /**
+   * Reads every connection with a {@link StringDelimitedProcessor} into the given queue
+   */
+  public PartitionedClientBuilder messageQueue(final BlockingQueue<String> queue) {
+    Preconditions.checkNotNull(queue);
+    this.processorSupplier = new Supplier<HosebirdMessageProcessor>() {
+      @Override
+      public HosebirdMessageProcessor get() {
+        return new StringDelimitedProcessor(queue);
+      }
+    };
+    return this;
+  }
+
+  /**
+   * Reads every connection with a {@link StringDelimitedProcessor} into the given sink, which must support concurrent
+   * producers
+   */
+  public PartitionedClientBuilder messageSink(final MessageSink<String> sink) {
+    Preconditions.checkNotNull(sink);
+    this.processorSupplier = new Supplier<HosebirdMessageProcessor>() {
+      @Override
+      public HosebirdMessageProcessor get() {
+        return StringDelimitedProcessor.forSink(sink);
+      }
+    };
+    return this;
+  }
+
+  public PartitionedClientBuilder eventMessageQueue(BlockingQueue<Event> events) {
+    this.eventQueue = events;
+    return this;
+  }
+
+  /**
+   * @param retries Number of retries to attempt when we experience retryable connection errors, per connection
+   */
+  public PartitionedClientBuilder retries(int retries) {
+    this.retries = retries;
+    return this;
+  }
+
+  /**
+   * @param gzip Turn gzip on or off. Enabled by default
+   */
+  public PartitionedClientBuilder gzipEnabled(boolean gzip) {
+    this.enableGZip = gzip;
+    return this;
+  }
+
+  public PartitionedClientBuilder socketTimeout(int millis) {
+    this.socketTimeoutMillis = millis;
+    return this;
+  }
+
+  public PartitionedClientBuilder connectionTimeout(int millis) {
+    this.connectionTimeoutMillis = millis;
+    return this;
+  }
+
+  public PartitionedClientBuilder schemeRegistry(SchemeRegistry schemeRegistry) {
+    this.schemeRegistry = Preconditions.checkNotNull(schemeRegistry);
+    return this;
+  }
+
+  public PartitionedClientBuilder proxy(String proxyHost, int proxyPort) {
+    this.proxyHost = Preconditions.checkNotNull(proxyHost);
+    this.proxyPort = proxyPort;
+    return this;
+  }
+
+  public PartitionedClient build() {
+    Preconditions.checkNotNull(auth, "No authentication");
+    Preconditions.checkNotNull(processorSupplier, "No processor, queue or sink");
+    Preconditions.checkArgument(numConnections <= partitions.size(),
+      "More connections (%s) than partitions (%s)", numConnections, partitions.size());
+
+    ExecutorService executorService = Executors.newFixedThreadPool(numConnections, new ThreadFactoryBuilder()
+      .setDaemon(true)
+      .setNameFormat("hosebird-client-io-thread-%d")
+      .build());
+    ScheduledExecutorService rateTrackerExecutor = Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder()
+      .setDaemon(true)
+      .setNameFormat("hosebird-client-rateTracker-thread-%d")
+      .build());
+    RateTrackingService rateTrackingService = new RateTrackingService(rateTrackerExecutor);
+
+    // every connection goes to the same route, so the pool must allow as many, twice over: a swap opens the new
+    // connection before it closes the current one, see BasicClient#swapConnection(int)
+    PoolingClientConnectionManager pool = new PoolingClientConnectionManager(schemeRegistry);
+    pool.setMaxTotal(2 * numConnections);
+    pool.setDefaultMaxPerRoute(2 * numConnections);
+    SharedConnectionManager connectionManager = new SharedConnectionManager(pool);
+    HttpParams params = ClientBuilder.createHttpParams(proxyHost, proxyPort, socketTimeoutMillis, connectionTimeoutMillis);
+
+    List<Set<Integer>> assignments = assignPartitions(partitions, numConnections);
+    List<BasicClient> clients = Lists.newArrayListWithCapacity(numConnections);
+    for (int i = 0; i < numConnections; i++) {
+      // gzip through interceptors rather than a DecompressingHttpClient, since the connections can't restart
+      // the shared connection manager
+      DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager, params);
+      if (enableGZip) {
+        httpClient.addRequestInterceptor(new RequestAcceptEncoding());
+        httpClient.addResponseInterceptor(new ResponseContentEncoding());
+      }
+      auth.setupConnection(httpClient);
+
+      PartitionableEndpoint endpoint = endpointSupplier.get();
+      endpoint.partitions(assignments.get(i));
+
+      clients.add(new BasicClient(name + "-" + i, httpClient, new HttpHosts(hosts), endpoint, auth,
+        processorSupplier.get(), new BasicReconnectionManager(retries),
+        rateTrackingService.newRateTracker(30000, 100, true), executorService, false, eventQueue));
+    }
+    return new PartitionedClient(name, clients, executorService, rateTrackerExecutor, connectionManager);
+  }
+
+  /**
+   * Deals the partitions out round-robin, so each connection gets an (almost) equal share
+   */
+  @VisibleForTesting
+  static List<Set<Integer>> assignPartitions(Set<Integer> partitions, int numConnections) {
+    List<Set<Integer>> assignments = Lists.newArrayListWithCapacity(numConnections);
+    for (int i = 0; i < numConnections; i++) {
+      assignments.add(Sets.<Integer>newTreeSet());
+    }
+    int i = 0;
+    for (int partition : ImmutableSortedSet.copyOf(partitions)) {
+      assignments.get(i++ % numConnections).add(partition);
+    }
+    return assignments;
+  }
+}
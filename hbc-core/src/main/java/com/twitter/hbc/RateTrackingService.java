@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticks the rate trackers of many clients from a single scheduler thread. Trackers with the same tick period
+ * (granularityMillis / numBuckets) share a single scheduled task, which updates all of them, instead of scheduling a
+ * task each.
+ *
+ * Threadsafe
+ */
+public class RateTrackingService {
+
+  private final ScheduledExecutorService scheduler;
+  private final boolean ownsScheduler;
+  // guarded by this
+  private final Map<Integer, Tick> ticks = new HashMap<Integer, Tick>();
+
+  /**
+   * Ticks the trackers on a thread of its own
+   */
+  public RateTrackingService() {
+    this(Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("hosebird-rateTracking-thread-%d")
+            .build()), true);
+  }
+
+  /**
+   * @param scheduler shared with other tasks: it isn't shut down by {@link #shutdown()}
+   */
+  public RateTrackingService(ScheduledExecutorService scheduler) {
+    this(scheduler, false);
+  }
+
+  private RateTrackingService(ScheduledExecutorService scheduler, boolean ownsScheduler) {
+    this.scheduler = Preconditions.checkNotNull(scheduler);
+    this.ownsScheduler = ownsScheduler;
+  }
+
+  /**
+   * @return a rate tracker ticked by this service. Stopping or shutting it down only unregisters it.
+   */
+  public BasicRateTracker newRateTracker(int granularityMillis, int numBuckets, boolean startPaused) {
+    return new BasicRateTracker(granularityMillis, numBuckets, startPaused, this);
+  }
+
+  synchronized void register(int periodMillis, Runnable updater) {
+    Tick tick = ticks.get(periodMillis);
+    if (tick == null) {
+      tick = new Tick();
+      tick.future = scheduler.scheduleAtFixedRate(tick, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+      ticks.put(periodMillis, tick);
+    }
+    tick.updaters.add(updater);
+  }
+
+  synchronized void unregister(int periodMillis, Runnable updater) {
+    Tick tick = ticks.get(periodMillis);
+    if (tick != null && tick.updaters.remove(updater) && tick.updaters.isEmpty()) {
+      tick.future.cancel(false);
+      ticks.remove(periodMillis);
+    }
+  }
+
+  /**
+   * @return the number of trackers currently ticked by this service
+   */
+  public synchronized int getNumTrackers() {
+    int count = 0;
+    for (Tick tick : ticks.values()) {
+      count += tick.updaters.size();
+    }
+    return count;
+  }
+
+  /**
+   * Stops ticking the trackers, and shuts down the scheduler unless it is shared
+   */
+  public synchronized void shutdown() {
+    for (Tick tick : ticks.values()) {
+      tick.future.cancel(false);
+    }
+    ticks.clear();
+    if (ownsScheduler) {
+      scheduler.shutdown();
+    }
+  }
+
+  private static class Tick implements Runnable {
+    private final List<Runnable> updaters = new CopyOnWriteArrayList<Runnable>();
+    private ScheduledFuture<?> future;
+
+    @Override
+    public void run() {
+      for (Runnable updater : updaters) {
+        updater.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import com.twitter.hbc.core.HttpConstants;
+import com.twitter.hbc.httpclient.ControlStreamException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Adds and removes any number of users on a sitestream. The users are split into batches of
+ * {@link #MAX_USERS_PER_REQUEST}, which are sent through the {@link SitestreamController} as fast as the rate limit
+ * allows: up to one request per executor thread is in flight at a time, over the controller's pooled connections.
+ * A batch that fails with an IOException, a 420/429 or a 5xx is retried after a backoff that doubles each time.
+ *
+ * The returned future completes once every batch has succeeded or given up, with a {@link BatchResult} per batch in
+ * the order of the users given. It doesn't fail when a batch does: check {@link BatchResult#isSuccess()}.
+ *
+ * Threadsafe. The executor isn't shut down by the bulk controller, and may be shared.
+ */
+public class SitestreamBulkController {
+
+  private final static Logger logger = LoggerFactory.getLogger(SitestreamBulkController.class);
+
+  public static final int MAX_USERS_PER_REQUEST = 100;
+  public static final double DEFAULT_REQUESTS_PER_SECOND = 25;
+  public static final int DEFAULT_MAX_RETRIES = 3;
+  public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+
+  private static final int TOO_MANY_REQUESTS = 429;
+
+  private final SitestreamController controller;
+  private final ListeningExecutorService executor;
+  private final RateLimiter rateLimiter;
+  private final int maxRetries;
+  private final long initialBackoffMillis;
+
+  /**
+   * Limited to {@link #DEFAULT_REQUESTS_PER_SECOND} control stream requests a second, with
+   * {@link #DEFAULT_MAX_RETRIES} retries per batch
+   */
+  public SitestreamBulkController(SitestreamController controller, ExecutorService executor) {
+    this(controller, executor, DEFAULT_REQUESTS_PER_SECOND, DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_BACKOFF_MILLIS);
+  }
+
+  /**
+   * @param requestsPerSecond the rate of control stream requests, retries included, across all bulk operations of
+   *                          this controller
+   * @param maxRetries how many times a failed batch is retried
+   * @param initialBackoffMillis how long to wait before the first retry of a batch
+   */
+  public SitestreamBulkController(SitestreamController controller, ExecutorService executor, double requestsPerSecond,
+                                  int maxRetries, long initialBackoffMillis) {
+    Preconditions.checkArgument(requestsPerSecond > 0, "requestsPerSecond must be positive");
+    Preconditions.checkArgument(maxRetries >= 0, "maxRetries must not be negative");
+    Preconditions.checkArgument(initialBackoffMillis >= 0, "initialBackoffMillis must not be negative");
+    this.controller = Preconditions.checkNotNull(controller);
+    this.executor = MoreExecutors.listeningDecorator(Preconditions.checkNotNull(executor));
+    this.rateLimiter = RateLimiter.create(requestsPerSecond);
+    this.maxRetries = maxRetries;
+    this.initialBackoffMillis = initialBackoffMillis;
+  }
+
+  public ListenableFuture<List<BatchResult>> addUsers(String streamId, Collection<Long> userIds) {
+    return submit(Operation.ADD, streamId, userIds);
+  }
+
+  public ListenableFuture<List<BatchResult>> removeUsers(String streamId, Collection<Long> userIds) {
+    return submit(Operation.REMOVE, streamId, userIds);
+  }
+
+  private ListenableFuture<List<BatchResult>> submit(final Operation operation, final String streamId,
+                                                    Collection<Long> userIds) {
+    Preconditions.checkNotNull(streamId);
+    Preconditions.checkArgument(!userIds.isEmpty(), "No userIds given");
+    List<ListenableFuture<BatchResult>> batches = Lists.newArrayList();
+    for (final List<Long> batch : Iterables.partition(userIds, MAX_USERS_PER_REQUEST)) {
+      final List<Long> batchUserIds = ImmutableList.copyOf(batch);
+      batches.add(executor.submit(new Callable<BatchResult>() {
+        @Override
+        public BatchResult call() throws InterruptedException {
+          return run(operation, streamId, batchUserIds);
+        }
+      }));
+    }
+    return Futures.allAsList(batches);
+  }
+
+  private BatchResult run(Operation operation, String streamId, List<Long> userIds) throws InterruptedException {
+    long backoffMillis = initialBackoffMillis;
+    int attempts = 0;
+    while (true) {
+      rateLimiter.acquire();
+      attempts++;
+      Exception failure;
+      try {
+        operation.execute(controller, streamId, userIds);
+        return new BatchResult(userIds, attempts, null);
+      } catch (IOException e) {
+        failure = e;
+      } catch (ControlStreamException e) {
+        failure = e;
+      }
+
+      if (attempts > maxRetries || !isRetryable(failure)) {
+        logger.warn("Giving up on {} of {} users on stream {} after {} attempts: {}",
+          new Object[] { operation, userIds.size(), streamId, attempts, failure.getMessage() });
+        return new BatchResult(userIds, attempts, failure);
+      }
+      logger.info("Retrying {} of {} users on stream {} in {}ms: {}",
+        new Object[] { operation, userIds.size(), streamId, backoffMillis, failure.getMessage() });
+      Thread.sleep(backoffMillis);
+      backoffMillis *= 2;
+    }
+  }
+
+  @VisibleForTesting
+  static boolean isRetryable(Exception e) {
+    if (!(e instanceof ControlStreamException)) {
+      return true;
+    }
+    int statusCode = ((ControlStreamException) e).getStatusCode();
+    return statusCode == -1 || statusCode == HttpConstants.Codes.RATE_LIMITED || statusCode == TOO_MANY_REQUESTS ||
+      statusCode >= 500;
+  }
+
+  private enum Operation {
+    ADD {
+      @Override
+      void execute(SitestreamController controller, String streamId, List<Long> userIds)
+        throws IOException, ControlStreamException {
+        controller.addUsers(streamId, userIds);
+      }
+    },
+    REMOVE {
+      @Override
+      void execute(SitestreamController controller, String streamId, List<Long> userIds)
+        throws IOException, ControlStreamException {
+        controller.removeUsers(streamId, userIds);
+      }
+    };
+
+    abstract void execute(SitestreamController controller, String streamId, List<Long> userIds)
+      throws IOException, ControlStreamException;
+  }
+
+  /**
+   * The outcome of one control stream request's worth of users
+   */
+  public static class BatchResult {
+    private final List<Long> userIds;
+    private final int attempts;
+    @Nullable
+    private final Exception failure;
+
+    BatchResult(List<Long> userIds, int attempts, @Nullable Exception failure) {
+      this.userIds = userIds;
+      this.attempts = attempts;
+      this.failure = failure;
+    }
+
+    public List<Long> getUserIds() {
+      return userIds;
+    }
+
+    /**
+     * @return how many requests were made for the batch, i.e. 1 plus the number of retries
+     */
+    public int getAttempts() {
+      return attempts;
+    }
+
+    public boolean isSuccess() {
+      return failure == null;
+    }
+
+    /**
+     * @return the last exception if the batch failed, an IOException or a {@link ControlStreamException}
+     */
+    @Nullable
+    public Exception getFailure() {
+      return failure;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d users, %d attempts, %s", userIds.size(), attempts,
+        isSuccess() ? "succeeded" : "failed: " + failure.getMessage());
+    }
+  }
+}
@@ -49,6 +49,12 @@ public class SitestreamController {
 
   private static final Logger logger = LoggerFactory.getLogger(SitestreamController.class);
 
+  /**
+   * Connections kept to the control stream host by the DefaultHttpClient, so that requests from several threads
+   * (e.g. a {@link SitestreamBulkController}) each get a keep-alive connection
+   */
+  public static final int DEFAULT_MAX_CONNECTIONS = 10;
+
   private final HttpClient client;
   private final Authentication auth;
   private final Hosts hosts;
@@ -74,7 +80,7 @@ public class SitestreamController {
    * Construct a sitestream controller using a DefaultHttpClient
    */
   public SitestreamController(Hosts hosts, Authentication auth) {
-    this.client = new DefaultHttpClient(new PoolingClientConnectionManager());
+    this.client = newDefaultHttpClient();
     this.hosts = Preconditions.checkNotNull(hosts);
     this.auth = Preconditions.checkNotNull(auth);
   }
@@ -84,13 +90,19 @@ public class SitestreamController {
    * DefaultHttpClient.
    */
   public SitestreamController(Authentication auth) {
-    this.client = new DefaultHttpClient(new PoolingClientConnectionManager());
+    this.client = newDefaultHttpClient();
     this.hosts = new HttpHosts(Constants.SITESTREAM_HOST);
     this.auth = Preconditions.checkNotNull(auth);
   }
 
+  private static HttpClient newDefaultHttpClient() {
+    PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+    connectionManager.setDefaultMaxPerRoute(DEFAULT_MAX_CONNECTIONS);
+    return new DefaultHttpClient(connectionManager);
+  }
+
   /**
-   * TODO: This must be limited to 25 adds per seconds
+   * This must be limited to 25 adds per second: see {@link SitestreamBulkController}, which paces its requests
    */
   public void addUser(String streamId, long userId) throws IOException, ControlStreamException {
     Endpoint endpoint = SitestreamEndpoint.addUserEndpoint(streamId);
@@ -108,6 +120,9 @@ public class SitestreamController {
     consumeHttpEntityContent(makeControlStreamRequest(request));
   }
 
+  /**
+   * For more than 100 users, see {@link SitestreamBulkController}
+   */
   public void addUsers(String streamId, Collection<Long> userIds) throws IOException, ControlStreamException {
     Preconditions.checkArgument(userIds.size() >= 1 && userIds.size() <= 100, "The userId parameter can be supplied with up to 100 user IDs.");
     Endpoint endpoint = SitestreamEndpoint.addUserEndpoint(streamId);
@@ -0,0 +1,505 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.twitter.hbc.core.endpoint.SitestreamEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a set of users followed over as few sitestream connections as possible.
+ *
+ * Each connection is opened following up to {@link #MAX_INITIAL_USERS} users (the most a {@link SitestreamEndpoint}
+ * takes), and is then grown with add_user control requests, through a {@link SitestreamBulkController}, up to the
+ * pool's capacity per stream. A new connection is only opened once every live one is full.
+ *
+ * The pool has to be maintained, either by calling {@link #maintain()} or with {@link #start}:
+ * - a connection that's done (stopped, or given up reconnecting) is dropped, and its users are packed into the
+ *   spare capacity of the others, or new connections
+ * - a connection that reconnected comes back with a new stream id following only its initial users, so the users it
+ *   was grown with are added again
+ * - control requests that failed are retried
+ *
+ * Threadsafe.
+ */
+public class SitestreamPool {
+
+  private final static Logger logger = LoggerFactory.getLogger(SitestreamPool.class);
+
+  public static final int MAX_INITIAL_USERS = 100;
+  public static final int DEFAULT_USERS_PER_STREAM = 1000;
+
+  /**
+   * A sitestream connection, e.g. a Twitter4jSitestreamClient
+   */
+  public interface Connection {
+    /**
+     * @return the id of the stream, from its control message, or null if it hasn't been received yet
+     */
+    @Nullable
+    String getStreamId();
+
+    boolean isDone();
+
+    void stop();
+  }
+
+  public interface ConnectionFactory {
+    /**
+     * @return a connected connection to the endpoint
+     */
+    Connection connect(SitestreamEndpoint endpoint);
+  }
+
+  private final ConnectionFactory connectionFactory;
+  private final SitestreamBulkController controller;
+  private final int usersPerStream;
+
+  private final List<Stream> streams;
+  private final Set<Long> users;
+  private int connectionsOpened;
+  @Nullable
+  private ScheduledFuture<?> maintenance;
+
+  public SitestreamPool(ConnectionFactory connectionFactory, SitestreamBulkController controller) {
+    this(connectionFactory, controller, DEFAULT_USERS_PER_STREAM);
+  }
+
+  /**
+   * @param usersPerStream the most users a connection is grown to
+   */
+  public SitestreamPool(ConnectionFactory connectionFactory, SitestreamBulkController controller, int usersPerStream) {
+    Preconditions.checkArgument(usersPerStream >= MAX_INITIAL_USERS, "usersPerStream must be at least %s",
+      MAX_INITIAL_USERS);
+    this.connectionFactory = Preconditions.checkNotNull(connectionFactory);
+    this.controller = Preconditions.checkNotNull(controller);
+    this.usersPerStream = usersPerStream;
+    this.streams = Lists.newArrayList();
+    this.users = Sets.newHashSet();
+  }
+
+  /**
+   * Calls {@link #maintain()} periodically, until {@link #stop()}
+   */
+  public synchronized void start(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+    Preconditions.checkState(maintenance == null, "Already started");
+    maintenance = scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          maintain();
+        } catch (RuntimeException e) {
+          logger.warn("Failed to maintain the sitestream pool", e);
+        }
+      }
+    }, 0, period, unit);
+  }
+
+  /**
+   * Follows exactly the given users from now on: users no longer in the set are removed from their streams, and
+   * new users are packed into the streams' spare capacity, opening new connections as needed.
+   */
+  public synchronized void setUsers(Collection<Long> userIds) {
+    Set<Long> desired = ImmutableSet.copyOf(userIds);
+    for (Long userId : Sets.difference(users, desired).immutableCopy()) {
+      for (Stream stream : streams) {
+        stream.remove(userId);
+      }
+    }
+    List<Long> added = Lists.newArrayList();
+    for (Long userId : Sets.difference(desired, users)) {
+      if (!restore(userId)) {
+        added.add(userId);
+      }
+    }
+    users.clear();
+    users.addAll(desired);
+    assign(added);
+    sendControlRequests();
+  }
+
+  /**
+   * Drops the connections that are done, re-packing their users, re-adds users to streams that reconnected, and
+   * retries failed control requests
+   */
+  public synchronized void maintain() {
+    List<Long> orphaned = Lists.newArrayList();
+    for (Iterator<Stream> it = streams.iterator(); it.hasNext(); ) {
+      Stream stream = it.next();
+      if (stream.connection.isDone()) {
+        logger.info("Sitestream {} is done, reassigning its {} users", stream.name, stream.load());
+        it.remove();
+        orphaned.addAll(stream.assignedUsers());
+      } else {
+        stream.checkStreamId();
+      }
+    }
+    assign(orphaned);
+    sendControlRequests();
+  }
+
+  /**
+   * Stops maintaining the pool, and stops all its connections
+   */
+  public synchronized void stop() {
+    if (maintenance != null) {
+      maintenance.cancel(false);
+      maintenance = null;
+    }
+    for (Stream stream : streams) {
+      stream.connection.stop();
+    }
+    streams.clear();
+  }
+
+  public synchronized List<StreamLoad> getStreamLoads() {
+    List<StreamLoad> loads = Lists.newArrayListWithCapacity(streams.size());
+    for (Stream stream : streams) {
+      loads.add(new StreamLoad(stream.name, stream.streamId, stream.load(), stream.followedCount(), usersPerStream));
+    }
+    return loads;
+  }
+
+  public synchronized int getNumUsers() {
+    return users.size();
+  }
+
+  public synchronized int getNumConnections() {
+    return streams.size();
+  }
+
+  /**
+   * @return whether the user was an initial user of a stream, which it is again
+   */
+  private boolean restore(Long userId) {
+    for (Stream stream : streams) {
+      if (stream.restore(userId)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void assign(List<Long> userIds) {
+    if (userIds.isEmpty()) {
+      return;
+    }
+    // fill the fullest streams first, so spare capacity stays together
+    List<Stream> byLoad = Lists.newArrayList(streams);
+    Collections.sort(byLoad, new Comparator<Stream>() {
+      @Override
+      public int compare(Stream a, Stream b) {
+        return b.load() - a.load();
+      }
+    });
+    int next = 0;
+    for (Stream stream : byLoad) {
+      int spare = usersPerStream - stream.load();
+      while (spare > 0 && next < userIds.size()) {
+        stream.pendingAdds.add(userIds.get(next++));
+        spare--;
+      }
+    }
+    while (next < userIds.size()) {
+      List<Long> batch = userIds.subList(next, Math.min(next + usersPerStream, userIds.size()));
+      next += batch.size();
+      open(batch);
+    }
+  }
+
+  private void open(List<Long> userIds) {
+    List<Long> initial = ImmutableList.copyOf(Iterables.limit(userIds, MAX_INITIAL_USERS));
+    String name = "sitestream-" + (++connectionsOpened);
+    logger.info("Opening {} for {} users", name, userIds.size());
+    Connection connection = connectionFactory.connect(new SitestreamEndpoint(initial));
+    Stream stream = new Stream(name, connection, initial);
+    stream.pendingAdds.addAll(userIds.subList(initial.size(), userIds.size()));
+    streams.add(stream);
+  }
+
+  private void sendControlRequests() {
+    for (Stream stream : streams) {
+      stream.sendControlRequests();
+    }
+  }
+
+  /**
+   * The users of a connection, by how far along they are
+   */
+  private class Stream {
+    private final String name;
+    private final Connection connection;
+    // followed by the endpoint, so on every reconnect
+    private final Set<Long> initialUsers;
+    // initial users that are no longer wanted, and are removed again on every reconnect
+    private final Set<Long> removedInitialUsers = Sets.newHashSet();
+    private final Set<Long> addedUsers = Sets.newHashSet();
+    private final Set<Long> pendingAdds = new LinkedHashSet<Long>();
+    private final Set<Long> addsInFlight = Sets.newHashSet();
+    private final Set<Long> pendingRemoves = new LinkedHashSet<Long>();
+    private final Set<Long> removesInFlight = Sets.newHashSet();
+    // initial users wanted again after their removal was sent, to add back until the stream reconnects and the
+    // endpoint follows them anyway
+    private final Set<Long> readds = Sets.newHashSet();
+    private final Set<Long> readdsInFlight = Sets.newHashSet();
+    // the stream id the added users were added on
+    @Nullable
+    private String streamId;
+
+    Stream(String name, Connection connection, List<Long> initialUsers) {
+      this.name = name;
+      this.connection = connection;
+      this.initialUsers = Sets.newHashSet(initialUsers);
+    }
+
+    int load() {
+      return initialUsers.size() - removedInitialUsers.size() + addedUsers.size() + pendingAdds.size() +
+        addsInFlight.size();
+    }
+
+    int followedCount() {
+      return initialUsers.size() - removedInitialUsers.size() + addedUsers.size();
+    }
+
+    Set<Long> assignedUsers() {
+      Set<Long> assigned = Sets.newHashSet(Sets.difference(initialUsers, removedInitialUsers));
+      assigned.addAll(addedUsers);
+      assigned.addAll(pendingAdds);
+      assigned.addAll(addsInFlight);
+      assigned.removeAll(pendingRemoves);
+      assigned.removeAll(removesInFlight);
+      return assigned;
+    }
+
+    void remove(Long userId) {
+      if (pendingAdds.remove(userId)) {
+        return;
+      }
+      if (initialUsers.contains(userId)) {
+        removedInitialUsers.add(userId);
+        readds.remove(userId);
+        // if it's being added back, the add's result removes it again: the two must not race
+        if (!readdsInFlight.contains(userId)) {
+          pendingRemoves.add(userId);
+        }
+      } else if (addedUsers.remove(userId) || addsInFlight.remove(userId)) {
+        pendingRemoves.add(userId);
+      }
+    }
+
+    /**
+     * Undoes the removal of an initial user, rather than scheduling an add that could race with the removal after
+     * the next reconnect
+     * @return false if it isn't a removed initial user of this stream
+     */
+    boolean restore(Long userId) {
+      if (!removedInitialUsers.remove(userId)) {
+        return false;
+      }
+      if (!pendingRemoves.remove(userId)) {
+        // the removal was sent
+        readds.add(userId);
+      }
+      return true;
+    }
+
+    void checkStreamId() {
+      String current = connection.getStreamId();
+      if (current == null || current.equals(streamId)) {
+        return;
+      }
+      if (streamId != null) {
+        logger.info("{} reconnected as {}, adding back {} users", new Object[] { name, current, addedUsers.size() });
+        pendingAdds.addAll(addedUsers);
+        addedUsers.clear();
+        pendingRemoves.clear();
+        pendingRemoves.addAll(removedInitialUsers);
+        readds.clear();
+      }
+      streamId = current;
+    }
+
+    void sendControlRequests() {
+      checkStreamId();
+      if (streamId == null) {
+        return;
+      }
+      if (!pendingAdds.isEmpty()) {
+        final List<Long> adding = ImmutableList.copyOf(pendingAdds);
+        pendingAdds.clear();
+        addsInFlight.addAll(adding);
+        final String addingOn = streamId;
+        track(controller.addUsers(addingOn, adding), adding, new ControlCallback() {
+          @Override
+          void onResult(List<Long> userIds, boolean success) {
+            for (Long userId : userIds) {
+              if (!addsInFlight.remove(userId)) {
+                // removed meanwhile: make sure it's gone if the add went through
+                if (success) {
+                  pendingRemoves.add(userId);
+                }
+              } else if (success && addingOn.equals(streamId)) {
+                addedUsers.add(userId);
+              } else {
+                pendingAdds.add(userId);
+              }
+            }
+          }
+        });
+      }
+      // once their removal is done, so the add comes after it
+      final List<Long> readding = ImmutableList.copyOf(Sets.difference(readds, removesInFlight));
+      if (!readding.isEmpty()) {
+        readds.removeAll(readding);
+        readdsInFlight.addAll(readding);
+        final String readdingOn = streamId;
+        track(controller.addUsers(readdingOn, readding), readding, new ControlCallback() {
+          @Override
+          void onResult(List<Long> userIds, boolean success) {
+            for (Long userId : userIds) {
+              readdsInFlight.remove(userId);
+              if (removedInitialUsers.contains(userId)) {
+                // removed meanwhile: make sure it's gone if the add went through
+                if (success) {
+                  pendingRemoves.add(userId);
+                }
+              } else if (!success && readdingOn.equals(streamId)) {
+                readds.add(userId);
+              }
+            }
+          }
+        });
+      }
+      if (!pendingRemoves.isEmpty()) {
+        final List<Long> removing = ImmutableList.copyOf(pendingRemoves);
+        pendingRemoves.clear();
+        removesInFlight.addAll(removing);
+        track(controller.removeUsers(streamId, removing), removing, new ControlCallback() {
+          @Override
+          void onResult(List<Long> userIds, boolean success) {
+            for (Long userId : userIds) {
+              removesInFlight.remove(userId);
+              // an initial user restored meanwhile is still followed if the removal failed
+              if (!success && !readds.remove(userId)) {
+                pendingRemoves.add(userId);
+              }
+            }
+          }
+        });
+      }
+    }
+
+    private void track(ListenableFuture<List<SitestreamBulkController.BatchResult>> future,
+                       final List<Long> userIds, final ControlCallback callback) {
+      Futures.addCallback(future, new FutureCallback<List<SitestreamBulkController.BatchResult>>() {
+        @Override
+        public void onSuccess(List<SitestreamBulkController.BatchResult> results) {
+          synchronized (SitestreamPool.this) {
+            for (SitestreamBulkController.BatchResult result : results) {
+              callback.onResult(result.getUserIds(), result.isSuccess());
+            }
+          }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          logger.warn("Control requests to " + name + " failed", t);
+          synchronized (SitestreamPool.this) {
+            callback.onResult(userIds, false);
+          }
+        }
+      });
+    }
+  }
+
+  private abstract static class ControlCallback {
+    abstract void onResult(List<Long> userIds, boolean success);
+  }
+
+  /**
+   * How full a connection of the pool is
+   */
+  public static class StreamLoad {
+    private final String name;
+    @Nullable
+    private final String streamId;
+    private final int assignedUsers;
+    private final int followedUsers;
+    private final int capacity;
+
+    StreamLoad(String name, @Nullable String streamId, int assignedUsers, int followedUsers, int capacity) {
+      this.name = name;
+      this.streamId = streamId;
+      this.assignedUsers = assignedUsers;
+      this.followedUsers = followedUsers;
+      this.capacity = capacity;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return the control stream id, or null until the connection received its control message
+     */
+    @Nullable
+    public String getStreamId() {
+      return streamId;
+    }
+
+    /**
+     * @return the users assigned to the stream, including the ones not added yet
+     */
+    public int getAssignedUsers() {
+      return assignedUsers;
+    }
+
+    /**
+     * @return the users the stream follows: its initial users, and the ones added since it last connected
+     */
+    public int getFollowedUsers() {
+      return followedUsers;
+    }
+
+    public int getCapacity() {
+      return capacity;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s (%s): %d/%d users, %d followed", name, streamId, assignedUsers, capacity, followedUsers);
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides when a stream has stalled, so that the client can reconnect well before the socket timeout. A stream is
+ * stalled once the gap since its last message exceeds a multiple of the gap expected at its current rate (see
+ * {@link RateTracker}), but never before a minimum gap, since keep-alives make a quiet stream look idle. A stall warning
+ * reporting the server-side queue at or above a threshold also counts as a stall, see {@link #onStallWarning(int)}.
+ *
+ * The expected gap comes from the rate as it was at the stream's last message (see
+ * {@link #checkProgress(long, double, long)}), not from the current rate: that one decays through the very silence
+ * being measured, so a slow stream would never look stalled, and any stream would stop looking stalled once the
+ * tracker's window had emptied. One detector per client: the client checks its stream with {@link #start(Runnable)}
+ * while connected.
+ */
+public class StallDetector {
+
+  public static final double DEFAULT_GAP_MULTIPLE = 20;
+  public static final long DEFAULT_MIN_STALL_MILLIS = 5000;
+  public static final int DEFAULT_PERCENT_FULL = 90;
+
+  private static final long MIN_CHECK_INTERVAL_MILLIS = 50;
+
+  private final double gapMultiple;
+  private final long minStallMillis;
+  private final int percentFullThreshold;
+
+  private final ScheduledExecutorService scheduler;
+  private final boolean ownsScheduler;
+  private ScheduledFuture<?> future;
+
+  private final AtomicInteger warnedPercentFull;
+
+  // the stream's progress as of the last check; guarded by this
+  private long lastMessageCount;
+  private long lastProgressNanos;
+  private double rateAtProgress = Double.NaN;
+
+  /**
+   * A detector with the default thresholds, checking on a daemon thread of its own
+   */
+  public StallDetector() {
+    this(DEFAULT_GAP_MULTIPLE, DEFAULT_MIN_STALL_MILLIS, DEFAULT_PERCENT_FULL, createScheduler(), true);
+  }
+
+  /**
+   * @param gapMultiple the stream is stalled after this many times the gap expected between messages at its rate
+   * @param minStallMillis the shortest gap considered a stall
+   * @param percentFullThreshold the stream is stalled once a stall warning reports its queue this full. Over 100 to
+   *                             ignore stall warnings
+   * @param ownsScheduler whether {@link #shutdown()} should shut down the scheduler. Pass false when it is shared
+   */
+  public StallDetector(double gapMultiple, long minStallMillis, int percentFullThreshold,
+                       ScheduledExecutorService scheduler, boolean ownsScheduler) {
+    Preconditions.checkArgument(gapMultiple >= 1);
+    Preconditions.checkArgument(minStallMillis > 0);
+    this.gapMultiple = gapMultiple;
+    this.minStallMillis = minStallMillis;
+    this.percentFullThreshold = percentFullThreshold;
+    this.scheduler = Preconditions.checkNotNull(scheduler);
+    this.ownsScheduler = ownsScheduler;
+    this.warnedPercentFull = new AtomicInteger(-1);
+  }
+
+  private static ScheduledExecutorService createScheduler() {
+    return Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+      .setDaemon(true)
+      .setNameFormat("hosebird-client-stallDetector-thread-%d")
+      .build());
+  }
+
+  /**
+   * @return the gap without messages after which a stream at the given rate is stalled, or Long.MAX_VALUE if the rate
+   * is unknown (NaN) or zero, in which case only the socket timeout applies
+   */
+  public long getStallMillis(double ratePerSecond) {
+    if (Double.isNaN(ratePerSecond) || ratePerSecond <= 0) {
+      return Long.MAX_VALUE;
+    }
+    double expectedGapMillis = 1000d / ratePerSecond;
+    return Math.max(minStallMillis, (long) (gapMultiple * expectedGapMillis));
+  }
+
+  /**
+   * @return how often the stream should be checked
+   */
+  public long getCheckIntervalMillis() {
+    return Math.max(MIN_CHECK_INTERVAL_MILLIS, minStallMillis / 10);
+  }
+
+  /**
+   * Reports a stall warning's percent_full, e.g. from the client's message handler. Thread-safe.
+   */
+  public void onStallWarning(int percentFull) {
+    if (percentFull >= percentFullThreshold) {
+      warnedPercentFull.set(percentFull);
+    }
+  }
+
+  /**
+   * @param idleMillis how long the stream has gone without a message
+   * @return why the stream is stalled, or null if it isn't. Consumes a pending stall warning
+   */
+  @Nullable
+  public String checkStall(long idleMillis, double ratePerSecond) {
+    int percentFull = warnedPercentFull.getAndSet(-1);
+    if (percentFull >= 0) {
+      return String.format("Stall warning: queue %d%% full", percentFull);
+    }
+    long stallMillis = getStallMillis(ratePerSecond);
+    if (idleMillis >= stallMillis) {
+      return String.format("No messages for %d ms at %.2f messages/sec", idleMillis, ratePerSecond);
+    }
+    return null;
+  }
+
+  /**
+   * Records the stream's progress and checks it for a stall. When the message count has moved since the last call,
+   * the stream is making progress, and the rate is saved: the stall threshold is always taken from the rate as of the
+   * last progress.
+   * @param messageCount the number of messages the stream has delivered so far
+   * @param ratePerSecond the stream's current rate
+   * @return why the stream is stalled, or null if it isn't. Consumes a pending stall warning
+   */
+  @Nullable
+  public synchronized String checkProgress(long messageCount, double ratePerSecond, long nowNanos) {
+    if (messageCount != lastMessageCount) {
+      lastMessageCount = messageCount;
+      lastProgressNanos = nowNanos;
+      rateAtProgress = ratePerSecond;
+    }
+    long idleMillis = TimeUnit.NANOSECONDS.toMillis(nowNanos - lastProgressNanos);
+    return checkStall(idleMillis, rateAtProgress);
+  }
+
+  /**
+   * Forgets pending stall warnings, e.g. those of a previous connection
+   */
+  public void reset() {
+    warnedPercentFull.set(-1);
+  }
+
+  /**
+   * Starts tracking the progress of a new connection, see {@link #checkProgress(long, double, long)}, and forgets
+   * pending stall warnings
+   * @param ratePerSecond the rate to expect until the connection delivers its first message
+   */
+  public synchronized void reset(long messageCount, double ratePerSecond, long nowNanos) {
+    reset();
+    lastMessageCount = messageCount;
+    lastProgressNanos = nowNanos;
+    rateAtProgress = ratePerSecond;
+  }
+
+  /**
+   * Runs the check every {@link #getCheckIntervalMillis()} until {@link #stop()}
+   */
+  public synchronized void start(Runnable check) {
+    Preconditions.checkNotNull(check);
+    stop();
+    long interval = getCheckIntervalMillis();
+    future = scheduler.scheduleWithFixedDelay(check, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if (future != null) {
+      future.cancel(false);
+      future = null;
+    }
+  }
+
+  /**
+   * Stops and shuts down the scheduler, unless it is shared
+   */
+  public void shutdown() {
+    stop();
+    if (ownsScheduler) {
+      scheduler.shutdown();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A counter that threads increment without locks, and without contending with the thread reading the sum, in the
+ * spirit of Java 8's LongAdder.
+ *
+ * A counter is usually incremented by a single thread, e.g. a client's connection thread, so the first thread to
+ * increment it owns a plain counter that only it writes to, without any atomic instruction. Any other thread
+ * increments a stripe picked by its thread id, each padded to its own cache line. {@link #sum()} adds them all up.
+ *
+ * Threadsafe
+ */
+class StripedCounter {
+
+  // longs between two stripes, so that they never share a 64 byte cache line, nor an adjacent prefetched one
+  private static final int PADDING = 16;
+  private static final int MAX_STRIPES = 64;
+
+  private final AtomicReference<Thread> owner = new AtomicReference<Thread>();
+  // only written by the owner
+  private final AtomicLong ownerCount = new AtomicLong();
+  private final AtomicLongArray cells;
+  private final int mask;
+
+  StripedCounter() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  StripedCounter(int concurrency) {
+    int stripes = 1;
+    while (stripes < Math.min(concurrency, MAX_STRIPES)) {
+      stripes <<= 1;
+    }
+    this.mask = stripes - 1;
+    this.cells = new AtomicLongArray(stripes * PADDING);
+  }
+
+  public void increment() {
+    Thread current = Thread.currentThread();
+    Thread currentOwner = owner.get();
+    if (currentOwner == current || (currentOwner == null && owner.compareAndSet(null, current))) {
+      // single writer: an ordered store is enough for the readers to see it
+      ownerCount.lazySet(ownerCount.get() + 1);
+    } else {
+      cells.incrementAndGet(stripe(current.getId()) * PADDING);
+    }
+  }
+
+  /**
+   * @return the sum of the increments so far. Increments concurrent with the sum may or may not be counted.
+   */
+  public long sum() {
+    long sum = ownerCount.get();
+    for (int i = 0; i <= mask; i++) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  private int stripe(long threadId) {
+    // spread consecutive thread ids over the stripes
+    int h = (int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+}
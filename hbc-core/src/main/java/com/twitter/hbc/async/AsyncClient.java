@@ -0,0 +1,668 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.twitter.hbc.BasicReconnectionManager;
+import com.twitter.hbc.RateTracker;
+import com.twitter.hbc.ReconnectionManager;
+import com.twitter.hbc.core.Client;
+import com.twitter.hbc.core.Constants;
+import com.twitter.hbc.core.Hosts;
+import com.twitter.hbc.core.HttpConstants;
+import com.twitter.hbc.core.StatsReporter;
+import com.twitter.hbc.core.endpoint.StreamingEndpoint;
+import com.twitter.hbc.core.event.ConnectionEvent;
+import com.twitter.hbc.core.event.Event;
+import com.twitter.hbc.core.event.EventType;
+import com.twitter.hbc.core.event.HttpResponseEvent;
+import com.twitter.hbc.core.processor.HosebirdMessageProcessor;
+import com.twitter.hbc.core.processor.ReleasableProcessor;
+import com.twitter.hbc.httpclient.auth.Authentication;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.StatusLine;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLEngine;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A client streaming over an {@link AsyncTransport}, so that it doesn't need a thread of its own. It reconnects,
+ * backs off and reports events and stats just like the {@link com.twitter.hbc.httpclient.BasicClient}, using the same
+ * Hosts, ReconnectionManager, Authentication and processor.
+ *
+ * The selector thread only hands complete messages to the processor, which runs on one of the transport's workers,
+ * so the processor must match the client's {@link Framing}. If the processor falls behind, reading from the
+ * connection is paused, and the server's writes back up into the TCP window.
+ *
+ * Thread-safe. Build it with {@link com.twitter.hbc.ClientBuilder#buildAsync(AsyncTransport)}.
+ */
+public class AsyncClient implements Client {
+
+  private final static int DEFAULT_STOP_TIMEOUT_MILLIS = 5000;
+
+  // how much of the stream we buffer for a processor that is falling behind
+  private static final int MAX_BUFFERED_BYTES = 8 * 1024 * 1024;
+  private static final int RESUME_BUFFERED_BYTES = MAX_BUFFERED_BYTES / 2;
+
+  private final static Logger logger = LoggerFactory.getLogger(AsyncClient.class);
+
+  private enum Backoff { NONE, LINEAR, EXPONENTIAL }
+
+  private final String name;
+  private final AsyncTransport transport;
+  private final Hosts hosts;
+  private final StreamingEndpoint endpoint;
+  private final Authentication auth;
+  private final boolean enableGZip;
+  private final HosebirdMessageProcessor processor;
+  private final Framing framing;
+  private final ReconnectionManager reconnectionManager;
+  private final RateTracker rateTracker;
+  private final BlockingQueue<Event> eventsQueue;
+  private final String userAgent;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  @Nullable
+  private final String basicAuthorization;
+
+  private final StatsReporter statsReporter;
+  private final AtomicReference<Event> exitEvent;
+  private final AtomicBoolean canRun;
+  private final AtomicBoolean terminated;
+  private final CountDownLatch isRunning;
+
+  // the connection in progress, or the next attempt at one. Guarded by this
+  private Attempt current;
+  private Future<?> pendingStart;
+
+  public AsyncClient(String name, AsyncTransport transport, Hosts hosts, StreamingEndpoint endpoint,
+                     Authentication auth, boolean enableGZip, HosebirdMessageProcessor processor, Framing framing,
+                     ReconnectionManager reconnectionManager, RateTracker rateTracker,
+                     @Nullable BlockingQueue<Event> eventsQueue, String userAgent, int connectTimeoutMillis,
+                     int readTimeoutMillis) {
+    this.name = Preconditions.checkNotNull(name);
+    this.transport = Preconditions.checkNotNull(transport);
+    this.hosts = Preconditions.checkNotNull(hosts);
+    this.endpoint = Preconditions.checkNotNull(endpoint);
+    this.auth = Preconditions.checkNotNull(auth);
+    this.enableGZip = enableGZip;
+    this.processor = Preconditions.checkNotNull(processor);
+    this.framing = Preconditions.checkNotNull(framing);
+    this.reconnectionManager = Preconditions.checkNotNull(reconnectionManager);
+    this.rateTracker = Preconditions.checkNotNull(rateTracker);
+    this.eventsQueue = eventsQueue;
+    this.userAgent = Preconditions.checkNotNull(userAgent);
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.basicAuthorization = basicAuthorization(auth);
+
+    this.statsReporter = new StatsReporter();
+    statsReporter.trackSpillOf(processor);
+    statsReporter.trackDropsOf(processor);
+    this.exitEvent = new AtomicReference<Event>();
+    this.canRun = new AtomicBoolean(true);
+    this.terminated = new AtomicBoolean(false);
+    this.isRunning = new CountDownLatch(1);
+  }
+
+  /**
+   * Authentications such as BasicAuth set up the HttpClient rather than sign each request: send their credentials
+   * preemptively instead.
+   */
+  @Nullable
+  private static String basicAuthorization(Authentication auth) {
+    DefaultHttpClient client = new DefaultHttpClient();
+    try {
+      auth.setupConnection(client);
+      Credentials credentials = client.getCredentialsProvider().getCredentials(AuthScope.ANY);
+      return credentials == null ? null : BasicScheme.authenticate(credentials, "UTF-8", false).getValue();
+    } finally {
+      client.getConnectionManager().shutdown();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * The connection is made by the transport's threads.
+   */
+  @Override
+  public void connect() {
+    if (!canRun.compareAndSet(true, false) || isDone()) {
+      throw new IllegalStateException("There is already a connection running for " + this);
+    }
+    rateTracker.start();
+    scheduleStart(0);
+    logger.info("New connection executed: {}", this);
+  }
+
+  /**
+   * Drops the current connection and makes a new one, without backing off
+   */
+  @Override
+  public void reconnect() {
+    synchronized (this) {
+      if (current != null && current.established) {
+        current.reconnecting = true;
+        current.connection.close();
+      }
+    }
+  }
+
+  @Override
+  public void stop() {
+    stop(DEFAULT_STOP_TIMEOUT_MILLIS);
+  }
+
+  @Override
+  public void stop(int waitMillis) {
+    logger.info("Stopping the client: " + this);
+    synchronized (this) {
+      if (!isDone()) {
+        setExitStatus(new Event(EventType.STOPPED_BY_USER, String.format("Stopped by user: waiting for %d ms", waitMillis)));
+      }
+      if (current != null) {
+        current.connection.close();
+      } else if (canRun.get() || (pendingStart != null && pendingStart.cancel(true))) {
+        // never connected, or waiting to reconnect
+        terminate();
+      }
+    }
+    try {
+      if (isRunning.await(waitMillis, TimeUnit.MILLISECONDS)) {
+        logger.info("Successfully stopped the client: {}", this);
+      } else {
+        logger.warn("{} Client failed to finish in {} millis", name, waitMillis);
+      }
+    } catch (InterruptedException e) {
+      logger.info("Thread interrupted when attempting to stop the client: {}", this);
+    } finally {
+      rateTracker.shutdown();
+    }
+  }
+
+  @Override
+  public boolean isDone() {
+    return exitEvent.get() != null;
+  }
+
+  /**
+   * This method should only be called after the client is done
+   */
+  public Event getExitEvent() {
+    if (!isDone()) {
+      throw new IllegalStateException(name + " Still running");
+    }
+    return exitEvent.get();
+  }
+
+  @VisibleForTesting
+  boolean waitForFinish(int millis) throws InterruptedException {
+    return isRunning.await(millis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public StreamingEndpoint getEndpoint() {
+    return endpoint;
+  }
+
+  @Override
+  public StatsReporter.StatsTracker getStatsTracker() {
+    return statsReporter.getStatsTracker();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s, endpoint: %s", name, endpoint.getURI());
+  }
+
+  private synchronized void scheduleStart(long delayMillis) {
+    if (isDone()) {
+      terminate();
+      return;
+    }
+    final Runnable start = new Runnable() {
+      @Override
+      public void run() {
+        startAttempt();
+      }
+    };
+    if (delayMillis <= 0) {
+      pendingStart = transport.getBlockingExecutor().submit(start);
+    } else {
+      pendingStart = transport.getScheduler().schedule(new Runnable() {
+        @Override
+        public void run() {
+          transport.getBlockingExecutor().execute(start);
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void backoff(final Backoff backoff) {
+    if (backoff == Backoff.NONE) {
+      scheduleStart(0);
+    } else if (reconnectionManager instanceof BasicReconnectionManager) {
+      BasicReconnectionManager manager = (BasicReconnectionManager) reconnectionManager;
+      scheduleStart(backoff == Backoff.LINEAR ? manager.nextLinearBackoffMillis() : manager.nextExponentialBackoffMillis());
+    } else {
+      // other managers sleep in their handle methods
+      synchronized (this) {
+        if (isDone()) {
+          terminate();
+          return;
+        }
+        pendingStart = transport.getBlockingExecutor().submit(new Runnable() {
+          @Override
+          public void run() {
+            if (backoff == Backoff.LINEAR) {
+              reconnectionManager.handleLinearBackoff();
+            } else {
+              reconnectionManager.handleExponentialBackoff();
+            }
+            startAttempt();
+          }
+        });
+      }
+    }
+  }
+
+  private void startAttempt() {
+    try {
+      if (isDone()) {
+        terminate();
+        return;
+      }
+      String host = hosts.nextHost();
+      if (host == null) {
+        setExitStatus(new Event(EventType.STOPPED_BY_ERROR, "No hosts available"));
+        terminate();
+        return;
+      }
+
+      double rate = rateTracker.getCurrentRateSeconds();
+      if (!Double.isNaN(rate)) {
+        endpoint.setBackfillCount(reconnectionManager.estimateBackfill(rate));
+      }
+
+      HttpUriRequest request = HttpConstants.constructRequest(host, endpoint, auth);
+      String postContent = null;
+      if (endpoint.getHttpMethod().equalsIgnoreCase(HttpConstants.HTTP_POST)) {
+        postContent = endpoint.getPostParamString();
+      }
+      auth.signRequest(request, postContent);
+
+      logger.info("{} Establishing a connection", name);
+      addEvent(new ConnectionEvent(EventType.CONNECTION_ATTEMPT, request));
+      URI uri = request.getURI();
+      boolean https = HttpConstants.HTTPS_SCHEME.equalsIgnoreCase(uri.getScheme());
+      int port = uri.getPort() > 0 ? uri.getPort() :
+        (https ? HttpConstants.DEFAULT_HTTPS_PORT : HttpConstants.DEFAULT_HTTP_PORT);
+      InetSocketAddress address;
+      try {
+        // hosts that resolve themselves, e.g. DnsHosts, hand out their addresses in turn
+        InetAddress resolved = hosts instanceof DnsResolver ?
+          ((DnsResolver) hosts).resolve(uri.getHost())[0] : InetAddress.getByName(uri.getHost());
+        address = new InetSocketAddress(resolved, port);
+      } catch (UnknownHostException e) {
+        // banking on some httpHosts.nextHost() being legitimate, or else this connection will fail.
+        logger.warn("{} Unknown host - {}", name, uri.getHost());
+        addEvent(new Event(EventType.CONNECTION_ERROR, e));
+        handleConnectionResult(null);
+        scheduleStart(0);
+        return;
+      }
+
+      byte[] requestBytes = encodeRequest(request, postContent, basicAuthorization, userAgent, enableGZip);
+      Attempt attempt = new Attempt(request, address, https ? transport.createSslEngine(uri.getHost(), port) : null,
+        requestBytes);
+      synchronized (this) {
+        pendingStart = null;
+        if (isDone()) {
+          terminate();
+          return;
+        }
+        current = attempt;
+      }
+      attempt.connection.connect();
+    } catch (Throwable e) {
+      logger.warn(name + " Uncaught exception", e);
+      Exception laundered = (e instanceof Exception) ? (Exception) e : new RuntimeException(e);
+      setExitStatus(new Event(EventType.STOPPED_BY_ERROR, laundered));
+      terminate();
+    }
+  }
+
+  /**
+   * @return null if a successful connection has been established, or else how to back off before the next attempt
+   */
+  @Nullable
+  private Backoff handleConnectionResult(@Nullable StatusLine statusLine) {
+    statsReporter.incrNumConnects();
+    if (statusLine == null) {
+      logger.warn("{} failed to establish connection properly", name);
+      addEvent(new Event(EventType.CONNECTION_ERROR, "Failed to establish connection properly"));
+      return Backoff.NONE;
+    }
+    int statusCode = statusLine.getStatusCode();
+    if (statusCode == HttpConstants.Codes.SUCCESS) {
+      logger.debug("{} Connection successfully established", name);
+      statsReporter.incrNum200s();
+      addEvent(new HttpResponseEvent(EventType.CONNECTED, statusLine));
+      reconnectionManager.resetCounts();
+      return null;
+    }
+
+    logger.warn(name + " Error connecting w/ status code - {}, reason - {}", statusCode, statusLine.getReasonPhrase());
+    statsReporter.incrNumConnectionFailures();
+    addEvent(new HttpResponseEvent(EventType.HTTP_ERROR, statusLine));
+    if (HttpConstants.FATAL_CODES.contains(statusCode)) {
+      setExitStatus(new Event(EventType.STOPPED_BY_ERROR, "Fatal error code: " + statusCode));
+    } else if (statusCode < 500 && statusCode >= 400) {
+      statsReporter.incrNum400s();
+      // we will retry these a set number of times, then fail
+      if (reconnectionManager.shouldReconnectOn400s()) {
+        logger.debug("{} Reconnecting on {}", name, statusCode);
+        return Backoff.EXPONENTIAL;
+      } else {
+        logger.debug("{} Reconnecting retries exhausted for {}", name, statusCode);
+        setExitStatus(new Event(EventType.STOPPED_BY_ERROR, "Retries exhausted"));
+      }
+    } else if (statusCode >= 500) {
+      statsReporter.incrNum500s();
+      return Backoff.EXPONENTIAL;
+    } else {
+      setExitStatus(new Event(EventType.STOPPED_BY_ERROR, statusLine.getReasonPhrase()));
+    }
+    return Backoff.NONE;
+  }
+
+  private void terminate() {
+    if (terminated.compareAndSet(false, true)) {
+      rateTracker.stop();
+      isRunning.countDown();
+    }
+  }
+
+  private void setExitStatus(Event event) {
+    logger.info("{} exit event - {}", name, event.getMessage());
+    addEvent(event);
+    exitEvent.set(event);
+  }
+
+  private void addEvent(Event event) {
+    if (eventsQueue != null) {
+      if (!eventsQueue.offer(event)) {
+        statsReporter.incrNumClientEventsDropped();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static byte[] encodeRequest(HttpUriRequest request, @Nullable String postContent,
+                              @Nullable String basicAuthorization, String userAgent, boolean gzip) {
+    URI uri = request.getURI();
+    StringBuilder head = new StringBuilder(1024);
+    String path = uri.getRawPath();
+    head.append(request.getMethod()).append(' ').append(path == null || path.isEmpty() ? "/" : path);
+    if (uri.getRawQuery() != null) {
+      head.append('?').append(uri.getRawQuery());
+    }
+    head.append(" HTTP/1.1\r\n");
+
+    appendHeader(head, HttpHeaders.HOST, uri.getPort() > 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost());
+    for (Header header : request.getAllHeaders()) {
+      appendHeader(head, header.getName(), header.getValue());
+    }
+    if (basicAuthorization != null && !request.containsHeader(HttpHeaders.AUTHORIZATION)) {
+      appendHeader(head, HttpHeaders.AUTHORIZATION, basicAuthorization);
+    }
+    appendHeader(head, HttpHeaders.USER_AGENT, userAgent);
+    if (gzip) {
+      appendHeader(head, HttpHeaders.ACCEPT_ENCODING, "gzip");
+    }
+    byte[] body = postContent == null ? new byte[0] : postContent.getBytes(Constants.DEFAULT_CHARSET);
+    if (postContent != null) {
+      appendHeader(head, HttpHeaders.CONTENT_LENGTH, Integer.toString(body.length));
+    }
+    head.append("\r\n");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(head.length() + body.length);
+    byte[] headBytes = head.toString().getBytes(Charsets.ISO_8859_1);
+    out.write(headBytes, 0, headBytes.length);
+    out.write(body, 0, body.length);
+    return out.toByteArray();
+  }
+
+  private static void appendHeader(StringBuilder head, String name, String value) {
+    head.append(name).append(": ").append(value).append("\r\n");
+  }
+
+  /**
+   * A single connection: its callbacks come from the selector thread, and the client's logic runs on a worker, one
+   * task at a time.
+   */
+  private class Attempt implements AsyncConnection.Listener {
+
+    private final HttpUriRequest request;
+    private final AsyncConnection connection;
+    private final FrameBuffer buffer;
+    private final Framing.FrameScanner scanner;
+    private final SerialExecutor serialExecutor;
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicBoolean paused = new AtomicBoolean();
+
+    private final Runnable drain = new Runnable() {
+      @Override
+      public void run() {
+        drainScheduled.set(false);
+        processMessages();
+      }
+    };
+
+    // selector thread only
+    private boolean streaming;
+
+    // serial executor only
+    private boolean statusReceived;
+    private boolean disconnected;
+    private Backoff backoff = Backoff.NONE;
+
+    private volatile boolean established;
+    private volatile boolean reconnecting;
+
+    Attempt(HttpUriRequest request, InetSocketAddress address, @Nullable SSLEngine sslEngine,
+            byte[] requestBytes) {
+      this.request = request;
+      this.buffer = new FrameBuffer();
+      this.scanner = framing.newScanner();
+      this.serialExecutor = new SerialExecutor(transport.getWorkerExecutor());
+      this.connection = new AsyncConnection(transport.nextLoop(), address, sslEngine, requestBytes,
+        connectTimeoutMillis, readTimeoutMillis, this);
+    }
+
+    @Override
+    public void onStatus(final StatusLine statusLine) {
+      streaming = statusLine.getStatusCode() == HttpConstants.Codes.SUCCESS;
+      serialExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          handleStatus(statusLine);
+        }
+      });
+    }
+
+    @Override
+    public void onBody(byte[] bytes, int offset, int length) {
+      if (!streaming) {
+        // the body of an error response
+        return;
+      }
+      buffer.append(bytes, offset, length);
+      int messages = scanner.scan(bytes, offset, length);
+      if (messages > 0) {
+        pendingMessages.addAndGet(messages);
+        if (drainScheduled.compareAndSet(false, true)) {
+          serialExecutor.execute(drain);
+        }
+      }
+      if (buffer.size() > MAX_BUFFERED_BYTES && pendingMessages.get() > 0 && paused.compareAndSet(false, true)) {
+        logger.debug("{} Processor falling behind, pausing reads", name);
+        connection.pauseReading();
+      }
+    }
+
+    @Override
+    public void onClosed(@Nullable final IOException cause) {
+      serialExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          finish(cause);
+        }
+      });
+    }
+
+    private void handleStatus(StatusLine statusLine) {
+      statusReceived = true;
+      Backoff result = handleConnectionResult(statusLine);
+      if (result == null) {
+        processor.setup(buffer.getInputStream());
+        established = true;
+        rateTracker.resume();
+        logger.info("{} Processing connection data", name);
+        addEvent(new Event(EventType.PROCESSING, "Processing messages"));
+      } else {
+        backoff = result;
+        connection.close();
+      }
+    }
+
+    private void processMessages() {
+      if (!established || disconnected) {
+        return;
+      }
+      try {
+        while (pendingMessages.get() > 0 && !isDone() && !reconnecting) {
+          pendingMessages.decrementAndGet();
+          if (processor.process()) {
+            statsReporter.incrNumMessages();
+          } else {
+            statsReporter.incrNumMessagesDropped();
+          }
+          rateTracker.eventObserved();
+        }
+      } catch (RuntimeException e) {
+        logger.warn(name + " Unknown error processing connection: ", e);
+        disconnect(new Event(EventType.DISCONNECTED, e));
+      } catch (IOException ex) {
+        logger.info("{} Disconnected during processing - will reconnect", name);
+        disconnect(new Event(EventType.DISCONNECTED, ex));
+      } catch (InterruptedException interrupt) {
+        // interrupted while trying to append message to queue. exit
+        logger.info("{} Thread interrupted during processing, exiting", name);
+        setExitStatus(new Event(EventType.STOPPED_BY_ERROR, interrupt));
+        disconnect(null);
+      } catch (Exception e) {
+        // Unexpected exception thrown, killing everything
+        logger.warn(name + " Unexpected exception during processing", e);
+        setExitStatus(new Event(EventType.STOPPED_BY_ERROR, e));
+        disconnect(null);
+      }
+
+      if (paused.get() && (pendingMessages.get() == 0 || buffer.size() < RESUME_BUFFERED_BYTES) &&
+        paused.compareAndSet(true, false)) {
+        connection.resumeReading();
+      }
+    }
+
+    private void disconnect(@Nullable Event event) {
+      statsReporter.incrNumDisconnects();
+      if (event != null) {
+        addEvent(event);
+      }
+      disconnected = true;
+      connection.close();
+    }
+
+    private void finish(@Nullable IOException cause) {
+      try {
+        synchronized (AsyncClient.this) {
+          if (current == this) {
+            current = null;
+          }
+        }
+        // the messages received before the connection was closed
+        processMessages();
+        if (established) {
+          rateTracker.pause();
+          if (processor instanceof ReleasableProcessor) {
+            ((ReleasableProcessor) processor).release();
+          }
+        }
+
+        if (!isDone()) {
+          if (!statusReceived) {
+            logger.warn("{} IOException caught when establishing connection to {}", name, request.getURI());
+            if (cause != null) {
+              addEvent(new Event(EventType.CONNECTION_ERROR, cause));
+            }
+            handleConnectionResult(null);
+            backoff = Backoff.LINEAR;
+          } else if (established && !disconnected && !reconnecting) {
+            logger.info("{} Disconnected during processing - will reconnect", name);
+            disconnect(new Event(EventType.DISCONNECTED,
+              cause != null ? cause : new EOFException("Stream closed by the server")));
+          }
+        }
+        logger.info("{} Done processing, connection closed", name);
+        backoff(backoff);
+      } catch (Throwable e) {
+        logger.warn(name + " Uncaught exception", e);
+        Exception laundered = (e instanceof Exception) ? (Exception) e : new RuntimeException(e);
+        setExitStatus(new Event(EventType.STOPPED_BY_ERROR, laundered));
+        terminate();
+      }
+    }
+  }
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.cert.X509Certificate;
+
+/**
+ * A single HTTP exchange over a non-blocking socket, optionally over TLS: writes the request, then decodes the
+ * response as it arrives and hands it to the listener. All of its state is confined to its selector loop's thread,
+ * and so are the listener's callbacks.
+ */
+class AsyncConnection {
+
+  private final static Logger logger = LoggerFactory.getLogger(AsyncConnection.class);
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  // the same verification as the blocking transport's default socket factory
+  private static final X509HostnameVerifier HOSTNAME_VERIFIER = SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER;
+
+  interface Listener extends HttpResponseDecoder.Handler {
+    /**
+     * Called exactly once, when the connection is closed.
+     * @param cause why the connection failed, or null if it was closed with {@link #close()} or the response was
+     * complete
+     */
+    void onClosed(@Nullable IOException cause);
+  }
+
+  private final SelectorLoop loop;
+  private final InetSocketAddress address;
+  @Nullable
+  private final SSLEngine sslEngine;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final Listener listener;
+  private final HttpResponseDecoder decoder;
+
+  // for tls, appOut holds the plaintext request and netOut the encrypted bytes to write; otherwise only appOut is used
+  private final ByteBuffer appOut;
+  private ByteBuffer netOut;
+  private ByteBuffer netIn;
+  private ByteBuffer appIn;
+
+  private SocketChannel channel;
+  private SelectionKey key;
+  private boolean connected;
+  private boolean hostVerified;
+  private boolean paused;
+  private boolean closed;
+  private long connectDeadline;
+  private long lastReadMillis;
+
+  AsyncConnection(SelectorLoop loop, InetSocketAddress address, @Nullable SSLEngine sslEngine, byte[] request,
+                  int connectTimeoutMillis, int readTimeoutMillis, Listener listener) {
+    this.loop = loop;
+    this.address = address;
+    this.sslEngine = sslEngine;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.listener = listener;
+    this.decoder = new HttpResponseDecoder(listener);
+    this.appOut = ByteBuffer.wrap(request);
+    if (sslEngine == null) {
+      netIn = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    } else {
+      netIn = ByteBuffer.allocate(Math.max(READ_BUFFER_SIZE, sslEngine.getSession().getPacketBufferSize()));
+      netOut = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+      netOut.flip();
+      appIn = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
+    }
+  }
+
+  public void connect() {
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        doConnect();
+      }
+    });
+  }
+
+  /**
+   * Closes the connection, from any thread
+   */
+  public void close() {
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        closeWith(null);
+      }
+    });
+  }
+
+  /**
+   * Stops reading from the socket until {@link #resumeReading()}, so that the server's writes back up into the TCP
+   * window instead of our memory
+   */
+  public void pauseReading() {
+    if (loop.inLoop()) {
+      paused = true;
+      updateInterest();
+    } else {
+      loop.execute(new Runnable() {
+        @Override
+        public void run() {
+          pauseReading();
+        }
+      });
+    }
+  }
+
+  public void resumeReading() {
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (paused && !closed) {
+          paused = false;
+          lastReadMillis = System.currentTimeMillis();
+          updateInterest();
+          try {
+            if (sslEngine != null) {
+              // decrypt whatever was already received
+              pumpSsl();
+            }
+          } catch (IOException e) {
+            fail(e);
+          }
+        }
+      }
+    });
+  }
+
+  private void doConnect() {
+    if (closed) {
+      return;
+    }
+    try {
+      if (loop.isShutdown()) {
+        throw new IOException("Transport shut down");
+      }
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      connectDeadline = System.currentTimeMillis() + connectTimeoutMillis;
+      key = channel.register(loop.getSelector(), 0, this);
+      if (channel.connect(address)) {
+        onConnected();
+      } else {
+        updateInterest();
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void onReady(SelectionKey key) {
+    try {
+      if (!key.isValid()) {
+        return;
+      }
+      if (key.isConnectable()) {
+        if (channel.finishConnect()) {
+          onConnected();
+        }
+      }
+      if (key.isValid() && key.isWritable()) {
+        flush();
+        if (sslEngine != null) {
+          pumpSsl();
+        }
+      }
+      if (key.isValid() && key.isReadable()) {
+        read();
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void checkTimeouts(long now) {
+    if (closed) {
+      return;
+    }
+    if (!connected) {
+      if (now > connectDeadline) {
+        fail(new SocketTimeoutException("Connect timed out"));
+      }
+    } else if (!paused && now - lastReadMillis > readTimeoutMillis) {
+      fail(new SocketTimeoutException("Read timed out"));
+    }
+  }
+
+  void fail(IOException cause) {
+    closeWith(cause);
+  }
+
+  private void onConnected() throws IOException {
+    connected = true;
+    lastReadMillis = System.currentTimeMillis();
+    if (sslEngine == null) {
+      flush();
+    } else {
+      sslEngine.beginHandshake();
+      pumpSsl();
+    }
+  }
+
+  private void read() throws IOException {
+    int n = channel.read(netIn);
+    if (n < 0) {
+      endOfStream();
+      return;
+    }
+    lastReadMillis = System.currentTimeMillis();
+    if (sslEngine == null) {
+      netIn.flip();
+      decoder.decode(netIn.array(), netIn.position(), netIn.remaining());
+      netIn.clear();
+      completeIfDone();
+    } else {
+      pumpSsl();
+    }
+  }
+
+  private void endOfStream() throws IOException {
+    if (sslEngine != null) {
+      try {
+        sslEngine.closeInbound();
+      } catch (SSLException e) {
+        // the server didn't send a close_notify, which doesn't matter to us
+      }
+    }
+    decoder.endOfStream();
+    closeWith(decoder.isDone() ? null : new EOFException("Stream closed by the server"));
+  }
+
+  private void completeIfDone() {
+    if (decoder.isDone()) {
+      closeWith(null);
+    }
+  }
+
+  /**
+   * Drives the tls engine as far as it can go with the bytes at hand: handshaking, encrypting the request and
+   * decrypting the response
+   */
+  private void pumpSsl() throws IOException {
+    boolean progress = true;
+    while (progress && !closed) {
+      switch (sslEngine.getHandshakeStatus()) {
+        case NEED_TASK:
+          Runnable task;
+          while ((task = sslEngine.getDelegatedTask()) != null) {
+            task.run();
+          }
+          progress = true;
+          break;
+        case NEED_WRAP:
+          progress = wrap();
+          break;
+        case NEED_UNWRAP:
+          progress = unwrap();
+          break;
+        default:
+          if (!hostVerified) {
+            verifyHost();
+          }
+          progress = appOut.hasRemaining() && wrap();
+          if (!paused) {
+            progress |= unwrap();
+          }
+      }
+    }
+  }
+
+  private void verifyHost() throws IOException {
+    X509Certificate certificate = (X509Certificate) sslEngine.getSession().getPeerCertificates()[0];
+    HOSTNAME_VERIFIER.verify(sslEngine.getPeerHost(), certificate);
+    hostVerified = true;
+  }
+
+  private boolean wrap() throws IOException {
+    if (netOut.hasRemaining()) {
+      // wait for the previous record to be written
+      return false;
+    }
+    netOut.clear();
+    SSLEngineResult result = sslEngine.wrap(appOut, netOut);
+    netOut.flip();
+    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+      throw new EOFException("TLS session closed");
+    }
+    flush();
+    return result.bytesProduced() > 0 || result.bytesConsumed() > 0;
+  }
+
+  private boolean unwrap() throws IOException {
+    netIn.flip();
+    SSLEngineResult result;
+    try {
+      result = sslEngine.unwrap(netIn, appIn);
+    } finally {
+      netIn.compact();
+    }
+    switch (result.getStatus()) {
+      case BUFFER_OVERFLOW:
+        ByteBuffer grown = ByteBuffer.allocate(appIn.capacity() * 2);
+        appIn.flip();
+        grown.put(appIn);
+        appIn = grown;
+        return true;
+      case CLOSED:
+        endOfStream();
+        return false;
+      default:
+        appIn.flip();
+        if (appIn.hasRemaining()) {
+          decoder.decode(appIn.array(), appIn.position(), appIn.remaining());
+          completeIfDone();
+        }
+        appIn.clear();
+        return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+    }
+  }
+
+  private void flush() throws IOException {
+    ByteBuffer out = sslEngine == null ? appOut : netOut;
+    if (out.hasRemaining()) {
+      channel.write(out);
+    }
+    updateInterest();
+  }
+
+  private void updateInterest() {
+    if (closed || key == null || !key.isValid()) {
+      return;
+    }
+    int ops;
+    if (!connected) {
+      ops = SelectionKey.OP_CONNECT;
+    } else {
+      ops = 0;
+      ByteBuffer out = sslEngine == null ? appOut : netOut;
+      if (out.hasRemaining()) {
+        ops |= SelectionKey.OP_WRITE;
+      }
+      boolean handshaking = sslEngine != null &&
+        sslEngine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+      if (!paused || handshaking) {
+        ops |= SelectionKey.OP_READ;
+      }
+    }
+    key.interestOps(ops);
+  }
+
+  private void closeWith(@Nullable IOException cause) {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (key != null) {
+      key.cancel();
+    }
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.debug("Failed to close the connection to {}", address, e);
+      }
+    }
+    decoder.close();
+    listener.onClosed(cause);
+  }
+
+  @Override
+  public String toString() {
+    return address.toString();
+  }
+}
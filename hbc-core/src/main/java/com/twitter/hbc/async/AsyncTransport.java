@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.hbc.RateTrackingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads shared by any number of {@link AsyncClient}s, so that the thread count no longer grows with the number
+ * of connections:
+ *  - a few selector threads doing all the network IO, each multiplexing many connections
+ *  - a pool of worker threads running the clients' processors. A client's messages are processed one at a time, in
+ *    order, but different clients are processed in parallel. Processors that block on a full queue hold on to a
+ *    worker while they wait, so size the pool accordingly.
+ *  - a scheduler for the backoffs, and a single task ticking all the rate trackers
+ *  - a pool for the blocking bits: dns lookups, request signing, and custom ReconnectionManagers, which sleep
+ *
+ * The transport outlives its clients: stop them before shutting it down.
+ */
+public class AsyncTransport {
+
+  private final static Logger logger = LoggerFactory.getLogger(AsyncTransport.class);
+
+  private final SelectorLoop[] loops;
+  private final AtomicInteger nextLoop = new AtomicInteger();
+  private final ExecutorService workerExecutor;
+  private final ScheduledExecutorService scheduler;
+  private final RateTrackingService rateTrackingService;
+  private final ExecutorService blockingExecutor;
+  private final SSLContext sslContext;
+
+  /**
+   * One selector thread, and a worker per processor
+   */
+  public AsyncTransport() {
+    this(1, Runtime.getRuntime().availableProcessors());
+  }
+
+  public AsyncTransport(int selectorThreads, int workerThreads) {
+    this(selectorThreads, workerThreads, null);
+  }
+
+  /**
+   * @param sslContext used for https hosts, or null for the default context
+   */
+  public AsyncTransport(int selectorThreads, int workerThreads, @Nullable SSLContext sslContext) {
+    Preconditions.checkArgument(selectorThreads > 0);
+    Preconditions.checkArgument(workerThreads > 0);
+    try {
+      this.sslContext = sslContext != null ? sslContext : SSLContext.getDefault();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("No default SSLContext", e);
+    }
+
+    this.workerExecutor = Executors.newFixedThreadPool(workerThreads, threadFactory("hosebird-async-worker-%d"));
+    this.scheduler = Executors.newScheduledThreadPool(1, threadFactory("hosebird-async-scheduler-%d"));
+    this.rateTrackingService = new RateTrackingService(scheduler);
+    this.blockingExecutor = Executors.newCachedThreadPool(threadFactory("hosebird-async-blocking-%d"));
+
+    ThreadFactory selectorThreadFactory = threadFactory("hosebird-async-selector-%d");
+    this.loops = new SelectorLoop[selectorThreads];
+    try {
+      for (int i = 0; i < selectorThreads; i++) {
+        loops[i] = new SelectorLoop();
+        selectorThreadFactory.newThread(loops[i]).start();
+      }
+    } catch (IOException e) {
+      shutdown();
+      throw Throwables.propagate(e);
+    }
+  }
+
+  private static ThreadFactory threadFactory(String nameFormat) {
+    return new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat(nameFormat)
+            .build();
+  }
+
+  SelectorLoop nextLoop() {
+    return loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+  }
+
+  ExecutorService getWorkerExecutor() {
+    return workerExecutor;
+  }
+
+  ExecutorService getBlockingExecutor() {
+    return blockingExecutor;
+  }
+
+  public ScheduledExecutorService getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Ticks the rate trackers of the clients, on the transport's scheduler
+   */
+  public RateTrackingService getRateTrackingService() {
+    return rateTrackingService;
+  }
+
+  SSLEngine createSslEngine(String host, int port) {
+    SSLEngine engine = sslContext.createSSLEngine(host, port);
+    engine.setUseClientMode(true);
+    return engine;
+  }
+
+  /**
+   * Closes every remaining connection and stops the threads
+   */
+  public void shutdown() {
+    logger.info("Shutting down the async transport");
+    for (SelectorLoop loop : loops) {
+      if (loop != null) {
+        loop.shutdown();
+      }
+    }
+    scheduler.shutdown();
+    blockingExecutor.shutdown();
+    workerExecutor.shutdown();
+  }
+}
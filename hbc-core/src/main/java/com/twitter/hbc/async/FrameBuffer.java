@@ -0,0 +1,96 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The bytes of a stream that have been received but not yet read by the processor. The selector thread appends to
+ * it, and the processor reads it through {@link #getInputStream()} on a worker thread.
+ *
+ * Reads never block: the processor is only run once the scanner has seen a complete message, so reading past the
+ * end of what was received means the framing doesn't match the processor, which fails the connection.
+ */
+class FrameBuffer {
+
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+
+  private byte[] buffer = new byte[INITIAL_CAPACITY];
+  private int readPos;
+  private int writePos;
+
+  private final InputStream inputStream = new InputStream() {
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return FrameBuffer.this.read(b, off, len);
+    }
+
+    @Override
+    public int available() {
+      return size();
+    }
+  };
+
+  public synchronized void append(byte[] bytes, int offset, int length) {
+    if (buffer.length - writePos < length) {
+      int size = writePos - readPos;
+      if (buffer.length - size < length) {
+        // grow
+        byte[] grown = new byte[Math.max(buffer.length * 2, size + length)];
+        System.arraycopy(buffer, readPos, grown, 0, size);
+        buffer = grown;
+      } else {
+        // compact
+        System.arraycopy(buffer, readPos, buffer, 0, size);
+      }
+      readPos = 0;
+      writePos = size;
+    }
+    System.arraycopy(bytes, offset, buffer, writePos, length);
+    writePos += length;
+  }
+
+  public synchronized int size() {
+    return writePos - readPos;
+  }
+
+  private synchronized int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    int available = writePos - readPos;
+    if (available == 0) {
+      throw new IOException("Read past the end of the received messages: the stream's framing doesn't match the processor");
+    }
+    int n = Math.min(available, len);
+    System.arraycopy(buffer, readPos, b, off, n);
+    readPos += n;
+    if (readPos == writePos) {
+      readPos = 0;
+      writePos = 0;
+    }
+    return n;
+  }
+
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+}
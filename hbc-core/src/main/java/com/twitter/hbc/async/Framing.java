@@ -0,0 +1,147 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+/**
+ * How messages are framed on the stream, so that the async transport only hands a processor complete messages and
+ * its blocking reads never wait on the network. This must match the processor: DELIMITED for the
+ * StringDelimitedProcessor and ByteArrayDelimitedProcessor (and batching over them), LINES for the LineStringProcessor.
+ */
+public enum Framing {
+
+  /**
+   * delimited=length: each message is preceded by a line holding its length in bytes. Empty lines are keep-alives.
+   */
+  DELIMITED {
+    @Override
+    FrameScanner newScanner() {
+      return new DelimitedFrameScanner();
+    }
+  },
+
+  /**
+   * One message per line. Empty lines are keep-alives.
+   */
+  LINES {
+    @Override
+    FrameScanner newScanner() {
+      return new LineFrameScanner();
+    }
+  };
+
+  abstract FrameScanner newScanner();
+
+  /**
+   * Counts the complete messages on the stream as its bytes arrive, without parsing them
+   */
+  interface FrameScanner {
+    /**
+     * @return the number of messages completed by these bytes. Keep-alives aren't counted.
+     */
+    int scan(byte[] bytes, int offset, int length);
+  }
+
+  private static final byte CR = 13;
+  private static final byte LF = 10;
+
+  static class LineFrameScanner implements FrameScanner {
+    private boolean lineEmpty = true;
+
+    @Override
+    public int scan(byte[] bytes, int offset, int length) {
+      int messages = 0;
+      for (int i = offset; i < offset + length; i++) {
+        byte b = bytes[i];
+        if (b == LF) {
+          if (!lineEmpty) {
+            messages++;
+          }
+          lineEmpty = true;
+        } else if (b != CR) {
+          lineEmpty = false;
+        }
+      }
+      return messages;
+    }
+  }
+
+  /**
+   * Mirrors the way the delimited processors read: a length line, then that many bytes, then (leniently) up to the
+   * end of the line if those bytes didn't end with one. A length line that isn't a number is counted as a message,
+   * so that the processor gets to read it and fail the connection, and a length of 0 is an empty message.
+   */
+  static class DelimitedFrameScanner implements FrameScanner {
+    private static final int LENGTH_LINE = 0;
+    private static final int BODY = 1;
+    private static final int TO_END_OF_LINE = 2;
+
+    private int state = LENGTH_LINE;
+    private long length;
+    private boolean sawDigit;
+    private boolean sawOther;
+    private long remaining;
+
+    @Override
+    public int scan(byte[] bytes, int offset, int count) {
+      int messages = 0;
+      int end = offset + count;
+      int i = offset;
+      while (i < end) {
+        switch (state) {
+          case LENGTH_LINE:
+            byte b = bytes[i++];
+            if (b == LF) {
+              if (sawOther || (sawDigit && length == 0)) {
+                messages++;
+              } else if (sawDigit) {
+                remaining = length;
+                state = BODY;
+              }
+              length = 0;
+              sawDigit = false;
+              sawOther = false;
+            } else if (b >= '0' && b <= '9') {
+              sawDigit = true;
+              length = Math.min(length * 10 + (b - '0'), Integer.MAX_VALUE);
+            } else if (b != CR) {
+              sawOther = true;
+            }
+            break;
+          case BODY:
+            int n = (int) Math.min(remaining, end - i);
+            i += n;
+            remaining -= n;
+            if (remaining == 0) {
+              if (bytes[i - 1] == LF) {
+                messages++;
+                state = LENGTH_LINE;
+              } else {
+                state = TO_END_OF_LINE;
+              }
+            }
+            break;
+          case TO_END_OF_LINE:
+            if (bytes[i++] == LF) {
+              messages++;
+              state = LENGTH_LINE;
+            }
+            break;
+          default:
+            throw new IllegalStateException();
+        }
+      }
+      return messages;
+    }
+  }
+}
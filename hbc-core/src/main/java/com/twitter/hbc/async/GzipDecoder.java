@@ -0,0 +1,170 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Incrementally inflates a gzip stream as its bytes arrive, unlike GZIPInputStream which needs to block for them
+ */
+class GzipDecoder {
+
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private static final int FIXED_HEADER = 0;
+  private static final int EXTRA_LENGTH = 1;
+  private static final int EXTRA = 2;
+  private static final int NAME = 3;
+  private static final int COMMENT = 4;
+  private static final int HEADER_CRC = 5;
+  private static final int DEFLATED = 6;
+  private static final int TRAILER = 7;
+
+  // the optional header fields, in the order they appear
+  private static final int[] HEADER_FIELD_FLAGS = { FEXTRA, FNAME, FCOMMENT, FHCRC };
+  private static final int[] HEADER_FIELD_STATES = { EXTRA_LENGTH, NAME, COMMENT, HEADER_CRC };
+
+  private final HttpResponseDecoder.BodyHandler handler;
+  private final Inflater inflater = new Inflater(true);
+  private final byte[] inflated = new byte[64 * 1024];
+
+  private int state = FIXED_HEADER;
+  private int flags;
+  // bytes of the current state read so far, and the value being read (e.g. the extra field length)
+  private int position;
+  private int value;
+
+  GzipDecoder(HttpResponseDecoder.BodyHandler handler) {
+    this.handler = handler;
+  }
+
+  public void decode(byte[] bytes, int offset, int length) throws IOException {
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      switch (state) {
+        case FIXED_HEADER:
+          int b = bytes[i++] & 0xff;
+          if ((position == 0 && b != 0x1f) || (position == 1 && b != 0x8b) || (position == 2 && b != 8)) {
+            throw new IOException("Not in gzip format");
+          }
+          if (position == 3) {
+            flags = b;
+          }
+          if (++position == 10) {
+            nextHeaderField(0);
+          }
+          break;
+        case EXTRA_LENGTH:
+          value |= (bytes[i++] & 0xff) << (8 * position);
+          if (++position == 2) {
+            state = EXTRA;
+            position = 0;
+            if (value == 0) {
+              nextHeaderField(1);
+            }
+          }
+          break;
+        case EXTRA:
+          int skipped = Math.min(value - position, end - i);
+          i += skipped;
+          position += skipped;
+          if (position == value) {
+            nextHeaderField(1);
+          }
+          break;
+        case NAME:
+          if (bytes[i++] == 0) {
+            nextHeaderField(2);
+          }
+          break;
+        case COMMENT:
+          if (bytes[i++] == 0) {
+            nextHeaderField(3);
+          }
+          break;
+        case HEADER_CRC:
+          i++;
+          if (++position == 2) {
+            state = DEFLATED;
+          }
+          break;
+        case DEFLATED:
+          inflater.setInput(bytes, i, end - i);
+          inflate();
+          i = end - inflater.getRemaining();
+          if (inflater.finished()) {
+            state = TRAILER;
+            position = 0;
+          }
+          break;
+        case TRAILER:
+          // the crc and size of the member, which the deflate stream's own checks make redundant here
+          int trailer = Math.min(8 - position, end - i);
+          i += trailer;
+          position += trailer;
+          if (position == 8) {
+            // another member may follow
+            inflater.reset();
+            state = FIXED_HEADER;
+            position = 0;
+          }
+          break;
+        default:
+          throw new IllegalStateException();
+      }
+    }
+  }
+
+  private void inflate() throws IOException {
+    try {
+      while (!inflater.finished()) {
+        int n = inflater.inflate(inflated);
+        if (n > 0) {
+          handler.onBody(inflated, 0, n);
+        } else if (inflater.needsInput()) {
+          return;
+        } else if (inflater.needsDictionary()) {
+          throw new IOException("Unexpected preset dictionary in gzip stream");
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt gzip stream: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Moves on to the first optional header field, from the given index on, that is present in the flags
+   */
+  private void nextHeaderField(int from) {
+    position = 0;
+    value = 0;
+    for (int field = from; field < HEADER_FIELD_FLAGS.length; field++) {
+      if ((flags & HEADER_FIELD_FLAGS[field]) != 0) {
+        state = HEADER_FIELD_STATES[field];
+        return;
+      }
+    }
+    state = DEFLATED;
+  }
+
+  public void end() {
+    inflater.end();
+  }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import com.google.common.base.Charsets;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.message.BasicStatusLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Incrementally decodes an HTTP/1.x response as its bytes arrive: the status line and headers, then the body, undoing
+ * the chunked transfer encoding and gzip content encoding if present.
+ */
+class HttpResponseDecoder {
+
+  interface BodyHandler {
+    void onBody(byte[] bytes, int offset, int length) throws IOException;
+  }
+
+  interface Handler extends BodyHandler {
+    /**
+     * Called once the headers have been read. The body follows, already decoded.
+     */
+    void onStatus(StatusLine statusLine) throws IOException;
+  }
+
+  private static final int MAX_HEADER_BYTES = 64 * 1024;
+  private static final int MAX_CHUNK_LINE_BYTES = 1024;
+
+  private static final int HEADERS = 0;
+  private static final int IDENTITY_BODY = 1;
+  private static final int CHUNK_SIZE = 2;
+  private static final int CHUNK_DATA = 3;
+  private static final int CHUNK_DATA_END = 4;
+  private static final int TRAILERS = 5;
+  private static final int DONE = 6;
+
+  private final Handler handler;
+  private BodyHandler bodyHandler;
+  private GzipDecoder gzipDecoder;
+
+  private int state = HEADERS;
+  private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+  private int headerBytes;
+  private boolean lineEmpty = true;
+
+  // remaining bytes of the identity body or of the current chunk. -1 means until the connection is closed
+  private long remaining = -1;
+
+  // headers
+  private StatusLine statusLine;
+  private boolean chunked;
+  private boolean gzipped;
+
+  HttpResponseDecoder(Handler handler) {
+    this.handler = handler;
+  }
+
+  public void decode(byte[] bytes, int offset, int length) throws IOException {
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      switch (state) {
+        case HEADERS:
+          i = readHeaders(bytes, i, end);
+          break;
+        case IDENTITY_BODY:
+          int n = remaining < 0 ? end - i : (int) Math.min(remaining, end - i);
+          bodyHandler.onBody(bytes, i, n);
+          i += n;
+          if (remaining > 0) {
+            remaining -= n;
+            if (remaining == 0) {
+              state = DONE;
+            }
+          }
+          break;
+        case CHUNK_SIZE:
+          i = readChunkSize(bytes, i, end);
+          break;
+        case CHUNK_DATA:
+          int chunk = (int) Math.min(remaining, end - i);
+          bodyHandler.onBody(bytes, i, chunk);
+          i += chunk;
+          remaining -= chunk;
+          if (remaining == 0) {
+            state = CHUNK_DATA_END;
+          }
+          break;
+        case CHUNK_DATA_END:
+          // the \r\n after each chunk
+          if (bytes[i++] == '\n') {
+            state = CHUNK_SIZE;
+          }
+          break;
+        case TRAILERS:
+          byte b = bytes[i++];
+          if (b == '\n') {
+            if (lineEmpty) {
+              state = DONE;
+            }
+            lineEmpty = true;
+          } else if (b != '\r') {
+            lineEmpty = false;
+          }
+          break;
+        case DONE:
+          // ignore anything after the end of the response
+          i = end;
+          break;
+        default:
+          throw new IllegalStateException();
+      }
+    }
+  }
+
+  /**
+   * Called when the connection has been closed by the server
+   */
+  public void endOfStream() throws IOException {
+    if (state == HEADERS) {
+      throw new IOException("Connection closed before the response headers");
+    } else if (state != DONE && !(state == IDENTITY_BODY && remaining < 0)) {
+      throw new IOException("Connection closed before the end of the response");
+    }
+  }
+
+  public boolean isDone() {
+    return state == DONE;
+  }
+
+  public void close() {
+    if (gzipDecoder != null) {
+      gzipDecoder.end();
+    }
+  }
+
+  private int readHeaders(byte[] bytes, int i, int end) throws IOException {
+    while (i < end) {
+      byte b = bytes[i++];
+      if (++headerBytes > MAX_HEADER_BYTES) {
+        throw new IOException("Response headers too large");
+      }
+      if (b == '\n') {
+        String header = new String(line.toByteArray(), Charsets.ISO_8859_1).trim();
+        line.reset();
+        if (statusLine == null) {
+          statusLine = parseStatusLine(header);
+        } else if (header.isEmpty()) {
+          startBody();
+          return i;
+        } else {
+          parseHeader(header);
+        }
+      } else {
+        line.write(b);
+      }
+    }
+    return i;
+  }
+
+  private static StatusLine parseStatusLine(String line) throws IOException {
+    // e.g. HTTP/1.1 200 OK
+    String[] parts = line.split(" ", 3);
+    if (parts.length < 2 || !parts[0].startsWith("HTTP/") || parts[0].length() != 8) {
+      throw new IOException("Malformed status line: " + line);
+    }
+    try {
+      ProtocolVersion version = new ProtocolVersion("HTTP", parts[0].charAt(5) - '0', parts[0].charAt(7) - '0');
+      return new BasicStatusLine(version, Integer.parseInt(parts[1]), parts.length > 2 ? parts[2] : "");
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed status line: " + line);
+    }
+  }
+
+  private void parseHeader(String header) throws IOException {
+    int colon = header.indexOf(':');
+    if (colon <= 0) {
+      throw new IOException("Malformed header: " + header);
+    }
+    String name = header.substring(0, colon).trim();
+    String value = header.substring(colon + 1).trim();
+    if (name.equalsIgnoreCase("Transfer-Encoding")) {
+      chunked = value.toLowerCase().contains("chunked");
+    } else if (name.equalsIgnoreCase("Content-Encoding")) {
+      gzipped = value.equalsIgnoreCase("gzip");
+    } else if (name.equalsIgnoreCase("Content-Length")) {
+      try {
+        remaining = Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed header: " + header);
+      }
+    }
+  }
+
+  private void startBody() throws IOException {
+    if (gzipped) {
+      gzipDecoder = new GzipDecoder(handler);
+      bodyHandler = new BodyHandler() {
+        @Override
+        public void onBody(byte[] bytes, int offset, int length) throws IOException {
+          gzipDecoder.decode(bytes, offset, length);
+        }
+      };
+    } else {
+      bodyHandler = handler;
+    }
+
+    handler.onStatus(statusLine);
+    if (chunked) {
+      remaining = 0;
+      state = CHUNK_SIZE;
+    } else if (remaining == 0) {
+      state = DONE;
+    } else {
+      state = IDENTITY_BODY;
+    }
+  }
+
+  private int readChunkSize(byte[] bytes, int i, int end) throws IOException {
+    while (i < end) {
+      byte b = bytes[i++];
+      if (b == '\n') {
+        String sizeLine = new String(line.toByteArray(), Charsets.ISO_8859_1).trim();
+        line.reset();
+        int extension = sizeLine.indexOf(';');
+        if (extension >= 0) {
+          sizeLine = sizeLine.substring(0, extension).trim();
+        }
+        try {
+          remaining = Long.parseLong(sizeLine, 16);
+        } catch (NumberFormatException e) {
+          throw new IOException("Malformed chunk size: " + sizeLine);
+        }
+        if (remaining == 0) {
+          lineEmpty = true;
+          state = TRAILERS;
+        } else {
+          state = CHUNK_DATA;
+        }
+        return i;
+      } else if (line.size() < MAX_CHUNK_LINE_BYTES) {
+        line.write(b);
+      } else {
+        throw new IOException("Chunk size line too long");
+      }
+    }
+    return i;
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread multiplexing many connections over one selector. The connections' state is only touched on this
+ * thread: other threads hand it work through {@link #execute(Runnable)}.
+ */
+class SelectorLoop implements Runnable {
+
+  private final static Logger logger = LoggerFactory.getLogger(SelectorLoop.class);
+
+  private static final long TIMEOUT_CHECK_MILLIS = 1000;
+
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private final Object taskLock = new Object();
+
+  private volatile Thread thread;
+  private volatile boolean running = true;
+  private volatile boolean terminated;
+
+  SelectorLoop() throws IOException {
+    this.selector = Selector.open();
+  }
+
+  Selector getSelector() {
+    return selector;
+  }
+
+  boolean inLoop() {
+    return Thread.currentThread() == thread;
+  }
+
+  boolean isShutdown() {
+    return !running;
+  }
+
+  /**
+   * Runs the task on the loop's thread. Once the loop has terminated, tasks are run on the caller's thread instead,
+   * so that connections still get closed.
+   */
+  void execute(Runnable task) {
+    tasks.add(task);
+    if (terminated) {
+      runTasks();
+    } else {
+      selector.wakeup();
+    }
+  }
+
+  void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    thread = Thread.currentThread();
+    long nextTimeoutCheck = System.currentTimeMillis() + TIMEOUT_CHECK_MILLIS;
+    try {
+      while (running) {
+        selector.select(TIMEOUT_CHECK_MILLIS);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          ((AsyncConnection) key.attachment()).onReady(key);
+        }
+        runTasks();
+
+        long now = System.currentTimeMillis();
+        if (now >= nextTimeoutCheck) {
+          for (SelectionKey key : selector.keys()) {
+            ((AsyncConnection) key.attachment()).checkTimeouts(now);
+          }
+          nextTimeoutCheck = now + TIMEOUT_CHECK_MILLIS;
+        }
+      }
+    } catch (Throwable e) {
+      logger.error("Selector loop failed", e);
+    } finally {
+      running = false;
+      for (SelectionKey key : selector.keys()) {
+        ((AsyncConnection) key.attachment()).fail(new IOException("Transport shut down"));
+      }
+      terminated = true;
+      runTasks();
+      try {
+        selector.close();
+      } catch (IOException e) {
+        logger.warn("Failed to close the selector", e);
+      }
+    }
+  }
+
+  private void runTasks() {
+    synchronized (taskLock) {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          logger.warn("Uncaught exception in selector task", e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on a shared executor
+ */
+class SerialExecutor implements Executor {
+
+  private final static Logger logger = LoggerFactory.getLogger(SerialExecutor.class);
+
+  private final Executor executor;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  private final Runnable runner = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            logger.warn("Uncaught exception in serial task", e);
+          }
+        }
+      } finally {
+        scheduled.set(false);
+        // a task submitted after the poll above, but before the flag was cleared
+        if (!tasks.isEmpty()) {
+          schedule();
+        }
+      }
+    }
+  };
+
+  SerialExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    schedule();
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      executor.execute(runner);
+    }
+  }
+}
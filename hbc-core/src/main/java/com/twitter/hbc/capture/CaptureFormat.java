@@ -0,0 +1,63 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.capture;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * The layout of a capture: a directory of gzipped segment files, named so that they sort in the order they were
+ * written. Each segment starts with {@link #MAGIC} and its {@link #VERSION}, followed by frames of a type byte and:
+ * - {@link #CONNECT}: nothing. A new connection starts here
+ * - {@link #TIME}: a long, the nanos since the recording started. Everything before it had been received by then
+ * - {@link #DATA}: an int length, and that many bytes of the stream
+ * A frame never spans two segments.
+ */
+final class CaptureFormat {
+
+  static final int MAGIC = 0x48424301; // HBC\1
+  static final byte VERSION = 1;
+
+  static final byte CONNECT = 'C';
+  static final byte TIME = 'T';
+  static final byte DATA = 'D';
+
+  private static final Pattern SEGMENT_NAME = Pattern.compile("capture-\\d{19}\\.gz");
+
+  private CaptureFormat() {
+  }
+
+  static File segmentFile(File directory, long id) {
+    return new File(directory, String.format("capture-%019d.gz", id));
+  }
+
+  /**
+   * @return the segments of the capture in the directory, in the order they were written
+   */
+  static File[] segments(File directory) {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return SEGMENT_NAME.matcher(name).matches();
+      }
+    });
+    if (files == null) {
+      return new File[0];
+    }
+    Arrays.sort(files);
+    return files;
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.capture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the frames of a capture, across its segments. Not threadsafe.
+ */
+class CaptureReader implements Closeable {
+
+  private final static Logger logger = LoggerFactory.getLogger(CaptureReader.class);
+
+  /**
+   * The end of the capture
+   */
+  static final byte END = -1;
+
+  private final File[] segments;
+  private int nextSegment;
+  private DataInputStream in;
+
+  CaptureReader(File directory) throws IOException {
+    this.segments = CaptureFormat.segments(directory);
+    if (segments.length == 0) {
+      throw new IOException("No capture in " + directory);
+    }
+  }
+
+  /**
+   * @return the type of the next frame, or {@link #END}
+   */
+  byte nextFrame() throws IOException {
+    while (true) {
+      if (in == null) {
+        if (nextSegment == segments.length) {
+          return END;
+        }
+        open(segments[nextSegment++]);
+      }
+      try {
+        return in.readByte();
+      } catch (EOFException e) {
+        in.close();
+        in = null;
+      }
+    }
+  }
+
+  long readTime() throws IOException {
+    return truncatedAt(in).readLong();
+  }
+
+  int readLength() throws IOException {
+    return truncatedAt(in).readInt();
+  }
+
+  void readData(byte[] buffer, int offset, int length) throws IOException {
+    truncatedAt(in).readFully(buffer, offset, length);
+  }
+
+  private DataInputStream truncatedAt(DataInputStream in) throws IOException {
+    if (in == null) {
+      throw new EOFException("Capture is truncated");
+    }
+    return in;
+  }
+
+  private void open(File segment) throws IOException {
+    DataInputStream stream = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+      new FileInputStream(segment), 65536)));
+    if (stream.readInt() != CaptureFormat.MAGIC) {
+      stream.close();
+      throw new IOException(segment + " is not a capture segment");
+    }
+    byte version = stream.readByte();
+    if (version != CaptureFormat.VERSION) {
+      stream.close();
+      throw new IOException("Unsupported capture version " + version + " in " + segment);
+    }
+    logger.debug("Replaying {}", segment);
+    in = stream;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (in != null) {
+      in.close();
+      in = null;
+    }
+    nextSegment = segments.length;
+  }
+}
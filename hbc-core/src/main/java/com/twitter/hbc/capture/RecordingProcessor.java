@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.capture;
+
+import com.google.common.base.Preconditions;
+import com.twitter.hbc.core.processor.HosebirdMessageProcessor;
+import com.twitter.hbc.core.processor.ReleasableProcessor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps a processor to record everything it reads off the stream with a {@link StreamRecorder}, along with the time
+ * every timestampInterval messages, so the capture can be replayed at the pace it was received.
+ */
+public class RecordingProcessor implements ReleasableProcessor {
+
+  public static final int DEFAULT_TIMESTAMP_INTERVAL = 100;
+
+  private final HosebirdMessageProcessor processor;
+  private final StreamRecorder recorder;
+  private final int timestampInterval;
+  private int messages;
+
+  public RecordingProcessor(HosebirdMessageProcessor processor, StreamRecorder recorder) {
+    this(processor, recorder, DEFAULT_TIMESTAMP_INTERVAL);
+  }
+
+  /**
+   * @param timestampInterval the number of messages between timestamps
+   */
+  public RecordingProcessor(HosebirdMessageProcessor processor, StreamRecorder recorder, int timestampInterval) {
+    Preconditions.checkArgument(timestampInterval > 0);
+    this.processor = Preconditions.checkNotNull(processor);
+    this.recorder = Preconditions.checkNotNull(recorder);
+    this.timestampInterval = timestampInterval;
+  }
+
+  @Override
+  public void setup(InputStream input) {
+    recorder.connected();
+    messages = 0;
+    processor.setup(new RecordingInputStream(input));
+  }
+
+  @Override
+  public boolean process() throws IOException, InterruptedException {
+    boolean success = processor.process();
+    if (++messages == timestampInterval) {
+      messages = 0;
+      recorder.timestamp();
+    }
+    return success;
+  }
+
+  @Override
+  public void release() {
+    if (processor instanceof ReleasableProcessor) {
+      ((ReleasableProcessor) processor).release();
+    }
+  }
+
+  private class RecordingInputStream extends FilterInputStream {
+
+    RecordingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        recorder.data(new byte[] { (byte) b }, 0, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      recorder.data(b, off, read);
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // skipped bytes have to be recorded too
+      byte[] buffer = new byte[(int) Math.min(n, 8192)];
+      int read = read(buffer, 0, buffer.length);
+      return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.capture;
+
+import com.google.common.base.Preconditions;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.conn.BasicClientConnectionManager;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An HttpClient that serves a capture recorded by a {@link StreamRecorder} instead of connecting anywhere, to load
+ * test processors and listeners offline with a real stream. Whatever the request, each call to execute answers a 200
+ * streaming the next connection of the capture, which ends where the recorded connection ended. Once the capture is
+ * over, execute throws an IOException.
+ *
+ * The stream is paced by the capture's timestamps, divided by the speed: {@link #ORIGINAL_SPEED} replays it as it was
+ * received, 10 ten times faster, and {@link #MAX_SPEED} as fast as it is read. A client replaying a capture is built
+ * with the BasicClient constructor that takes an HttpClient, or {@link com.twitter.hbc.ClientBuilder#httpClient}, and
+ * any host, e.g. {@link #HOST}.
+ */
+public class ReplayHttpClient implements HttpClient {
+
+  public static final String HOST = "http://replay.invalid";
+  public static final double ORIGINAL_SPEED = 1;
+  public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+  private final CaptureReader reader;
+  private final double speed;
+  private final HttpParams params;
+  private final ClientConnectionManager connectionManager;
+
+  // guarded by reader
+  private ReplayInputStream current;
+  // bytes of the current data frame not read yet
+  private int remaining;
+  private boolean atConnect;
+  private boolean finished;
+  private int connections;
+
+  public ReplayHttpClient(File directory) throws IOException {
+    this(directory, ORIGINAL_SPEED);
+  }
+
+  public ReplayHttpClient(File directory, double speed) throws IOException {
+    Preconditions.checkArgument(speed > 0, "speed must be positive");
+    this.reader = new CaptureReader(directory);
+    this.speed = speed;
+    this.params = new BasicHttpParams();
+    this.connectionManager = new BasicClientConnectionManager();
+  }
+
+  @Override
+  public HttpResponse execute(HttpUriRequest request) throws IOException {
+    return replayNextConnection();
+  }
+
+  @Override
+  public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+    return replayNextConnection();
+  }
+
+  @Override
+  public HttpResponse execute(HttpHost target, HttpRequest request) throws IOException {
+    return replayNextConnection();
+  }
+
+  @Override
+  public HttpResponse execute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+    return replayNextConnection();
+  }
+
+  @Override
+  public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler) throws IOException {
+    return responseHandler.handleResponse(replayNextConnection());
+  }
+
+  @Override
+  public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler, HttpContext context)
+    throws IOException {
+    return responseHandler.handleResponse(replayNextConnection());
+  }
+
+  @Override
+  public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler)
+    throws IOException {
+    return responseHandler.handleResponse(replayNextConnection());
+  }
+
+  @Override
+  public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler,
+                       HttpContext context) throws IOException {
+    return responseHandler.handleResponse(replayNextConnection());
+  }
+
+  private HttpResponse replayNextConnection() throws IOException {
+    synchronized (reader) {
+      // skip whatever is left of the previous connection
+      if (remaining > 0) {
+        reader.readData(new byte[remaining], 0, remaining);
+        remaining = 0;
+      }
+      while (!atConnect && !finished) {
+        byte frame = reader.nextFrame();
+        if (frame == CaptureFormat.CONNECT) {
+          atConnect = true;
+        } else {
+          skip(frame);
+        }
+      }
+      if (finished) {
+        throw new IOException("End of the capture");
+      }
+      atConnect = false;
+      connections++;
+      current = new ReplayInputStream();
+    }
+    BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    response.setEntity(new InputStreamEntity(current, -1));
+    return response;
+  }
+
+  // must hold the reader's lock
+  private void skip(byte frame) throws IOException {
+    switch (frame) {
+      case CaptureFormat.TIME:
+        reader.readTime();
+        break;
+      case CaptureFormat.DATA:
+        int length = reader.readLength();
+        reader.readData(new byte[length], 0, length);
+        break;
+      case CaptureReader.END:
+        finished = true;
+        break;
+      default:
+        throw new IOException("Corrupt capture: unknown frame " + frame);
+    }
+  }
+
+  /**
+   * @return the number of connections served so far
+   */
+  public int getConnectionsReplayed() {
+    synchronized (reader) {
+      return connections;
+    }
+  }
+
+  /**
+   * @return whether the whole capture has been served
+   */
+  public boolean isFinished() {
+    synchronized (reader) {
+      return finished;
+    }
+  }
+
+  @Override
+  public HttpParams getParams() {
+    return params;
+  }
+
+  @Override
+  public ClientConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  /**
+   * Streams one connection of the capture, at the capture's pace
+   */
+  private class ReplayInputStream extends InputStream {
+    private final byte[] single = new byte[1];
+    private boolean ended;
+    // replay time of the connection's first timestamp
+    private long startNanos;
+    private long firstTimestamp = -1;
+
+    @Override
+    public int read() throws IOException {
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      synchronized (reader) {
+        if (current != this) {
+          return -1;
+        }
+        while (remaining == 0) {
+          if (ended) {
+            return -1;
+          }
+          nextFrame();
+        }
+        int read = Math.min(remaining, length);
+        reader.readData(buffer, offset, read);
+        remaining -= read;
+        return read;
+      }
+    }
+
+    // must hold the reader's lock
+    private void nextFrame() throws IOException {
+      byte frame = reader.nextFrame();
+      switch (frame) {
+        case CaptureFormat.DATA:
+          remaining = reader.readLength();
+          break;
+        case CaptureFormat.TIME:
+          pace(reader.readTime());
+          break;
+        case CaptureFormat.CONNECT:
+          atConnect = true;
+          ended = true;
+          break;
+        case CaptureReader.END:
+          finished = true;
+          ended = true;
+          break;
+        default:
+          throw new IOException("Corrupt capture: unknown frame " + frame);
+      }
+    }
+
+    private void pace(long timestamp) throws IOException {
+      if (firstTimestamp < 0) {
+        firstTimestamp = timestamp;
+        startNanos = System.nanoTime();
+        return;
+      }
+      if (speed == MAX_SPEED) {
+        return;
+      }
+      long waitNanos = startNanos + (long) ((timestamp - firstTimestamp) / speed) - System.nanoTime();
+      if (waitNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while replaying");
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      synchronized (reader) {
+        // the rest of the connection is skipped by the next execute
+        if (current == this) {
+          current = null;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.capture;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the bytes of a stream, as the processor reads them after decompression, to a capture directory that a
+ * {@link ReplayHttpClient} can serve again. See {@link CaptureFormat} for the layout.
+ *
+ * Recording never gets in the way of the stream: if writing fails, the recorder logs it and stops recording.
+ * Threadsafe, but a recorder should only record the connections of one client.
+ */
+public class StreamRecorder implements Closeable {
+
+  private final static Logger logger = LoggerFactory.getLogger(StreamRecorder.class);
+
+  public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+  private final File directory;
+  private final long segmentBytes;
+  private final long startNanos;
+
+  private DataOutputStream out;
+  private long nextSegmentId;
+  // uncompressed bytes written to the current segment
+  private long written;
+  private long bytesRecorded;
+  private boolean failed;
+  private boolean closed;
+
+  public StreamRecorder(File directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_BYTES);
+  }
+
+  /**
+   * @param directory an empty or new directory
+   * @param segmentBytes the stream bytes after which a new segment file is started
+   */
+  public StreamRecorder(File directory, long segmentBytes) throws IOException {
+    Preconditions.checkArgument(segmentBytes > 0);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create capture directory " + directory);
+    }
+    Preconditions.checkArgument(CaptureFormat.segments(directory).length == 0,
+      "%s already holds a capture", directory);
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.startNanos = System.nanoTime();
+  }
+
+  /**
+   * Starts a new connection
+   */
+  synchronized void connected() {
+    if (startFrame(CaptureFormat.CONNECT, 0)) {
+      writeTime(System.nanoTime() - startNanos);
+    }
+  }
+
+  synchronized void timestamp() {
+    writeTime(System.nanoTime() - startNanos);
+  }
+
+  @VisibleForTesting
+  synchronized void writeTime(long nanos) {
+    if (startFrame(CaptureFormat.TIME, 8)) {
+      try {
+        out.writeLong(nanos);
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+
+  synchronized void data(byte[] buffer, int offset, int length) {
+    if (length > 0 && startFrame(CaptureFormat.DATA, 4 + length)) {
+      try {
+        out.writeInt(length);
+        out.write(buffer, offset, length);
+        bytesRecorded += length;
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+
+  /**
+   * Writes a frame's type, starting a new segment first if the current one is full
+   * @return whether the rest of the frame should be written
+   */
+  private boolean startFrame(byte type, int length) {
+    if (failed || closed) {
+      return false;
+    }
+    try {
+      if (out == null || written >= segmentBytes) {
+        nextSegment();
+      }
+      out.writeByte(type);
+      written += 1 + length;
+      return true;
+    } catch (IOException e) {
+      fail(e);
+      return false;
+    }
+  }
+
+  private void nextSegment() throws IOException {
+    if (out != null) {
+      out.close();
+    }
+    File file = CaptureFormat.segmentFile(directory, nextSegmentId++);
+    out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), 65536)));
+    out.writeInt(CaptureFormat.MAGIC);
+    out.writeByte(CaptureFormat.VERSION);
+    written = 0;
+  }
+
+  private void fail(IOException e) {
+    logger.warn("Unable to record to " + directory + ", recording stopped", e);
+    failed = true;
+  }
+
+  /**
+   * @return the stream bytes recorded so far
+   */
+  public synchronized long getBytesRecorded() {
+    return bytesRecorded;
+  }
+
+  /**
+   * @return false if recording stopped because of an error
+   */
+  public synchronized boolean isRecording() {
+    return !failed && !closed;
+  }
+
+  /**
+   * Finishes the current segment. Nothing is recorded afterwards.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.common;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of byte arrays, shared between the readers of many connections, so that the buffers of a connection are
+ * handed over to the next one instead of being garbage, and an outlier message only borrows a large buffer for as
+ * long as it takes to read it.
+ *
+ * Arrays come in power of two size classes, from {@link #MIN_SIZE_CLASS} to {@link #MAX_SIZE_CLASS} bytes. Requests
+ * for more than the largest class are allocated, and dropped on release. At most maxRetainedBytes are kept idle in
+ * the pool: arrays released beyond that are left to the garbage collector.
+ *
+ * Arrays are handed out as they were released, not zeroed. Threadsafe.
+ */
+public class BufferPool {
+
+  public static final int MIN_SIZE_CLASS = 1 << 10;
+  public static final int MAX_SIZE_CLASS = 1 << 19;
+  public static final long DEFAULT_MAX_RETAINED_BYTES = 32L << 20;
+
+  private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE_CLASS);
+  private static final int NUM_SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE_CLASS) - MIN_SHIFT + 1;
+
+  private static final BufferPool SHARED = new BufferPool(DEFAULT_MAX_RETAINED_BYTES);
+
+  private final long maxRetainedBytes;
+  // a list rather than an array, which can't be created with its generic type
+  private final List<ConcurrentLinkedQueue<byte[]>> sizeClasses;
+  private final AtomicLong retainedBytes;
+  private final AtomicLong allocations;
+  private final AtomicLong reuses;
+
+  /**
+   * @return the pool the readers of all clients share by default
+   */
+  public static BufferPool shared() {
+    return SHARED;
+  }
+
+  public BufferPool(long maxRetainedBytes) {
+    Preconditions.checkArgument(maxRetainedBytes >= 0);
+    this.maxRetainedBytes = maxRetainedBytes;
+    ImmutableList.Builder<ConcurrentLinkedQueue<byte[]>> sizeClasses = ImmutableList.builder();
+    for (int i = 0; i < NUM_SIZE_CLASSES; i++) {
+      sizeClasses.add(new ConcurrentLinkedQueue<byte[]>());
+    }
+    this.sizeClasses = sizeClasses.build();
+    this.retainedBytes = new AtomicLong();
+    this.allocations = new AtomicLong();
+    this.reuses = new AtomicLong();
+  }
+
+  /**
+   * @return an array of at least minSize bytes, which should be handed back with {@link #release(byte[])} once it is
+   * no longer used
+   */
+  public byte[] acquire(int minSize) {
+    Preconditions.checkArgument(minSize >= 0);
+    if (minSize > MAX_SIZE_CLASS) {
+      allocations.incrementAndGet();
+      return new byte[minSize];
+    }
+    int sizeClass = sizeClassOf(minSize);
+    byte[] buffer = sizeClasses.get(sizeClass).poll();
+    if (buffer != null) {
+      retainedBytes.addAndGet(-buffer.length);
+      reuses.incrementAndGet();
+      return buffer;
+    }
+    allocations.incrementAndGet();
+    return new byte[MIN_SIZE_CLASS << sizeClass];
+  }
+
+  /**
+   * Hands an array back to the pool. The array must not be used afterwards.
+   */
+  public void release(byte[] buffer) {
+    int length = buffer.length;
+    if (length < MIN_SIZE_CLASS || length > MAX_SIZE_CLASS || Integer.bitCount(length) != 1) {
+      // not one of ours
+      return;
+    }
+    if (retainedBytes.addAndGet(length) > maxRetainedBytes) {
+      retainedBytes.addAndGet(-length);
+      return;
+    }
+    sizeClasses.get(sizeClassOf(length)).offer(buffer);
+  }
+
+  private static int sizeClassOf(int size) {
+    if (size <= MIN_SIZE_CLASS) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+  }
+
+  /**
+   * @return the bytes held idle by the pool
+   */
+  public long getRetainedBytes() {
+    return retainedBytes.get();
+  }
+
+  /**
+   * @return the number of arrays the pool had to allocate
+   */
+  public long getAllocations() {
+    return allocations.get();
+  }
+
+  /**
+   * @return the number of arrays handed out again after being released
+   */
+  public long getReuses() {
+    return reuses.get();
+  }
+}
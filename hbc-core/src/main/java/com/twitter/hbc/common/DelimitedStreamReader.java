@@ -18,64 +18,94 @@ import com.google.common.base.Preconditions;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
  * Only for charsets whose byte representations of \n and \r are 10 and 13 (Ascii compatible encodings)
+ *
+ * The reader's buffers are borrowed from a {@link BufferPool}. A buffer grown to fit a large message is handed back
+ * once the message has been read, and {@link #release()} hands back the rest when the stream is done with.
  */
 public class DelimitedStreamReader {
 
   private final InputStream inputStream;
+  private final BufferPool pool;
 
-  private final byte[] buffer;
+  private byte[] buffer;
+  // the most read from the stream at once; buffer may be larger
+  private final int readSize;
   private byte[] strBuffer;
+  private final int strBufferLength;
   private int strBufferIndex;
   private final Charset charset;
 
   private int offset;
   private int end; // first invalid byte
 
-  private static final int DEFAULT_READ_COUNT = 64;
   private static final int MAX_ALLOWABLE_BUFFER_SIZE = 500000;
 
   private static final byte CR = 13;
   private static final byte LF = 10;
 
   public DelimitedStreamReader(InputStream stream, Charset charset, int bufferSize) {
+    this(stream, charset, bufferSize, BufferPool.shared());
+  }
+
+  public DelimitedStreamReader(InputStream stream, Charset charset, int bufferSize, BufferPool pool) {
     Preconditions.checkArgument(bufferSize > 0);
     this.inputStream = Preconditions.checkNotNull(stream);
     this.charset = Preconditions.checkNotNull(charset);
+    this.pool = Preconditions.checkNotNull(pool);
 
-    this.strBuffer = new byte[bufferSize * 2];
+    this.strBuffer = pool.acquire(bufferSize * 2);
+    this.strBufferLength = strBuffer.length;
 
-    buffer = new byte[bufferSize];
+    buffer = pool.acquire(bufferSize);
+    readSize = bufferSize;
     offset = 0;
     end = 0;
   }
 
+  /**
+   * Hands the reader's buffers back to its pool. The reader can't be used afterwards.
+   */
+  public void release() {
+    if (buffer != null) {
+      pool.release(buffer);
+      pool.release(strBuffer);
+      buffer = null;
+      strBuffer = null;
+    }
+  }
+
   public String readLine() throws IOException {
-    return readLine(true);
+    shrinkStrBuffer();
+    int length = readLineToStrBuffer(true);
+    return new String(strBuffer, 0, length, charset);
+  }
+
+  /**
+   * Same as {@link #readLine()}, but returns the raw bytes of the line without decoding them
+   */
+  public byte[] readLineBytes() throws IOException {
+    shrinkStrBuffer();
+    int length = readLineToStrBuffer(true);
+    return Arrays.copyOf(strBuffer, length);
   }
 
   /**
    * Reads a line from the input stream, where a line is terminated by \r, \n, or \r\n
    * @param trim whether to trim trailing \r and \ns
+   * @return the number of bytes of the line, which start at index 0 of strBuffer
    */
-  private String readLine(boolean trim) throws IOException {
+  private int readLineToStrBuffer(boolean trim) throws IOException {
     boolean done = false;
     boolean sawCarriage = false;
     // bytes to trim (the \r and the \n)
     int removalBytes = 0;
     while (!done) {
       if (isReadBufferEmpty()) {
-        offset = 0;
-        end = 0;
-        int bytesRead = inputStream.read(buffer, end, Math.min(DEFAULT_READ_COUNT, buffer.length - end));
-        if (bytesRead < 0) {
-          // we failed to read anything more...
-          throw new IOException("Reached the end of the stream");
-        } else {
-          end += bytesRead;
-        }
+        fillReadBuffer();
       }
 
       int originalOffset = offset;
@@ -113,7 +143,7 @@ public class DelimitedStreamReader {
     }
     int strLength = strBufferIndex + removalBytes;
     strBufferIndex = 0;
-    return new String(strBuffer, 0, strLength, charset);
+    return strLength;
   }
 
   /**
@@ -140,8 +170,21 @@ public class DelimitedStreamReader {
     );
 
     if (newLength > oldBuffer.length) {
-      strBuffer = new byte[newLength];
+      strBuffer = pool.acquire(newLength);
       System.arraycopy(oldBuffer, 0, strBuffer, 0, strBufferIndex);
+      pool.release(oldBuffer);
+    }
+  }
+
+  /**
+   * Swaps a strBuffer that was grown for an earlier message for one of the original size. Only called between
+   * messages, when strBuffer holds nothing.
+   */
+  private void shrinkStrBuffer() {
+    Preconditions.checkState(strBuffer != null, "The reader has been released");
+    if (strBuffer.length > strBufferLength) {
+      pool.release(strBuffer);
+      strBuffer = pool.acquire(strBufferLength);
     }
   }
 
@@ -149,6 +192,25 @@ public class DelimitedStreamReader {
    * Reads numBytes bytes, and returns the corresponding string
    */
   public String read(int numBytes) throws IOException {
+    shrinkStrBuffer();
+    int length = readToStrBuffer(numBytes);
+    return new String(strBuffer, 0, length, charset);
+  }
+
+  /**
+   * Reads numBytes bytes, and returns them without decoding them into a string. The returned array is sized exactly
+   * to the message, so this costs a single copy out of the internal buffer.
+   */
+  public byte[] readBytes(int numBytes) throws IOException {
+    shrinkStrBuffer();
+    int length = readToStrBuffer(numBytes);
+    return Arrays.copyOf(strBuffer, length);
+  }
+
+  /**
+   * @return the number of bytes read, which start at index 0 of strBuffer
+   */
+  private int readToStrBuffer(int numBytes) throws IOException {
     Preconditions.checkArgument(numBytes >= 0);
     Preconditions.checkArgument(numBytes <= MAX_ALLOWABLE_BUFFER_SIZE);
     int numBytesRemaining = numBytes;
@@ -160,27 +222,43 @@ public class DelimitedStreamReader {
       numBytesRemaining -= length;
     }
 
-    // next read the remaining chars directly into our strBuffer
-    if (numBytesRemaining > 0) {
-      readAmountToStrBuffer(numBytesRemaining);
+    // next read the remainder. Anything that fits goes through our buffer, so that the same read also picks up
+    // whatever follows it on the stream; only a message bigger than the buffer is read directly into strBuffer
+    while (numBytesRemaining > 0) {
+      if (numBytesRemaining < readSize) {
+        fillReadBuffer();
+        int length = Math.min(end, numBytesRemaining);
+        copyToStrBuffer(buffer, 0, length);
+        offset = length;
+        numBytesRemaining -= length;
+      } else {
+        numBytesRemaining -= readStreamToStrBuffer(numBytesRemaining);
+      }
     }
 
     if (strBufferIndex > 0 && strBuffer[strBufferIndex - 1] != LF) {
       // the last byte doesn't correspond to lf
-      return readLine(false);
+      return readLineToStrBuffer(false);
     }
 
     int strBufferLength = strBufferIndex;
     strBufferIndex = 0;
-    return new String(strBuffer, 0, strBufferLength, charset);
+    return strBufferLength;
   }
 
-  private void readAmountToStrBuffer(int length) throws IOException {
-    int remainingBytes = length;
-    while (remainingBytes > 0) {
-      int bytesRead = readStreamToStrBuffer(remainingBytes);
-      remainingBytes -= bytesRead;
+  /**
+   * Refills our (empty) buffer with as much as the stream has available, up to the size of the buffer. This never
+   * waits for more than the stream hands over in a single read, so a quiet stream doesn't delay messages.
+   */
+  private void fillReadBuffer() throws IOException {
+    offset = 0;
+    end = 0;
+    int bytesRead = inputStream.read(buffer, 0, readSize);
+    if (bytesRead < 0) {
+      // we failed to read anything more...
+      throw new IOException("Reached the end of the stream");
     }
+    end = bytesRead;
   }
 
   private int readStreamToStrBuffer(int length) throws IOException {
@@ -196,6 +274,6 @@ public class DelimitedStreamReader {
   }
 
   private boolean isReadBufferEmpty() {
-    return offset >= buffer.length || end - offset <= 0;
+    return offset >= readSize || end - offset <= 0;
   }
 }
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.common;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Reads the id of a message straight from its text, without parsing it.
+ */
+public final class TweetIds {
+
+  private TweetIds() {
+  }
+
+  /**
+   * @return the top level "id" of the JSON object, or -1 if it has none (e.g. a deletion notice or a limit). Nested
+   * ids, like the user's, are skipped.
+   */
+  public static long idOf(CharSequence json) {
+    int depth = 0;
+    int length = json.length();
+    for (int i = 0; i < length; i++) {
+      char c = json.charAt(i);
+      if (c == '"') {
+        if (depth == 1 && isIdKey(json, i)) {
+          long id = readId(json, i + 4);
+          if (id >= 0) {
+            return id;
+          }
+        }
+        i = skipString(json, i);
+      } else if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        depth--;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Like {@link #idOf(CharSequence)}, for a message in UTF-8
+   */
+  public static long idOf(byte[] json) {
+    // the key and the id are ASCII, and any other byte only needs to be skipped
+    return idOf(new String(json, Charsets.ISO_8859_1));
+  }
+
+  private static boolean isIdKey(CharSequence json, int quote) {
+    return quote + 3 < json.length()
+      && json.charAt(quote + 1) == 'i'
+      && json.charAt(quote + 2) == 'd'
+      && json.charAt(quote + 3) == '"';
+  }
+
+  /**
+   * @return the id after the key's colon, or -1 if the key isn't followed by a number (i.e. it was a value)
+   */
+  private static long readId(CharSequence json, int start) {
+    int i = skipWhitespace(json, start);
+    if (i >= json.length() || json.charAt(i) != ':') {
+      return -1;
+    }
+    i = skipWhitespace(json, i + 1);
+    long id = 0;
+    int digits = 0;
+    while (i < json.length() && digits < 19) {
+      char c = json.charAt(i);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      id = id * 10 + (c - '0');
+      digits++;
+      i++;
+    }
+    return digits == 0 ? -1 : id;
+  }
+
+  private static int skipWhitespace(CharSequence json, int i) {
+    while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * @return the index of the string's closing quote
+   */
+  private static int skipString(CharSequence json, int quote) {
+    int i = quote + 1;
+    while (i < json.length()) {
+      char c = json.charAt(i);
+      if (c == '\\') {
+        i += 2;
+      } else if (c == '"') {
+        return i;
+      } else {
+        i++;
+      }
+    }
+    return i;
+  }
+}
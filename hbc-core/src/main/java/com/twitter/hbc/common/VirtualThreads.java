@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.common;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads, when the JVM has them (Java 21+). They are looked up reflectively, since hbc still builds for
+ * older JVMs. A virtual thread blocked on a socket read or a backoff sleep doesn't hold on to a platform thread, so
+ * a JVM running hundreds of clients doesn't need hundreds of platform threads.
+ */
+public class VirtualThreads {
+
+  @Nullable
+  private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+  @Nullable
+  private static final Method NAME = findMethod(forName("java.lang.Thread$Builder"), "name", String.class, long.class);
+  @Nullable
+  private static final Method FACTORY = findMethod(forName("java.lang.Thread$Builder"), "factory");
+  @Nullable
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR =
+    findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+  private static final boolean AVAILABLE = newThreadFactory("hosebird-virtual-probe-") != null;
+
+  private VirtualThreads() {
+  }
+
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  /**
+   * @return a factory of virtual threads named prefix0, prefix1, ..., or null if virtual threads aren't available
+   */
+  @Nullable
+  public static ThreadFactory newThreadFactory(String prefix) {
+    if (OF_VIRTUAL == null || NAME == null || FACTORY == null) {
+      return null;
+    }
+    try {
+      Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+      return (ThreadFactory) FACTORY.invoke(builder);
+    } catch (Exception e) {
+      // e.g. virtual threads are a preview feature that isn't enabled
+      return null;
+    }
+  }
+
+  /**
+   * @return an executor starting a virtual thread per task, or if virtual threads aren't available, a cached pool of
+   * daemon threads. Either way, the threads are named prefix0, prefix1, ...
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+    ThreadFactory factory = newThreadFactory(prefix);
+    if (factory != null && NEW_THREAD_PER_TASK_EXECUTOR != null) {
+      try {
+        return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+      } catch (Exception e) {
+        // fall back to platform threads
+      }
+    }
+    return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat(prefix + "%d")
+            .build());
+  }
+
+  @Nullable
+  private static Class<?> forName(String className) {
+    try {
+      return Class.forName(className);
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  @Nullable
+  private static Method findMethod(@Nullable Class<?> clazz, String name, Class<?>... parameterTypes) {
+    if (clazz == null) {
+      return null;
+    }
+    try {
+      return clazz.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts that also resolves them, for the clients built with a {@link com.twitter.hbc.ClientBuilder}, which connect
+ * through it when it's their hosts.
+ *
+ * Each hostname is resolved into all of its addresses, which are cached and re-resolved in the background every TTL.
+ * A connection only waits on DNS the first time a hostname is looked up: after that it gets the cached addresses, even
+ * when the resolver is slow or failing, in which case the last addresses are kept until it answers again. Each lookup
+ * starts from the next address, so that the connections are spread evenly over all of them, and the connection
+ * falls back to the others when it can't connect.
+ *
+ * The hostname stays in the request and in the resolved addresses, so the Host header, SNI and certificate
+ * verification are all for the hostname, whichever address is connected to.
+ *
+ * The JVM doesn't expose the TTLs of the DNS records, so the TTL is a setting, and the JVM's own DNS cache
+ * (networkaddress.cache.ttl) should not be longer.
+ */
+public class DnsHosts implements Hosts, DnsResolver {
+
+  private final static Logger logger = LoggerFactory.getLogger(DnsHosts.class);
+
+  public static final long DEFAULT_TTL_MILLIS = 60000;
+
+  private final HttpHosts hosts;
+  private final DnsResolver resolver;
+  private final ScheduledExecutorService scheduler;
+  private final boolean ownsScheduler;
+  private final Map<String, Addresses> cache;
+
+  public DnsHosts(String address) {
+    this(Collections.singletonList(address));
+  }
+
+  /**
+   * All addresses must start with the http scheme("http:// or https://")
+   */
+  public DnsHosts(Iterable<String> addresses) {
+    this(addresses, DEFAULT_TTL_MILLIS, new SystemDefaultDnsResolver(), createScheduler(), true);
+  }
+
+  /**
+   * @param ttlMillis how often the resolved hostnames are resolved again
+   * @param resolver does the actual lookups
+   * @param ownsScheduler whether {@link #shutdown()} should shut down the scheduler
+   */
+  public DnsHosts(Iterable<String> addresses, long ttlMillis, DnsResolver resolver,
+                  ScheduledExecutorService scheduler, boolean ownsScheduler) {
+    Preconditions.checkArgument(ttlMillis > 0);
+    this.hosts = new HttpHosts(addresses);
+    this.resolver = Preconditions.checkNotNull(resolver);
+    this.scheduler = Preconditions.checkNotNull(scheduler);
+    this.ownsScheduler = ownsScheduler;
+    this.cache = new ConcurrentHashMap<String, Addresses>();
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        refresh();
+      }
+    }, ttlMillis, ttlMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private static ScheduledExecutorService createScheduler() {
+    return Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+      .setDaemon(true)
+      .setNameFormat("hosebird-dns-refresh-%d")
+      .build());
+  }
+
+  @Override
+  public String nextHost() {
+    return hosts.nextHost();
+  }
+
+  /**
+   * @return the addresses of the host, starting from the one after those of the last lookup
+   */
+  @Override
+  public InetAddress[] resolve(String host) throws UnknownHostException {
+    Addresses addresses = cache.get(host);
+    if (addresses == null) {
+      // the first lookup of the host: nothing to fall back to
+      addresses = new Addresses(lookup(host));
+      cache.put(host, addresses);
+    }
+    return addresses.next();
+  }
+
+  /**
+   * @return the cached addresses of the host, in no particular order, or an empty list if it hasn't been resolved
+   */
+  public List<InetAddress> getAddresses(String host) {
+    Addresses addresses = cache.get(host);
+    return addresses == null ? Collections.<InetAddress>emptyList() : addresses.addresses;
+  }
+
+  /**
+   * Stops the background refresh
+   */
+  public void shutdown() {
+    if (ownsScheduler) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private void refresh() {
+    for (Map.Entry<String, Addresses> entry : cache.entrySet()) {
+      String host = entry.getKey();
+      try {
+        List<InetAddress> fresh = lookup(host);
+        // resolvers often shuffle the records, which doesn't make them new
+        if (!ImmutableSet.copyOf(fresh).equals(ImmutableSet.copyOf(entry.getValue().addresses))) {
+          logger.info("{} now resolves to {}", host, fresh);
+          cache.put(host, new Addresses(fresh));
+        }
+      } catch (UnknownHostException e) {
+        logger.warn("Failed to resolve {} again, keeping {}", host, entry.getValue().addresses);
+      } catch (RuntimeException e) {
+        logger.warn("Failed to resolve " + host + " again, keeping " + entry.getValue().addresses, e);
+      }
+    }
+  }
+
+  private List<InetAddress> lookup(String host) throws UnknownHostException {
+    InetAddress[] resolved = resolver.resolve(host);
+    if (resolved == null || resolved.length == 0) {
+      throw new UnknownHostException(host);
+    }
+    ImmutableList.Builder<InetAddress> addresses = ImmutableList.builder();
+    for (InetAddress address : resolved) {
+      // make sure the address carries the hostname, which SNI is taken from
+      addresses.add(InetAddress.getByAddress(host, address.getAddress()));
+    }
+    return addresses.build();
+  }
+
+  private static class Addresses {
+    private final List<InetAddress> addresses;
+    private final AtomicInteger next;
+
+    Addresses(List<InetAddress> addresses) {
+      this.addresses = addresses;
+      this.next = new AtomicInteger();
+    }
+
+    InetAddress[] next() {
+      int size = addresses.size();
+      int first = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+      InetAddress[] rotated = new InetAddress[size];
+      for (int i = 0; i < size; i++) {
+        rotated[i] = addresses.get((first + i) % size);
+      }
+      return rotated;
+    }
+  }
+}
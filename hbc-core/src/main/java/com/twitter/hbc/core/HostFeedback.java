@@ -0,0 +1,37 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core;
+
+/**
+ * Implemented by {@link Hosts} that want to hear how the connections to the hosts they hand out went. The client
+ * calls these from its connection thread, with the address returned by {@link Hosts#nextHost()}.
+ */
+public interface HostFeedback {
+
+  /**
+   * The host answered the request with a 200, connectMillis after the connection attempt started
+   */
+  public void onConnected(String host, long connectMillis);
+
+  /**
+   * The first message of a connection arrived, firstMessageMillis after the host answered with a 200
+   */
+  public void onFirstMessage(String host, long firstMessageMillis);
+
+  /**
+   * The connection couldn't be established, the host answered with a server error, or it disconnected before the
+   * first message
+   */
+  public void onFailure(String host);
+}
@@ -37,16 +37,20 @@ public class HttpHosts implements Hosts {
     Preconditions.checkNotNull(addresses);
     Preconditions.checkArgument(!Iterables.isEmpty(addresses));
     for (String address : addresses) {
-      if (!address.toLowerCase().startsWith(HttpConstants.HTTP_SCHEME + "://") &&
-          !address.toLowerCase().startsWith(HttpConstants.HTTPS_SCHEME + "://")) {
-        throw new IllegalArgumentException("Address doesn't have an http scheme: " + address);
-      }
+      checkScheme(address);
     }
     List<String> copy = Lists.newArrayList(addresses);
     Collections.shuffle(copy);
     this.hosts = Iterators.cycle(copy);
   }
 
+  static void checkScheme(String address) {
+    if (!address.toLowerCase().startsWith(HttpConstants.HTTP_SCHEME + "://") &&
+        !address.toLowerCase().startsWith(HttpConstants.HTTPS_SCHEME + "://")) {
+      throw new IllegalArgumentException("Address doesn't have an http scheme: " + address);
+    }
+  }
+
   @Override
   public String nextHost() {
     return hosts.next();
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hosts that picks the next host by how the previous connections to it went, as reported by the client through
+ * {@link HostFeedback}.
+ *
+ * Each host keeps a moving average of its connect latency and time to first message. The next host is drawn at
+ * random, weighted by the inverse of that latency, so the fastest hosts get most of the connections while the others
+ * are still tried now and then. A host that hasn't been tried yet gets the weight of the fastest possible host, so it's
+ * likely, though not certain, to be picked soon.
+ *
+ * A host is ejected for a cooldown after several consecutive failures, or when its connect latency is an outlier, some
+ * multiple of the fastest host's. The time to first message only weighs in the picking: it depends on how busy the
+ * stream is as much as on the host, so it's no sign of a bad host. Once back, a single failure ejects it again, and its
+ * latency is measured afresh. If every host is ejected, the one back soonest is used.
+ *
+ * Thread-safe.
+ */
+public class LatencyAwareHosts implements Hosts, HostFeedback {
+
+  private final static Logger logger = LoggerFactory.getLogger(LatencyAwareHosts.class);
+
+  public static final int DEFAULT_MAX_FAILURES = 3;
+  public static final long DEFAULT_COOLDOWN_MILLIS = 30000;
+  public static final double DEFAULT_OUTLIER_MULTIPLE = 5.0;
+
+  // the weight of the newest sample in the moving averages
+  private static final double DECAY = 0.3;
+  // keeps the weights of the fastest hosts within reason, and lets noise of a few millis even out
+  private static final double LATENCY_FLOOR_MILLIS = 10;
+
+  private final List<HostStats> hosts;
+  private final Map<String, HostStats> byAddress;
+  private final int maxFailures;
+  private final long cooldownNanos;
+  private final double outlierMultiple;
+  private final Random random;
+  private final Ticker ticker;
+
+  public LatencyAwareHosts(String address) {
+    this(Collections.singletonList(address));
+  }
+
+  /**
+   * All addresses must start with the http scheme("http:// or https://")
+   */
+  public LatencyAwareHosts(Iterable<String> addresses) {
+    this(addresses, DEFAULT_MAX_FAILURES, DEFAULT_COOLDOWN_MILLIS, DEFAULT_OUTLIER_MULTIPLE, new Random(),
+      Ticker.systemTicker());
+  }
+
+  /**
+   * @param maxFailures the consecutive failures after which a host is ejected
+   * @param cooldownMillis how long an ejected host is left out
+   * @param outlierMultiple the multiple of the fastest host's connect latency above which a host is ejected
+   */
+  public LatencyAwareHosts(Iterable<String> addresses, int maxFailures, long cooldownMillis, double outlierMultiple,
+                           Random random, Ticker ticker) {
+    Preconditions.checkNotNull(addresses);
+    Preconditions.checkArgument(!Iterables.isEmpty(addresses));
+    Preconditions.checkArgument(maxFailures > 0);
+    Preconditions.checkArgument(cooldownMillis >= 0);
+    Preconditions.checkArgument(outlierMultiple > 1);
+    this.hosts = Lists.newArrayList();
+    this.byAddress = Maps.newHashMap();
+    for (String address : addresses) {
+      HttpHosts.checkScheme(address);
+      if (!byAddress.containsKey(address)) {
+        HostStats stats = new HostStats(address);
+        hosts.add(stats);
+        byAddress.put(address, stats);
+      }
+    }
+    this.maxFailures = maxFailures;
+    this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+    this.outlierMultiple = outlierMultiple;
+    this.random = Preconditions.checkNotNull(random);
+    this.ticker = Preconditions.checkNotNull(ticker);
+  }
+
+  @Override
+  public synchronized String nextHost() {
+    long now = ticker.read();
+    double totalWeight = 0;
+    HostStats soonestBack = null;
+    for (HostStats host : hosts) {
+      if (host.isEjected(now)) {
+        if (soonestBack == null || host.ejectedUntilNanos < soonestBack.ejectedUntilNanos) {
+          soonestBack = host;
+        }
+      } else {
+        totalWeight += host.weight();
+      }
+    }
+    if (totalWeight == 0) {
+      return soonestBack.address;
+    }
+    double pick = random.nextDouble() * totalWeight;
+    HostStats last = null;
+    for (HostStats host : hosts) {
+      if (!host.isEjected(now)) {
+        last = host;
+        pick -= host.weight();
+        if (pick < 0) {
+          return host.address;
+        }
+      }
+    }
+    return last.address; // rounding
+  }
+
+  @Override
+  public synchronized void onConnected(String host, long connectMillis) {
+    HostStats stats = byAddress.get(host);
+    if (stats != null) {
+      stats.consecutiveFailures = 0;
+      stats.connectMillis = average(stats.connectMillis, connectMillis);
+      checkOutlier(stats);
+    }
+  }
+
+  @Override
+  public synchronized void onFirstMessage(String host, long firstMessageMillis) {
+    HostStats stats = byAddress.get(host);
+    if (stats != null) {
+      stats.firstMessageMillis = average(stats.firstMessageMillis, firstMessageMillis);
+    }
+  }
+
+  @Override
+  public synchronized void onFailure(String host) {
+    HostStats stats = byAddress.get(host);
+    if (stats != null && ++stats.consecutiveFailures >= maxFailures) {
+      logger.warn("{} failed {} times in a row, ejecting it", host, stats.consecutiveFailures);
+      eject(stats);
+      // a single failure after the cooldown ejects it again
+      stats.consecutiveFailures = maxFailures - 1;
+    }
+  }
+
+  /**
+   * @return whether the host is currently left out
+   */
+  public synchronized boolean isEjected(String host) {
+    HostStats stats = byAddress.get(host);
+    return stats != null && stats.isEjected(ticker.read());
+  }
+
+  /**
+   * @return the moving average of the host's connect latency plus time to first message, NaN if it has none yet
+   */
+  public synchronized double getLatencyMillis(String host) {
+    HostStats stats = byAddress.get(host);
+    return stats == null || Double.isNaN(stats.connectMillis) ? Double.NaN : stats.latencyMillis();
+  }
+
+  private void checkOutlier(HostStats stats) {
+    long now = ticker.read();
+    double fastest = Double.NaN;
+    for (HostStats other : hosts) {
+      if (other != stats && !other.isEjected(now) && !Double.isNaN(other.connectMillis)) {
+        fastest = Double.isNaN(fastest) ? other.connectMillis : Math.min(fastest, other.connectMillis);
+      }
+    }
+    // with no other host to compare with (or to go to), it's not an outlier
+    if (!Double.isNaN(fastest) &&
+        stats.connectMillis > outlierMultiple * Math.max(fastest, LATENCY_FLOOR_MILLIS)) {
+      logger.warn("{} is an outlier, connecting in {}ms where the fastest host connects in {}ms, ejecting it",
+        new Object[]{stats.address, (long) stats.connectMillis, (long) fastest});
+      eject(stats);
+    }
+  }
+
+  private void eject(HostStats stats) {
+    stats.ejectedUntilNanos = ticker.read() + cooldownNanos;
+    stats.ejected = true;
+    // once back, it's weighted like an untried host, i.e. as the fastest, until its latency is measured again
+    stats.connectMillis = Double.NaN;
+    stats.firstMessageMillis = Double.NaN;
+  }
+
+  private static double average(double current, long sample) {
+    return Double.isNaN(current) ? sample : current + DECAY * (sample - current);
+  }
+
+  private static class HostStats {
+    private final String address;
+    private double connectMillis = Double.NaN;
+    private double firstMessageMillis = Double.NaN;
+    private int consecutiveFailures;
+    private boolean ejected;
+    private long ejectedUntilNanos;
+
+    HostStats(String address) {
+      this.address = address;
+    }
+
+    boolean isEjected(long now) {
+      if (ejected && now - ejectedUntilNanos >= 0) {
+        ejected = false;
+      }
+      return ejected;
+    }
+
+    double latencyMillis() {
+      return (Double.isNaN(connectMillis) ? 0 : connectMillis) +
+        (Double.isNaN(firstMessageMillis) ? 0 : firstMessageMillis);
+    }
+
+    double weight() {
+      return 1 / (latencyMillis() + LATENCY_FLOOR_MILLIS);
+    }
+  }
+}
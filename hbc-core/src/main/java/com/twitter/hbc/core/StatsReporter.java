@@ -13,6 +13,13 @@
 
 package com.twitter.hbc.core;
 
+import com.twitter.hbc.core.processor.AbstractProcessor;
+import com.twitter.hbc.core.processor.BatchingProcessor;
+import com.twitter.hbc.core.processor.HosebirdMessageProcessor;
+import com.twitter.hbc.core.sink.MessageSink;
+import com.twitter.hbc.core.sink.SpillingSink;
+
+import javax.annotation.Nullable;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -24,6 +31,7 @@ public class StatsReporter {
   private final AtomicLong numClientEventsDropped;
 
   private final AtomicInteger numDisconnects;
+  private final AtomicInteger numStalls;
   private final AtomicInteger numConnects;
   private final AtomicInteger numConnectionFailures;
 
@@ -31,9 +39,15 @@ public class StatsReporter {
   private final AtomicInteger num400s;
   private final AtomicInteger num200s;
 
+  @Nullable
+  private volatile SpillingSink<?> spillingSink;
+  @Nullable
+  private volatile BatchingProcessor<?> batchingProcessor;
+
   public StatsReporter() {
     numMessages = new AtomicLong(0);
     numDisconnects = new AtomicInteger(0);
+    numStalls = new AtomicInteger(0);
     numConnectionFailures = new AtomicInteger(0);
     numConnects = new AtomicInteger(0);
     num500s = new AtomicInteger(0);
@@ -63,6 +77,10 @@ public class StatsReporter {
     return numDisconnects.incrementAndGet();
   }
 
+  public int incrNumStalls() {
+    return numStalls.incrementAndGet();
+  }
+
   public int incrNumConnects() {
     return numConnects.incrementAndGet();
   }
@@ -79,10 +97,146 @@ public class StatsReporter {
     return numMessagesDropped.incrementAndGet();
   }
 
+  /**
+   * Reports the spill of the processor's sink, if the processor hands messages over to a {@link SpillingSink}
+   */
+  public void trackSpillOf(HosebirdMessageProcessor processor) {
+    if (processor instanceof AbstractProcessor) {
+      MessageSink<?> sink = ((AbstractProcessor<?>) processor).getSink();
+      if (sink instanceof SpillingSink) {
+        spillingSink = (SpillingSink<?>) sink;
+      }
+    }
+  }
+
+  /**
+   * Counts the messages of the batches the processor drops, if it's a {@link BatchingProcessor}
+   */
+  public void trackDropsOf(HosebirdMessageProcessor processor) {
+    if (processor instanceof BatchingProcessor) {
+      batchingProcessor = (BatchingProcessor<?>) processor;
+    }
+  }
+
   public StatsTracker getStatsTracker() {
     return new StatsTracker();
   }
 
+  /**
+   * @return a live view summing the counts of the given trackers, e.g. over the connections of a partitioned client
+   */
+  public static StatsTracker aggregate(final Iterable<StatsTracker> trackers) {
+    return new StatsReporter().new StatsTracker() {
+      @Override
+      public int getNum200s() {
+        int sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getNum200s();
+        }
+        return sum;
+      }
+
+      @Override
+      public int getNum400s() {
+        int sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getNum400s();
+        }
+        return sum;
+      }
+
+      @Override
+      public int getNum500s() {
+        int sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getNum500s();
+        }
+        return sum;
+      }
+
+      @Override
+      public long getNumMessages() {
+        long sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getNumMessages();
+        }
+        return sum;
+      }
+
+      @Override
+      public int getNumDisconnects() {
+        int sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getNumDisconnects();
+        }
+        return sum;
+      }
+
+      @Override
+      public int getNumStalls() {
+        int sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getNumStalls();
+        }
+        return sum;
+      }
+
+      @Override
+      public int getNumConnects() {
+        int sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getNumConnects();
+        }
+        return sum;
+      }
+
+      @Override
+      public int getNumConnectionFailures() {
+        int sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getNumConnectionFailures();
+        }
+        return sum;
+      }
+
+      @Override
+      public long getNumClientEventsDropped() {
+        long sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getNumClientEventsDropped();
+        }
+        return sum;
+      }
+
+      @Override
+      public long getNumMessagesDropped() {
+        long sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getNumMessagesDropped();
+        }
+        return sum;
+      }
+
+      @Override
+      public long getSpillDepth() {
+        long sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getSpillDepth();
+        }
+        return sum;
+      }
+
+      @Override
+      public long getSpillBytes() {
+        long sum = 0;
+        for (StatsTracker tracker : trackers) {
+          sum += tracker.getSpillBytes();
+        }
+        return sum;
+      }
+    };
+  }
+
   public class StatsTracker {
 
     /**
@@ -120,6 +274,14 @@ public class StatsReporter {
       return numDisconnects.get();
     }
 
+    /**
+     * @return number of connections dropped because the stream stalled, see {@link com.twitter.hbc.StallDetector}.
+     * These are counted as disconnects too
+     */
+    public int getNumStalls() {
+      return numStalls.get();
+    }
+
     /**
      * @return number of connections/reconnections
      */
@@ -143,10 +305,28 @@ public class StatsReporter {
 
     /**
      * @return number of messages dropped from the message queue. Occurs when messages in the message queue aren't
-     * dequeued fast enough
+     * dequeued fast enough. The messages of a dropped batch each count
      */
     public long getNumMessagesDropped() {
-      return numMessagesDropped.get();
+      BatchingProcessor<?> batching = batchingProcessor;
+      return numMessagesDropped.get() + (batching == null ? 0 : batching.getNumMessagesDropped());
+    }
+
+    /**
+     * @return number of messages spilled to disk and not yet handed over, or 0 if the client doesn't spill. A sink
+     * shared by several clients is counted by each of them
+     */
+    public long getSpillDepth() {
+      SpillingSink<?> sink = spillingSink;
+      return sink == null ? 0 : sink.getSpillDepth();
+    }
+
+    /**
+     * @return bytes of the messages spilled to disk and not yet handed over, or 0 if the client doesn't spill
+     */
+    public long getSpillBytes() {
+      SpillingSink<?> sink = spillingSink;
+      return sink == null ? 0 : sink.getSpillBytes();
     }
   }
 }
@@ -30,6 +30,11 @@ public enum EventType {
    * When an established connection gets disconnected for any reason
    */
   DISCONNECTED,
+  /**
+   * When an established connection is dropped because the stream stalled, see {@link com.twitter.hbc.StallDetector}.
+   * The client reconnects
+   */
+  STALLED,
   /**
    * When a connection fails due to either a bad request (invalid host, invalid requests)
    */
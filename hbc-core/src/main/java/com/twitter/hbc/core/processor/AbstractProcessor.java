@@ -13,39 +13,138 @@
 
 package com.twitter.hbc.core.processor;
 
+import com.google.common.base.Preconditions;
+import com.twitter.hbc.core.sink.BlockingQueueSink;
+import com.twitter.hbc.core.sink.MessageSink;
+
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 /**
- * An abstract class for processing the stream and putting it onto the blockingQueue.
+ * An abstract class for processing the stream and handing each message over to a {@link MessageSink} (by default,
+ * the blockingQueue it was constructed with).
  * This class should probably not be extended externally, unless you want to process messages
  * yourself.
  */
-public abstract class AbstractProcessor<T> implements HosebirdMessageProcessor {
+public abstract class AbstractProcessor<T> implements ReleasableProcessor, SwappableProcessor {
 
   public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 500;
 
+  /**
+   * The queue this processor was constructed with, or null if it was constructed with a MessageSink
+   */
+  @Nullable
   protected final BlockingQueue<T> queue;
+  protected final MessageSink<T> sink;
   protected final long offerTimeoutMillis;
 
+  // ids of the messages processed while two connections overlap, see beginOverlap()
+  @Nullable
+  private Set<Long> overlapIds;
+  private boolean recordingOverlap;
+  private long dedupeUntilNanos;
+
   public AbstractProcessor(BlockingQueue<T> queue) {
     this(queue, DEFAULT_OFFER_TIMEOUT_MILLIS);
   }
 
   public AbstractProcessor(BlockingQueue<T> queue, long offerTimeoutMillis) {
     this.queue = queue;
+    this.sink = queue == null ? null : new BlockingQueueSink<T>(queue);
+    this.offerTimeoutMillis = offerTimeoutMillis;
+  }
+
+  protected AbstractProcessor(MessageSink<T> sink, long offerTimeoutMillis) {
+    this.queue = null;
+    this.sink = Preconditions.checkNotNull(sink);
     this.offerTimeoutMillis = offerTimeoutMillis;
   }
 
   @Override
   public boolean process() throws IOException, InterruptedException {
-    T msg = processNextMessage();
+    T msg = nextMessage();
     while (msg == null) {
-      msg = processNextMessage();
+      msg = nextMessage();
+    }
+    return sink.offer(msg, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Like {@link #processNextMessage()}, but drops the messages the previous connection already delivered
+   * @return null for a keep-alive or a dropped message
+   */
+  @Nullable
+  final T nextMessage() throws IOException {
+    T msg = processNextMessage();
+    if (msg != null && overlapIds != null && isDuplicate(msg)) {
+      return null;
+    }
+    return msg;
+  }
+
+  private boolean isDuplicate(T msg) {
+    if (recordingOverlap) {
+      long id = idOf(msg);
+      if (id >= 0) {
+        overlapIds.add(id);
+      }
+      return false;
+    }
+    if (System.nanoTime() - dedupeUntilNanos > 0) {
+      overlapIds = null;
+      return false;
     }
-    return queue.offer(msg, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+    long id = idOf(msg);
+    return id >= 0 && overlapIds.remove(id);
+  }
+
+  @Override
+  public void beginOverlap() {
+    overlapIds = new HashSet<Long>();
+    recordingOverlap = true;
+  }
+
+  @Override
+  public void swap(InputStream input, long dedupeMillis) {
+    setup(input);
+    recordingOverlap = false;
+    dedupeUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(dedupeMillis);
+    if (overlapIds != null && overlapIds.isEmpty()) {
+      overlapIds = null;
+    }
+  }
+
+  @Override
+  public void endOverlap() {
+    overlapIds = null;
+    recordingOverlap = false;
+  }
+
+  /**
+   * @return the message's id, to drop it if two overlapping connections both deliver it, or -1 if it has none.
+   * Messages have none by default
+   */
+  protected long idOf(T message) {
+    return -1;
+  }
+
+  /**
+   * @return the sink messages are handed over to
+   */
+  public MessageSink<T> getSink() {
+    return sink;
+  }
+
+  /**
+   * Does nothing by default
+   */
+  @Override
+  public void release() {
   }
 
   @Nullable
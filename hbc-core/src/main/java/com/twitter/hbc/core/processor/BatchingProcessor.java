@@ -0,0 +1,256 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core.processor;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.hbc.core.sink.BlockingQueueSink;
+import com.twitter.hbc.core.sink.MessageSink;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the messages read by another processor into batches, and hands each batch over to the queue (or any other
+ * {@link MessageSink}, such as a {@link com.twitter.hbc.core.sink.SingleProducerRingBuffer}) as a single element.
+ * This trades a little latency for far less lock traffic on the queue when the stream is bursty.
+ *
+ * A batch is handed over once it holds maxBatchSize messages, or maxBatchDelayMicros after its first message: a
+ * scheduler flushes it on that deadline even while the stream is silent. A partial batch is also handed over as soon
+ * as a keep-alive arrives, and when the connection is closed, including when the client stops. The hand-overs are
+ * made outside the lock the IO thread fills batches under, one at a time and in order, so a single-producer sink still
+ * sees a single producer at a time.
+ *
+ * Only the source processor's parsing is used: its own queue is never offered to. When a batch has to be dropped,
+ * each of its messages counts as dropped, see {@link #getNumMessagesDropped()}, which the client's stats include.
+ */
+public class BatchingProcessor<T> implements ReleasableProcessor, SwappableProcessor {
+
+  private final AbstractProcessor<T> source;
+  private final MessageSink<List<T>> sink;
+  private final int maxBatchSize;
+  private final long maxBatchDelayNanos;
+  private final long offerTimeoutMillis;
+  private final ScheduledExecutorService scheduler;
+  private final AtomicLong numMessagesDropped;
+
+  // guarded by this: the batch being filled, and the completed ones waiting to be handed over, oldest first
+  private List<T> batch;
+  private final Queue<List<T>> completed;
+  // held while handing over, outside the lock on this, so that the batches reach the sink one at a time, in order
+  private final Object handOverLock;
+
+  public BatchingProcessor(AbstractProcessor<T> source, BlockingQueue<List<T>> queue, int maxBatchSize,
+                           long maxBatchDelayMicros) {
+    this(source, queue, maxBatchSize, maxBatchDelayMicros, AbstractProcessor.DEFAULT_OFFER_TIMEOUT_MILLIS);
+  }
+
+  public BatchingProcessor(AbstractProcessor<T> source, BlockingQueue<List<T>> queue, int maxBatchSize,
+                           long maxBatchDelayMicros, long offerTimeoutMillis) {
+    this(source, new BlockingQueueSink<List<T>>(queue), maxBatchSize, maxBatchDelayMicros, offerTimeoutMillis);
+  }
+
+  public BatchingProcessor(AbstractProcessor<T> source, MessageSink<List<T>> sink, int maxBatchSize,
+                           long maxBatchDelayMicros) {
+    this(source, sink, maxBatchSize, maxBatchDelayMicros, AbstractProcessor.DEFAULT_OFFER_TIMEOUT_MILLIS);
+  }
+
+  public BatchingProcessor(AbstractProcessor<T> source, MessageSink<List<T>> sink, int maxBatchSize,
+                           long maxBatchDelayMicros, long offerTimeoutMillis) {
+    this(source, sink, maxBatchSize, maxBatchDelayMicros, offerTimeoutMillis, createScheduler());
+  }
+
+  /**
+   * @param scheduler flushes the batches that reach their deadline, e.g. a scheduler the client's other timers run on.
+   * It must not be shut down while the processor is in use. By default, each processor has its own, whose thread only
+   * lives while batches are waiting on their deadline
+   */
+  public BatchingProcessor(AbstractProcessor<T> source, MessageSink<List<T>> sink, int maxBatchSize,
+                           long maxBatchDelayMicros, long offerTimeoutMillis, ScheduledExecutorService scheduler) {
+    Preconditions.checkArgument(maxBatchSize > 0);
+    Preconditions.checkArgument(maxBatchDelayMicros >= 0);
+    this.source = Preconditions.checkNotNull(source);
+    this.sink = Preconditions.checkNotNull(sink);
+    this.maxBatchSize = maxBatchSize;
+    this.maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxBatchDelayMicros);
+    this.offerTimeoutMillis = offerTimeoutMillis;
+    this.scheduler = Preconditions.checkNotNull(scheduler);
+    this.numMessagesDropped = new AtomicLong();
+    this.batch = new ArrayList<T>(maxBatchSize);
+    this.completed = new ArrayDeque<List<T>>();
+    this.handOverLock = new Object();
+  }
+
+  private static ScheduledExecutorService createScheduler() {
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+      .setDaemon(true)
+      .setNameFormat("hosebird-batch-flush-%d")
+      .build());
+    scheduler.setKeepAliveTime(1, TimeUnit.SECONDS);
+    scheduler.allowCoreThreadTimeOut(true);
+    return scheduler;
+  }
+
+  @Override
+  public void setup(InputStream input) {
+    source.setup(input);
+  }
+
+  /**
+   * Hands over the partial batch, if any, then releases the source
+   */
+  @Override
+  public void release() {
+    try {
+      flush();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      source.release();
+    }
+  }
+
+  @Override
+  public void beginOverlap() {
+    source.beginOverlap();
+  }
+
+  /**
+   * Unlike {@link #setup(InputStream)}, keeps filling the current batch
+   */
+  @Override
+  public void swap(InputStream input, long dedupeMillis) {
+    source.swap(input, dedupeMillis);
+  }
+
+  @Override
+  public void endOverlap() {
+    source.endOverlap();
+  }
+
+  /**
+   * Reads a single message and adds it to the current batch, handing the batch over if it is complete. Dropped
+   * batches are counted by {@link #getNumMessagesDropped()} rather than reported here.
+   * @return true
+   */
+  @Override
+  public boolean process() throws IOException, InterruptedException {
+    T msg = source.nextMessage();
+    while (msg == null) {
+      // keep-alive: the stream is idle, so don't sit on a partial batch
+      flush();
+      msg = source.nextMessage();
+    }
+    add(msg);
+    return true;
+  }
+
+  /**
+   * @return the number of messages in the batches that couldn't be handed over
+   */
+  public long getNumMessagesDropped() {
+    return numMessagesDropped.get();
+  }
+
+  private void add(T msg) throws InterruptedException {
+    boolean full;
+    synchronized (this) {
+      batch.add(msg);
+      full = batch.size() >= maxBatchSize || maxBatchDelayNanos == 0;
+      if (full) {
+        complete();
+      } else if (batch.size() == 1) {
+        scheduleFlush(batch);
+      }
+    }
+    if (full) {
+      handOver();
+    }
+  }
+
+  private void scheduleFlush(final List<T> scheduled) {
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        flushIfCurrent(scheduled);
+      }
+    }, maxBatchDelayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void flushIfCurrent(List<T> scheduled) {
+    synchronized (this) {
+      // the batch may have been handed over already, and a new one started
+      if (batch != scheduled || batch.isEmpty()) {
+        return;
+      }
+      complete();
+    }
+    try {
+      handOver();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void flush() throws InterruptedException {
+    synchronized (this) {
+      if (batch.isEmpty()) {
+        return;
+      }
+      complete();
+    }
+    handOver();
+  }
+
+  // guarded by this
+  private void complete() {
+    completed.add(batch);
+    batch = new ArrayList<T>(maxBatchSize);
+  }
+
+  @Nullable
+  private synchronized List<T> nextCompleted() {
+    return completed.poll();
+  }
+
+  /**
+   * Hands the completed batches over, without holding the lock on this, so that the IO thread keeps filling the
+   * next batch while a slow sink is waited on
+   */
+  private void handOver() throws InterruptedException {
+    synchronized (handOverLock) {
+      List<T> next;
+      while ((next = nextCompleted()) != null) {
+        boolean offered = false;
+        try {
+          offered = sink.offer(next, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+          if (!offered) {
+            numMessagesDropped.addAndGet(next.size());
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core.processor;
+
+import com.google.common.base.Preconditions;
+import com.twitter.hbc.common.DelimitedStreamReader;
+import com.twitter.hbc.common.TweetIds;
+import com.twitter.hbc.core.Constants;
+import com.twitter.hbc.core.sink.MessageSink;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Same as {@link StringDelimitedProcessor}, but puts the raw UTF-8 bytes of each message onto the queue instead of
+ * decoding them into Strings. Useful when the messages are written straight back out as bytes (to a log, a file, a
+ * message broker...), since it skips the decode and the String allocation entirely.
+ *
+ * Each byte[] is sized exactly to the delimited length of its message, and includes the trailing \r\n.
+ */
+public class ByteArrayDelimitedProcessor extends AbstractProcessor<byte[]> {
+
+  private final static int DEFAULT_BUFFER_SIZE = 50000;
+
+  private final int bufferSize;
+  private DelimitedStreamReader reader;
+
+  public ByteArrayDelimitedProcessor(BlockingQueue<byte[]> queue) {
+    this(queue, DEFAULT_OFFER_TIMEOUT_MILLIS);
+  }
+
+  public ByteArrayDelimitedProcessor(BlockingQueue<byte[]> queue, long offerTimeoutMillis) {
+    this(queue, offerTimeoutMillis, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param bufferSize size of the read buffer, which is also the most that is read from the stream at once
+   */
+  public ByteArrayDelimitedProcessor(BlockingQueue<byte[]> queue, long offerTimeoutMillis, int bufferSize) {
+    super(queue, offerTimeoutMillis);
+    Preconditions.checkArgument(bufferSize > 0);
+    this.bufferSize = bufferSize;
+  }
+
+  // private, so that a null queue doesn't make the public constructors ambiguous
+  private ByteArrayDelimitedProcessor(MessageSink<byte[]> sink, long offerTimeoutMillis, int bufferSize) {
+    super(sink, offerTimeoutMillis);
+    Preconditions.checkArgument(bufferSize > 0);
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * @return a processor handing the messages over to the sink rather than to a queue
+   */
+  public static ByteArrayDelimitedProcessor forSink(MessageSink<byte[]> sink) {
+    return forSink(sink, DEFAULT_OFFER_TIMEOUT_MILLIS);
+  }
+
+  public static ByteArrayDelimitedProcessor forSink(MessageSink<byte[]> sink, long offerTimeoutMillis) {
+    return forSink(sink, offerTimeoutMillis, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param bufferSize size of the read buffer, which is also the most that is read from the stream at once
+   */
+  public static ByteArrayDelimitedProcessor forSink(MessageSink<byte[]> sink, long offerTimeoutMillis, int bufferSize) {
+    return new ByteArrayDelimitedProcessor(sink, offerTimeoutMillis, bufferSize);
+  }
+
+  @Override
+  public void setup(InputStream input) {
+    release();
+    reader = new DelimitedStreamReader(input, Constants.DEFAULT_CHARSET, bufferSize);
+  }
+
+  @Override
+  public void release() {
+    if (reader != null) {
+      reader.release();
+      reader = null;
+    }
+  }
+
+  @Override @Nullable
+  protected byte[] processNextMessage() throws IOException {
+    int delimitedCount = StringDelimitedProcessor.readDelimitedCount(reader);
+    if (delimitedCount < 0) {
+      return null;
+    }
+    return reader.readBytes(delimitedCount);
+  }
+
+  @Override
+  protected long idOf(byte[] message) {
+    return TweetIds.idOf(message);
+  }
+}
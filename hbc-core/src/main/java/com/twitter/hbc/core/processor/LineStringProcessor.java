@@ -14,7 +14,10 @@
 package com.twitter.hbc.core.processor;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
 import com.twitter.hbc.common.DelimitedStreamReader;
+import com.twitter.hbc.common.TweetIds;
+import com.twitter.hbc.core.sink.MessageSink;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
@@ -26,14 +29,49 @@ import java.util.concurrent.BlockingQueue;
  * */
 public class LineStringProcessor extends AbstractProcessor<String> {
   private final static int DEFAULT_BUFFER_SIZE = 50000;
+  private final int bufferSize;
   private DelimitedStreamReader reader;
 
   public LineStringProcessor(BlockingQueue<String> queue) {
-    super(queue);
+    this(queue, DEFAULT_OFFER_TIMEOUT_MILLIS);
   }
 
   public LineStringProcessor(BlockingQueue<String> queue, long offerTimeoutMillis) {
+    this(queue, offerTimeoutMillis, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param bufferSize size of the read buffer, which is also the most that is read from the stream at once
+   */
+  public LineStringProcessor(BlockingQueue<String> queue, long offerTimeoutMillis, int bufferSize) {
     super(queue, offerTimeoutMillis);
+    Preconditions.checkArgument(bufferSize > 0);
+    this.bufferSize = bufferSize;
+  }
+
+  // private, so that a null queue doesn't make the public constructors ambiguous
+  private LineStringProcessor(MessageSink<String> sink, long offerTimeoutMillis, int bufferSize) {
+    super(sink, offerTimeoutMillis);
+    Preconditions.checkArgument(bufferSize > 0);
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * @return a processor handing the messages over to the sink rather than to a queue
+   */
+  public static LineStringProcessor forSink(MessageSink<String> sink) {
+    return forSink(sink, DEFAULT_OFFER_TIMEOUT_MILLIS);
+  }
+
+  public static LineStringProcessor forSink(MessageSink<String> sink, long offerTimeoutMillis) {
+    return forSink(sink, offerTimeoutMillis, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param bufferSize size of the read buffer, which is also the most that is read from the stream at once
+   */
+  public static LineStringProcessor forSink(MessageSink<String> sink, long offerTimeoutMillis, int bufferSize) {
+    return new LineStringProcessor(sink, offerTimeoutMillis, bufferSize);
   }
 
   @Nullable
@@ -48,8 +86,22 @@ public class LineStringProcessor extends AbstractProcessor<String> {
     return line;
   }
 
+  @Override
+  protected long idOf(String message) {
+    return TweetIds.idOf(message);
+  }
+
   @Override
   public void setup(InputStream input) {
-    reader = new DelimitedStreamReader(input, Charsets.UTF_8, DEFAULT_BUFFER_SIZE);
+    release();
+    reader = new DelimitedStreamReader(input, Charsets.UTF_8, bufferSize);
+  }
+
+  @Override
+  public void release() {
+    if (reader != null) {
+      reader.release();
+      reader = null;
+    }
   }
 }
@@ -0,0 +1,25 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core.processor;
+
+/**
+ * A processor that holds on to resources, such as buffers, for the connection it was set up with
+ */
+public interface ReleasableProcessor extends HosebirdMessageProcessor {
+  /**
+   * Releases what the processor holds for its current connection. Called once the connection is closed; the
+   * processor is set up again before the next one is processed.
+   */
+  public void release();
+}
@@ -13,8 +13,11 @@
 
 package com.twitter.hbc.core.processor;
 
+import com.google.common.base.Preconditions;
 import com.twitter.hbc.common.DelimitedStreamReader;
+import com.twitter.hbc.common.TweetIds;
 import com.twitter.hbc.core.Constants;
+import com.twitter.hbc.core.sink.MessageSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,23 +33,84 @@ public class StringDelimitedProcessor extends AbstractProcessor<String> {
   private final static int MAX_ALLOWABLE_BUFFER_SIZE = 500000;
   private final static String EMPTY_LINE = "";
 
+  private final int bufferSize;
   private DelimitedStreamReader reader;
 
   public StringDelimitedProcessor(BlockingQueue<String> queue) {
-    super(queue);
+    this(queue, DEFAULT_OFFER_TIMEOUT_MILLIS);
   }
 
   public StringDelimitedProcessor(BlockingQueue<String> queue, long offerTimeoutMillis) {
+    this(queue, offerTimeoutMillis, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param bufferSize size of the read buffer, which is also the most that is read from the stream at once
+   */
+  public StringDelimitedProcessor(BlockingQueue<String> queue, long offerTimeoutMillis, int bufferSize) {
     super(queue, offerTimeoutMillis);
+    Preconditions.checkArgument(bufferSize > 0);
+    this.bufferSize = bufferSize;
+  }
+
+  // private, so that a null queue doesn't make the public constructors ambiguous
+  private StringDelimitedProcessor(MessageSink<String> sink, long offerTimeoutMillis, int bufferSize) {
+    super(sink, offerTimeoutMillis);
+    Preconditions.checkArgument(bufferSize > 0);
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * @return a processor handing the messages over to the sink rather than to a queue
+   */
+  public static StringDelimitedProcessor forSink(MessageSink<String> sink) {
+    return forSink(sink, DEFAULT_OFFER_TIMEOUT_MILLIS);
+  }
+
+  public static StringDelimitedProcessor forSink(MessageSink<String> sink, long offerTimeoutMillis) {
+    return forSink(sink, offerTimeoutMillis, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param bufferSize size of the read buffer, which is also the most that is read from the stream at once
+   */
+  public static StringDelimitedProcessor forSink(MessageSink<String> sink, long offerTimeoutMillis, int bufferSize) {
+    return new StringDelimitedProcessor(sink, offerTimeoutMillis, bufferSize);
   }
 
   @Override
   public void setup(InputStream input) {
-    reader = new DelimitedStreamReader(input, Constants.DEFAULT_CHARSET, DEFAULT_BUFFER_SIZE);
+    release();
+    reader = new DelimitedStreamReader(input, Constants.DEFAULT_CHARSET, bufferSize);
+  }
+
+  @Override
+  public void release() {
+    if (reader != null) {
+      reader.release();
+      reader = null;
+    }
   }
 
   @Override @Nullable
   protected String processNextMessage() throws IOException {
+    int delimitedCount = readDelimitedCount(reader);
+    if (delimitedCount < 0) {
+      return null;
+    }
+    return reader.read(delimitedCount);
+  }
+
+  @Override
+  protected long idOf(String message) {
+    return TweetIds.idOf(message);
+  }
+
+  /**
+   * Reads the length line that precedes every message on a delimited=length stream.
+   * @return the length of the next message, or -1 if the line was an empty keep-alive line
+   */
+  static int readDelimitedCount(DelimitedStreamReader reader) throws IOException {
     int delimitedCount = -1;
     int retries = 0;
     while (delimitedCount < 0 && retries < 3) {
@@ -54,7 +118,7 @@ public class StringDelimitedProcessor extends AbstractProcessor<String> {
       if (line == null) {
         throw new IOException("Unable to read new line from stream");
       } else if (line.equals(EMPTY_LINE)) {
-        return null;
+        return -1;
       }
 
       try {
@@ -74,6 +138,6 @@ public class StringDelimitedProcessor extends AbstractProcessor<String> {
       // this is to protect us from nastiness
       throw new IOException("Unreasonable message size " + delimitedCount);
     }
-    return reader.read(delimitedCount);
+    return delimitedCount;
   }
 }
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core.processor;
+
+import java.io.InputStream;
+
+/**
+ * A processor that can switch over to a new connection opened alongside the current one, without handing over the
+ * messages both connections delivered twice. Messages are matched by their top level id, so messages without one, like
+ * deletion notices, may still be handed over twice.
+ */
+public interface SwappableProcessor extends HosebirdMessageProcessor {
+
+  /**
+   * Starts remembering the ids of the messages processed from the current stream, which the new one may repeat
+   */
+  public void beginOverlap();
+
+  /**
+   * Switches over to the new stream, in place of {@link #setup(InputStream)}. For the given time, messages from it
+   * with an id remembered since {@link #beginOverlap()} are dropped.
+   */
+  public void swap(InputStream input, long dedupeMillis);
+
+  /**
+   * Forgets the remembered ids, e.g. when the new connection couldn't be opened
+   */
+  public void endOverlap();
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core.sink;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A MessageSink backed by a BlockingQueue. This is what processors use when they're constructed with a queue.
+ */
+public class BlockingQueueSink<T> implements MessageSink<T> {
+
+  private final BlockingQueue<T> queue;
+
+  public BlockingQueueSink(BlockingQueue<T> queue) {
+    this.queue = Preconditions.checkNotNull(queue);
+  }
+
+  @Override
+  public boolean offer(T message, long timeout, TimeUnit unit) throws InterruptedException {
+    return queue.offer(message, timeout, unit);
+  }
+
+  public BlockingQueue<T> getQueue() {
+    return queue;
+  }
+}
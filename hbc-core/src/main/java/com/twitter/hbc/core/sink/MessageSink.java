@@ -0,0 +1,29 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core.sink;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where a processor hands over the messages it reads off the stream. Implementations must be threadsafe, and must
+ * support at least one producer (the client's IO thread).
+ */
+public interface MessageSink<T> {
+
+  /**
+   * Hands over a message, waiting up to the given timeout for room if necessary.
+   * @return true if the message was accepted, false if it had to be dropped
+   */
+  public boolean offer(T message, long timeout, TimeUnit unit) throws InterruptedException;
+}
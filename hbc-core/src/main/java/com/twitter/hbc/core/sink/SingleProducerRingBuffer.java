@@ -0,0 +1,233 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core.sink;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer for exactly one producer thread and any number of consumer threads.
+ *
+ * A client has a single IO thread per connection, so it can hand messages over without taking any locks: the
+ * producer publishes into a preallocated slot with an ordered write, and consumers claim slots with a CAS on a shared
+ * cursor. Each slot carries its own sequence number, which tells the producer when the slot is free again and tells
+ * consumers when it has been published.
+ *
+ * {@link #offer} must only ever be called from one thread at a time. Don't share an instance between clients, or
+ * between the connections of a partitioned client.
+ */
+public class SingleProducerRingBuffer<T> implements MessageSink<T> {
+
+  // longs per slot in the sequences, so that the producer publishing a slot and a consumer freeing the one next to it
+  // never write to the same 64 byte cache line
+  private static final int PADDING = 8;
+  private static final int MAX_CAPACITY = 1 << 27;
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<T> slots;
+  // a slot at index i is free for position p when its sequence is p, and readable at position p when it is p + 1.
+  // The sequence of slot i is at i * PADDING, see sequenceIndex()
+  private final AtomicLongArray sequences;
+
+  // next position the producer will publish to. Only written by the producer
+  private final PaddedAtomicLong tail;
+  // next position to be consumed
+  private final PaddedAtomicLong head;
+
+  private final WaitStrategy producerWaitStrategy;
+  private final WaitStrategy consumerWaitStrategy;
+
+  /**
+   * @param capacity rounded up to the next power of two
+   */
+  public SingleProducerRingBuffer(int capacity) {
+    this(capacity, WaitStrategy.PARKING, WaitStrategy.PARKING);
+  }
+
+  /**
+   * @param capacity rounded up to the next power of two
+   * @param producerWaitStrategy how the producer waits for room when the buffer is full
+   * @param consumerWaitStrategy how consumers wait in {@link #take()} and {@link #poll(long, TimeUnit)}
+   */
+  public SingleProducerRingBuffer(int capacity, WaitStrategy producerWaitStrategy, WaitStrategy consumerWaitStrategy) {
+    Preconditions.checkArgument(capacity > 0 && capacity <= MAX_CAPACITY, "Capacity must be between 1 and 2^27");
+    this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = this.capacity - 1;
+    this.slots = new AtomicReferenceArray<T>(this.capacity);
+    this.sequences = new AtomicLongArray(this.capacity * PADDING);
+    for (int i = 0; i < this.capacity; i++) {
+      sequences.set(sequenceIndex(i), i);
+    }
+    this.tail = new PaddedAtomicLong();
+    this.head = new PaddedAtomicLong();
+    this.producerWaitStrategy = Preconditions.checkNotNull(producerWaitStrategy);
+    this.consumerWaitStrategy = Preconditions.checkNotNull(consumerWaitStrategy);
+  }
+
+  /**
+   * Publishes a message, waiting up to the given timeout for a slot to free up if the buffer is full.
+   * Must only be called by the single producer thread.
+   */
+  @Override
+  public boolean offer(T message, long timeout, TimeUnit unit) throws InterruptedException {
+    Preconditions.checkNotNull(message);
+    long position = tail.get();
+    int index = (int) position & mask;
+    int sequence = sequenceIndex(index);
+    if (sequences.get(sequence) != position) {
+      // full: wait for the consumers to free up the slot
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      int attempt = 0;
+      while (sequences.get(sequence) != position) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        if (System.nanoTime() - deadline >= 0) {
+          return false;
+        }
+        producerWaitStrategy.idle(attempt++);
+      }
+    }
+    slots.lazySet(index, message);
+    // the ordered write makes the message visible before the sequence that publishes it
+    sequences.lazySet(sequence, position + 1);
+    tail.lazySet(position + 1);
+    return true;
+  }
+
+  /**
+   * Publishes a message if there is room for it, without waiting.
+   * Must only be called by the single producer thread.
+   */
+  public boolean offer(T message) {
+    try {
+      return offer(message, 0, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * @return the next message, or null if the buffer is empty
+   */
+  @Nullable
+  public T poll() {
+    while (true) {
+      long position = head.get();
+      int index = (int) position & mask;
+      long diff = sequences.get(sequenceIndex(index)) - (position + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          T message = slots.get(index);
+          slots.lazySet(index, null);
+          // hand the slot back to the producer for its next lap around the buffer
+          sequences.lazySet(sequenceIndex(index), position + capacity);
+          return message;
+        }
+      } else if (diff < 0) {
+        // nothing published at this position yet
+        return null;
+      }
+      // another consumer claimed this position first: retry with the new head
+    }
+  }
+
+  /**
+   * @return the next message, or null if none was published within the timeout
+   */
+  @Nullable
+  public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    int attempt = 0;
+    T message = poll();
+    while (message == null) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (System.nanoTime() - deadline >= 0) {
+        return null;
+      }
+      consumerWaitStrategy.idle(attempt++);
+      message = poll();
+    }
+    return message;
+  }
+
+  /**
+   * Waits until a message is available, and returns it.
+   */
+  public T take() throws InterruptedException {
+    int attempt = 0;
+    T message = poll();
+    while (message == null) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      consumerWaitStrategy.idle(attempt++);
+      message = poll();
+    }
+    return message;
+  }
+
+  /**
+   * Moves up to maxMessages messages that are already available into the given collection, without waiting.
+   * @return the number of messages moved
+   */
+  public int drainTo(Collection<? super T> collection, int maxMessages) {
+    int count = 0;
+    T message;
+    while (count < maxMessages && (message = poll()) != null) {
+      collection.add(message);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * @return an estimate of the number of messages waiting to be consumed
+   */
+  public int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, capacity));
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  private static int sequenceIndex(int index) {
+    return index * PADDING;
+  }
+
+  /**
+   * Pads the cursors out to their own cache lines, so the producer and the consumers don't contend on them through
+   * false sharing.
+   */
+  @SuppressWarnings("unused")
+  static class PaddedAtomicLong extends AtomicLong {
+    public volatile long p1, p2, p3, p4, p5, p6 = 7L;
+  }
+}
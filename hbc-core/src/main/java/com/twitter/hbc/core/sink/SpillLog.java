@@ -0,0 +1,306 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core.sink;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An append-only log of records, kept in fixed size memory-mapped segment files in a directory, and read back in
+ * order. Once every record of a segment has been read, the segment is deleted.
+ *
+ * Each record is a 4 byte header followed by the record's bytes. The header is length + 1 for a record that hasn't
+ * been read yet, and -(length + 1) for one that has, so that a log opened again on the same directory (e.g. after a
+ * restart) resumes from the first unread record. A header of 0 is the end of the log, and {@link #END_OF_SEGMENT}
+ * means the next record is in the next segment.
+ *
+ * Records are written to the page cache and only forced to disk on {@link #close()}: they survive the process dying,
+ * but not the machine.
+ *
+ * Not threadsafe.
+ */
+class SpillLog implements Closeable {
+
+  private final static Logger logger = LoggerFactory.getLogger(SpillLog.class);
+
+  static final int END_OF_SEGMENT = Integer.MIN_VALUE;
+  private static final int HEADER_SIZE = 4;
+  private static final Pattern SEGMENT_NAME = Pattern.compile("spill-(\\d+)\\.log");
+
+  private final File directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final RandomAccessFile lockFile;
+  private final FileLock lock;
+  // oldest first: read from the first, written to the last
+  private final ArrayDeque<Segment> segments;
+  private long nextSegmentId;
+
+  private volatile long depth;
+  private volatile long bytes;
+
+  SpillLog(File directory, int segmentSize, int maxSegments) throws IOException {
+    Preconditions.checkArgument(segmentSize > HEADER_SIZE * 2);
+    Preconditions.checkArgument(maxSegments > 0);
+    this.directory = Preconditions.checkNotNull(directory);
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create spill directory " + directory);
+    }
+    this.lockFile = new RandomAccessFile(new File(directory, "spill.lock"), "rw");
+    FileLock fileLock;
+    try {
+      fileLock = lockFile.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      // held by another log in this process
+      fileLock = null;
+    }
+    this.lock = fileLock;
+    if (lock == null) {
+      lockFile.close();
+      throw new IOException("Spill directory " + directory + " is in use");
+    }
+    this.segments = new ArrayDeque<Segment>();
+    recover();
+  }
+
+  private void recover() throws IOException {
+    String[] names = directory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return SEGMENT_NAME.matcher(name).matches();
+      }
+    });
+    long[] ids = new long[names == null ? 0 : names.length];
+    for (int i = 0; i < ids.length; i++) {
+      Matcher matcher = SEGMENT_NAME.matcher(names[i]);
+      matcher.matches();
+      ids[i] = Long.parseLong(matcher.group(1));
+    }
+    Arrays.sort(ids);
+    for (long id : ids) {
+      Segment segment = new Segment(segmentFile(id));
+      segment.scan();
+      nextSegmentId = id + 1;
+      if (segment.isFullyRead()) {
+        segment.delete();
+      } else {
+        segments.add(segment);
+      }
+    }
+    if (depth > 0) {
+      logger.info("Recovered {} spilled messages from {}", depth, directory);
+    }
+  }
+
+  private File segmentFile(long id) {
+    return new File(directory, String.format("spill-%019d.log", id));
+  }
+
+  /**
+   * @return false if the record doesn't fit in a segment, or every segment is full
+   */
+  boolean append(byte[] record) throws IOException {
+    int needed = HEADER_SIZE + record.length;
+    if (needed > segmentSize) {
+      return false;
+    }
+    Segment segment = segments.peekLast();
+    if (segment == null || segment.writePosition + needed > segmentSize) {
+      if (segments.size() >= maxSegments) {
+        return false;
+      }
+      if (segment != null) {
+        segment.seal();
+      }
+      segment = new Segment(segmentFile(nextSegmentId++));
+      segments.add(segment);
+    }
+    segment.write(record);
+    depth++;
+    bytes += record.length;
+    return true;
+  }
+
+  /**
+   * @return the oldest unread record, or null if there is none
+   */
+  @Nullable
+  byte[] peek() {
+    Segment segment = segments.peekFirst();
+    while (segment != null) {
+      byte[] record = segment.peek();
+      if (record != null) {
+        return record;
+      }
+      if (segment == segments.peekLast()) {
+        return null;
+      }
+      // every record of this segment has been read, and the writer moved on
+      segments.pollFirst();
+      segment.delete();
+      segment = segments.peekFirst();
+    }
+    return null;
+  }
+
+  /**
+   * Marks the record returned by {@link #peek()} as read
+   */
+  void advance() {
+    Segment segment = Preconditions.checkNotNull(segments.peekFirst());
+    int length = segment.advance();
+    depth--;
+    bytes -= length;
+  }
+
+  /**
+   * @return the number of unread records
+   */
+  long getDepth() {
+    return depth;
+  }
+
+  /**
+   * @return the bytes of the unread records
+   */
+  long getBytes() {
+    return bytes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    Segment last = segments.peekLast();
+    if (last != null) {
+      last.buffer.force();
+    }
+    lock.release();
+    lockFile.close();
+  }
+
+  private class Segment {
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private int readPosition;
+    private int writePosition;
+
+    Segment(File file) throws IOException {
+      this.file = file;
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(segmentSize);
+        // the mapping stays valid once the file is closed
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      } finally {
+        raf.close();
+      }
+    }
+
+    /**
+     * Finds the first unread record and the end of the segment's records
+     */
+    void scan() {
+      int position = 0;
+      readPosition = -1;
+      while (position + HEADER_SIZE <= segmentSize) {
+        int header = buffer.getInt(position);
+        if (header == 0) {
+          break;
+        }
+        if (header == END_OF_SEGMENT) {
+          position = segmentSize;
+          break;
+        }
+        int length = header > 0 ? header - 1 : -header - 1;
+        if (header > 0) {
+          if (readPosition < 0) {
+            readPosition = position;
+          }
+          depth++;
+          bytes += length;
+        }
+        position += HEADER_SIZE + length;
+      }
+      writePosition = position;
+      if (readPosition < 0) {
+        readPosition = position;
+      }
+    }
+
+    boolean isFullyRead() {
+      return peek() == null;
+    }
+
+    void write(byte[] record) {
+      buffer.position(writePosition + HEADER_SIZE);
+      buffer.put(record);
+      // the header goes last, so a record is never seen half written
+      buffer.putInt(writePosition, record.length + 1);
+      writePosition += HEADER_SIZE + record.length;
+    }
+
+    void seal() {
+      if (writePosition + HEADER_SIZE <= segmentSize) {
+        buffer.putInt(writePosition, END_OF_SEGMENT);
+      }
+      writePosition = segmentSize;
+    }
+
+    @Nullable
+    byte[] peek() {
+      if (readPosition + HEADER_SIZE > segmentSize) {
+        return null;
+      }
+      int header = buffer.getInt(readPosition);
+      if (header <= 0) {
+        return null;
+      }
+      byte[] record = new byte[header - 1];
+      buffer.position(readPosition + HEADER_SIZE);
+      buffer.get(record);
+      return record;
+    }
+
+    int advance() {
+      int header = buffer.getInt(readPosition);
+      Preconditions.checkState(header > 0);
+      buffer.putInt(readPosition, -header);
+      readPosition += HEADER_SIZE + header - 1;
+      return header - 1;
+    }
+
+    void delete() {
+      if (!file.delete()) {
+        logger.warn("Unable to delete spill segment {}", file);
+      }
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core.sink;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A MessageSink that spills to local disk instead of dropping messages when the sink it wraps (e.g. the client's
+ * queue) is full.
+ *
+ * A message is first offered to the wrapped sink, with the processor's offer timeout. If it isn't taken in time, it
+ * is appended to a {@link SpillLog} of memory-mapped segments in the spill directory, and so is every message after
+ * it until the spilled messages have been caught up on, which keeps messages in order. A drainer thread hands the
+ * spilled messages over to the wrapped sink as fast as its consumers take them, so consumers don't need to know about
+ * the spill.
+ *
+ * Spilled messages survive a restart: a sink opened on the same directory hands over the ones that were never taken
+ * first. A message is only dropped once the spill is full (maxSegments segments of segmentSize bytes).
+ */
+public class SpillingSink<T> implements MessageSink<T>, Closeable {
+
+  private final static Logger logger = LoggerFactory.getLogger(SpillingSink.class);
+
+  public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+  public static final int DEFAULT_MAX_SEGMENTS = 16;
+  private static final long DRAIN_OFFER_TIMEOUT_MILLIS = 100;
+
+  /**
+   * How messages are written to and read back from disk
+   */
+  public interface Codec<T> {
+    public byte[] encode(T message);
+
+    public T decode(byte[] bytes);
+  }
+
+  public static final Codec<String> STRINGS = new Codec<String>() {
+    @Override
+    public byte[] encode(String message) {
+      return message.getBytes(Charsets.UTF_8);
+    }
+
+    @Override
+    public String decode(byte[] bytes) {
+      return new String(bytes, Charsets.UTF_8);
+    }
+  };
+
+  public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+    @Override
+    public byte[] encode(byte[] message) {
+      return message;
+    }
+
+    @Override
+    public byte[] decode(byte[] bytes) {
+      return bytes;
+    }
+  };
+
+  private final MessageSink<T> sink;
+  private final Codec<T> codec;
+  private final Object lock = new Object();
+  // guarded by lock
+  private final SpillLog log;
+  // whether there are spilled messages to hand over before any new one. Guarded by lock
+  private boolean spilling;
+  private volatile boolean closed;
+  private final Thread drainer;
+
+  private final AtomicLong numSpilled;
+  private final AtomicLong numDropped;
+
+  public SpillingSink(MessageSink<T> sink, Codec<T> codec, File directory) throws IOException {
+    this(sink, codec, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+  }
+
+  /**
+   * @param directory where to keep the spill. Only one sink may use a directory at a time
+   * @param segmentSize size of each spill file, which is also the largest message that can be spilled
+   * @param maxSegments the most spill files, after which messages are dropped
+   */
+  public SpillingSink(MessageSink<T> sink, Codec<T> codec, File directory, int segmentSize, int maxSegments)
+    throws IOException {
+    this.sink = Preconditions.checkNotNull(sink);
+    this.codec = Preconditions.checkNotNull(codec);
+    this.log = new SpillLog(directory, segmentSize, maxSegments);
+    this.spilling = log.getDepth() > 0;
+    this.numSpilled = new AtomicLong();
+    this.numDropped = new AtomicLong();
+    this.drainer = new ThreadFactoryBuilder()
+      .setDaemon(true)
+      .setNameFormat("hosebird-spill-drainer-%d")
+      .build()
+      .newThread(new Runnable() {
+        @Override
+        public void run() {
+          drain();
+        }
+      });
+    drainer.start();
+  }
+
+  /**
+   * @return true if the message was handed over or spilled, false if it had to be dropped
+   */
+  @Override
+  public boolean offer(T message, long timeout, TimeUnit unit) throws InterruptedException {
+    synchronized (lock) {
+      if (spilling || closed) {
+        return spill(message);
+      }
+    }
+    if (sink.offer(message, timeout, unit)) {
+      return true;
+    }
+    synchronized (lock) {
+      return spill(message);
+    }
+  }
+
+  // must hold lock
+  private boolean spill(T message) {
+    boolean appended = false;
+    if (!closed) {
+      try {
+        appended = log.append(codec.encode(message));
+      } catch (IOException e) {
+        logger.warn("Unable to spill message", e);
+      }
+    }
+    if (!appended) {
+      numDropped.incrementAndGet();
+      return false;
+    }
+    numSpilled.incrementAndGet();
+    if (!spilling) {
+      spilling = true;
+      lock.notifyAll();
+    }
+    return true;
+  }
+
+  private void drain() {
+    try {
+      while (!closed) {
+        byte[] record;
+        synchronized (lock) {
+          while (!spilling && !closed) {
+            lock.wait();
+          }
+          if (closed) {
+            return;
+          }
+          record = log.peek();
+          if (record == null) {
+            spilling = false;
+            continue;
+          }
+        }
+        T message = codec.decode(record);
+        while (!sink.offer(message, DRAIN_OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+          if (closed) {
+            return;
+          }
+        }
+        synchronized (lock) {
+          log.advance();
+          if (log.getDepth() == 0) {
+            spilling = false;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      // closing: whatever is left stays on disk
+    } catch (RuntimeException e) {
+      logger.error("Spill drainer failed, spilled messages are left on disk", e);
+    }
+  }
+
+  /**
+   * Stops handing spilled messages over, and closes the spill. Messages that weren't handed over stay on disk, for
+   * the next sink opened on the directory. Messages offered afterwards are dropped.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      lock.notifyAll();
+    }
+    drainer.interrupt();
+    try {
+      drainer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (lock) {
+      log.close();
+    }
+  }
+
+  /**
+   * @return the number of spilled messages not yet handed over
+   */
+  public long getSpillDepth() {
+    return log.getDepth();
+  }
+
+  /**
+   * @return the bytes of the spilled messages not yet handed over
+   */
+  public long getSpillBytes() {
+    return log.getBytes();
+  }
+
+  /**
+   * @return the number of messages spilled since this sink was opened
+   */
+  public long getNumSpilled() {
+    return numSpilled.get();
+  }
+
+  /**
+   * @return the number of messages dropped because the spill was full
+   */
+  public long getNumDropped() {
+    return numDropped.get();
+  }
+}
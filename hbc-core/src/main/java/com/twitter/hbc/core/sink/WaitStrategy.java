@@ -0,0 +1,69 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.core.sink;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits on a {@link SingleProducerRingBuffer} when there is nothing for it to do: a consumer when the
+ * buffer is empty, the producer when it is full. The trade-off is latency against burning a core.
+ */
+public enum WaitStrategy {
+
+  /**
+   * Spins in a tight loop. Lowest latency, but keeps a core busy for as long as the thread waits.
+   */
+  BUSY_SPIN {
+    @Override
+    public void idle(int attempt) {
+      // just try again
+    }
+  },
+
+  /**
+   * Spins for a little while, then yields the cpu between attempts.
+   */
+  YIELDING {
+    @Override
+    public void idle(int attempt) {
+      if (attempt >= SPIN_TRIES) {
+        Thread.yield();
+      }
+    }
+  },
+
+  /**
+   * Spins, then yields, then parks for a short while between attempts. Uses next to no cpu while waiting, at the
+   * cost of up to {@link #PARK_NANOS} of extra latency.
+   */
+  PARKING {
+    @Override
+    public void idle(int attempt) {
+      if (attempt >= SPIN_TRIES + YIELD_TRIES) {
+        LockSupport.parkNanos(PARK_NANOS);
+      } else if (attempt >= SPIN_TRIES) {
+        Thread.yield();
+      }
+    }
+  };
+
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 100;
+  public static final long PARK_NANOS = 50000;
+
+  /**
+   * @param attempt how many times in a row the caller has already found nothing to do
+   */
+  public abstract void idle(int attempt);
+}
@@ -17,6 +17,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.twitter.hbc.RateTracker;
 import com.twitter.hbc.ReconnectionManager;
+import com.twitter.hbc.StallDetector;
 import com.twitter.hbc.core.Client;
 import com.twitter.hbc.core.Hosts;
 import com.twitter.hbc.core.StatsReporter;
@@ -25,6 +26,9 @@ import com.twitter.hbc.core.event.Event;
 import com.twitter.hbc.core.processor.HosebirdMessageProcessor;
 import com.twitter.hbc.httpclient.auth.Authentication;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.DnsResolver;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.PoolingClientConnectionManager;
@@ -44,8 +48,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class BasicClient implements Client {
 
   private final static int DEFAULT_STOP_TIMEOUT_MILLIS = 5000;
+  public final static int DEFAULT_SWAP_OVERLAP_MILLIS = 1000;
 
   private final ExecutorService executorService;
+  private final boolean ownsExecutor;
 
   private final ClientBase clientBase;
   private final AtomicBoolean canRun;
@@ -55,21 +61,82 @@ public class BasicClient implements Client {
   public BasicClient(String name, Hosts hosts, StreamingEndpoint endpoint, Authentication auth, boolean enableGZip, HosebirdMessageProcessor processor,
                      ReconnectionManager reconnectionManager, RateTracker rateTracker, ExecutorService executorService,
                      @Nullable BlockingQueue<Event> eventsQueue, HttpParams params, SchemeRegistry schemeRegistry) {
-    Preconditions.checkNotNull(auth);
-    HttpClient client;
-    if (enableGZip) {
-      client = new RestartableHttpClient(auth, enableGZip, params, schemeRegistry);
-    } else {
-      DefaultHttpClient defaultClient = new DefaultHttpClient(new PoolingClientConnectionManager(schemeRegistry), params);
+    this(name, hosts, endpoint, auth, enableGZip, processor, reconnectionManager, rateTracker, executorService,
+      true, eventsQueue, params, schemeRegistry);
+  }
 
-      /** Set auth **/
-      auth.setupConnection(defaultClient);
-      client = defaultClient;
-    }
+  /**
+   * @param ownsExecutor whether {@link #stop()} should shut down the executor. Pass false when the executor is
+   *                     shared with other clients.
+   */
+  public BasicClient(String name, Hosts hosts, StreamingEndpoint endpoint, Authentication auth, boolean enableGZip, HosebirdMessageProcessor processor,
+                     ReconnectionManager reconnectionManager, RateTracker rateTracker, ExecutorService executorService,
+                     boolean ownsExecutor, @Nullable BlockingQueue<Event> eventsQueue, HttpParams params,
+                     SchemeRegistry schemeRegistry) {
+    this(name, hosts, endpoint, auth, enableGZip, processor, reconnectionManager, rateTracker, executorService,
+      ownsExecutor, eventsQueue, params, schemeRegistry, null);
+  }
+
+  /**
+   * @param stallDetector reconnects when the stream stalls instead of waiting for the socket timeout. Null to rely on
+   *                      the socket timeout alone
+   */
+  public BasicClient(String name, Hosts hosts, StreamingEndpoint endpoint, Authentication auth, boolean enableGZip, HosebirdMessageProcessor processor,
+                     ReconnectionManager reconnectionManager, RateTracker rateTracker, ExecutorService executorService,
+                     boolean ownsExecutor, @Nullable BlockingQueue<Event> eventsQueue, HttpParams params,
+                     SchemeRegistry schemeRegistry, @Nullable StallDetector stallDetector) {
+    this(name, createHttpClient(auth, enableGZip, params, schemeRegistry, hosts), hosts, endpoint, auth, processor,
+      reconnectionManager, rateTracker, executorService, ownsExecutor, eventsQueue, stallDetector);
+  }
+
+  /**
+   * Streams over the given HttpClient, which must already be set up for the given authentication. The client's
+   * connection manager is shut down when the connection thread ends, unless it is a {@link SharedConnectionManager}.
+   */
+  public BasicClient(String name, HttpClient client, Hosts hosts, StreamingEndpoint endpoint, Authentication auth,
+                     HosebirdMessageProcessor processor, ReconnectionManager reconnectionManager, RateTracker rateTracker,
+                     ExecutorService executorService, @Nullable BlockingQueue<Event> eventsQueue) {
+    this(name, client, hosts, endpoint, auth, processor, reconnectionManager, rateTracker, executorService, true,
+      eventsQueue);
+  }
 
+  public BasicClient(String name, HttpClient client, Hosts hosts, StreamingEndpoint endpoint, Authentication auth,
+                     HosebirdMessageProcessor processor, ReconnectionManager reconnectionManager, RateTracker rateTracker,
+                     ExecutorService executorService, boolean ownsExecutor, @Nullable BlockingQueue<Event> eventsQueue) {
+    this(name, client, hosts, endpoint, auth, processor, reconnectionManager, rateTracker, executorService, ownsExecutor,
+      eventsQueue, null);
+  }
+
+  public BasicClient(String name, HttpClient client, Hosts hosts, StreamingEndpoint endpoint, Authentication auth,
+                     HosebirdMessageProcessor processor, ReconnectionManager reconnectionManager, RateTracker rateTracker,
+                     ExecutorService executorService, boolean ownsExecutor, @Nullable BlockingQueue<Event> eventsQueue,
+                     @Nullable StallDetector stallDetector) {
+    Preconditions.checkNotNull(auth);
     this.canRun = new AtomicBoolean(true);
     this.executorService = executorService;
-    this.clientBase = new ClientBase(name, client, hosts, endpoint, auth, processor, reconnectionManager, rateTracker, eventsQueue);
+    this.ownsExecutor = ownsExecutor;
+    this.clientBase = new ClientBase(name, client, hosts, endpoint, auth, processor, reconnectionManager, rateTracker,
+      eventsQueue, stallDetector);
+  }
+
+  private static HttpClient createHttpClient(Authentication auth, boolean enableGZip, HttpParams params,
+                                             SchemeRegistry schemeRegistry, Hosts hosts) {
+    Preconditions.checkNotNull(auth);
+    // hosts that resolve themselves, e.g. DnsHosts, do so for the connections too
+    PoolingClientConnectionManager connectionManager = hosts instanceof DnsResolver ?
+      new PoolingClientConnectionManager(schemeRegistry, (DnsResolver) hosts) :
+      new PoolingClientConnectionManager(schemeRegistry);
+    DefaultHttpClient client = new DefaultHttpClient(connectionManager, params);
+    // gzip through interceptors rather than a DecompressingHttpClient, so that aborting a connection reaches its
+    // socket and a reconnect keeps the client, its connection manager and the TLS sessions of the scheme registry
+    if (enableGZip) {
+      client.addRequestInterceptor(new RequestAcceptEncoding());
+      client.addResponseInterceptor(new ResponseContentEncoding());
+    }
+
+    /** Set auth **/
+    auth.setupConnection(client);
+    return client;
   }
 
   /**
@@ -80,6 +147,7 @@ public class BasicClient implements Client {
     this.canRun = new AtomicBoolean(true);
     this.clientBase = clientBase;
     this.executorService = executorService;
+    this.ownsExecutor = true;
   }
 
   /**
@@ -125,7 +193,9 @@ public class BasicClient implements Client {
     } catch (InterruptedException e) {
       logger.info("Thread interrupted when attempting to stop the client: {}", this.clientBase);
     }
-    executorService.shutdown();
+    if (ownsExecutor) {
+      executorService.shutdown();
+    }
   }
 
   @Override
@@ -143,6 +213,25 @@ public class BasicClient implements Client {
     clientBase.reconnect();
   }
 
+  /**
+   * Like {@link #reconnect()}, e.g. to pick up new track terms, but without a gap in the stream: see
+   * {@link #swapConnection(int)}. The overlap is {@link #DEFAULT_SWAP_OVERLAP_MILLIS}.
+   */
+  public void swapConnection() {
+    swapConnection(DEFAULT_SWAP_OVERLAP_MILLIS);
+  }
+
+  /**
+   * Opens a new connection with the endpoint's current parameters before closing the current one. The current
+   * connection is read for up to overlapMillis after the new one opens, then closed, and for the same time the messages
+   * from the new one that the current one already delivered are dropped. If the new connection fails, the current one
+   * is kept. The processor must be a {@link com.twitter.hbc.core.processor.SwappableProcessor}, as the built-in ones
+   * are; otherwise this reconnects.
+   */
+  public void swapConnection(int overlapMillis) {
+    clientBase.swapConnection(overlapMillis);
+  }
+
   @VisibleForTesting
   boolean waitForFinish(int millis) throws InterruptedException {
     return clientBase.waitForFinish(millis);
@@ -15,8 +15,11 @@ package com.twitter.hbc.httpclient;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.twitter.hbc.BasicReconnectionManager;
 import com.twitter.hbc.RateTracker;
 import com.twitter.hbc.ReconnectionManager;
+import com.twitter.hbc.StallDetector;
+import com.twitter.hbc.core.HostFeedback;
 import com.twitter.hbc.core.Hosts;
 import com.twitter.hbc.core.HttpConstants;
 import com.twitter.hbc.core.StatsReporter;
@@ -26,6 +29,7 @@ import com.twitter.hbc.core.event.Event;
 import com.twitter.hbc.core.event.EventType;
 import com.twitter.hbc.core.event.HttpResponseEvent;
 import com.twitter.hbc.core.processor.HosebirdMessageProcessor;
+import com.twitter.hbc.core.processor.SwappableProcessor;
 import com.twitter.hbc.httpclient.auth.Authentication;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
@@ -40,6 +44,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -69,16 +74,36 @@ class ClientBase implements Runnable {
 
   private final AtomicBoolean connectionEstablished;
   private final AtomicBoolean reconnect;
+  // the overlap of a requested swap, or -1
+  private final AtomicLong swapOverlapMillis;
+
+  @Nullable
+  private final StallDetector stallDetector;
+  private final AtomicReference<String> stallReason;
+  // the connection being processed, whose progress the stall detector tracks
+  private volatile Connection processing;
+  // the host whose first message hasn't arrived yet, when the hosts take feedback; connection thread only
+  @Nullable
+  private String awaitingFirstMessage;
+  private long connectedNanos;
+  // whether the last connection processed was dropped, rather than closed as the client asked; connection thread only
+  private boolean dropped;
 
   ClientBase(String name, HttpClient client, Hosts hosts, StreamingEndpoint endpoint, Authentication auth,
              HosebirdMessageProcessor processor, ReconnectionManager manager, RateTracker rateTracker) {
     this(name, client, hosts, endpoint, auth, processor, manager, rateTracker, null);
   }
 
-  // TODO: support setting some http timeouts?
   ClientBase(String name, HttpClient client, Hosts hosts, StreamingEndpoint endpoint, Authentication auth,
              HosebirdMessageProcessor processor, ReconnectionManager manager, RateTracker rateTracker,
              @Nullable BlockingQueue<Event> eventsQueue) {
+    this(name, client, hosts, endpoint, auth, processor, manager, rateTracker, eventsQueue, null);
+  }
+
+  // TODO: support setting some http timeouts?
+  ClientBase(String name, HttpClient client, Hosts hosts, StreamingEndpoint endpoint, Authentication auth,
+             HosebirdMessageProcessor processor, ReconnectionManager manager, RateTracker rateTracker,
+             @Nullable BlockingQueue<Event> eventsQueue, @Nullable StallDetector stallDetector) {
     this.client = Preconditions.checkNotNull(client);
     this.name = Preconditions.checkNotNull(name);
 
@@ -96,9 +121,15 @@ class ClientBase implements Runnable {
 
     this.isRunning = new CountDownLatch(1);
     this.statsReporter = new StatsReporter();
+    statsReporter.trackSpillOf(processor);
+    statsReporter.trackDropsOf(processor);
 
     this.connectionEstablished = new AtomicBoolean(false);
     this.reconnect = new AtomicBoolean(false);
+    this.swapOverlapMillis = new AtomicLong(-1);
+
+    this.stallDetector = stallDetector;
+    this.stallReason = new AtomicReference<String>();
   }
 
   @Override
@@ -118,6 +149,14 @@ class ClientBase implements Runnable {
         ((RestartableHttpClient) client).setup();
       }
       rateTracker.start();
+      if (stallDetector != null) {
+        stallDetector.start(new Runnable() {
+          @Override
+          public void run() {
+            checkForStall();
+          }
+        });
+      }
       while (!isDone()) {
         String host = hosts.nextHost();
         if (host == null) {
@@ -130,29 +169,27 @@ class ClientBase implements Runnable {
           endpoint.setBackfillCount(reconnectionManager.estimateBackfill(rate));
         }
 
-        HttpUriRequest request = HttpConstants.constructRequest(host, endpoint, auth);
+        HttpUriRequest request = createRequest(host);
         if (request != null) {
-          String postContent = null;
-          if (endpoint.getHttpMethod().equalsIgnoreCase(HttpConstants.HTTP_POST)) {
-            postContent = endpoint.getPostParamString();
-          }
-          auth.signRequest(request, postContent);
           Connection conn = new Connection(client, processor);
+          long attemptNanos = System.nanoTime();
           StatusLine status = establishConnection(conn, request);
+          reportConnectionResult(host, status, attemptNanos);
           if (handleConnectionResult(status)) {
+            awaitFirstMessage(host);
             rateTracker.resume();
-            processConnectionData(conn);
+            startStallCheck(conn);
+            conn = processConnectionData(conn);
+            processing = null;
             rateTracker.pause();
+            if (awaitingFirstMessage != null && dropped && !isDone()) {
+              // the host, or the one swapped in, dropped the connection before the first message
+              ((HostFeedback) hosts).onFailure(awaitingFirstMessage);
+            }
+            awaitingFirstMessage = null;
           }
           logger.info("{} Done processing, preparing to close connection", name);
           conn.close();
-        } else {
-          addEvent(
-            new Event(
-              EventType.CONNECTION_ERROR,
-              String.format("Error creating request: %s, %s, %s", endpoint.getHttpMethod(), host, endpoint.getURI())
-            )
-          );
         }
       }
     } catch (Throwable e) {
@@ -161,12 +198,38 @@ class ClientBase implements Runnable {
       setExitStatus(new Event(EventType.STOPPED_BY_ERROR, laundered));
     } finally {
       rateTracker.stop();
+      if (stallDetector != null) {
+        stallDetector.stop();
+      }
       logger.info("{} Shutting down httpclient connection manager", name);
       client.getConnectionManager().shutdown();
       isRunning.countDown();
     }
   }
 
+  /**
+   * @return the signed request for the endpoint, or null if it couldn't be created
+   */
+  @Nullable
+  private HttpUriRequest createRequest(String host) {
+    HttpUriRequest request = HttpConstants.constructRequest(host, endpoint, auth);
+    if (request == null) {
+      addEvent(
+        new Event(
+          EventType.CONNECTION_ERROR,
+          String.format("Error creating request: %s, %s, %s", endpoint.getHttpMethod(), host, endpoint.getURI())
+        )
+      );
+      return null;
+    }
+    String postContent = null;
+    if (endpoint.getHttpMethod().equalsIgnoreCase(HttpConstants.HTTP_POST)) {
+      postContent = endpoint.getPostParamString();
+    }
+    auth.signRequest(request, postContent);
+    return request;
+  }
+
   @Nullable()
   @VisibleForTesting
   StatusLine establishConnection(Connection conn, HttpUriRequest request) {
@@ -236,29 +299,43 @@ class ClientBase implements Runnable {
     return false;
   }
 
-  private void processConnectionData(Connection conn) {
+  /**
+   * @return the connection processed last, which may have been swapped in for the given one
+   */
+  private Connection processConnectionData(Connection conn) {
     logger.info("{} Processing connection data", name);
+    dropped = false;
     try {
       addEvent(new Event(EventType.PROCESSING, "Processing messages"));
       while(!isDone() && !reconnect.getAndSet(false)) {
-        if (conn.processResponse()) {
-          statsReporter.incrNumMessages();
-        } else {
-          statsReporter.incrNumMessagesDropped();
+        processMessage(conn);
+        if (swapOverlapMillis.get() >= 0) {
+          conn = swapConnection(conn, swapOverlapMillis.getAndSet(-1));
         }
-        rateTracker.eventObserved();
       }
     } catch (RuntimeException e) {
-      logger.warn(name + " Unknown error processing connection: ", e);
-      statsReporter.incrNumDisconnects();
-      addEvent(new Event(EventType.DISCONNECTED, e));
+      String stall = stallReason.getAndSet(null);
+      if (stall != null) {
+        stalled(stall);
+      } else {
+        logger.warn(name + " Unknown error processing connection: ", e);
+        dropped = true;
+        statsReporter.incrNumDisconnects();
+        addEvent(new Event(EventType.DISCONNECTED, e));
+      }
     } catch (IOException ex) {
       // connection issue? whatever. let's try connecting again
       // we can't really diagnosis the actual disconnection reason without parsing (looking at disconnect message)
-      // but we can make a good guess at when we're stalling. TODO
-      logger.info("{} Disconnected during processing - will reconnect", name);
-      statsReporter.incrNumDisconnects();
-      addEvent(new Event(EventType.DISCONNECTED, ex));
+      // but if the stall check aborted the connection, we know we were stalling
+      String stall = stallReason.getAndSet(null);
+      if (stall != null) {
+        stalled(stall);
+      } else {
+        logger.info("{} Disconnected during processing - will reconnect", name);
+        dropped = true;
+        statsReporter.incrNumDisconnects();
+        addEvent(new Event(EventType.DISCONNECTED, ex));
+      }
     } catch (InterruptedException interrupt) {
       // interrupted while trying to append message to queue. exit
       logger.info("{} Thread interrupted during processing, exiting", name);
@@ -270,6 +347,175 @@ class ClientBase implements Runnable {
       statsReporter.incrNumDisconnects();
       setExitStatus(new Event(EventType.STOPPED_BY_ERROR, e));
     }
+    return conn;
+  }
+
+  private void processMessage(Connection conn) throws IOException, InterruptedException {
+    if (conn.processResponse()) {
+      statsReporter.incrNumMessages();
+    } else {
+      statsReporter.incrNumMessagesDropped();
+    }
+    rateTracker.eventObserved();
+    if (awaitingFirstMessage != null) {
+      long firstMessageMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectedNanos);
+      ((HostFeedback) hosts).onFirstMessage(awaitingFirstMessage, firstMessageMillis);
+      awaitingFirstMessage = null;
+    }
+  }
+
+  /**
+   * Tells {@link HostFeedback} hosts how the connection attempt went: server errors and failures to connect count
+   * against the host, but not client errors, which are down to the request.
+   */
+  private void reportConnectionResult(String host, @Nullable StatusLine status, long attemptNanos) {
+    if (!(hosts instanceof HostFeedback)) {
+      return;
+    }
+    HostFeedback feedback = (HostFeedback) hosts;
+    if (status == null || status.getStatusCode() >= 500) {
+      feedback.onFailure(host);
+    } else if (status.getStatusCode() == HttpConstants.Codes.SUCCESS) {
+      connectedNanos = System.nanoTime();
+      feedback.onConnected(host, TimeUnit.NANOSECONDS.toMillis(connectedNanos - attemptNanos));
+    }
+  }
+
+  /**
+   * Starts waiting for the first message from the host, which is connected to and processed from now on
+   */
+  private void awaitFirstMessage(String host) {
+    if (hosts instanceof HostFeedback) {
+      awaitingFirstMessage = host;
+    }
+  }
+
+  /**
+   * Make-before-break: opens a new connection with the endpoint's current parameters, keeps reading the current one
+   * for the overlap, then closes it and carries on with the new one, dropping the messages both delivered. If the new
+   * connection can't be opened, carries on with the current one.
+   * @return the connection to process from now on
+   */
+  private Connection swapConnection(Connection current, long overlapMillis)
+    throws IOException, InterruptedException {
+    if (!(processor instanceof SwappableProcessor)) {
+      logger.info("{} The processor can't swap connections, reconnecting instead", name);
+      reconnect.set(true);
+      return current;
+    }
+    String host = hosts.nextHost();
+    HttpUriRequest request = host == null ? null : createRequest(host);
+    if (request == null) {
+      return current;
+    }
+    logger.info("{} Opening a connection to swap in", name);
+    Connection next = new Connection(client, processor);
+    addEvent(new ConnectionEvent(EventType.CONNECTION_ATTEMPT, request));
+    statsReporter.incrNumConnects();
+    StatusLine status;
+    long attemptNanos = System.nanoTime();
+    try {
+      status = next.open(request);
+    } catch (IOException e) {
+      logger.warn("{} IOException caught when opening a connection to swap in, keeping the current one", name);
+      addEvent(new Event(EventType.CONNECTION_ERROR, e));
+      statsReporter.incrNumConnectionFailures();
+      reportConnectionResult(host, null, attemptNanos);
+      next.close(false);
+      return current;
+    }
+    reportConnectionResult(host, status, attemptNanos);
+    if (status.getStatusCode() != HttpConstants.Codes.SUCCESS) {
+      logger.warn("{} Error swapping connections w/ status code - {}, keeping the current one", name,
+        status.getStatusCode());
+      addEvent(new HttpResponseEvent(EventType.HTTP_ERROR, status));
+      statsReporter.incrNumConnectionFailures();
+      next.close(false);
+      return current;
+    }
+    statsReporter.incrNum200s();
+    addEvent(new HttpResponseEvent(EventType.CONNECTED, status));
+
+    // whatever the current connection has buffered was sent before the new one opened, so read it for the overlap
+    SwappableProcessor swappable = (SwappableProcessor) processor;
+    swappable.beginOverlap();
+    try {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(overlapMillis);
+      current.setReadTimeout((int) Math.max(1, overlapMillis));
+      long remaining = overlapMillis;
+      while (!isDone() && remaining > 0) {
+        processMessage(current);
+        remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      }
+    } catch (IOException e) {
+      // the overlap timed out waiting for a message, or the connection dropped: either way, it's done
+      logger.debug("{} Done reading the connection being swapped out: {}", name, e.getMessage());
+    } catch (RuntimeException e) {
+      swappable.endOverlap();
+      next.close(false);
+      throw e;
+    } catch (InterruptedException e) {
+      swappable.endOverlap();
+      next.close(false);
+      throw e;
+    }
+    if (isDone()) {
+      swappable.endOverlap();
+      next.close(false);
+      return current;
+    }
+    next.takeOver(current, overlapMillis);
+    // only now, as the overlap's messages came from the current connection
+    awaitFirstMessage(host);
+    startStallCheck(next);
+    logger.info("{} Swapped connections", name);
+    addEvent(new Event(EventType.PROCESSING, "Swapped connections"));
+    return next;
+  }
+
+  private void stalled(String reason) {
+    logger.info("{} Stream stalled - will reconnect", name);
+    statsReporter.incrNumDisconnects();
+    statsReporter.incrNumStalls();
+    addEvent(new Event(EventType.STALLED, reason));
+  }
+
+  private void startStallCheck(Connection conn) {
+    if (stallDetector != null) {
+      synchronized (this) {
+        stallDetector.reset(countMessages(), rateTracker.getCurrentRateSeconds(), System.nanoTime());
+        stallReason.set(null);
+        processing = conn;
+      }
+    }
+  }
+
+  /**
+   * Runs on the stall detector's scheduler. Progress is sampled from the stats rather than stamped on each message, so
+   * the check costs the read loop nothing. Aborting the connection breaks the blocked read, and the loop reconnects.
+   */
+  @VisibleForTesting
+  void checkForStall() {
+    Connection conn;
+    String reason;
+    synchronized (this) {
+      conn = processing;
+      if (conn == null || isDone()) {
+        return;
+      }
+      reason = stallDetector.checkProgress(countMessages(), rateTracker.getCurrentRateSeconds(), System.nanoTime());
+      if (reason == null || !stallReason.compareAndSet(null, reason)) {
+        return;
+      }
+    }
+    // outside the lock: aborting waits on the connection's own locks
+    logger.warn("{} {}, aborting the connection", name, reason);
+    conn.abort();
+  }
+
+  private long countMessages() {
+    StatsReporter.StatsTracker stats = statsReporter.getStatsTracker();
+    return stats.getNumMessages() + stats.getNumMessagesDropped();
   }
 
   private void setExitStatus(Event event) {
@@ -292,6 +538,17 @@ class ClientBase implements Runnable {
     }
   }
 
+  /**
+   * Has the connection thread swap in a new connection with the endpoint's current parameters, see
+   * {@link BasicClient#swapConnection(int)}
+   */
+  public void swapConnection(int overlapMillis) {
+    Preconditions.checkArgument(overlapMillis >= 0);
+    if (connectionEstablished.get()) {
+      swapOverlapMillis.set(overlapMillis);
+    }
+  }
+
   /**
    * Stops the current connection. No reconnecting will occur. Kills thread + cleanup.
    * Waits for the loop to end
@@ -301,11 +558,18 @@ class ClientBase implements Runnable {
       if (!isDone()) {
         setExitStatus(new Event(EventType.STOPPED_BY_USER, String.format("Stopped by user: waiting for %d ms", waitMillis)));
       }
+      if (reconnectionManager instanceof BasicReconnectionManager) {
+        // rather than wait out a backoff of up to minutes
+        ((BasicReconnectionManager) reconnectionManager).cancel();
+      }
       if (!waitForFinish(waitMillis)) {
         logger.warn("{} Client thread failed to finish in {} millis", name, waitMillis);
       }
     } finally {
       rateTracker.shutdown();
+      if (stallDetector != null) {
+        stallDetector.shutdown();
+      }
     }
   }
 
@@ -16,10 +16,17 @@ package com.twitter.hbc.httpclient;
 import com.google.common.base.Preconditions;
 import com.google.common.io.Closeables;
 import com.twitter.hbc.core.processor.HosebirdMessageProcessor;
+import com.twitter.hbc.core.processor.ReleasableProcessor;
+import com.twitter.hbc.core.processor.SwappableProcessor;
+import org.apache.http.HttpConnection;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,36 +34,96 @@ import java.io.InputStream;
 public class Connection {
 
   private final HttpClient client;
+  // holds the underlying http connection once the request is executed, see abort()
+  private final HttpContext context;
 
   private HttpResponse response;
-  private HttpUriRequest request;
+  private volatile HttpUriRequest request;
   private InputStream stream;
 
   private final HosebirdMessageProcessor processor;
+  // whether the processor reads this connection, and so is released with it
+  private boolean attached;
 
   public Connection(HttpClient client, HosebirdMessageProcessor processor) {
     this.client = Preconditions.checkNotNull(client);
     this.processor = Preconditions.checkNotNull(processor);
+    this.context = new BasicHttpContext();
   }
 
   public StatusLine connect(HttpUriRequest request) throws IOException {
+    StatusLine status = open(request);
+    processor.setup(stream);
+    attached = true;
+    return status;
+  }
+
+  /**
+   * Like {@link #connect(HttpUriRequest)}, but leaves the processor reading the current connection, see
+   * {@link #takeOver(Connection, long)}
+   */
+  StatusLine open(HttpUriRequest request) throws IOException {
     this.request = request;
-    this.response = client.execute(request);
+    this.response = client.execute(request, context);
     this.stream = response.getEntity().getContent();
-    processor.setup(stream);
     return response.getStatusLine();
   }
 
+  /**
+   * Closes the previous connection, and has the processor switch over from it to this one. The processor must be a
+   * {@link SwappableProcessor}.
+   */
+  void takeOver(Connection previous, long dedupeMillis) {
+    previous.close(false);
+    ((SwappableProcessor) processor).swap(stream, dedupeMillis);
+    attached = true;
+  }
+
   public boolean processResponse() throws IOException, InterruptedException {
     return processor.process();
   }
 
-  public void close() {
-    if (this.request != null && !this.request.isAborted()) {
-      // aborting the request
-      this.request.abort();
+  /**
+   * Bounds the time a read waits for data from now on
+   */
+  void setReadTimeout(int millis) {
+    Object connection = context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+    if (connection instanceof HttpConnection) {
+      ((HttpConnection) connection).setSocketTimeout(millis);
     }
-    if (client instanceof RestartableHttpClient) {
+  }
+
+  /**
+   * Aborts the request, breaking a read blocked on the stream. Safe to call from another thread; the connection still
+   * needs to be closed by its own thread.
+   */
+  public void abort() {
+    HttpUriRequest current = this.request;
+    if (current != null) {
+      current.abort();
+    }
+    // aborting the request doesn't reach the connection when a DecompressingHttpClient wraps it, e.g. the gzipped
+    // stream of a RestartableHttpClient
+    Object connection = context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+    if (connection instanceof ConnectionReleaseTrigger) {
+      try {
+        ((ConnectionReleaseTrigger) connection).abortConnection();
+      } catch (IOException e) {
+        // the connection is dead either way
+      }
+    }
+  }
+
+  public void close() {
+    close(true);
+  }
+
+  /**
+   * @param restartClient whether to restart a {@link RestartableHttpClient}, which kills all of its connections
+   */
+  void close(boolean restartClient) {
+    abort();
+    if (restartClient && client instanceof RestartableHttpClient) {
       // restart the entire client
       ((RestartableHttpClient) client).restart();
     }
@@ -65,5 +132,8 @@ public class Connection {
     } catch (IOException e) {
       throw new RuntimeException(e); // should never happen
     }
+    if (attached && processor instanceof ReleasableProcessor) {
+      ((ReleasableProcessor) processor).release();
+    }
   }
 }
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.httpclient;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.twitter.hbc.core.Client;
+import com.twitter.hbc.core.StatsReporter;
+import com.twitter.hbc.core.endpoint.StreamingEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A client streaming over several connections at once, e.g. one per subset of the firehose partitions, see
+ * {@link com.twitter.hbc.PartitionedClientBuilder}. The connections share a connection manager, a thread pool and a
+ * rate tracker scheduler, which are released when the client is stopped.
+ */
+public class PartitionedClient implements Client {
+
+  private final static int DEFAULT_STOP_TIMEOUT_MILLIS = 5000;
+
+  private final static Logger logger = LoggerFactory.getLogger(PartitionedClient.class);
+
+  private final String name;
+  private final List<BasicClient> clients;
+  private final ExecutorService executorService;
+  private final ScheduledExecutorService rateTrackerExecutor;
+  private final SharedConnectionManager connectionManager;
+  private final StatsReporter.StatsTracker statsTracker;
+
+  public PartitionedClient(String name, List<BasicClient> clients, ExecutorService executorService,
+                           ScheduledExecutorService rateTrackerExecutor, SharedConnectionManager connectionManager) {
+    Preconditions.checkArgument(!clients.isEmpty());
+    this.name = Preconditions.checkNotNull(name);
+    this.clients = ImmutableList.copyOf(clients);
+    this.executorService = Preconditions.checkNotNull(executorService);
+    this.rateTrackerExecutor = Preconditions.checkNotNull(rateTrackerExecutor);
+    this.connectionManager = Preconditions.checkNotNull(connectionManager);
+
+    List<StatsReporter.StatsTracker> trackers = Lists.newArrayListWithCapacity(clients.size());
+    for (BasicClient client : clients) {
+      trackers.add(client.getStatsTracker());
+    }
+    this.statsTracker = StatsReporter.aggregate(trackers);
+  }
+
+  /**
+   * {@inheritDoc}
+   * Starts every connection, each in its own thread.
+   */
+  @Override
+  public void connect() {
+    for (BasicClient client : clients) {
+      client.connect();
+    }
+  }
+
+  @Override
+  public void reconnect() {
+    for (BasicClient client : clients) {
+      client.reconnect();
+    }
+  }
+
+  @Override
+  public void stop() {
+    stop(DEFAULT_STOP_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * {@inheritDoc}
+   * The wait applies to all the connections together.
+   */
+  @Override
+  public void stop(int waitMillis) {
+    logger.info("Stopping the client: {}", name);
+    long deadline = System.currentTimeMillis() + waitMillis;
+    try {
+      for (BasicClient client : clients) {
+        client.stop((int) Math.max(0, deadline - System.currentTimeMillis()));
+      }
+    } finally {
+      // also unblocks any connection thread that is still reading
+      connectionManager.shutdownShared();
+      executorService.shutdown();
+      rateTrackerExecutor.shutdown();
+    }
+  }
+
+  /**
+   * @return true once every connection is done
+   */
+  @Override
+  public boolean isDone() {
+    for (BasicClient client : clients) {
+      if (!client.isDone()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the endpoint of the first connection. See {@link #getClients()} for the endpoints of the others.
+   */
+  @Override
+  public StreamingEndpoint getEndpoint() {
+    return clients.get(0).getEndpoint();
+  }
+
+  /**
+   * @return the sum of the stats of all the connections
+   */
+  @Override
+  public StatsReporter.StatsTracker getStatsTracker() {
+    return statsTracker;
+  }
+
+  /**
+   * @return the client of each connection, e.g. to look at its endpoint or its own stats
+   */
+  public List<BasicClient> getClients() {
+    return clients;
+  }
+}
@@ -34,6 +34,10 @@ import java.util.concurrent.atomic.AtomicReference;
 /**
  * There's currently a bug in DecompressingHttpClient that does not allow it to properly abort requests.
  * This class is a hacky workaround to make things work.
+ *
+ * Note: the clients built by {@link com.twitter.hbc.ClientBuilder} no longer use this. They decompress through
+ * interceptors and abort just the connection on a reconnect, keeping the connection manager and the TLS sessions.
+ * Restarting builds a new client and connection manager on every reconnect.
  */
 public class RestartableHttpClient implements HttpClient {
 
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.httpclient;
+
+import com.google.common.base.Preconditions;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A connection manager shared by the HttpClients of several connections, e.g. those of a {@link PartitionedClient}.
+ *
+ * Each client shuts down its connection manager when its connection thread ends, which would close the connections
+ * of all the others, so {@link #shutdown()} does nothing here. The owner calls {@link #shutdownShared()} once all
+ * the clients are done.
+ *
+ * Note: this can't be used with a {@link RestartableHttpClient}, which shuts down its connection manager on every
+ * reconnect.
+ */
+public class SharedConnectionManager implements ClientConnectionManager {
+
+  private final ClientConnectionManager underlying;
+
+  public SharedConnectionManager(ClientConnectionManager underlying) {
+    this.underlying = Preconditions.checkNotNull(underlying);
+  }
+
+  @Override
+  public SchemeRegistry getSchemeRegistry() {
+    return underlying.getSchemeRegistry();
+  }
+
+  @Override
+  public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+    return underlying.requestConnection(route, state);
+  }
+
+  @Override
+  public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+    underlying.releaseConnection(conn, validDuration, timeUnit);
+  }
+
+  @Override
+  public void closeIdleConnections(long idletime, TimeUnit tunit) {
+    underlying.closeIdleConnections(idletime, tunit);
+  }
+
+  @Override
+  public void closeExpiredConnections() {
+    underlying.closeExpiredConnections();
+  }
+
+  /**
+   * Does nothing: the connections may still be in use by other clients
+   */
+  @Override
+  public void shutdown() {}
+
+  /**
+   * Closes all the connections, of all the clients, and releases the resources of the underlying connection manager
+   */
+  public void shutdownShared() {
+    underlying.shutdown();
+  }
+}
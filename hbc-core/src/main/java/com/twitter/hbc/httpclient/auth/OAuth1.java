@@ -13,8 +13,10 @@
 
 package com.twitter.hbc.httpclient.auth;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.twitter.hbc.core.HttpConstants;
 import com.twitter.joauth.Normalizer;
@@ -28,16 +30,48 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.impl.client.AbstractHttpClient;
 
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Signs requests with OAuth 1.0a HMAC-SHA1.
+ *
+ * Everything about a signature but its nonce and timestamp stays the same from one request to an endpoint to the
+ * next, so the parameters are parsed, encoded and sorted once per endpoint (i.e. until the request's URI or post
+ * parameters change), and each thread keeps a Mac that's already keyed, along with the base strings of the last few
+ * endpoints it signed for. Signing a request then comes down to one
+ * HMAC over the cached signature base string, plus building the header.
+ */
 public class OAuth1 implements Authentication {
 
+  private static final String HMAC_SHA1 = "HmacSHA1";
+  private static final int SHA1_LENGTH = 20;
+  // a client signs for its stream and, at most, a handful of control endpoints
+  private static final int MAX_SIGNATURE_BASES = 16;
+  private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private static final Comparator<Pair> PARAMETER_ORDER = new Comparator<Pair>() {
+    @Override
+    public int compare(Pair a, Pair b) {
+      int byKey = a.key.compareTo(b.key);
+      return byKey != 0 ? byKey : a.value.compareTo(b.value);
+    }
+  };
+
   private final Normalizer normalizer;
   private final Signer signer;
 
@@ -48,6 +82,10 @@ public class OAuth1 implements Authentication {
 
   private final SecureRandom secureRandom;
 
+  private final byte[] signingKey;
+  private final String headerPrefix;
+  private final ThreadLocal<SigningState> signingState;
+
   public OAuth1(String consumerKey, String consumerSecret, String token, String tokenSecret) {
     this.consumerKey = Preconditions.checkNotNull(consumerKey);
     this.consumerSecret = Preconditions.checkNotNull(consumerSecret);
@@ -59,6 +97,20 @@ public class OAuth1 implements Authentication {
     this.signer = Signer.getStandardSigner();
 
     this.secureRandom = new SecureRandom();
+
+    this.signingKey = (consumerSecret + "&" + tokenSecret).getBytes(Charsets.UTF_8);
+    this.headerPrefix = "OAuth " +
+      OAuthParams.OAUTH_CONSUMER_KEY + "=" + quoted(consumerKey) + ", " +
+      OAuthParams.OAUTH_TOKEN + "=" + quoted(token) + ", " +
+      OAuthParams.OAUTH_SIGNATURE_METHOD + "=" + quoted(OAuthParams.HMAC_SHA1) + ", " +
+      OAuthParams.OAUTH_VERSION + "=" + quoted(OAuthParams.ONE_DOT_OH) + ", " +
+      OAuthParams.OAUTH_TIMESTAMP + "=\"";
+    this.signingState = new ThreadLocal<SigningState>() {
+      @Override
+      protected SigningState initialValue() {
+        return new SigningState(signingKey);
+      }
+    };
   }
 
   @Override
@@ -66,47 +118,61 @@ public class OAuth1 implements Authentication {
 
   @Override
   public void signRequest(HttpUriRequest request, String postParams) {
-    // TODO: this is a little odd: we already encoded the values earlier, but using URLEncodedUtils.parse will decode the values,
-    // which we will encode again.
-    List<NameValuePair> httpGetParams = URLEncodedUtils.parse(request.getURI().getRawQuery(), Charsets.UTF_8);
-    List<Pair> javaParams = new ArrayList<Pair>(httpGetParams.size());
-    for (NameValuePair params : httpGetParams) {
-      Pair tuple = new Pair(UrlCodec.encode(params.getName()), UrlCodec.encode(params.getValue()));
-      javaParams.add(tuple);
-    }
-
-    if (postParams != null) {
-      List<NameValuePair> httpPostParams = URLEncodedUtils.parse(postParams, Charsets.UTF_8);
+    signRequest(request, postParams, generateNonce(), generateTimestamp());
+  }
 
-      for (NameValuePair params : httpPostParams) {
-        Pair tuple = new Pair(UrlCodec.encode(params.getName()), UrlCodec.encode(params.getValue()));
-        javaParams.add(tuple);
+  @VisibleForTesting
+  void signRequest(HttpUriRequest request, @Nullable String postParams, String nonce, long timestampSecs) {
+    SigningState state = signingState.get();
+    Endpoint endpoint = new Endpoint(request.getMethod(), request.getURI(), postParams);
+    SignatureBase base = state.signatureBases.get(endpoint);
+    if (base == null) {
+      base = SignatureBase.create(request, postParams, consumerKey, token);
+      if (base == null) {
+        signRequestWithJoauth(request, postParams, nonce, timestampSecs);
+        return;
       }
+      state.signatureBases.put(endpoint, base);
+      state.signatureBasesBuilt++;
     }
 
-    long timestampSecs = generateTimestamp();
-    String nonce = generateNonce();
+    String timestamp = Long.toString(timestampSecs);
+    byte[] digest = state.sign(base, nonce, timestamp);
+
+    StringBuilder header = state.header;
+    header.setLength(0);
+    header.append(headerPrefix).append(timestamp).append("\", ")
+      .append(OAuthParams.OAUTH_NONCE).append("=\"").append(nonce).append("\", ")
+      .append(OAuthParams.OAUTH_SIGNATURE).append("=\"");
+    appendEncodedBase64(header, digest);
+    header.append('"');
+    request.setHeader(HttpHeaders.AUTHORIZATION, header.toString());
+  }
+
+  /**
+   * @return how many base strings the calling thread has built, i.e. how often it missed its cache
+   */
+  @VisibleForTesting
+  int getSignatureBasesBuilt() {
+    return signingState.get().signatureBasesBuilt;
+  }
+
+  /**
+   * The general path, for requests whose own parameters would sort in among the nonce and timestamp
+   */
+  private void signRequestWithJoauth(HttpUriRequest request, @Nullable String postParams, String nonce,
+                                     long timestampSecs) {
+    List<Pair> javaParams = parseParameters(request.getURI().getRawQuery(), postParams);
 
     OAuthParams.OAuth1Params oAuth1Params = new OAuthParams.OAuth1Params(
       token, consumerKey, nonce, timestampSecs, Long.toString(timestampSecs), "",
       OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH
     );
 
-    int port = request.getURI().getPort();
-    if (port <= 0) {
-      // getURI can return a -1 for a port
-      if (request.getURI().getScheme().equalsIgnoreCase(HttpConstants.HTTP_SCHEME)) {
-        port = HttpConstants.DEFAULT_HTTP_PORT;
-      } else if (request.getURI().getScheme().equalsIgnoreCase(HttpConstants.HTTPS_SCHEME)) {
-        port = HttpConstants.DEFAULT_HTTPS_PORT;
-      } else {
-        throw new IllegalStateException("Bad URI scheme: " + request.getURI().getScheme());
-      }
-    }
-
+    URI uri = request.getURI();
     String normalized = normalizer.normalize(
-        request.getURI().getScheme(), request.getURI().getHost(), port, request.getMethod().toUpperCase(),
-        request.getURI().getPath(), javaParams, oAuth1Params
+        uri.getScheme(), uri.getHost(), port(uri), request.getMethod().toUpperCase(),
+        uri.getPath(), javaParams, oAuth1Params
     );
 
     String signature;
@@ -129,10 +195,81 @@ public class OAuth1 implements Authentication {
     String header = Joiner.on(", ").withKeyValueSeparator("=").join(oauthHeaders);
 
     request.setHeader(HttpHeaders.AUTHORIZATION, "OAuth " + header);
+  }
+
+  private static List<Pair> parseParameters(@Nullable String rawQuery, @Nullable String postParams) {
+    // URLEncodedUtils.parse decodes the values, which UrlCodec then encodes the way OAuth wants them
+    List<NameValuePair> httpGetParams = URLEncodedUtils.parse(rawQuery, Charsets.UTF_8);
+    List<Pair> javaParams = new ArrayList<Pair>(httpGetParams.size());
+    for (NameValuePair params : httpGetParams) {
+      Pair tuple = new Pair(UrlCodec.encode(params.getName()), UrlCodec.encode(params.getValue()));
+      javaParams.add(tuple);
+    }
+
+    if (postParams != null) {
+      List<NameValuePair> httpPostParams = URLEncodedUtils.parse(postParams, Charsets.UTF_8);
 
+      for (NameValuePair params : httpPostParams) {
+        Pair tuple = new Pair(UrlCodec.encode(params.getName()), UrlCodec.encode(params.getValue()));
+        javaParams.add(tuple);
+      }
+    }
+    return javaParams;
   }
 
-  private String quoted(String str) {
+  private static int port(URI uri) {
+    int port = uri.getPort();
+    if (port <= 0) {
+      // getURI can return a -1 for a port
+      if (uri.getScheme().equalsIgnoreCase(HttpConstants.HTTP_SCHEME)) {
+        port = HttpConstants.DEFAULT_HTTP_PORT;
+      } else if (uri.getScheme().equalsIgnoreCase(HttpConstants.HTTPS_SCHEME)) {
+        port = HttpConstants.DEFAULT_HTTPS_PORT;
+      } else {
+        throw new IllegalStateException("Bad URI scheme: " + uri.getScheme());
+      }
+    }
+    return port;
+  }
+
+  /**
+   * Appends the digest in base64, percent encoded as the signature is in the header
+   */
+  private static void appendEncodedBase64(StringBuilder out, byte[] digest) {
+    int i = 0;
+    while (i + 2 < digest.length) {
+      int bits = (digest[i] & 0xff) << 16 | (digest[i + 1] & 0xff) << 8 | (digest[i + 2] & 0xff);
+      appendEncodedBase64Char(out, BASE64[bits >>> 18]);
+      appendEncodedBase64Char(out, BASE64[(bits >>> 12) & 0x3f]);
+      appendEncodedBase64Char(out, BASE64[(bits >>> 6) & 0x3f]);
+      appendEncodedBase64Char(out, BASE64[bits & 0x3f]);
+      i += 3;
+    }
+    int remaining = digest.length - i;
+    if (remaining > 0) {
+      int bits = (digest[i] & 0xff) << 16 | (remaining == 2 ? (digest[i + 1] & 0xff) << 8 : 0);
+      appendEncodedBase64Char(out, BASE64[bits >>> 18]);
+      appendEncodedBase64Char(out, BASE64[(bits >>> 12) & 0x3f]);
+      if (remaining == 2) {
+        appendEncodedBase64Char(out, BASE64[(bits >>> 6) & 0x3f]);
+      } else {
+        out.append("%3D");
+      }
+      out.append("%3D");
+    }
+  }
+
+  private static void appendEncodedBase64Char(StringBuilder out, char c) {
+    if (c == '+') {
+      out.append("%2B");
+    } else if (c == '/') {
+      out.append("%2F");
+    } else {
+      out.append(c);
+    }
+  }
+
+  private static String quoted(String str) {
     return "\"" + str + "\"";
   }
 
@@ -144,4 +281,155 @@ public class OAuth1 implements Authentication {
   private String generateNonce() {
     return Long.toString(Math.abs(secureRandom.nextLong())) + System.currentTimeMillis();
   }
+
+  /**
+   * What a request's signature base string depends on, besides the nonce and timestamp
+   */
+  private static final class Endpoint {
+    private final String method;
+    private final URI uri;
+    @Nullable
+    private final String postParams;
+
+    Endpoint(String method, URI uri, @Nullable String postParams) {
+      this.method = method;
+      this.uri = uri;
+      this.postParams = postParams;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Endpoint)) {
+        return false;
+      }
+      Endpoint other = (Endpoint) o;
+      return method.equals(other.method) && uri.equals(other.uri) && Objects.equal(postParams, other.postParams);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(method, uri, postParams);
+    }
+  }
+
+  /**
+   * The signature base string of requests to an endpoint, split around the nonce and timestamp. It's already
+   * percent encoded, and the nonce and timestamp are only digits, so they go in as they are.
+   */
+  private static final class SignatureBase {
+    private final String beforeNonce;
+    private final String beforeTimestamp;
+    private final String afterTimestamp;
+
+    private SignatureBase(String beforeNonce, String beforeTimestamp, String afterTimestamp) {
+      this.beforeNonce = beforeNonce;
+      this.beforeTimestamp = beforeTimestamp;
+      this.afterTimestamp = afterTimestamp;
+    }
+
+    /**
+     * @return the base string, or null if the request has its own oauth_nonce or oauth_timestamp parameters
+     */
+    @Nullable
+    static SignatureBase create(HttpUriRequest request, @Nullable String postParams, String consumerKey,
+                                String token) {
+      URI uri = request.getURI();
+      List<Pair> params = parseParameters(uri.getRawQuery(), postParams);
+      for (Pair param : params) {
+        if (param.key.equals(OAuthParams.OAUTH_NONCE) || param.key.equals(OAuthParams.OAUTH_TIMESTAMP)) {
+          return null;
+        }
+      }
+      params.add(new Pair(OAuthParams.OAUTH_CONSUMER_KEY, UrlCodec.encode(consumerKey)));
+      params.add(new Pair(OAuthParams.OAUTH_TOKEN, UrlCodec.encode(token)));
+      params.add(new Pair(OAuthParams.OAUTH_SIGNATURE_METHOD, OAuthParams.HMAC_SHA1));
+      params.add(new Pair(OAuthParams.OAUTH_VERSION, OAuthParams.ONE_DOT_OH));
+      params.add(new Pair(OAuthParams.OAUTH_NONCE, ""));
+      params.add(new Pair(OAuthParams.OAUTH_TIMESTAMP, ""));
+      Collections.sort(params, PARAMETER_ORDER);
+
+      // the nonce sorts before the timestamp, so this splits the parameters into three parts
+      List<String> parts = new ArrayList<String>(3);
+      StringBuilder part = new StringBuilder();
+      for (Pair param : params) {
+        if (param.key.equals(OAuthParams.OAUTH_NONCE) || param.key.equals(OAuthParams.OAUTH_TIMESTAMP)) {
+          part.append(param.key).append('=');
+          parts.add(part.toString());
+          part.setLength(0);
+        } else {
+          part.append(param.key).append('=').append(param.value);
+        }
+        part.append('&');
+      }
+      part.setLength(part.length() - 1);
+      parts.add(part.toString());
+
+      String scheme = uri.getScheme().toLowerCase();
+      int port = port(uri);
+      boolean defaultPort = (port == HttpConstants.DEFAULT_HTTP_PORT && scheme.equals(HttpConstants.HTTP_SCHEME)) ||
+        (port == HttpConstants.DEFAULT_HTTPS_PORT && scheme.equals(HttpConstants.HTTPS_SCHEME));
+      String url = scheme + "://" + uri.getHost().toLowerCase() + (defaultPort ? "" : ":" + port) + uri.getPath();
+
+      return new SignatureBase(
+        request.getMethod().toUpperCase() + "&" + UrlCodec.encode(url) + "&" + UrlCodec.encode(parts.get(0)),
+        UrlCodec.encode(parts.get(1)),
+        UrlCodec.encode(parts.get(2)));
+    }
+  }
+
+  /**
+   * A thread's keyed Mac, its recently used base strings, and buffers for the base string and the header
+   */
+  private static final class SigningState {
+    private final Mac mac;
+    private final Map<Endpoint, SignatureBase> signatureBases =
+      new LinkedHashMap<Endpoint, SignatureBase>(MAX_SIGNATURE_BASES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Endpoint, SignatureBase> eldest) {
+          return size() > MAX_SIGNATURE_BASES;
+        }
+      };
+    private int signatureBasesBuilt;
+    private final byte[] digest = new byte[SHA1_LENGTH];
+    private final StringBuilder header = new StringBuilder(256);
+    private byte[] buffer = new byte[1024];
+
+    SigningState(byte[] signingKey) {
+      try {
+        mac = Mac.getInstance(HMAC_SHA1);
+        mac.init(new SecretKeySpec(signingKey, HMAC_SHA1));
+      } catch (GeneralSecurityException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    byte[] sign(SignatureBase base, String nonce, String timestamp) {
+      int length = base.beforeNonce.length() + nonce.length() + base.beforeTimestamp.length() +
+        timestamp.length() + base.afterTimestamp.length();
+      if (buffer.length < length) {
+        buffer = new byte[Math.max(length, buffer.length * 2)];
+      }
+      // the base string is all ascii
+      int i = 0;
+      i = copy(base.beforeNonce, i);
+      i = copy(nonce, i);
+      i = copy(base.beforeTimestamp, i);
+      i = copy(timestamp, i);
+      i = copy(base.afterTimestamp, i);
+      mac.update(buffer, 0, i);
+      try {
+        mac.doFinal(digest, 0);
+      } catch (ShortBufferException e) {
+        throw new IllegalStateException(e);
+      }
+      return digest;
+    }
+
+    private int copy(String s, int offset) {
+      for (int j = 0; j < s.length(); j++) {
+        buffer[offset + j] = (byte) s.charAt(j);
+      }
+      return offset + s.length();
+    }
+  }
 }
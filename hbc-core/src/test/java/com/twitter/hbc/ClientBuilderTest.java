@@ -13,13 +13,31 @@
 
 package com.twitter.hbc;
 
+import com.google.common.collect.ImmutableList;
 import com.twitter.hbc.core.Constants;
+import com.twitter.hbc.core.HostFeedback;
 import com.twitter.hbc.core.HttpHosts;
 import com.twitter.hbc.core.endpoint.StatusesSampleEndpoint;
+import com.twitter.hbc.core.processor.StringDelimitedProcessor;
+import com.twitter.hbc.httpclient.BasicClient;
 import com.twitter.hbc.httpclient.auth.BasicAuth;
 import com.twitter.hbc.processor.NullProcessor;
+import com.twitter.hbc.test.StreamingServer;
+import com.twitter.hbc.test.StreamingServer.Script;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class ClientBuilderTest {
@@ -122,4 +140,106 @@ public class ClientBuilderTest {
             .build();
 
   }
+
+  @Test
+  public void testSharedExecutorsAreNotShutDown() {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    try {
+      BasicClient client = new ClientBuilder()
+              .hosts(new HttpHosts(Constants.STREAM_HOST))
+              .endpoint(new StatusesSampleEndpoint())
+              .processor(new NullProcessor())
+              .authentication(new BasicAuth("username", "password"))
+              .executorService(executor)
+              .rateTrackerScheduler(scheduler)
+              .build();
+      client.stop(0);
+
+      assertFalse(executor.isShutdown());
+      assertFalse(scheduler.isShutdown());
+    } finally {
+      executor.shutdown();
+      scheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testVirtualThreadsFallBack() {
+    // on a JVM without virtual threads, this still builds a working client
+    new ClientBuilder()
+            .hosts(new HttpHosts(Constants.STREAM_HOST))
+            .endpoint(new StatusesSampleEndpoint())
+            .processor(new NullProcessor())
+            .authentication(new BasicAuth("username", "password"))
+            .virtualThreads(true)
+            .build();
+  }
+
+  @Test
+  public void testClientsShareTheDefaultSchemeRegistry() {
+    // one SSLContext, so that TLS sessions are resumed across clients and reconnects
+    assertSame(new ClientBuilder().schemeRegistry, new ClientBuilder().schemeRegistry);
+    assertSame(ClientBuilder.defaultSchemeRegistry(), new PartitionedClientBuilder().schemeRegistry);
+    assertEquals(443, ClientBuilder.defaultSchemeRegistry().getScheme("https").getDefaultPort());
+    assertEquals(80, ClientBuilder.defaultSchemeRegistry().getScheme("http").getDefaultPort());
+  }
+
+  @Test
+  public void testSwapConnectionReportsToHostFeedback() throws Exception {
+    StreamingServer server = new StreamingServer(Script.stream().messagesPerSecond(1000));
+    FeedbackRecordingHosts hosts = new FeedbackRecordingHosts(server.getHost());
+    BasicClient client = new ClientBuilder()
+      .hosts(hosts)
+      .endpoint(new StatusesSampleEndpoint())
+      .authentication(new BasicAuth("username", "password"))
+      .processor(new StringDelimitedProcessor(new LinkedBlockingQueue<String>()))
+      .build();
+    try {
+      client.connect();
+      hosts.await("connected", "first message");
+
+      server.enqueue(Script.error(503));
+      client.swapConnection(50);
+      hosts.await("connected", "first message", "failure");
+
+      client.swapConnection(50);
+      hosts.await("connected", "first message", "failure", "connected", "first message");
+      assertEquals(3, server.getConnections());
+    } finally {
+      client.stop(1000);
+      server.close();
+    }
+  }
+
+  private static class FeedbackRecordingHosts extends HttpHosts implements HostFeedback {
+    private final List<String> feedback = new CopyOnWriteArrayList<String>();
+
+    FeedbackRecordingHosts(String host) {
+      super(host);
+    }
+
+    @Override
+    public void onConnected(String host, long connectMillis) {
+      feedback.add("connected");
+    }
+
+    @Override
+    public void onFirstMessage(String host, long firstMessageMillis) {
+      feedback.add("first message");
+    }
+
+    @Override
+    public void onFailure(String host) {
+      feedback.add("failure");
+    }
+
+    void await(String... expected) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (feedback.size() < expected.length && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(ImmutableList.copyOf(expected), feedback);
+    }
+  }
 }
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.twitter.hbc.core.DnsHosts;
+import org.apache.http.conn.DnsResolver;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class DnsHostsTest {
+
+  private static final String HOST = "stream.example.com";
+
+  private DnsResolver resolver;
+  private ScheduledExecutorService scheduler;
+  private DnsHosts hosts;
+  private Runnable refresh;
+
+  @Before
+  public void setup() {
+    resolver = mock(DnsResolver.class);
+    scheduler = mock(ScheduledExecutorService.class);
+    hosts = new DnsHosts(Arrays.asList("https://" + HOST), 60000, resolver, scheduler, false);
+    ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler).scheduleWithFixedDelay(captor.capture(), eq(60000L), eq(60000L), eq(TimeUnit.MILLISECONDS));
+    refresh = captor.getValue();
+  }
+
+  private static InetAddress[] addresses(String... ips) throws UnknownHostException {
+    InetAddress[] addresses = new InetAddress[ips.length];
+    for (int i = 0; i < ips.length; i++) {
+      addresses[i] = InetAddress.getByName(ips[i]);
+    }
+    return addresses;
+  }
+
+  @Test
+  public void testNextHostIsTheHostname() {
+    assertEquals("https://" + HOST, hosts.nextHost());
+  }
+
+  @Test
+  public void testRotatesOverAllTheAddresses() throws UnknownHostException {
+    when(resolver.resolve(HOST)).thenReturn(addresses("10.0.0.1", "10.0.0.2", "10.0.0.3"));
+    Set<InetAddress> firsts = new HashSet<InetAddress>();
+    for (int i = 0; i < 3; i++) {
+      InetAddress[] resolved = hosts.resolve(HOST);
+      assertEquals(3, resolved.length);
+      assertEquals(3, new HashSet<InetAddress>(Arrays.asList(resolved)).size());
+      firsts.add(resolved[0]);
+      for (InetAddress address : resolved) {
+        // for SNI
+        assertEquals(HOST, address.getHostName());
+      }
+    }
+    assertEquals(3, firsts.size());
+    // looked up once, then cached
+    verify(resolver, times(1)).resolve(HOST);
+  }
+
+  @Test
+  public void testFirstLookupFailure() throws UnknownHostException {
+    when(resolver.resolve(HOST)).thenThrow(new UnknownHostException(HOST));
+    try {
+      hosts.resolve(HOST);
+      fail();
+    } catch (UnknownHostException e) {
+      // expected
+    }
+    assertTrue(hosts.getAddresses(HOST).isEmpty());
+  }
+
+  @Test
+  public void testRefreshKeepsTheLastAddressesWhenTheResolverFails() throws UnknownHostException {
+    when(resolver.resolve(HOST))
+      .thenReturn(addresses("10.0.0.1"))
+      .thenThrow(new UnknownHostException(HOST))
+      .thenReturn(new InetAddress[0])
+      .thenReturn(addresses("10.0.0.2", "10.0.0.3"));
+    assertEquals(InetAddress.getByName("10.0.0.1"), hosts.resolve(HOST)[0]);
+
+    refresh.run();
+    refresh.run();
+    assertEquals(Arrays.asList(addresses("10.0.0.1")), hosts.getAddresses(HOST));
+    assertEquals(InetAddress.getByName("10.0.0.1"), hosts.resolve(HOST)[0]);
+
+    refresh.run();
+    assertEquals(new HashSet<InetAddress>(Arrays.asList(addresses("10.0.0.2", "10.0.0.3"))),
+      new HashSet<InetAddress>(hosts.getAddresses(HOST)));
+    verify(resolver, times(4)).resolve(HOST);
+  }
+
+  @Test
+  public void testRefreshOnlyResolvesHostsLookedUp() throws UnknownHostException {
+    refresh.run();
+    verify(resolver, never()).resolve(anyString());
+  }
+
+  @Test
+  public void testShutdown() {
+    hosts.shutdown();
+    verify(scheduler, never()).shutdownNow();
+    DnsHosts owning = new DnsHosts(Arrays.asList("https://" + HOST), 60000, resolver, scheduler, true);
+    owning.shutdown();
+    verify(scheduler).shutdownNow();
+    verify(scheduler, times(2)).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(),
+      any(TimeUnit.class));
+  }
+}
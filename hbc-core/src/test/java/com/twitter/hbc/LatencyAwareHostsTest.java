@@ -0,0 +1,153 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.google.common.base.Ticker;
+import com.twitter.hbc.core.LatencyAwareHosts;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyAwareHostsTest {
+
+  private static final String A = "https://a.example.com";
+  private static final String B = "https://b.example.com";
+
+  private FakeTicker ticker;
+  private LatencyAwareHosts hosts;
+
+  @Before
+  public void setup() {
+    ticker = new FakeTicker();
+    hosts = new LatencyAwareHosts(Arrays.asList(A, B), 3, 30000, 5.0, new Random(0), ticker);
+  }
+
+  private int countOf(String host, int draws) {
+    int count = 0;
+    for (int i = 0; i < draws; i++) {
+      if (host.equals(hosts.nextHost())) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void testExceptionIfBadScheme() {
+    try {
+      new LatencyAwareHosts(Arrays.asList(A, "b.example.com"));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPrefersTheFasterHost() {
+    hosts.onConnected(A, 20);
+    hosts.onConnected(B, 50);
+    hosts.onFirstMessage(B, 10);
+    assertEquals(20, hosts.getLatencyMillis(A), 0);
+    assertEquals(60, hosts.getLatencyMillis(B), 0);
+    // weighted 1/30 against 1/70
+    int a = countOf(A, 1000);
+    assertTrue(a > 600 && a < 800);
+  }
+
+  @Test
+  public void testUntriedHostsAreFavoured() {
+    hosts.onConnected(A, 40);
+    assertTrue(Double.isNaN(hosts.getLatencyMillis(B)));
+    assertTrue(countOf(B, 1000) > 700);
+  }
+
+  @Test
+  public void testEjectsAfterConsecutiveFailures() {
+    hosts.onFailure(B);
+    hosts.onFailure(B);
+    hosts.onConnected(B, 10);
+    hosts.onFailure(B);
+    hosts.onFailure(B);
+    // a success in between starts the count again
+    assertFalse(hosts.isEjected(B));
+    hosts.onFailure(B);
+    assertTrue(hosts.isEjected(B));
+    assertEquals(0, countOf(B, 100));
+
+    ticker.advance(30, TimeUnit.SECONDS);
+    assertFalse(hosts.isEjected(B));
+    assertTrue(countOf(B, 100) > 0);
+    // once back, one failure is enough
+    hosts.onFailure(B);
+    assertTrue(hosts.isEjected(B));
+  }
+
+  @Test
+  public void testEjectsLatencyOutliers() {
+    hosts.onConnected(A, 20);
+    hosts.onConnected(B, 90);
+    assertFalse(hosts.isEjected(B));
+    // a slow first message is down to the stream as much as the host
+    hosts.onFirstMessage(B, 5000);
+    assertFalse(hosts.isEjected(B));
+    // connecting in 123ms on average, over 5 times A's 20ms
+    hosts.onConnected(B, 200);
+    assertTrue(hosts.isEjected(B));
+    assertEquals(0, countOf(B, 100));
+
+    // measured again when it's back
+    ticker.advance(30, TimeUnit.SECONDS);
+    assertTrue(Double.isNaN(hosts.getLatencyMillis(B)));
+    assertFalse(hosts.isEjected(B));
+  }
+
+  @Test
+  public void testAloneIsNeverAnOutlier() {
+    LatencyAwareHosts single = new LatencyAwareHosts(Arrays.asList(A), 3, 30000, 5.0, new Random(0), ticker);
+    single.onConnected(A, 5000);
+    assertFalse(single.isEjected(A));
+  }
+
+  @Test
+  public void testUsesTheHostBackSoonestWhenAllAreEjected() {
+    for (int i = 0; i < 3; i++) {
+      hosts.onFailure(A);
+    }
+    ticker.advance(1, TimeUnit.SECONDS);
+    for (int i = 0; i < 3; i++) {
+      hosts.onFailure(B);
+    }
+    assertTrue(hosts.isEjected(A));
+    assertTrue(hosts.isEjected(B));
+    assertEquals(100, countOf(A, 100));
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    void advance(long time, TimeUnit unit) {
+      nanos += unit.toNanos(time);
+    }
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+}
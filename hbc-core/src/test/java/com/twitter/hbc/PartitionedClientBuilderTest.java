@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.google.common.collect.ImmutableSet;
+import com.twitter.hbc.httpclient.BasicClient;
+import com.twitter.hbc.httpclient.PartitionedClient;
+import com.twitter.hbc.httpclient.auth.BasicAuth;
+import com.twitter.hbc.test.StreamingServer;
+import com.twitter.hbc.test.StreamingServer.Script;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PartitionedClientBuilderTest {
+
+  @Test
+  public void testAssignPartitions() {
+    List<Set<Integer>> assignments =
+      PartitionedClientBuilder.assignPartitions(ImmutableSet.of(4, 3, 2, 1, 0), 2);
+    assertEquals(2, assignments.size());
+    assertEquals(ImmutableSet.of(0, 2, 4), assignments.get(0));
+    assertEquals(ImmutableSet.of(1, 3), assignments.get(1));
+  }
+
+  @Test
+  public void testBuildFirehose() {
+    PartitionedClient client = new PartitionedClientBuilder()
+      .name("firehose")
+      .authentication(new BasicAuth("username", "password"))
+      .connections(4)
+      .messageQueue(new LinkedBlockingQueue<String>())
+      .build();
+
+    List<BasicClient> clients = client.getClients();
+    assertEquals(4, clients.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals("firehose-" + i, clients.get(i).getName());
+      String partitions = (i) + "%2C" + (i + 4) + "%2C" + (i + 8) + "%2C" + (i + 12);
+      assertTrue(clients.get(i).getEndpoint().getQueryParamString().contains("partitions=" + partitions));
+    }
+    assertEquals(0, client.getStatsTracker().getNumMessages());
+    client.stop(10);
+  }
+
+  @Test
+  public void testSwapConnection() throws Exception {
+    StreamingServer server = new StreamingServer(Script.stream().messagesPerSecond(1000));
+    BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    PartitionedClient client = new PartitionedClientBuilder()
+      .name("firehose")
+      .hosts(server.getHost())
+      .authentication(new BasicAuth("username", "password"))
+      .partitions(ImmutableSet.of(0, 1))
+      .connections(2)
+      .messageQueue(queue)
+      .build();
+    try {
+      client.connect();
+      for (BasicClient connection : client.getClients()) {
+        awaitNum200s(connection, 1);
+      }
+      BasicClient swapping = client.getClients().get(0);
+      swapping.swapConnection(50);
+
+      // the new connection opens although both the others hold a pooled connection
+      awaitNum200s(swapping, 2);
+      assertEquals(0, swapping.getStatsTracker().getNumDisconnects());
+      assertEquals(3, server.getConnections());
+      queue.clear();
+      assertNotNull(queue.poll(10, TimeUnit.SECONDS));
+    } finally {
+      client.stop(1000);
+      server.close();
+    }
+  }
+
+  private static void awaitNum200s(BasicClient client, int num200s) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (client.getStatsTracker().getNum200s() < num200s && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(num200s, client.getStatsTracker().getNum200s());
+  }
+
+  @Test
+  public void testBuilderFailure() {
+    // no authentication
+    try {
+      new PartitionedClientBuilder()
+        .messageQueue(new LinkedBlockingQueue<String>())
+        .build();
+      fail();
+    } catch (Exception e) {
+      // expected
+    }
+
+    // no processor
+    try {
+      new PartitionedClientBuilder()
+        .authentication(new BasicAuth("username", "password"))
+        .build();
+      fail();
+    } catch (Exception e) {
+      // expected
+    }
+
+    // more connections than partitions
+    try {
+      new PartitionedClientBuilder()
+        .authentication(new BasicAuth("username", "password"))
+        .messageQueue(new LinkedBlockingQueue<String>())
+        .partitions(ImmutableSet.of(1, 2))
+        .connections(3)
+        .build();
+      fail();
+    } catch (Exception e) {
+      // expected
+    }
+  }
+}
@@ -144,4 +144,30 @@ public class RateTrackerTest {
     rateTracker.recalculate();
     assertFalse(rateTracker.getCurrentRateSeconds() == originalRate);
   }
+
+  @Test
+  public void testConcurrentObservers() throws Exception {
+    final BasicRateTracker rateTracker = new BasicRateTracker(100, 10, false, scheduler);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            rateTracker.eventObserved();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // every event lands in the first bucket: 40000 events over 100 millis
+    for (int i = 0; i < 10; i++) {
+      rateTracker.recalculate();
+    }
+    assertEquals(400000.0, rateTracker.getCurrentRateSeconds());
+  }
 }
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class RateTrackingServiceTest {
+
+  private ScheduledExecutorService scheduler;
+  private ScheduledFuture future;
+  private RateTrackingService service;
+
+  @Before
+  public void setup() {
+    scheduler = mock(ScheduledExecutorService.class);
+    future = mock(ScheduledFuture.class);
+    when(scheduler.scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class)))
+      .thenReturn(future);
+    service = new RateTrackingService(scheduler);
+  }
+
+  @Test
+  public void testOneTickUpdatesAllTrackers() {
+    BasicRateTracker first = service.newRateTracker(100, 10, false);
+    BasicRateTracker second = service.newRateTracker(100, 10, false);
+    first.start();
+    second.start();
+    assertEquals(2, service.getNumTrackers());
+
+    ArgumentCaptor<Runnable> tick = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler, times(1)).scheduleAtFixedRate(tick.capture(), eq(10L), eq(10L), eq(TimeUnit.MILLISECONDS));
+
+    // 10 buckets, each bucket represents 10 millis: 100 events / s for the first, 200 for the second
+    for (int i = 0; i < 10; i++) {
+      first.eventObserved();
+      second.eventObserved();
+      second.eventObserved();
+      tick.getValue().run();
+    }
+    assertEquals(100.0, first.getCurrentRateSeconds(), 0.0);
+    assertEquals(200.0, second.getCurrentRateSeconds(), 0.0);
+  }
+
+  @Test
+  public void testTrackersWithDifferentPeriods() {
+    service.newRateTracker(100, 10, false).start();
+    service.newRateTracker(1000, 10, false).start();
+    verify(scheduler).scheduleAtFixedRate(any(Runnable.class), eq(10L), eq(10L), eq(TimeUnit.MILLISECONDS));
+    verify(scheduler).scheduleAtFixedRate(any(Runnable.class), eq(100L), eq(100L), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testTickCancelledWithTheLastTracker() {
+    BasicRateTracker first = service.newRateTracker(100, 10, false);
+    BasicRateTracker second = service.newRateTracker(100, 10, false);
+    first.start();
+    second.start();
+
+    first.stop();
+    verify(future, never()).cancel(anyBoolean());
+    second.shutdown();
+    verify(future).cancel(false);
+    assertEquals(0, service.getNumTrackers());
+    // the scheduler is shared
+    verify(scheduler, never()).shutdown();
+  }
+}
@@ -16,6 +16,10 @@ package com.twitter.hbc;
 import com.twitter.hbc.core.Constants;
 import org.junit.Test;
 
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -109,4 +113,106 @@ public class ReconnectionManagerTest {
 
     assertTrue(b.shouldReconnectOn400s());
   }
+
+  @Test
+  public void testExponentialBackoffIsCapped() {
+    BasicReconnectionManager b = new BasicReconnectionManager(10);
+    for (int i = 0; i < 40; i++) {
+      int backoff = b.incrAndGetExponentialBackoff();
+      assertTrue(backoff > 0 && backoff <= BasicReconnectionManager.MAX_EXPONENTIAL_BACKOFF_MILLIS);
+    }
+    assertEquals(BasicReconnectionManager.MAX_EXPONENTIAL_BACKOFF_MILLIS, b.incrAndGetExponentialBackoff());
+  }
+
+  @Test
+  public void testJitteredBackoffsAreDecorrelated() {
+    JitteredReconnectionManager b = new JitteredReconnectionManager(10, new Random(0));
+    JitteredReconnectionManager other = new JitteredReconnectionManager(10, new Random(1));
+    int previous = BasicReconnectionManager.INITIAL_EXPONENTIAL_BACKOFF_MILLIS;
+    boolean differ = false;
+    for (int i = 0; i < 20; i++) {
+      int backoff = b.incrAndGetExponentialBackoff();
+      assertTrue(backoff >= BasicReconnectionManager.INITIAL_EXPONENTIAL_BACKOFF_MILLIS);
+      assertTrue(backoff <= Math.min(BasicReconnectionManager.MAX_EXPONENTIAL_BACKOFF_MILLIS, 3 * previous));
+      differ |= backoff != other.incrAndGetExponentialBackoff();
+      previous = backoff;
+    }
+    assertTrue(differ);
+
+    previous = BasicReconnectionManager.INITIAL_LINEAR_BACKOFF_MILLIS;
+    for (int i = 0; i < 20; i++) {
+      int backoff = b.incrAndGetLinearBackoff();
+      assertTrue(backoff >= BasicReconnectionManager.INITIAL_LINEAR_BACKOFF_MILLIS);
+      assertTrue(backoff <= Math.min(BasicReconnectionManager.MAX_LINEAR_BACKOFF_MILLIS, 3 * previous));
+      previous = backoff;
+    }
+
+    // starts over from the initial backoff
+    b.resetCounts();
+    assertTrue(b.incrAndGetExponentialBackoff() <= 3 * BasicReconnectionManager.INITIAL_EXPONENTIAL_BACKOFF_MILLIS);
+  }
+
+  @Test
+  public void testCancelEndsTheBackoff() throws InterruptedException {
+    final BasicReconnectionManager b = new BasicReconnectionManager(10);
+    Thread backingOff = new Thread() {
+      @Override
+      public void run() {
+        b.handleExponentialBackoff();
+      }
+    };
+    backingOff.start();
+    while (!b.isBackingOff()) {
+      Thread.sleep(1);
+    }
+    long start = System.nanoTime();
+    b.cancel();
+    backingOff.join(BasicReconnectionManager.INITIAL_EXPONENTIAL_BACKOFF_MILLIS);
+    assertFalse(backingOff.isAlive());
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+    // and the next ones don't wait
+    start = System.nanoTime();
+    b.handleExponentialBackoff();
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+  }
+
+  @Test
+  public void testInterruptEndsTheBackoffAndIsKept() throws InterruptedException {
+    final BasicReconnectionManager b = new BasicReconnectionManager(10);
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    Thread backingOff = new Thread() {
+      @Override
+      public void run() {
+        b.handleExponentialBackoff();
+        interrupted.set(Thread.currentThread().isInterrupted());
+      }
+    };
+    backingOff.start();
+    while (!b.isBackingOff()) {
+      Thread.sleep(1);
+    }
+    backingOff.interrupt();
+    backingOff.join(BasicReconnectionManager.INITIAL_EXPONENTIAL_BACKOFF_MILLIS);
+    assertFalse(backingOff.isAlive());
+    assertTrue(interrupted.get());
+  }
+
+  @Test
+  public void testBackoffMetrics() {
+    BasicReconnectionManager b = new BasicReconnectionManager(10);
+    assertEquals(0, b.getNumBackoffs());
+    b.nextLinearBackoffMillis();
+    b.nextLinearBackoffMillis();
+    b.nextExponentialBackoffMillis();
+    assertEquals(3, b.getNumBackoffs());
+    assertEquals(BasicReconnectionManager.INITIAL_LINEAR_BACKOFF_MILLIS * 3 +
+      BasicReconnectionManager.INITIAL_EXPONENTIAL_BACKOFF_MILLIS, b.getTotalBackoffMillis());
+    assertEquals(BasicReconnectionManager.INITIAL_EXPONENTIAL_BACKOFF_MILLIS, b.getLastBackoffMillis());
+    assertFalse(b.isBackingOff());
+
+    b.resetCounts();
+    assertEquals(0, b.getLastBackoffMillis());
+    assertEquals(3, b.getNumBackoffs());
+  }
 }
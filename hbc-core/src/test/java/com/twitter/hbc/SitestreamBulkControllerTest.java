@@ -0,0 +1,144 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.google.common.collect.Lists;
+import com.twitter.hbc.httpclient.ControlStreamException;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class SitestreamBulkControllerTest {
+
+  private SitestreamController controller;
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    controller = mock(SitestreamController.class);
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void teardown() {
+    executor.shutdownNow();
+  }
+
+  private static List<Long> userIds(int count) {
+    List<Long> userIds = Lists.newArrayList();
+    for (long i = 0; i < count; i++) {
+      userIds.add(i);
+    }
+    return userIds;
+  }
+
+  private static ControlStreamException failure(int statusCode) {
+    return new ControlStreamException(new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, "reason"));
+  }
+
+  @Test
+  public void testSplitsIntoBatches() throws Exception {
+    SitestreamBulkController bulk = new SitestreamBulkController(controller, executor, 1000, 0, 1);
+    List<SitestreamBulkController.BatchResult> results = bulk.addUsers("stream", userIds(250)).get(5, TimeUnit.SECONDS);
+
+    assertEquals(3, results.size());
+    assertEquals(userIds(100), results.get(0).getUserIds());
+    assertEquals(userIds(250).subList(100, 200), results.get(1).getUserIds());
+    assertEquals(userIds(250).subList(200, 250), results.get(2).getUserIds());
+    for (SitestreamBulkController.BatchResult result : results) {
+      assertTrue(result.isSuccess());
+      assertEquals(1, result.getAttempts());
+    }
+    verify(controller, times(3)).addUsers(eq("stream"), any(Collection.class));
+  }
+
+  @Test
+  public void testRemoveUsers() throws Exception {
+    SitestreamBulkController bulk = new SitestreamBulkController(controller, executor, 1000, 0, 1);
+    List<SitestreamBulkController.BatchResult> results = bulk.removeUsers("stream", userIds(101)).get(5, TimeUnit.SECONDS);
+    assertEquals(2, results.size());
+    verify(controller, times(2)).removeUsers(eq("stream"), any(Collection.class));
+    verify(controller, never()).addUsers(anyString(), any(Collection.class));
+  }
+
+  @Test
+  public void testRetriesFailedBatches() throws Exception {
+    doThrow(new IOException("connection reset"))
+      .doThrow(failure(503))
+      .doNothing()
+      .when(controller).addUsers(anyString(), any(Collection.class));
+    SitestreamBulkController bulk = new SitestreamBulkController(controller, executor, 1000, 3, 1);
+
+    SitestreamBulkController.BatchResult result = bulk.addUsers("stream", userIds(10)).get(5, TimeUnit.SECONDS).get(0);
+    assertTrue(result.isSuccess());
+    assertEquals(3, result.getAttempts());
+  }
+
+  @Test
+  public void testGivesUp() throws Exception {
+    doThrow(failure(503)).when(controller).addUsers(anyString(), any(Collection.class));
+    SitestreamBulkController bulk = new SitestreamBulkController(controller, executor, 1000, 2, 1);
+
+    SitestreamBulkController.BatchResult result = bulk.addUsers("stream", userIds(10)).get(5, TimeUnit.SECONDS).get(0);
+    assertFalse(result.isSuccess());
+    assertEquals(3, result.getAttempts());
+    assertEquals(503, ((ControlStreamException) result.getFailure()).getStatusCode());
+  }
+
+  @Test
+  public void testDoesNotRetryClientErrors() throws Exception {
+    doThrow(failure(401)).when(controller).addUsers(anyString(), any(Collection.class));
+    SitestreamBulkController bulk = new SitestreamBulkController(controller, executor, 1000, 3, 1);
+
+    SitestreamBulkController.BatchResult result = bulk.addUsers("stream", userIds(10)).get(5, TimeUnit.SECONDS).get(0);
+    assertFalse(result.isSuccess());
+    assertEquals(1, result.getAttempts());
+  }
+
+  @Test
+  public void testIsRetryable() {
+    assertTrue(SitestreamBulkController.isRetryable(new IOException()));
+    assertTrue(SitestreamBulkController.isRetryable(new ControlStreamException("No status line in response")));
+    assertTrue(SitestreamBulkController.isRetryable(failure(420)));
+    assertTrue(SitestreamBulkController.isRetryable(failure(429)));
+    assertTrue(SitestreamBulkController.isRetryable(failure(500)));
+    assertFalse(SitestreamBulkController.isRetryable(failure(400)));
+    assertFalse(SitestreamBulkController.isRetryable(failure(404)));
+  }
+
+  @Test
+  public void testRateLimited() throws Exception {
+    SitestreamBulkController bulk = new SitestreamBulkController(controller, executor, 20, 0, 1);
+    long start = System.nanoTime();
+    bulk.addUsers("stream", userIds(600)).get(5, TimeUnit.SECONDS);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    // 6 requests at 20 a second: the first goes right away, the rest 50ms apart
+    assertTrue("took " + elapsedMillis + "ms", elapsedMillis >= 200);
+  }
+}
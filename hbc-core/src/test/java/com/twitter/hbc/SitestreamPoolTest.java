@@ -0,0 +1,304 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.twitter.hbc.core.endpoint.SitestreamEndpoint;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class SitestreamPoolTest {
+
+  private static class FakeConnection implements SitestreamPool.Connection {
+    final SitestreamEndpoint endpoint;
+    volatile String streamId;
+    volatile boolean done;
+
+    FakeConnection(SitestreamEndpoint endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    @Override
+    public String getStreamId() {
+      return streamId;
+    }
+
+    @Override
+    public boolean isDone() {
+      return done;
+    }
+
+    @Override
+    public void stop() {
+      done = true;
+    }
+  }
+
+  private final List<FakeConnection> connections = Lists.newArrayList();
+  private final Set<Long> followed = Sets.newHashSet();
+  private SitestreamBulkController bulk;
+  private boolean failAdds;
+  private int streams;
+
+  @Before
+  public void setup() {
+    bulk = mock(SitestreamBulkController.class);
+    when(bulk.addUsers(anyString(), any(Collection.class))).thenAnswer(new ControlAnswer(true));
+    when(bulk.removeUsers(anyString(), any(Collection.class))).thenAnswer(new ControlAnswer(false));
+  }
+
+  private class ControlAnswer implements Answer<ListenableFuture<List<SitestreamBulkController.BatchResult>>> {
+    private final boolean add;
+
+    ControlAnswer(boolean add) {
+      this.add = add;
+    }
+
+    @Override
+    public ListenableFuture<List<SitestreamBulkController.BatchResult>> answer(InvocationOnMock invocation) {
+      List<Long> userIds = ImmutableList.copyOf((Collection<Long>) invocation.getArguments()[1]);
+      if (add && failAdds) {
+        return Futures.immediateFuture((List<SitestreamBulkController.BatchResult>) ImmutableList.of(
+          new SitestreamBulkController.BatchResult(userIds, 4, new IOException("failed"))));
+      }
+      if (add) {
+        followed.addAll(userIds);
+      } else {
+        followed.removeAll(userIds);
+      }
+      return Futures.immediateFuture((List<SitestreamBulkController.BatchResult>) ImmutableList.of(
+        new SitestreamBulkController.BatchResult(userIds, 1, null)));
+    }
+  }
+
+  private SitestreamPool newPool(int usersPerStream) {
+    return new SitestreamPool(new SitestreamPool.ConnectionFactory() {
+      @Override
+      public SitestreamPool.Connection connect(SitestreamEndpoint endpoint) {
+        FakeConnection connection = new FakeConnection(endpoint);
+        connections.add(connection);
+        return connection;
+      }
+    }, bulk, usersPerStream);
+  }
+
+  private void receiveStreamIds() {
+    for (FakeConnection connection : connections) {
+      if (connection.streamId == null) {
+        connection.streamId = "stream-" + (++streams);
+      }
+    }
+  }
+
+  private static List<Long> userIds(long from, long to) {
+    List<Long> userIds = Lists.newArrayList();
+    for (long i = from; i < to; i++) {
+      userIds.add(i);
+    }
+    return userIds;
+  }
+
+  private static int totalAssigned(SitestreamPool pool) {
+    int total = 0;
+    for (SitestreamPool.StreamLoad load : pool.getStreamLoads()) {
+      total += load.getAssignedUsers();
+    }
+    return total;
+  }
+
+  @Test
+  public void testPacksIntoFewestConnections() {
+    SitestreamPool pool = newPool(1000);
+    pool.setUsers(userIds(0, 2500));
+
+    assertEquals(3, connections.size());
+    for (FakeConnection connection : connections) {
+      assertTrue(connection.endpoint.getURI().contains("follow="));
+    }
+    verify(bulk, never()).addUsers(anyString(), any(Collection.class));
+
+    receiveStreamIds();
+    pool.maintain();
+
+    List<SitestreamPool.StreamLoad> loads = pool.getStreamLoads();
+    assertEquals(1000, loads.get(0).getFollowedUsers());
+    assertEquals(1000, loads.get(1).getFollowedUsers());
+    assertEquals(500, loads.get(2).getFollowedUsers());
+    assertEquals(2500 - 300, followed.size());
+  }
+
+  @Test
+  public void testGrowsExistingStreamsBeforeOpeningNew() {
+    SitestreamPool pool = newPool(1000);
+    pool.setUsers(userIds(0, 600));
+    receiveStreamIds();
+    pool.maintain();
+    assertEquals(1, connections.size());
+
+    pool.setUsers(userIds(0, 1000));
+    assertEquals(1, connections.size());
+    assertEquals(1000, pool.getStreamLoads().get(0).getFollowedUsers());
+
+    pool.setUsers(userIds(0, 1001));
+    assertEquals(2, connections.size());
+  }
+
+  @Test
+  public void testRepacksUsersOfDoneConnection() {
+    SitestreamPool pool = newPool(1000);
+    pool.setUsers(userIds(0, 1500));
+    receiveStreamIds();
+    pool.maintain();
+    assertEquals(2, connections.size());
+
+    connections.get(0).done = true;
+    pool.maintain();
+
+    // 500 fit in the second stream, the other 500 get a new connection
+    assertEquals(3, connections.size());
+    assertEquals(2, pool.getNumConnections());
+    assertEquals(1500, totalAssigned(pool));
+    receiveStreamIds();
+    pool.maintain();
+    for (SitestreamPool.StreamLoad load : pool.getStreamLoads()) {
+      assertEquals(load.getAssignedUsers(), load.getFollowedUsers());
+    }
+  }
+
+  @Test
+  public void testReaddsUsersAfterReconnect() {
+    SitestreamPool pool = newPool(1000);
+    pool.setUsers(userIds(0, 500));
+    receiveStreamIds();
+    pool.maintain();
+    verify(bulk, times(1)).addUsers(eq("stream-1"), any(Collection.class));
+
+    connections.get(0).streamId = "stream-reconnected";
+    pool.maintain();
+
+    verify(bulk).addUsers(eq("stream-reconnected"), eq(userIds(100, 500)));
+    assertEquals(500, pool.getStreamLoads().get(0).getFollowedUsers());
+    assertEquals("stream-reconnected", pool.getStreamLoads().get(0).getStreamId());
+  }
+
+  @Test
+  public void testRemovesUsers() {
+    SitestreamPool pool = newPool(1000);
+    pool.setUsers(userIds(0, 500));
+    receiveStreamIds();
+    pool.maintain();
+
+    // an initial user and an added one
+    List<Long> remaining = userIds(0, 500);
+    remaining.remove(Long.valueOf(5));
+    remaining.remove(Long.valueOf(300));
+    pool.setUsers(remaining);
+
+    verify(bulk).removeUsers("stream-1", ImmutableList.of(5L, 300L));
+    assertEquals(498, pool.getStreamLoads().get(0).getAssignedUsers());
+    assertEquals(498, pool.getNumUsers());
+
+    // the initial user is followed again by the endpoint on reconnect
+    connections.get(0).streamId = "stream-reconnected";
+    pool.maintain();
+    verify(bulk).removeUsers("stream-reconnected", ImmutableList.of(5L));
+  }
+
+  @Test
+  public void testRemovedInitialUserAddedBack() {
+    SitestreamPool pool = newPool(1000);
+    pool.setUsers(userIds(0, 500));
+    receiveStreamIds();
+    pool.maintain();
+
+    List<Long> remaining = userIds(0, 500);
+    remaining.remove(Long.valueOf(5));
+    pool.setUsers(remaining);
+    verify(bulk).removeUsers("stream-1", ImmutableList.of(5L));
+    pool.setUsers(userIds(0, 500));
+
+    // the removal went through, so it's added back on the same stream, until...
+    verify(bulk).addUsers("stream-1", ImmutableList.of(5L));
+    assertTrue(followed.contains(5L));
+    assertEquals(500, pool.getStreamLoads().get(0).getAssignedUsers());
+    assertEquals(1, pool.getNumConnections());
+
+    // ...the reconnect follows it again as an initial user, and nothing removes it
+    connections.get(0).streamId = "stream-reconnected";
+    pool.maintain();
+    verify(bulk, never()).removeUsers(eq("stream-reconnected"), any(Collection.class));
+    verify(bulk).addUsers("stream-reconnected", userIds(100, 500));
+    assertEquals(500, pool.getStreamLoads().get(0).getFollowedUsers());
+  }
+
+  @Test
+  public void testRemovedInitialUserAddedBackBeforeTheRemoval() {
+    SitestreamPool pool = newPool(1000);
+    pool.setUsers(userIds(0, 500));
+    List<Long> remaining = userIds(0, 500);
+    remaining.remove(Long.valueOf(5));
+    pool.setUsers(remaining);
+    pool.setUsers(userIds(0, 500));
+
+    // no stream id yet, so nothing was sent: the removal is simply dropped
+    receiveStreamIds();
+    pool.maintain();
+    verify(bulk, never()).removeUsers(anyString(), any(Collection.class));
+    verify(bulk).addUsers("stream-1", userIds(100, 500));
+    assertEquals(500, pool.getStreamLoads().get(0).getFollowedUsers());
+  }
+
+  @Test
+  public void testRetriesFailedAdds() {
+    SitestreamPool pool = newPool(1000);
+    failAdds = true;
+    pool.setUsers(userIds(0, 200));
+    receiveStreamIds();
+    pool.maintain();
+    assertEquals(100, pool.getStreamLoads().get(0).getFollowedUsers());
+    assertEquals(200, pool.getStreamLoads().get(0).getAssignedUsers());
+
+    failAdds = false;
+    pool.maintain();
+    assertEquals(200, pool.getStreamLoads().get(0).getFollowedUsers());
+    verify(bulk, times(2)).addUsers("stream-1", userIds(100, 200));
+  }
+
+  @Test
+  public void testStopStopsConnections() {
+    SitestreamPool pool = newPool(1000);
+    pool.setUsers(userIds(0, 1500));
+    pool.stop();
+    assertTrue(connections.get(0).done);
+    assertTrue(connections.get(1).done);
+    assertEquals(0, pool.getNumConnections());
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StallDetectorTest {
+
+  private ScheduledExecutorService scheduler;
+  private StallDetector detector;
+
+  @Before
+  public void setup() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    detector = new StallDetector(10, 1000, 90, scheduler, true);
+  }
+
+  @After
+  public void teardown() {
+    detector.shutdown();
+  }
+
+  @Test
+  public void testStallMillisScalesWithTheExpectedGap() {
+    // 10 messages/sec: a 100ms gap is expected, a second of silence is a stall
+    assertEquals(1000, detector.getStallMillis(10));
+    // 0.1 messages/sec: a 10s gap is expected
+    assertEquals(100000, detector.getStallMillis(0.1));
+    // fast streams are never stalled before the minimum gap
+    assertEquals(1000, detector.getStallMillis(5000));
+  }
+
+  @Test
+  public void testUnknownRateNeverStalls() {
+    assertEquals(Long.MAX_VALUE, detector.getStallMillis(Double.NaN));
+    assertEquals(Long.MAX_VALUE, detector.getStallMillis(0));
+    assertNull(detector.checkStall(Long.MAX_VALUE - 1, Double.NaN));
+  }
+
+  @Test
+  public void testCheckStall() {
+    assertNull(detector.checkStall(999, 100));
+    assertNotNull(detector.checkStall(1000, 100));
+    assertNull(detector.checkStall(5000, 0.1));
+  }
+
+  @Test
+  public void testStallWarnings() {
+    detector.onStallWarning(60);
+    assertNull(detector.checkStall(0, 100));
+
+    detector.onStallWarning(95);
+    String reason = detector.checkStall(0, 100);
+    assertNotNull(reason);
+    assertTrue(reason.contains("95%"));
+    // consumed
+    assertNull(detector.checkStall(0, 100));
+
+    detector.onStallWarning(95);
+    detector.reset();
+    assertNull(detector.checkStall(0, 100));
+  }
+
+  @Test
+  public void testSlowStreamStallsDespiteTheDecayingRate() {
+    // the client's defaults: a 30s window over 100 buckets, ticked by hand every 300ms
+    BasicRateTracker tracker = new BasicRateTracker(30000, 100, false, scheduler, false);
+    StallDetector defaults = new StallDetector(StallDetector.DEFAULT_GAP_MULTIPLE,
+      StallDetector.DEFAULT_MIN_STALL_MILLIS, StallDetector.DEFAULT_PERCENT_FULL, scheduler, false);
+    long count = 0;
+    defaults.reset(count, tracker.getCurrentRateSeconds(), 0);
+    // a minute at a message a second
+    long millis = 0;
+    for (; millis < 60000; millis += 300) {
+      if (millis / 1000 != (millis + 300) / 1000) {
+        tracker.eventObserved();
+        count++;
+      }
+      tracker.recalculate();
+      assertNull(defaults.checkProgress(count, tracker.getCurrentRateSeconds(), TimeUnit.MILLISECONDS.toNanos(millis)));
+    }
+    assertEquals(1, tracker.getCurrentRateSeconds(), 0.1);
+
+    // then silence: a 20s gap is a stall, although the rate is down to a third by then
+    long silentSince = millis;
+    String reason = null;
+    for (; reason == null && millis < silentSince + 60000; millis += 300) {
+      tracker.recalculate();
+      reason = defaults.checkProgress(count, tracker.getCurrentRateSeconds(), TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+    assertNotNull(reason);
+    long stalledAfter = millis - 300 - silentSince;
+    assertTrue(stalledAfter >= 18000 && stalledAfter <= 22000);
+    // the live rate would have pushed the threshold out of reach
+    assertNull(defaults.checkStall(stalledAfter, tracker.getCurrentRateSeconds()));
+  }
+
+  @Test
+  public void testStartAndStop() throws InterruptedException {
+    final CountDownLatch checks = new CountDownLatch(3);
+    detector.start(new Runnable() {
+      @Override
+      public void run() {
+        checks.countDown();
+      }
+    });
+    assertTrue(checks.await(5, TimeUnit.SECONDS));
+    detector.shutdown();
+    assertTrue(scheduler.isShutdown());
+  }
+}
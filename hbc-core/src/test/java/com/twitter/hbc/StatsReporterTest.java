@@ -13,6 +13,7 @@
 
 package com.twitter.hbc;
 
+import com.google.common.collect.Lists;
 import com.twitter.hbc.core.StatsReporter;
 import org.junit.Test;
 
@@ -36,4 +37,20 @@ public class StatsReporterTest {
     statsReporter.incrNumMessages();
     assertEquals(stats.getNumMessages(), 2);
   }
+
+  @Test
+  public void testAggregate() {
+    StatsReporter first = new StatsReporter();
+    StatsReporter second = new StatsReporter();
+    StatsReporter.StatsTracker stats =
+      StatsReporter.aggregate(Lists.newArrayList(first.getStatsTracker(), second.getStatsTracker()));
+
+    first.incrNumMessages();
+    second.incrNumMessages();
+    second.incrNumMessages();
+    assertEquals(stats.getNumMessages(), 3);
+
+    second.incrNumConnects();
+    assertEquals(stats.getNumConnects(), 1);
+  }
 }
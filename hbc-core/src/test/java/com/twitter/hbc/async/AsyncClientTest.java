@@ -0,0 +1,273 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import com.google.common.base.Charsets;
+import com.twitter.hbc.ClientBuilder;
+import com.twitter.hbc.core.endpoint.StatusesSampleEndpoint;
+import com.twitter.hbc.core.event.Event;
+import com.twitter.hbc.core.event.EventType;
+import com.twitter.hbc.core.processor.StringDelimitedProcessor;
+import com.twitter.hbc.httpclient.auth.BasicAuth;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncClientTest {
+
+  private AsyncTransport transport;
+  private TestServer server;
+  private BlockingQueue<String> messages;
+  private BlockingQueue<Event> events;
+
+  @Before
+  public void setup() throws IOException {
+    transport = new AsyncTransport(1, 2);
+    messages = new LinkedBlockingQueue<String>();
+    events = new LinkedBlockingQueue<Event>();
+  }
+
+  @After
+  public void teardown() throws IOException {
+    transport.shutdown();
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testStreamsChunkedGzippedMessages() throws Exception {
+    server = new TestServer(new Response[] { new StreamResponse(0, 100, true, false) });
+    AsyncClient client = newClient();
+    client.connect();
+
+    for (int i = 0; i < 100; i++) {
+      String message = messages.poll(5, TimeUnit.SECONDS);
+      assertNotNull(message);
+      assertEquals("{\"id\":" + i + "}", message.trim());
+    }
+
+    String request = server.requests.get(0);
+    assertTrue(request, request.startsWith("GET /1.1/statuses/sample.json?"));
+    assertTrue(request, request.contains("Authorization: Basic dXNlcjpwYXNz\r\n"));
+    assertTrue(request, request.contains("Accept-Encoding: gzip\r\n"));
+
+    client.stop();
+    assertTrue(client.isDone());
+    assertEquals(EventType.STOPPED_BY_USER, client.getExitEvent().getEventType());
+    assertEquals(100, client.getStatsTracker().getNumMessages());
+    assertEquals(1, client.getStatsTracker().getNum200s());
+  }
+
+  @Test
+  public void testReconnectsWhenTheServerCloses() throws Exception {
+    server = new TestServer(new Response[] {
+      new StreamResponse(0, 5, false, true),
+      new StreamResponse(5, 5, true, false)
+    });
+    AsyncClient client = newClient();
+    client.connect();
+
+    for (int i = 0; i < 10; i++) {
+      String message = messages.poll(5, TimeUnit.SECONDS);
+      assertNotNull(message);
+      assertEquals("{\"id\":" + i + "}", message.trim());
+    }
+    client.stop();
+
+    assertEquals(2, client.getStatsTracker().getNumConnects());
+    assertEquals(1, client.getStatsTracker().getNumDisconnects());
+    assertTrue(hasEvent(EventType.DISCONNECTED));
+  }
+
+  @Test
+  public void testFatalErrorStopsTheClient() throws Exception {
+    server = new TestServer(new Response[] { new ErrorResponse("404 Not Found") });
+    AsyncClient client = newClient();
+    client.connect();
+
+    assertTrue(client.waitForFinish(5000));
+    assertEquals(EventType.STOPPED_BY_ERROR, client.getExitEvent().getEventType());
+    assertEquals(1, client.getStatsTracker().getNumConnectionFailures());
+    assertTrue(hasEvent(EventType.HTTP_ERROR));
+    client.stop();
+  }
+
+  @Test
+  public void testStopBeforeConnect() throws Exception {
+    AsyncClient client = new ClientBuilder()
+      .hosts("http://localhost:1")
+      .endpoint(new StatusesSampleEndpoint())
+      .authentication(new BasicAuth("user", "pass"))
+      .processor(new StringDelimitedProcessor(messages))
+      .buildAsync(transport);
+    client.stop(100);
+    assertTrue(client.isDone());
+    assertTrue(client.waitForFinish(0));
+  }
+
+  private AsyncClient newClient() {
+    return new ClientBuilder()
+      .hosts("http://localhost:" + server.getPort())
+      .endpoint(new StatusesSampleEndpoint())
+      .authentication(new BasicAuth("user", "pass"))
+      .processor(new StringDelimitedProcessor(messages))
+      .eventMessageQueue(events)
+      .buildAsync(transport);
+  }
+
+  private boolean hasEvent(EventType type) {
+    for (Event event : events) {
+      if (event.getEventType() == type) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(Charsets.UTF_8);
+  }
+
+  private interface Response {
+    /**
+     * @return whether to keep the connection open until the client closes it
+     */
+    boolean write(OutputStream out) throws IOException;
+  }
+
+  private static class StreamResponse implements Response {
+    private final int firstId;
+    private final int count;
+    private final boolean gzip;
+    private final boolean close;
+
+    StreamResponse(int firstId, int count, boolean gzip, boolean close) {
+      this.firstId = firstId;
+      this.count = count;
+      this.gzip = gzip;
+      this.close = close;
+    }
+
+    @Override
+    public boolean write(OutputStream out) throws IOException {
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      for (int i = firstId; i < firstId + count; i++) {
+        String message = "{\"id\":" + i + "}\r\n";
+        stream.write(bytes("\r\n" + message.length() + "\r\n" + message));
+      }
+      byte[] body = gzip ? HttpResponseDecoderTest.gzip(stream.toByteArray()) : stream.toByteArray();
+
+      out.write(bytes("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\n" +
+        (gzip ? "Content-Encoding: gzip\r\n" : "") + "\r\n"));
+      // odd-sized chunks, flushed one at a time
+      for (int i = 0; i < body.length; i += 37) {
+        int length = Math.min(37, body.length - i);
+        out.write(bytes(Integer.toHexString(length) + "\r\n"));
+        out.write(body, i, length);
+        out.write(bytes("\r\n"));
+        out.flush();
+      }
+      return !close;
+    }
+  }
+
+  private static class ErrorResponse implements Response {
+    private final String status;
+
+    ErrorResponse(String status) {
+      this.status = status;
+    }
+
+    @Override
+    public boolean write(OutputStream out) throws IOException {
+      out.write(bytes("HTTP/1.1 " + status + "\r\nContent-Length: 5\r\n\r\nerror"));
+      return false;
+    }
+  }
+
+  /**
+   * Serves the given responses, one per connection
+   */
+  private static class TestServer implements Runnable {
+    private final ServerSocket serverSocket;
+    private final Response[] responses;
+    private final List<String> requests = new CopyOnWriteArrayList<String>();
+
+    TestServer(Response[] responses) throws IOException {
+      this.serverSocket = new ServerSocket(0);
+      this.responses = responses;
+      Thread thread = new Thread(this, "test-server");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (Response response : responses) {
+          Socket socket = serverSocket.accept();
+          try {
+            InputStream in = socket.getInputStream();
+            requests.add(readRequest(in));
+            if (response.write(socket.getOutputStream())) {
+              // wait for the client to close the connection
+              while (in.read() >= 0) {
+                // nothing
+              }
+            }
+          } finally {
+            socket.close();
+          }
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    }
+
+    private static String readRequest(InputStream in) throws IOException {
+      ByteArrayOutputStream request = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) >= 0) {
+        request.write(b);
+        if (new String(request.toByteArray(), Charsets.UTF_8).endsWith("\r\n\r\n")) {
+          break;
+        }
+      }
+      return new String(request.toByteArray(), Charsets.UTF_8);
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+}
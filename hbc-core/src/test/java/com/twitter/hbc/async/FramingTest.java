@@ -0,0 +1,64 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.twitter.hbc.test.SimpleStreamProvider;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FramingTest {
+
+  private static final String[] MESSAGES = { "{\"id\":1}", "", "{\"text\":\"a\\nb\"}", "{\"id\":12345678901234}" };
+
+  @Test
+  public void testDelimitedMessagesSplitAcrossReads() throws Exception {
+    byte[] stream = ByteStreams.toByteArray(new SimpleStreamProvider(MESSAGES, true, true).createInputStream());
+    for (int readSize = 1; readSize < 16; readSize++) {
+      assertEquals(MESSAGES.length, scan(Framing.DELIMITED.newScanner(), stream, readSize));
+    }
+  }
+
+  @Test
+  public void testDelimitedLengthIncludingTheNewline() {
+    // the length counts the trailing \r\n, so the scanner doesn't have to look for the end of the line
+    byte[] stream = "\r\n10\r\n{\"id\":1}\r\n0\r\n\r\n".getBytes(Charsets.UTF_8);
+    assertEquals(2, scan(Framing.DELIMITED.newScanner(), stream, 3));
+  }
+
+  @Test
+  public void testGarbageLengthLineIsAMessage() {
+    byte[] stream = "garbage\r\n".getBytes(Charsets.UTF_8);
+    assertEquals(1, scan(Framing.DELIMITED.newScanner(), stream, stream.length));
+  }
+
+  @Test
+  public void testLines() throws Exception {
+    String[] lines = { "{\"id\":1}", "{\"id\":2}", "{\"id\":3}" };
+    byte[] stream = ByteStreams.toByteArray(new SimpleStreamProvider(lines, false, true).createInputStream());
+    for (int readSize = 1; readSize < 8; readSize++) {
+      assertEquals(lines.length, scan(Framing.LINES.newScanner(), stream, readSize));
+    }
+  }
+
+  private static int scan(Framing.FrameScanner scanner, byte[] stream, int readSize) {
+    int messages = 0;
+    for (int i = 0; i < stream.length; i += readSize) {
+      messages += scanner.scan(stream, i, Math.min(readSize, stream.length - i));
+    }
+    return messages;
+  }
+}
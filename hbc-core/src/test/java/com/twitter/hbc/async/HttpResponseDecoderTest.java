@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.async;
+
+import com.google.common.base.Charsets;
+import org.apache.http.StatusLine;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class HttpResponseDecoderTest {
+
+  @Test
+  public void testChunkedGzip() throws Exception {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      content.append("{\"id\":").append(i).append("}\r\n");
+    }
+    byte[] gzipped = gzip(content.toString().getBytes(Charsets.UTF_8));
+
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    write(response, "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\n" +
+      "Content-Encoding: gzip\r\n\r\n");
+    for (int i = 0; i < gzipped.length; i += 100) {
+      int length = Math.min(100, gzipped.length - i);
+      write(response, Integer.toHexString(length) + ";ext=1\r\n");
+      response.write(gzipped, i, length);
+      write(response, "\r\n");
+    }
+    write(response, "0\r\nTrailer: 1\r\n\r\n");
+
+    RecordingHandler handler = new RecordingHandler();
+    HttpResponseDecoder decoder = new HttpResponseDecoder(handler);
+    byte[] bytes = response.toByteArray();
+    for (int i = 0; i < bytes.length; i += 7) {
+      decoder.decode(bytes, i, Math.min(7, bytes.length - i));
+    }
+
+    assertEquals(200, handler.status.getStatusCode());
+    assertEquals(content.toString(), new String(handler.body.toByteArray(), Charsets.UTF_8));
+    assertTrue(decoder.isDone());
+    decoder.endOfStream();
+  }
+
+  @Test
+  public void testContentLength() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    HttpResponseDecoder decoder = new HttpResponseDecoder(handler);
+    byte[] bytes = "HTTP/1.1 404 Not Found\r\nContent-Length: 9\r\n\r\nNot Found".getBytes(Charsets.UTF_8);
+    decoder.decode(bytes, 0, bytes.length);
+
+    assertEquals(404, handler.status.getStatusCode());
+    assertEquals("Not Found", handler.status.getReasonPhrase());
+    assertEquals("Not Found", new String(handler.body.toByteArray(), Charsets.UTF_8));
+    assertTrue(decoder.isDone());
+  }
+
+  @Test
+  public void testEndOfStreamMidChunk() throws Exception {
+    HttpResponseDecoder decoder = new HttpResponseDecoder(new RecordingHandler());
+    byte[] bytes = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n10\r\n{\"id\"".getBytes(Charsets.UTF_8);
+    decoder.decode(bytes, 0, bytes.length);
+    try {
+      decoder.endOfStream();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testMalformedStatusLine() throws Exception {
+    HttpResponseDecoder decoder = new HttpResponseDecoder(new RecordingHandler());
+    byte[] bytes = "SSH-2.0-OpenSSH\r\n".getBytes(Charsets.UTF_8);
+    decoder.decode(bytes, 0, bytes.length);
+  }
+
+  static byte[] gzip(byte[] bytes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(out);
+    gzip.write(bytes);
+    gzip.close();
+    return out.toByteArray();
+  }
+
+  private static void write(ByteArrayOutputStream out, String s) {
+    byte[] bytes = s.getBytes(Charsets.UTF_8);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static class RecordingHandler implements HttpResponseDecoder.Handler {
+    private StatusLine status;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    @Override
+    public void onStatus(StatusLine statusLine) {
+      status = statusLine;
+    }
+
+    @Override
+    public void onBody(byte[] bytes, int offset, int length) {
+      body.write(bytes, offset, length);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.capture;
+
+import com.google.common.io.Files;
+import com.twitter.hbc.ClientBuilder;
+import com.twitter.hbc.core.Client;
+import com.twitter.hbc.core.endpoint.StatusesSampleEndpoint;
+import com.twitter.hbc.core.processor.HosebirdMessageProcessor;
+import com.twitter.hbc.core.processor.StringDelimitedProcessor;
+import com.twitter.hbc.httpclient.auth.BasicAuth;
+import com.twitter.hbc.test.SimpleStreamProvider;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CaptureTest {
+
+  private File directory;
+
+  @Before
+  public void setup() {
+    directory = Files.createTempDir();
+  }
+
+  @After
+  public void teardown() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  private static String[] messages(String prefix, int count) {
+    String[] messages = new String[count];
+    for (int i = 0; i < count; i++) {
+      messages[i] = "{\"" + prefix + "\":" + i + "}";
+    }
+    return messages;
+  }
+
+  /**
+   * Processes the stream until it ends, recording it in reads of at most 64 bytes
+   */
+  private static void record(StreamRecorder recorder, String[] messages) throws Exception {
+    BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    HosebirdMessageProcessor processor = new RecordingProcessor(new StringDelimitedProcessor(queue, 500, 64), recorder,
+      10);
+    processor.setup(new SimpleStreamProvider(messages, true, true).createInputStream());
+    try {
+      while (true) {
+        processor.process();
+      }
+    } catch (IOException e) {
+      // end of the stream
+    }
+    assertEquals(messages.length, queue.size());
+  }
+
+  private static void assertReplays(InputStream stream, String[] messages) throws Exception {
+    BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    StringDelimitedProcessor processor = new StringDelimitedProcessor(queue);
+    processor.setup(stream);
+    try {
+      while (true) {
+        processor.process();
+      }
+    } catch (IOException e) {
+      // end of the connection
+    }
+    assertEquals(messages.length, queue.size());
+    for (String message : messages) {
+      // delimited messages keep their trailing \r\n
+      assertEquals(message, queue.poll().trim());
+    }
+  }
+
+  private static InputStream replay(ReplayHttpClient client) throws IOException {
+    HttpResponse response = client.execute(new HttpGet(ReplayHttpClient.HOST));
+    assertEquals(200, response.getStatusLine().getStatusCode());
+    return response.getEntity().getContent();
+  }
+
+  @Test
+  public void testReplaysEachConnection() throws Exception {
+    StreamRecorder recorder = new StreamRecorder(directory);
+    record(recorder, messages("first", 100));
+    record(recorder, messages("second", 25));
+    assertTrue(recorder.getBytesRecorded() > 0);
+    recorder.close();
+
+    ReplayHttpClient client = new ReplayHttpClient(directory, ReplayHttpClient.MAX_SPEED);
+    assertReplays(replay(client), messages("first", 100));
+    assertFalse(client.isFinished());
+    assertReplays(replay(client), messages("second", 25));
+    assertTrue(client.isFinished());
+    assertEquals(2, client.getConnectionsReplayed());
+    try {
+      replay(client);
+      fail();
+    } catch (IOException e) {
+      // the capture is over
+    }
+  }
+
+  @Test
+  public void testSkipsRestOfClosedConnection() throws Exception {
+    StreamRecorder recorder = new StreamRecorder(directory);
+    record(recorder, messages("first", 100));
+    record(recorder, messages("second", 25));
+    recorder.close();
+
+    ReplayHttpClient client = new ReplayHttpClient(directory, ReplayHttpClient.MAX_SPEED);
+    InputStream first = replay(client);
+    assertTrue(first.read(new byte[7], 0, 7) > 0);
+    first.close();
+    assertEquals(-1, first.read());
+    assertReplays(replay(client), messages("second", 25));
+  }
+
+  @Test
+  public void testRotatesSegments() throws Exception {
+    StreamRecorder recorder = new StreamRecorder(directory, 256);
+    record(recorder, messages("message", 200));
+    recorder.close();
+    assertTrue(CaptureFormat.segments(directory).length > 5);
+
+    assertReplays(replay(new ReplayHttpClient(directory, ReplayHttpClient.MAX_SPEED)), messages("message", 200));
+  }
+
+  @Test
+  public void testPacesByTimestamps() throws Exception {
+    StreamRecorder recorder = new StreamRecorder(directory);
+    recorder.connected();
+    byte[] line = "{}\r\n".getBytes("UTF-8");
+    recorder.data(line, 0, line.length);
+    recorder.writeTime(TimeUnit.MILLISECONDS.toNanos(400));
+    recorder.data(line, 0, line.length);
+    recorder.close();
+
+    assertTrue(replayMillis(ReplayHttpClient.ORIGINAL_SPEED) >= 350);
+    long fast = replayMillis(4);
+    assertTrue(fast >= 80 && fast < 350);
+    assertTrue(replayMillis(ReplayHttpClient.MAX_SPEED) < 80);
+  }
+
+  private long replayMillis(double speed) throws Exception {
+    InputStream stream = replay(new ReplayHttpClient(directory, speed));
+    long start = System.nanoTime();
+    while (stream.read(new byte[64], 0, 64) >= 0) {
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  @Test
+  public void testClientReplaysCapture() throws Exception {
+    StreamRecorder recorder = new StreamRecorder(directory);
+    record(recorder, messages("message", 50));
+    recorder.close();
+
+    BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    Client client = new ClientBuilder()
+      .hosts(ReplayHttpClient.HOST)
+      .endpoint(new StatusesSampleEndpoint())
+      .authentication(new BasicAuth("username", "password"))
+      .processor(new StringDelimitedProcessor(queue))
+      .httpClient(new ReplayHttpClient(directory, ReplayHttpClient.MAX_SPEED))
+      .build();
+    client.connect();
+    try {
+      for (String message : messages("message", 50)) {
+        assertEquals(message, queue.poll(5, TimeUnit.SECONDS).trim());
+      }
+    } finally {
+      client.stop();
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+  @Test
+  public void testRoundsUpToSizeClass() {
+    BufferPool pool = new BufferPool(1 << 20);
+    assertEquals(BufferPool.MIN_SIZE_CLASS, pool.acquire(0).length);
+    assertEquals(BufferPool.MIN_SIZE_CLASS, pool.acquire(1).length);
+    assertEquals(1024, pool.acquire(1024).length);
+    assertEquals(2048, pool.acquire(1025).length);
+    assertEquals(65536, pool.acquire(50000).length);
+    assertEquals(BufferPool.MAX_SIZE_CLASS, pool.acquire(500000).length);
+    assertEquals(BufferPool.MAX_SIZE_CLASS + 1, pool.acquire(BufferPool.MAX_SIZE_CLASS + 1).length);
+  }
+
+  @Test
+  public void testReusesReleasedBuffers() {
+    BufferPool pool = new BufferPool(1 << 20);
+    byte[] buffer = pool.acquire(50000);
+    pool.release(buffer);
+    assertEquals(65536, pool.getRetainedBytes());
+
+    assertSame(buffer, pool.acquire(40000));
+    assertEquals(0, pool.getRetainedBytes());
+    assertEquals(1, pool.getAllocations());
+    assertEquals(1, pool.getReuses());
+
+    // a different size class
+    assertNotSame(buffer, pool.acquire(70000));
+  }
+
+  @Test
+  public void testDropsForeignAndExcessBuffers() {
+    BufferPool pool = new BufferPool(100000);
+    pool.release(new byte[50000]);
+    pool.release(new byte[BufferPool.MAX_SIZE_CLASS * 2]);
+    assertEquals(0, pool.getRetainedBytes());
+
+    pool.release(pool.acquire(65536));
+    pool.release(pool.acquire(65536 * 2 - 1));
+    pool.release(new byte[65536]);
+    assertEquals(65536, pool.getRetainedBytes());
+  }
+}
@@ -18,8 +18,13 @@ import com.google.common.collect.Lists;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -174,6 +179,31 @@ public class DelimitedStreamReaderTest {
     assertEquals(msg2, myMessage2);
   }
 
+  @Test
+  public void testReadBytes() throws Exception {
+    String myMessage = "{msg1}\r\n";
+    String myMessage2 = "{this is my message \u00e9}\r\n";
+    byte[] bytes2 = myMessage2.getBytes(Charsets.UTF_8);
+    byte[] bytes = (myMessage + myMessage2).getBytes(Charsets.UTF_8);
+
+    InputStream stream = new ByteArrayInputStream(bytes);
+    DelimitedStreamReader r = new DelimitedStreamReader(stream, Charsets.UTF_8, myMessage.length() - 1);
+
+    assertEquals(myMessage, r.readLine() + "\r\n");
+    assertArrayEquals(bytes2, r.readBytes(bytes2.length));
+  }
+
+  @Test
+  public void testReadLineBytes() throws Exception {
+    String myMessage = "1234\r\n{msg}\n";
+    InputStream stream = new ByteArrayInputStream(myMessage.getBytes(Charsets.UTF_8));
+    DelimitedStreamReader r = new DelimitedStreamReader(stream, Charsets.UTF_8, 3);
+
+    assertArrayEquals("1234".getBytes(Charsets.UTF_8), r.readLineBytes());
+    // lenient like read(): keeps reading until the newline
+    assertArrayEquals("{msg}\n".getBytes(Charsets.UTF_8), r.readBytes(2));
+  }
+
   @Test
   public void testEmptyRead() throws Exception {
     InputStream stream = mock(InputStream.class);
@@ -284,4 +314,100 @@ public class DelimitedStreamReaderTest {
     String msg = r.read(myMessage.length());
     assertEquals(msg, myMessage);
   }
+
+  @Test
+  public void testBulkReadsThroughGzip() throws Exception {
+    // 1MB of length-delimited messages of a realistic size, and the same compressed like a gzipped stream
+    Random random = new Random(42);
+    ByteArrayOutputStream raw = new ByteArrayOutputStream();
+    int numMessages = 0;
+    while (raw.size() < 1 << 20) {
+      StringBuilder msg = new StringBuilder("{\"id\":").append(numMessages).append(",\"text\":\"");
+      for (int i = 0; i < 40 + random.nextInt(300); i++) {
+        msg.append(" w").append(random.nextInt(2000));
+      }
+      String body = msg.append("\"}\r\n").toString();
+      raw.write((body.length() + "\r\n" + body).getBytes(Charsets.UTF_8));
+      numMessages++;
+    }
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+    gzip.write(raw.toByteArray());
+    gzip.close();
+
+    // the socket hands over at most a segment at a time
+    CountingInputStream plainSocket = new CountingInputStream(new ByteArrayInputStream(raw.toByteArray()), 1460);
+    readMessages(plainSocket, numMessages);
+
+    // every read of the gzip stream is at least one call to the inflater
+    CountingInputStream gzipSocket = new CountingInputStream(new ByteArrayInputStream(compressed.toByteArray()), 1460);
+    CountingInputStream inflated = new CountingInputStream(new GZIPInputStream(gzipSocket), Integer.MAX_VALUE);
+    readMessages(inflated, numMessages);
+
+    // reading 64 bytes at a time, this took ~5900 socket reads and ~6500 inflates per MB
+    assertTrue(plainSocket.reads <= raw.size() / 1460 + 2);
+    assertTrue(inflated.reads < 2 * gzipSocket.reads);
+  }
+
+  @Test
+  public void testHandsBackBufferGrownForLargeMessage() throws Exception {
+    StringBuilder large = new StringBuilder();
+    while (large.length() < 300000) {
+      large.append("{large message}");
+    }
+    String messages = "{small}\r\n" + large + "\r\n{small}\r\n";
+    BufferPool pool = new BufferPool(1 << 22);
+    DelimitedStreamReader r = new DelimitedStreamReader(
+      new ByteArrayInputStream(messages.getBytes(Charsets.UTF_8)), Charsets.UTF_8, 1000, pool);
+
+    assertEquals("{small}", r.readLine());
+    assertEquals(0, pool.getRetainedBytes());
+    assertEquals(large.toString(), r.readLine());
+    assertEquals("{small}", r.readLine());
+    // the large buffer is back in the pool, along with the smaller ones it replaced
+    assertTrue(pool.getRetainedBytes() >= 300000);
+
+    r.release();
+    r.release();
+    long retained = pool.getRetainedBytes();
+    DelimitedStreamReader next = new DelimitedStreamReader(
+      new ByteArrayInputStream("{next}\n".getBytes(Charsets.UTF_8)), Charsets.UTF_8, 1000, pool);
+    assertTrue(pool.getRetainedBytes() < retained);
+    assertEquals("{next}", next.readLine());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReadAfterRelease() throws Exception {
+    DelimitedStreamReader r = new DelimitedStreamReader(
+      new ByteArrayInputStream("{msg}\n".getBytes(Charsets.UTF_8)), Charsets.UTF_8, 1000, new BufferPool(1 << 20));
+    r.release();
+    r.readLine();
+  }
+
+  private void readMessages(InputStream stream, int numMessages) throws IOException {
+    DelimitedStreamReader r = new DelimitedStreamReader(stream, Charsets.UTF_8, 50000);
+    for (int i = 0; i < numMessages; i++) {
+      int length = Integer.parseInt(r.readLine());
+      assertTrue(r.read(length).startsWith("{\"id\":" + i + ","));
+    }
+  }
+
+  /**
+   * Counts the calls to read, returning at most maxReadSize bytes per call
+   */
+  private static class CountingInputStream extends FilterInputStream {
+    private final int maxReadSize;
+    private int reads;
+
+    CountingInputStream(InputStream in, int maxReadSize) {
+      super(in);
+      this.maxReadSize = maxReadSize;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      reads++;
+      return super.read(b, off, Math.min(len, maxReadSize));
+    }
+  }
 }
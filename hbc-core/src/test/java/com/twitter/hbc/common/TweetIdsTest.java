@@ -0,0 +1,56 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.common;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TweetIdsTest {
+
+  @Test
+  public void testTopLevelId() {
+    assertEquals(240859602684612608L,
+      TweetIds.idOf("{\"created_at\":\"Wed Aug 29 17:12:58 +0000 2012\",\"id\":240859602684612608,\"id_str\":\"240859602684612608\"}"));
+    assertEquals(7, TweetIds.idOf(" { \"id\" : 7 }"));
+  }
+
+  @Test
+  public void testSkipsNestedIds() {
+    assertEquals(2, TweetIds.idOf("{\"user\":{\"id\":1,\"name\":\"a\"},\"id\":2}"));
+    assertEquals(3, TweetIds.idOf("{\"entities\":[{\"id\":1},{\"id\":2}],\"id\":3}"));
+    assertEquals(-1, TweetIds.idOf("{\"delete\":{\"status\":{\"id\":1,\"user_id\":3}}}"));
+  }
+
+  @Test
+  public void testSkipsStrings() {
+    assertEquals(5, TweetIds.idOf("{\"text\":\"\\\"id\\\":1 {\\\"id\\\":2\",\"id\":5}"));
+    assertEquals(5, TweetIds.idOf("{\"text\":\"id\",\"id\":5}"));
+    assertEquals(-1, TweetIds.idOf("{\"text\":\"{\\\"id\\\":1}\"}"));
+  }
+
+  @Test
+  public void testNoId() {
+    assertEquals(-1, TweetIds.idOf(""));
+    assertEquals(-1, TweetIds.idOf("{\"limit\":{\"track\":1}}"));
+    assertEquals(-1, TweetIds.idOf("{\"id\":\"abc\"}"));
+    assertEquals(-1, TweetIds.idOf("{\"id\""));
+  }
+
+  @Test
+  public void testBytes() {
+    assertEquals(9, TweetIds.idOf("{\"text\":\"café ☃\",\"id\":9}".getBytes(Charsets.UTF_8)));
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.common;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class VirtualThreadsTest {
+
+  @Test
+  public void testThreadPerTaskExecutor() throws Exception {
+    ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-thread-");
+    final AtomicReference<String> threadName = new AtomicReference<String>();
+    final CountDownLatch ran = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        threadName.set(Thread.currentThread().getName());
+        ran.countDown();
+      }
+    });
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertEquals("test-thread-0", threadName.get());
+    executor.shutdown();
+  }
+
+  @Test
+  public void testAvailability() {
+    assertEquals(VirtualThreads.isAvailable(), VirtualThreads.newThreadFactory("test-") != null);
+  }
+}
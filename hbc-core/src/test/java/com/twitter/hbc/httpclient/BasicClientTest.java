@@ -28,6 +28,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.conn.ClientConnectionManager;
 import org.junit.Before;
 import org.junit.Test;
@@ -87,7 +88,7 @@ public class BasicClientTest {
     mockHttpEntity = mock(HttpEntity.class);
 
     // set up required mocks to mock out all of the clientbase stuff
-    when(mockClient.execute(any(HttpUriRequest.class)))
+    when(mockClient.execute(any(HttpUriRequest.class), any(HttpContext.class)))
             .thenReturn(mockResponse);
     when(mockClient.getConnectionManager())
             .thenReturn(mockConnectionManager);
@@ -181,7 +182,7 @@ public class BasicClientTest {
     final CountDownLatch latch = new CountDownLatch(1);
     when(mockHttpHosts.nextHost())
             .thenReturn("http://somehost.com");
-    when(mockClient.execute(any(HttpUriRequest.class)))
+    when(mockClient.execute(any(HttpUriRequest.class), any(HttpContext.class)))
             .thenReturn(mockResponse)
             .thenReturn(mockResponse)
             .thenThrow(new IOException())
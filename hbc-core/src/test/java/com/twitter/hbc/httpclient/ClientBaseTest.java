@@ -26,6 +26,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
@@ -67,7 +68,7 @@ public class ClientBaseTest {
     HttpEntity mockHttpEntity = mock(HttpEntity.class);
 
     // set up required mocks to mock out all of the clientbase stuff
-    when(mock.execute(any(HttpUriRequest.class)))
+    when(mock.execute(any(HttpUriRequest.class), any(HttpContext.class)))
             .thenReturn(mockResponse);
     when(mockResponse.getStatusLine())
             .thenReturn(mockStatusLine);
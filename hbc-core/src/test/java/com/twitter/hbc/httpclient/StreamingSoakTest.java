@@ -0,0 +1,446 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.httpclient;
+
+import com.google.common.base.Ticker;
+import com.twitter.hbc.BasicRateTracker;
+import com.twitter.hbc.BasicReconnectionManager;
+import com.twitter.hbc.ClientBuilder;
+import com.twitter.hbc.ReconnectionManager;
+import com.twitter.hbc.StallDetector;
+import com.twitter.hbc.core.Client;
+import com.twitter.hbc.core.DnsHosts;
+import com.twitter.hbc.core.LatencyAwareHosts;
+import com.twitter.hbc.core.endpoint.StatusesSampleEndpoint;
+import com.twitter.hbc.core.event.Event;
+import com.twitter.hbc.core.event.EventType;
+import com.twitter.hbc.core.processor.StringDelimitedProcessor;
+import com.twitter.hbc.httpclient.auth.BasicAuth;
+import com.twitter.hbc.test.StreamingServer;
+import com.twitter.hbc.test.StreamingServer.Script;
+import org.apache.http.conn.DnsResolver;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Drives a client end to end over a local socket. Its timings depend on the machine, so it only runs with
+ * -Dhbc.soak=true, or with -Dhbc.soak.seconds=N to soak for longer.
+ */
+public class StreamingSoakTest {
+
+  private final static Logger logger = LoggerFactory.getLogger(StreamingSoakTest.class);
+
+  private static final long SOAK_SECONDS = Long.getLong("hbc.soak.seconds", 2);
+
+  @BeforeClass
+  public static void assumeSoak() {
+    Assume.assumeTrue(Boolean.getBoolean("hbc.soak") || System.getProperty("hbc.soak.seconds") != null);
+  }
+
+  private StreamingServer server;
+  private Client client;
+  private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+
+  @After
+  public void teardown() throws Exception {
+    if (client != null) {
+      client.stop(1000);
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private void connect(Script defaultScript, Script... scripts) throws Exception {
+    connect(defaultScript, true, 60000, scripts);
+  }
+
+  /**
+   * Starts a server playing the scripts on its first connections, and connects a client to it
+   */
+  private void connect(Script defaultScript, boolean gzip, int socketTimeoutMillis, Script... scripts)
+    throws Exception {
+    server = new StreamingServer(defaultScript);
+    server.enqueue(scripts);
+    client = new ClientBuilder()
+      .name("soak")
+      .hosts(server.getHost())
+      .endpoint(new StatusesSampleEndpoint())
+      .authentication(new BasicAuth("username", "password"))
+      .processor(new StringDelimitedProcessor(queue))
+      .reconnectionManager(new FastReconnectionManager())
+      .gzipEnabled(gzip)
+      .socketTimeout(socketTimeoutMillis)
+      .build();
+    client.connect();
+  }
+
+  private static long idOf(String message) {
+    int start = message.indexOf("\"id\":") + 5;
+    return Long.parseLong(message.substring(start, message.indexOf(',', start)));
+  }
+
+  private String take() throws InterruptedException {
+    String message = queue.poll(10, TimeUnit.SECONDS);
+    assertNotNull("Timed out waiting for a message", message);
+    return message;
+  }
+
+  /**
+   * Takes messages, checking they come in order without gaps
+   * @return the id of the last one
+   */
+  private long takeInOrder(long firstId, int count) throws InterruptedException {
+    long id = firstId;
+    for (int i = 0; i < count; i++) {
+      String message = take();
+      if (!message.contains("disconnect")) {
+        assertEquals(id++, idOf(message));
+      }
+    }
+    return id - 1;
+  }
+
+  private void measureThroughput(boolean gzip) throws Exception {
+    connect(Script.stream().messageSize(500), gzip, 60000);
+    int count = 50000;
+    take();
+    long start = System.nanoTime();
+    takeInOrder(1, count);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    logger.info(String.format("%s: %.0f messages/s, %.1f MB/s", gzip ? "gzip" : "plain", count / seconds,
+      count * 500 / seconds / (1 << 20)));
+    assertEquals(1, server.getConnections());
+  }
+
+  @Test
+  public void testThroughput() throws Exception {
+    measureThroughput(false);
+  }
+
+  @Test
+  public void testGzipThroughput() throws Exception {
+    measureThroughput(true);
+  }
+
+  @Test
+  public void testReconnectsOnErrorsAndDisconnects() throws Exception {
+    connect(Script.stream(),
+      Script.stream().messages(100).disconnectMessage(),
+      Script.error(503),
+      Script.error(420),
+      Script.stream().messages(100).gzip());
+
+    // 100 messages and the disconnect message, then 100 once the errors are retried, then the default stream
+    assertTrue(take().startsWith("{\"id\":0,"));
+    long last = takeInOrder(1, 99);
+    assertTrue(take().contains("disconnect"));
+    last = takeInOrder(last + 1, 150);
+    assertTrue(last >= 249);
+    assertEquals(5, server.getConnections());
+    assertEquals(5, client.getStatsTracker().getNumConnects());
+    logReconnectLatencies(server.getReconnectNanos());
+  }
+
+  @Test
+  public void testSlowDrip() throws Exception {
+    connect(Script.stream(), Script.stream().messages(20).drip(7, 1));
+    takeInOrder(0, 20);
+    takeInOrder(20, 10);
+    assertEquals(2, server.getConnections());
+  }
+
+  @Test
+  public void testReconnectsAfterStall() throws Exception {
+    connect(Script.stream().messagesPerSecond(1000), true, 300, Script.stream().stall(10, 5000));
+
+    takeInOrder(0, 10);
+    long start = System.nanoTime();
+    String next = take();
+    long stalledMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    // the read timed out, and the client reconnected well before the stall ended
+    assertTrue(stalledMillis < 3000);
+    assertTrue(idOf(next) >= 10);
+    assertEquals(2, server.getConnections());
+  }
+
+  @Test
+  public void testStallDetectorReconnectsBeforeTheSocketTimeout() throws Exception {
+    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+    server = new StreamingServer(Script.stream().messagesPerSecond(1000));
+    // long enough for the rate to be known, then silence for longer than the test
+    server.enqueue(Script.stream().messagesPerSecond(1000).stall(1500, 30000));
+    client = new ClientBuilder()
+      .name("soak")
+      .hosts(server.getHost())
+      .endpoint(new StatusesSampleEndpoint())
+      .authentication(new BasicAuth("username", "password"))
+      .processor(new StringDelimitedProcessor(queue))
+      .reconnectionManager(new FastReconnectionManager())
+      .rateTracker(new BasicRateTracker(1000, 10, true, scheduler))
+      .stallDetector(new StallDetector(20, 200, 90, scheduler, false))
+      .eventMessageQueue(events)
+      .build();
+    client.connect();
+
+    takeInOrder(0, 1500);
+    long start = System.nanoTime();
+    String next = take();
+    long stalledMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    logger.info("stall detected and reconnected in {} ms", stalledMillis);
+    // the socket timeout is a minute
+    assertTrue(stalledMillis < 5000);
+    assertEquals(1500, idOf(next));
+    assertEquals(2, server.getConnections());
+    assertEquals(1, client.getStatsTracker().getNumStalls());
+    boolean stalled = false;
+    for (Event event : events) {
+      stalled |= event.getEventType() == EventType.STALLED;
+    }
+    assertTrue(stalled);
+  }
+
+  @Test
+  public void testLatencyAwareHostsEjectAFailingHost() throws Exception {
+    StreamingServer broken = new StreamingServer(Script.error(503));
+    try {
+      // ten messages per connection, so that the client keeps reconnecting
+      server = new StreamingServer(Script.stream().messages(10));
+      LatencyAwareHosts hosts = new LatencyAwareHosts(Arrays.asList(broken.getHost(), server.getHost()), 2, 60000,
+        LatencyAwareHosts.DEFAULT_OUTLIER_MULTIPLE, new Random(1), Ticker.systemTicker());
+      client = new ClientBuilder()
+        .name("soak")
+        .hosts(hosts)
+        .endpoint(new StatusesSampleEndpoint())
+        .authentication(new BasicAuth("username", "password"))
+        .processor(new StringDelimitedProcessor(queue))
+        .reconnectionManager(new FastReconnectionManager())
+        .build();
+      client.connect();
+
+      for (int i = 0; i < 200; i++) {
+        take();
+      }
+      assertTrue(hosts.isEjected(broken.getHost()));
+      assertTrue(broken.getConnections() <= 2);
+      assertTrue(server.getConnections() >= 20);
+      assertFalse(Double.isNaN(hosts.getLatencyMillis(server.getHost())));
+    } finally {
+      broken.close();
+    }
+  }
+
+  @Test
+  public void testStallsDoNotCountAgainstTheHost() throws Exception {
+    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    // the rate gets known, then each connection stalls before its first message
+    server = new StreamingServer(Script.stream().stall(0, 30000));
+    server.enqueue(Script.stream().messagesPerSecond(1000).messages(1500));
+    // a single failure would eject the host
+    LatencyAwareHosts hosts = new LatencyAwareHosts(Arrays.asList(server.getHost()), 1, 60000,
+      LatencyAwareHosts.DEFAULT_OUTLIER_MULTIPLE, new Random(1), Ticker.systemTicker());
+    client = new ClientBuilder()
+      .name("soak")
+      .hosts(hosts)
+      .endpoint(new StatusesSampleEndpoint())
+      .authentication(new BasicAuth("username", "password"))
+      .processor(new StringDelimitedProcessor(queue))
+      .reconnectionManager(new FastReconnectionManager())
+      .rateTracker(new BasicRateTracker(1000, 10, true, scheduler))
+      .stallDetector(new StallDetector(20, 200, 90, scheduler, false))
+      .build();
+    client.connect();
+
+    takeInOrder(0, 1500);
+    assertTrue(server.awaitConnections(4, 10, TimeUnit.SECONDS));
+    // the client aborted the stalled connections itself, which says nothing about the host
+    assertTrue(client.getStatsTracker().getNumStalls() >= 2);
+    assertFalse(hosts.isEjected(server.getHost()));
+  }
+
+  @Test
+  public void testDnsHostsResolveOnce() throws Exception {
+    // ten messages per connection, so that the client keeps reconnecting
+    server = new StreamingServer(Script.stream().messages(10));
+    DnsResolver resolver = mock(DnsResolver.class);
+    when(resolver.resolve("localhost")).thenReturn(new InetAddress[]{InetAddress.getByName("127.0.0.1")});
+    DnsHosts hosts = new DnsHosts(Arrays.asList(server.getHost()), 60000, resolver,
+      Executors.newSingleThreadScheduledExecutor(), true);
+    try {
+      client = new ClientBuilder()
+        .name("soak")
+        .hosts(hosts)
+        .endpoint(new StatusesSampleEndpoint())
+        .authentication(new BasicAuth("username", "password"))
+        .processor(new StringDelimitedProcessor(queue))
+        .reconnectionManager(new FastReconnectionManager())
+        .build();
+      client.connect();
+
+      for (int i = 0; i < 50; i++) {
+        take();
+      }
+      assertTrue(server.getConnections() >= 5);
+      verify(resolver, times(1)).resolve("localhost");
+    } finally {
+      hosts.shutdown();
+    }
+  }
+
+  @Test
+  public void testStopDoesNotWaitOutTheBackoff() throws Exception {
+    server = new StreamingServer(Script.error(503));
+    BasicReconnectionManager reconnectionManager = new BasicReconnectionManager(5);
+    client = new ClientBuilder()
+      .name("soak")
+      .hosts(server.getHost())
+      .endpoint(new StatusesSampleEndpoint())
+      .authentication(new BasicAuth("username", "password"))
+      .processor(new StringDelimitedProcessor(queue))
+      .reconnectionManager(reconnectionManager)
+      .build();
+    client.connect();
+    assertTrue(server.awaitConnections(1, 10, TimeUnit.SECONDS));
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!reconnectionManager.isBackingOff() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertTrue(reconnectionManager.isBackingOff());
+
+    long start = System.nanoTime();
+    client.stop(10000);
+    long stopMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    // the backoff after a 503 is 5 seconds
+    assertTrue(stopMillis < 2000);
+    assertTrue(client.isDone());
+    assertEquals(1, reconnectionManager.getNumBackoffs());
+    assertEquals(1, server.getConnections());
+  }
+
+  @Test
+  public void testSwapConnectionWithoutGapsOrDuplicates() throws Exception {
+    connect(Script.stream().timeline(500));
+    long last = idOf(take());
+    last = takeInOrder(last + 1, 200);
+    ((BasicClient) client).swapConnection(300);
+    // a second of messages across the swap, each exactly once
+    last = takeInOrder(last + 1, 500);
+    assertEquals(2, server.getConnections());
+    assertEquals(2, client.getStatsTracker().getNumConnects());
+    assertEquals(0, client.getStatsTracker().getNumDisconnects());
+  }
+
+  @Test
+  public void testSoak() throws Exception {
+    Random random = new Random(42);
+    Script[] scripts = new Script[10000];
+    for (int i = 0; i < scripts.length; i++) {
+      int kind = random.nextInt(10);
+      if (kind == 0) {
+        scripts[i] = Script.error(503);
+      } else {
+        scripts[i] = Script.stream().messages(1 + random.nextInt(2000)).messageSize(100 + random.nextInt(2000));
+        if (kind < 4) {
+          scripts[i].gzip();
+        }
+        if (kind == 4) {
+          scripts[i].disconnectMessage();
+        }
+      }
+    }
+    connect(Script.stream(), scripts);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SOAK_SECONDS);
+    long nextId = 0;
+    long received = 0;
+    long start = System.nanoTime();
+    while (System.nanoTime() < deadline) {
+      String message = take();
+      if (!message.contains("disconnect")) {
+        assertEquals(nextId++, idOf(message));
+        received++;
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    logger.info(String.format("soak: %d messages over %d connections, %.0f messages/s", received,
+      server.getConnections(), received / seconds));
+    logReconnectLatencies(server.getReconnectNanos());
+    assertTrue(server.getConnections() > 1);
+  }
+
+  private static void logReconnectLatencies(List<Long> nanos) {
+    if (nanos.isEmpty()) {
+      return;
+    }
+    Collections.sort(nanos);
+    logger.info(String.format("reconnects: %d, median %.1fms, max %.1fms", nanos.size(),
+      nanos.get(nanos.size() / 2) / 1e6, nanos.get(nanos.size() - 1) / 1e6));
+  }
+
+  /**
+   * Backs off for a few millis at most, so errors don't slow the tests down
+   */
+  private static class FastReconnectionManager implements ReconnectionManager {
+    @Override
+    public void handleExponentialBackoff() {
+      sleep(20);
+    }
+
+    @Override
+    public void handleLinearBackoff() {
+      sleep(5);
+    }
+
+    @Override
+    public boolean shouldReconnectOn400s() {
+      return true;
+    }
+
+    @Override
+    public int estimateBackfill(double tps) {
+      return 0;
+    }
+
+    @Override
+    public void resetCounts() {
+    }
+
+    private static void sleep(long millis) {
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.httpclient.auth;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.twitter.hbc.core.endpoint.StatusesFilterEndpoint;
+import com.twitter.joauth.Normalizer;
+import com.twitter.joauth.OAuthParams;
+import com.twitter.joauth.Request.Pair;
+import com.twitter.joauth.Signer;
+import com.twitter.joauth.UrlCodec;
+import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OAuth1Test {
+
+  private final OAuth1 auth = new OAuth1("consumer-key", "consumer+secret", "token", "token/secret");
+
+  /**
+   * The header the request would get from signing with joauth directly
+   */
+  private static Map<String, String> joauthHeader(HttpUriRequest request, String postParams, String nonce,
+                                                  long timestampSecs) throws Exception {
+    List<Pair> params = new ArrayList<Pair>();
+    List<NameValuePair> pairs = new ArrayList<NameValuePair>(
+      URLEncodedUtils.parse(request.getURI().getRawQuery(), Charsets.UTF_8));
+    if (postParams != null) {
+      pairs.addAll(URLEncodedUtils.parse(postParams, Charsets.UTF_8));
+    }
+    for (NameValuePair pair : pairs) {
+      params.add(new Pair(UrlCodec.encode(pair.getName()), UrlCodec.encode(pair.getValue())));
+    }
+    OAuthParams.OAuth1Params oAuth1Params = new OAuthParams.OAuth1Params(
+      "token", "consumer-key", nonce, timestampSecs, Long.toString(timestampSecs), "",
+      OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH);
+    URI uri = request.getURI();
+    int port = uri.getPort() > 0 ? uri.getPort() : uri.getScheme().equalsIgnoreCase("https") ? 443 : 80;
+    String normalized = Normalizer.getStandardNormalizer().normalize(uri.getScheme(), uri.getHost(), port,
+      request.getMethod().toUpperCase(), uri.getPath(), params, oAuth1Params);
+    String signature = Signer.getStandardSigner().getString(normalized, "token/secret", "consumer+secret");
+
+    Map<String, String> header = new TreeMap<String, String>();
+    header.put(OAuthParams.OAUTH_CONSUMER_KEY, "\"consumer-key\"");
+    header.put(OAuthParams.OAUTH_TOKEN, "\"token\"");
+    header.put(OAuthParams.OAUTH_SIGNATURE, "\"" + signature + "\"");
+    header.put(OAuthParams.OAUTH_SIGNATURE_METHOD, "\"" + OAuthParams.HMAC_SHA1 + "\"");
+    header.put(OAuthParams.OAUTH_TIMESTAMP, "\"" + timestampSecs + "\"");
+    header.put(OAuthParams.OAUTH_NONCE, "\"" + nonce + "\"");
+    header.put(OAuthParams.OAUTH_VERSION, "\"" + OAuthParams.ONE_DOT_OH + "\"");
+    return header;
+  }
+
+  private static Map<String, String> header(HttpUriRequest request) {
+    String value = request.getFirstHeader(HttpHeaders.AUTHORIZATION).getValue();
+    assertTrue(value.startsWith("OAuth "));
+    return new TreeMap<String, String>(
+      Splitter.on(", ").withKeyValueSeparator("=").split(value.substring("OAuth ".length())));
+  }
+
+  private void assertSignedLikeJoauth(HttpUriRequest request, String postParams, String nonce, long timestamp)
+    throws Exception {
+    auth.signRequest(request, postParams, nonce, timestamp);
+    assertEquals(joauthHeader(request, postParams, nonce, timestamp), header(request));
+  }
+
+  @Test
+  public void testFilterStream() throws Exception {
+    StatusesFilterEndpoint endpoint = new StatusesFilterEndpoint()
+      .trackTerms(Lists.newArrayList("twitter", "api", "hosebird client", "café,日本"))
+      .followings(Lists.newArrayList(783214L, 6253282L, 12L));
+    HttpPost request = new HttpPost("https://stream.twitter.com" + endpoint.getURI());
+    String postParams = endpoint.getPostParamString();
+
+    for (int i = 0; i < 3; i++) {
+      // the same endpoint again, with the cached base string
+      assertSignedLikeJoauth(request, postParams, "1234567890" + i, 1400000000L + i);
+    }
+  }
+
+  @Test
+  public void testChangingRequests() throws Exception {
+    assertSignedLikeJoauth(new HttpGet("https://stream.twitter.com/1.1/statuses/sample.json?delimited=length&stall_warnings=true"),
+      null, "1", 1400000000L);
+    assertSignedLikeJoauth(new HttpGet("https://stream.twitter.com/1.1/statuses/sample.json?delimited=length"),
+      null, "2", 1400000001L);
+    assertSignedLikeJoauth(new HttpPost("https://sitestream.twitter.com/1.1/site/c/1_1_abc/add_user.json"),
+      "user_id=1%2C2%2C3", "3", 1400000002L);
+    assertSignedLikeJoauth(new HttpPost("https://sitestream.twitter.com/1.1/site/c/1_1_abc/add_user.json"),
+      "user_id=4%2C5", "4", 1400000003L);
+    assertSignedLikeJoauth(new HttpGet("https://sitestream.twitter.com/1.1/site/c/1_1_abc/info.json"),
+      null, "5", 1400000004L);
+  }
+
+  @Test
+  public void testAlternatingEndpoints() throws Exception {
+    HttpGet stream = new HttpGet("https://sitestream.twitter.com/1.1/site.json?follow=1,2,3");
+    HttpPost addUser = new HttpPost("https://sitestream.twitter.com/1.1/site/c/1_1_abc/add_user.json");
+    for (int i = 0; i < 5; i++) {
+      assertSignedLikeJoauth(stream, null, "s" + i, 1400000000L + i);
+      assertSignedLikeJoauth(addUser, "user_id=4%2C5", "a" + i, 1400000000L + i);
+    }
+    // one base string per endpoint, each used from the cache from then on
+    assertEquals(2, auth.getSignatureBasesBuilt());
+
+    assertSignedLikeJoauth(addUser, "user_id=6", "6", 1400000006L);
+    assertEquals(3, auth.getSignatureBasesBuilt());
+  }
+
+  @Test
+  public void testPortsAndCase() throws Exception {
+    assertSignedLikeJoauth(new HttpGet("http://Stream.Twitter.com/1.1/statuses/sample.json?a=b"), null, "1", 1L);
+    assertSignedLikeJoauth(new HttpGet("http://stream.twitter.com:8080/1.1/statuses/sample.json?a=b"), null, "2", 2L);
+    assertSignedLikeJoauth(new HttpGet("https://stream.twitter.com:443/1.1/statuses/sample.json"), null, "3", 3L);
+    assertSignedLikeJoauth(new HttpGet("https://stream.twitter.com:8443/1.1/statuses/sample.json"), null, "4", 4L);
+  }
+
+  @Test
+  public void testParametersSortingAmongOAuthParameters() throws Exception {
+    assertSignedLikeJoauth(new HttpGet("https://stream.twitter.com/1.1/x.json?oauth_a=1&oauth_z=2&a=b&a=a&z=%7E"),
+      null, "1", 1L);
+    // these sort in among the nonce and timestamp, and go down the general path
+    assertSignedLikeJoauth(new HttpGet("https://stream.twitter.com/1.1/x.json?oauth_nonce=0&oauth_timestamp=0"),
+      null, "2", 2L);
+  }
+
+  @Test
+  public void testSigningFromManyThreads() throws Exception {
+    final HttpPost request = new HttpPost("https://sitestream.twitter.com/1.1/site/c/1_1_abc/add_user.json");
+    final Map<String, String> expected = joauthHeader(request, "user_id=1", "42", 1400000000L);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Map<String, String>>> results = new ArrayList<Future<Map<String, String>>>();
+      for (int i = 0; i < 100; i++) {
+        results.add(executor.submit(new Callable<Map<String, String>>() {
+          @Override
+          public Map<String, String> call() {
+            HttpPost copy = new HttpPost(request.getURI());
+            auth.signRequest(copy, "user_id=1", "42", 1400000000L);
+            return header(copy);
+          }
+        }));
+      }
+      for (Future<Map<String, String>> result : results) {
+        assertEquals(expected, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
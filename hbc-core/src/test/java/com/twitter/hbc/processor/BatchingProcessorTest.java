@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.processor;
+
+import com.twitter.hbc.core.processor.BatchingProcessor;
+import com.twitter.hbc.core.processor.StringDelimitedProcessor;
+import com.twitter.hbc.core.sink.MessageSink;
+import com.twitter.hbc.test.SimpleStreamProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BatchingProcessorTest {
+
+  private String[] messages;
+
+  @Before
+  public void setup() {
+    messages = new String[25];
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = "messages" + i;
+    }
+  }
+
+  @Test
+  public void testBatchesBySize() throws Exception {
+    BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(10);
+    BatchingProcessor<String> processor =
+      new BatchingProcessor<String>(new StringDelimitedProcessor((BlockingQueue<String>) null), queue, 10, Long.MAX_VALUE / 1000);
+    processor.setup(new SimpleStreamProvider(messages, true, false).createInputStream());
+
+    int processed = processAll(processor);
+
+    assertEquals(messages.length, processed);
+    assertEquals(2, queue.size());
+    assertBatch(queue.take(), 0, 10);
+    assertBatch(queue.take(), 10, 10);
+  }
+
+  @Test
+  public void testKeepAliveFlushesPartialBatch() throws Exception {
+    BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(100);
+    BatchingProcessor<String> processor =
+      new BatchingProcessor<String>(new StringDelimitedProcessor((BlockingQueue<String>) null), queue, 10, Long.MAX_VALUE / 1000);
+    // every message is preceded by keep-alives
+    processor.setup(new SimpleStreamProvider(messages, true, true).createInputStream());
+
+    int processed = processAll(processor);
+
+    assertEquals(messages.length, processed);
+    // each keep-alive hands over the single message read before it
+    assertEquals(messages.length - 1, queue.size());
+    for (int i = 0; i < messages.length - 1; i++) {
+      assertBatch(queue.take(), i, 1);
+    }
+  }
+
+  @Test
+  public void testZeroDelayDisablesBatching() throws Exception {
+    BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(100);
+    BatchingProcessor<String> processor =
+      new BatchingProcessor<String>(new StringDelimitedProcessor((BlockingQueue<String>) null), queue, 10, 0);
+    processor.setup(new SimpleStreamProvider(messages, true, false).createInputStream());
+
+    assertEquals(messages.length, processAll(processor));
+    assertEquals(messages.length, queue.size());
+  }
+
+  @Test
+  public void testDroppedBatch() throws Exception {
+    BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(1);
+    BatchingProcessor<String> processor =
+      new BatchingProcessor<String>(new StringDelimitedProcessor((BlockingQueue<String>) null), queue, 5, Long.MAX_VALUE / 1000, 1);
+    processor.setup(new SimpleStreamProvider(messages, true, false).createInputStream());
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(processor.process());
+    }
+    assertEquals(1, queue.size());
+    // each message of the dropped batch counts
+    assertEquals(5, processor.getNumMessagesDropped());
+  }
+
+  @Test
+  public void testFlushesOnTheDeadline() throws Exception {
+    BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(10);
+    BatchingProcessor<String> processor =
+      new BatchingProcessor<String>(new StringDelimitedProcessor((BlockingQueue<String>) null), queue, 10, 50000);
+    processor.setup(new SimpleStreamProvider(messages, true, false).createInputStream());
+
+    // then nothing more is read, as if the stream had gone quiet without keep-alives
+    for (int i = 0; i < 3; i++) {
+      processor.process();
+    }
+    List<String> batch = queue.poll(5, TimeUnit.SECONDS);
+    assertNotNull(batch);
+    assertBatch(batch, 0, 3);
+  }
+
+  @Test(timeout = 10000)
+  public void testSlowSinkDoesNotHoldUpTheStream() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch unblock = new CountDownLatch(1);
+    final BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(10);
+    MessageSink<List<String>> slowSink = new MessageSink<List<String>>() {
+      @Override
+      public boolean offer(List<String> message, long timeout, TimeUnit unit) throws InterruptedException {
+        entered.countDown();
+        unblock.await();
+        return queue.offer(message);
+      }
+    };
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      BatchingProcessor<String> processor = new BatchingProcessor<String>(
+        new StringDelimitedProcessor((BlockingQueue<String>) null), slowSink, 10, 50000, 60000, scheduler);
+      processor.setup(new SimpleStreamProvider(messages, true, false).createInputStream());
+
+      for (int i = 0; i < 3; i++) {
+        processor.process();
+      }
+      // the deadline flush is stuck in the sink...
+      assertTrue(entered.await(5, TimeUnit.SECONDS));
+      // ...but the next batch still fills up
+      for (int i = 0; i < 3; i++) {
+        processor.process();
+      }
+      unblock.countDown();
+      assertBatch(queue.take(), 0, 3);
+      assertBatch(queue.take(), 3, 3);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testReleaseFlushesPartialBatch() throws Exception {
+    BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(10);
+    BatchingProcessor<String> processor =
+      new BatchingProcessor<String>(new StringDelimitedProcessor((BlockingQueue<String>) null), queue, 10, Long.MAX_VALUE / 1000);
+    processor.setup(new SimpleStreamProvider(messages, true, false).createInputStream());
+
+    for (int i = 0; i < 3; i++) {
+      processor.process();
+    }
+    assertTrue(queue.isEmpty());
+    processor.release();
+    assertEquals(1, queue.size());
+    assertBatch(queue.take(), 0, 3);
+  }
+
+  private int processAll(BatchingProcessor<String> processor) throws InterruptedException {
+    int count = 0;
+    try {
+      while (count < messages.length * 2) {
+        processor.process();
+        count++;
+      }
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    return count;
+  }
+
+  private void assertBatch(List<String> batch, int start, int size) {
+    assertEquals(size, batch.size());
+    for (int i = 0; i < size; i++) {
+      assertEquals(messages[start + i], batch.get(i).trim());
+    }
+  }
+}
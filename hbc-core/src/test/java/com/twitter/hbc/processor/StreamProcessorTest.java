@@ -13,6 +13,8 @@
 
 package com.twitter.hbc.processor;
 
+import com.google.common.base.Charsets;
+import com.twitter.hbc.core.processor.ByteArrayDelimitedProcessor;
 import com.twitter.hbc.core.processor.HosebirdMessageProcessor;
 import com.twitter.hbc.core.processor.LineStringProcessor;
 import com.twitter.hbc.core.processor.StringDelimitedProcessor;
@@ -55,6 +57,33 @@ public class StreamProcessorTest {
     assertEquals(messages.length, count);
   }
 
+  @Test
+  public void testByteArrayDelimitedStreamProcessing() throws Exception {
+    SimpleStreamProvider simpleStream = new SimpleStreamProvider(messages, true, true);
+
+    BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(10);
+    HosebirdMessageProcessor processor = new ByteArrayDelimitedProcessor(queue);
+
+    int count = 0;
+    try {
+      processor.setup(simpleStream.createInputStream());
+      // read until we hit the IOException
+      while (count < messages.length * 2) {
+        processor.process();
+        byte[] msg = queue.take();
+        // the delimited length covers the message and its trailing CRLF
+        assertEquals(messages[count].length() + 2, msg.length);
+        assertEquals(messages[count], new String(msg, Charsets.UTF_8).trim());
+        count++;
+      }
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    assertEquals(messages.length, count);
+  }
+
   @Test
   public void testSimpleStreamProcessing() throws Exception {
     SimpleStreamProvider simpleStream = new SimpleStreamProvider(messages, false, false);
@@ -109,4 +138,35 @@ public class StreamProcessorTest {
     }
     assertEquals(messages.length, count);
   }
+
+  /**
+   * After a swap, the messages the previous stream delivered during the overlap are dropped from the new one
+   */
+  @Test
+  public void testSwapDropsOverlappingMessages() throws Exception {
+    String[] previous = new String[] {"{\"id\":1}", "{\"id\":2}", "{\"id\":3}", "{\"id\":4}", "{\"id\":5}"};
+    String[] next = new String[] {"{\"id\":3}", "{\"id\":4}", "{\"id\":5}", "{\"delete\":{\"status\":{\"id\":9}}}",
+      "{\"id\":6}", "{\"id\":7}"};
+    BlockingQueue<String> queue = new ArrayBlockingQueue<String>(20);
+    StringDelimitedProcessor processor = new StringDelimitedProcessor(queue);
+
+    processor.setup(new SimpleStreamProvider(previous, true, false).createInputStream());
+    processor.process();
+    processor.process();
+    processor.beginOverlap();
+    processor.process();
+    processor.process();
+    processor.process();
+    processor.swap(new SimpleStreamProvider(next, true, false).createInputStream(), 60000);
+    for (int i = 0; i < 3; i++) {
+      processor.process();
+    }
+
+    String[] expected = new String[] {"{\"id\":1}", "{\"id\":2}", "{\"id\":3}", "{\"id\":4}", "{\"id\":5}",
+      "{\"delete\":{\"status\":{\"id\":9}}}", "{\"id\":6}", "{\"id\":7}"};
+    assertEquals(expected.length, queue.size());
+    for (String message : expected) {
+      assertEquals(message, queue.take().trim());
+    }
+  }
 }
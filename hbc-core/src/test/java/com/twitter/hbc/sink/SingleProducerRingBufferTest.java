@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.sink;
+
+import com.twitter.hbc.core.sink.SingleProducerRingBuffer;
+import com.twitter.hbc.core.sink.WaitStrategy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class SingleProducerRingBufferTest {
+
+  @Test
+  public void testCapacityRoundedUpToPowerOfTwo() {
+    assertEquals(8, new SingleProducerRingBuffer<String>(5).capacity());
+    assertEquals(16, new SingleProducerRingBuffer<String>(16).capacity());
+  }
+
+  @Test
+  public void testOfferAndPollInOrder() throws Exception {
+    SingleProducerRingBuffer<String> buffer = new SingleProducerRingBuffer<String>(4);
+    assertTrue(buffer.isEmpty());
+    assertNull(buffer.poll());
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(buffer.offer("message" + i));
+    }
+    assertEquals(4, buffer.size());
+    // full
+    assertFalse(buffer.offer("overflow"));
+    assertFalse(buffer.offer("overflow", 1, TimeUnit.MILLISECONDS));
+
+    assertEquals("message0", buffer.poll());
+    assertTrue(buffer.offer("message4", 1, TimeUnit.MILLISECONDS));
+
+    List<String> drained = new ArrayList<String>();
+    assertEquals(4, buffer.drainTo(drained, 10));
+    for (int i = 0; i < 4; i++) {
+      assertEquals("message" + (i + 1), drained.get(i));
+    }
+    assertTrue(buffer.isEmpty());
+    assertNull(buffer.poll(1, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testOneProducerManyConsumers() throws Exception {
+    final int numMessages = 100000;
+    final int numConsumers = 3;
+    final SingleProducerRingBuffer<Integer> buffer =
+      new SingleProducerRingBuffer<Integer>(1024, WaitStrategy.YIELDING, WaitStrategy.PARKING);
+    final AtomicIntegerArray seen = new AtomicIntegerArray(numMessages);
+    final CountDownLatch done = new CountDownLatch(numMessages);
+
+    List<Thread> consumers = new ArrayList<Thread>();
+    for (int i = 0; i < numConsumers; i++) {
+      Thread consumer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              Integer msg = buffer.take();
+              seen.incrementAndGet(msg);
+              done.countDown();
+            }
+          } catch (InterruptedException e) {
+            // finished
+          }
+        }
+      });
+      consumer.setDaemon(true);
+      consumer.start();
+      consumers.add(consumer);
+    }
+
+    for (int i = 0; i < numMessages; i++) {
+      assertTrue(buffer.offer(i, 10, TimeUnit.SECONDS));
+    }
+
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    for (Thread consumer : consumers) {
+      consumer.interrupt();
+    }
+    for (int i = 0; i < numMessages; i++) {
+      assertEquals(1, seen.get(i));
+    }
+    assertTrue(buffer.isEmpty());
+  }
+}
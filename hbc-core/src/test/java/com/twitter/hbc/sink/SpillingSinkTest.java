@@ -0,0 +1,181 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.sink;
+
+import com.google.common.io.Files;
+import com.twitter.hbc.core.StatsReporter;
+import com.twitter.hbc.core.processor.StringDelimitedProcessor;
+import com.twitter.hbc.core.sink.BlockingQueueSink;
+import com.twitter.hbc.core.sink.SpillingSink;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SpillingSinkTest {
+
+  private File directory;
+
+  @Before
+  public void setup() {
+    directory = Files.createTempDir();
+  }
+
+  @After
+  public void teardown() throws IOException {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  private static int numSegments(File directory) {
+    return directory.list().length - 1;
+  }
+
+  private static void assertTakes(BlockingQueue<String> queue, int from, int to) throws InterruptedException {
+    for (int i = from; i < to; i++) {
+      assertEquals("message" + i, queue.poll(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testPassesThroughWhenThereIsRoom() throws Exception {
+    BlockingQueue<String> queue = new ArrayBlockingQueue<String>(10);
+    SpillingSink<String> sink = new SpillingSink<String>(new BlockingQueueSink<String>(queue), SpillingSink.STRINGS,
+      directory);
+    assertTrue(sink.offer("message0", 0, TimeUnit.MILLISECONDS));
+    assertEquals("message0", queue.poll());
+    assertEquals(0, sink.getNumSpilled());
+    assertEquals(0, numSegments(directory));
+    sink.close();
+  }
+
+  @Test
+  public void testSpillsAndDrainsInOrder() throws Exception {
+    BlockingQueue<String> queue = new ArrayBlockingQueue<String>(2);
+    SpillingSink<String> sink = new SpillingSink<String>(new BlockingQueueSink<String>(queue), SpillingSink.STRINGS,
+      directory, 128, 1000);
+    for (int i = 0; i < 200; i++) {
+      assertTrue(sink.offer("message" + i, 0, TimeUnit.MILLISECONDS));
+    }
+    assertTrue(sink.getNumSpilled() >= 198);
+    assertTrue(numSegments(directory) > 1);
+
+    assertTakes(queue, 0, 200);
+    // a message is marked read just after it's handed over
+    long deadline = System.currentTimeMillis() + 5000;
+    while (sink.getSpillDepth() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(0, sink.getSpillDepth());
+    assertEquals(0, sink.getSpillBytes());
+    // read segments are deleted, and new messages go straight through again
+    assertEquals(1, numSegments(directory));
+    long spilled = sink.getNumSpilled();
+    assertTrue(sink.offer("message200", 0, TimeUnit.MILLISECONDS));
+    assertTakes(queue, 200, 201);
+    assertEquals(spilled, sink.getNumSpilled());
+    sink.close();
+  }
+
+  @Test
+  public void testResumesSpillAfterRestart() throws Exception {
+    BlockingQueue<String> full = new ArrayBlockingQueue<String>(1);
+    full.add("filler");
+    SpillingSink<String> sink = new SpillingSink<String>(new BlockingQueueSink<String>(full), SpillingSink.STRINGS,
+      directory, 128, 1000);
+    for (int i = 0; i < 50; i++) {
+      assertTrue(sink.offer("message" + i, 0, TimeUnit.MILLISECONDS));
+    }
+    assertEquals(50, sink.getSpillDepth());
+    sink.close();
+    assertFalse(sink.offer("dropped", 0, TimeUnit.MILLISECONDS));
+
+    BlockingQueue<String> queue = new ArrayBlockingQueue<String>(100);
+    SpillingSink<String> reopened = new SpillingSink<String>(new BlockingQueueSink<String>(queue),
+      SpillingSink.STRINGS, directory, 128, 1000);
+    assertTakes(queue, 0, 50);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (reopened.getSpillDepth() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    reopened.close();
+
+    // nothing is handed over twice
+    queue.clear();
+    SpillingSink<String> again = new SpillingSink<String>(new BlockingQueueSink<String>(queue), SpillingSink.STRINGS,
+      directory, 128, 1000);
+    assertEquals(0, again.getSpillDepth());
+    assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+    again.close();
+  }
+
+  @Test
+  public void testDropsWhenSpillIsFull() throws Exception {
+    BlockingQueue<String> full = new ArrayBlockingQueue<String>(1);
+    full.add("filler");
+    SpillingSink<String> sink = new SpillingSink<String>(new BlockingQueueSink<String>(full), SpillingSink.STRINGS,
+      directory, 64, 2);
+    int accepted = 0;
+    for (int i = 0; i < 100; i++) {
+      if (sink.offer("message" + i, 0, TimeUnit.MILLISECONDS)) {
+        accepted++;
+      }
+    }
+    // 12 bytes a message: 5 fit in each segment
+    assertEquals(10, accepted);
+    assertEquals(90, sink.getNumDropped());
+    sink.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void testDirectoryInUse() throws Exception {
+    BlockingQueue<String> queue = new ArrayBlockingQueue<String>(1);
+    SpillingSink<String> sink = new SpillingSink<String>(new BlockingQueueSink<String>(queue), SpillingSink.STRINGS,
+      directory);
+    try {
+      new SpillingSink<String>(new BlockingQueueSink<String>(queue), SpillingSink.STRINGS, directory);
+    } finally {
+      sink.close();
+    }
+  }
+
+  @Test
+  public void testReportsSpillInStats() throws Exception {
+    BlockingQueue<String> full = new ArrayBlockingQueue<String>(1);
+    full.add("filler");
+    SpillingSink<String> sink = new SpillingSink<String>(new BlockingQueueSink<String>(full), SpillingSink.STRINGS,
+      directory);
+    StatsReporter statsReporter = new StatsReporter();
+    statsReporter.trackSpillOf(StringDelimitedProcessor.forSink(sink));
+    assertTrue(sink.offer("message0", 0, TimeUnit.MILLISECONDS));
+    assertTrue(sink.offer("message1", 0, TimeUnit.MILLISECONDS));
+
+    assertEquals(2, statsReporter.getStatsTracker().getSpillDepth());
+    assertEquals(16, statsReporter.getStatsTracker().getSpillBytes());
+    assertEquals(0, new StatsReporter().getStatsTracker().getSpillDepth());
+    sink.close();
+  }
+}
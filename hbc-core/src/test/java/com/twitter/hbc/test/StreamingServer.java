@@ -0,0 +1,446 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A streaming server on a local socket, for driving real clients end to end. It speaks HTTP/1.1 with chunked
+ * responses, streams length-delimited messages (gzipped if the script asks for it and the client accepts it), and
+ * can misbehave the way the real streaming API does: stalls, disconnect messages, error responses, and messages
+ * dripped a few bytes at a time.
+ *
+ * Each connection plays the next enqueued {@link Script}, or the default script once there are none left. Messages
+ * are numbered in order across connections, as {"id":n,...}, except on a {@link Script#timeline(double)}.
+ */
+public class StreamingServer implements Closeable {
+
+  /**
+   * What the server does on a connection
+   */
+  public static class Script {
+    private int status = 200;
+    private boolean gzip;
+    private long messages = Long.MAX_VALUE;
+    private int messageSize = 200;
+    private double messagesPerSecond;
+    private double timelineRate;
+    private int dripChunkSize;
+    private long dripPauseMillis;
+    private long stallAfter = -1;
+    private long stallMillis;
+    private boolean disconnectMessage;
+
+    public static Script stream() {
+      return new Script();
+    }
+
+    /**
+     * Answers with the given error status, e.g. 420 or 503, and closes the connection
+     */
+    public static Script error(int status) {
+      Script script = new Script();
+      script.status = status;
+      return script;
+    }
+
+    public Script gzip() {
+      this.gzip = true;
+      return this;
+    }
+
+    /**
+     * Closes the connection after the given number of messages
+     */
+    public Script messages(long messages) {
+      this.messages = messages;
+      return this;
+    }
+
+    /**
+     * @param messageSize approximate size of each message, in bytes
+     */
+    public Script messageSize(int messageSize) {
+      this.messageSize = messageSize;
+      return this;
+    }
+
+    /**
+     * Caps the throughput. Unlimited by default
+     */
+    public Script messagesPerSecond(double messagesPerSecond) {
+      this.messagesPerSecond = messagesPerSecond;
+      return this;
+    }
+
+    /**
+     * Streams a timeline shared by every connection: message n is posted at n / messagesPerSecond seconds after the
+     * server started, and each connection sends the messages posted from the time it opened. So connections that
+     * overlap send the same messages, with the same ids.
+     */
+    public Script timeline(double messagesPerSecond) {
+      Preconditions.checkArgument(messagesPerSecond > 0);
+      this.timelineRate = messagesPerSecond;
+      return this;
+    }
+
+    /**
+     * Writes each message chunkSize bytes at a time, flushing and pausing after each chunk
+     */
+    public Script drip(int chunkSize, long pauseMillis) {
+      this.dripChunkSize = chunkSize;
+      this.dripPauseMillis = pauseMillis;
+      return this;
+    }
+
+    /**
+     * Stops sending anything, keep-alives included, for the given time after the given number of messages
+     */
+    public Script stall(long afterMessages, long millis) {
+      this.stallAfter = afterMessages;
+      this.stallMillis = millis;
+      return this;
+    }
+
+    /**
+     * Sends a disconnect message once the messages are sent, before closing the connection
+     */
+    public Script disconnectMessage() {
+      this.disconnectMessage = true;
+      return this;
+    }
+  }
+
+  private static final byte[] CRLF = "\r\n".getBytes(Charsets.UTF_8);
+
+  private final ServerSocket serverSocket;
+  private final Script defaultScript;
+  private final Queue<Script> scripts;
+  private final List<Socket> sockets;
+  private final AtomicLong nextId;
+  private final AtomicInteger connections;
+  private final AtomicLong lastDisconnectNanos;
+  private final List<Long> reconnectNanos;
+  private final long startNanos;
+
+  public StreamingServer(Script defaultScript) throws IOException {
+    this.defaultScript = Preconditions.checkNotNull(defaultScript);
+    this.scripts = new ConcurrentLinkedQueue<Script>();
+    this.sockets = Collections.synchronizedList(new ArrayList<Socket>());
+    this.nextId = new AtomicLong();
+    this.connections = new AtomicInteger();
+    this.lastDisconnectNanos = new AtomicLong();
+    this.reconnectNanos = Collections.synchronizedList(new ArrayList<Long>());
+    this.startNanos = System.nanoTime();
+    this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "streaming-server-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Plays the given scripts on the next connections, in order
+   */
+  public void enqueue(Script... scripts) {
+    Collections.addAll(this.scripts, scripts);
+  }
+
+  public String getHost() {
+    return "http://localhost:" + serverSocket.getLocalPort();
+  }
+
+  public int getConnections() {
+    return connections.get();
+  }
+
+  /**
+   * @return the number of messages sent so far
+   */
+  public long getMessagesSent() {
+    return nextId.get();
+  }
+
+  /**
+   * @return for each reconnect, the nanos between the server ending the previous connection and accepting the next
+   */
+  public List<Long> getReconnectNanos() {
+    synchronized (reconnectNanos) {
+      return new ArrayList<Long>(reconnectNanos);
+    }
+  }
+
+  public boolean awaitConnections(int count, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (connections.get() < count) {
+      if (System.nanoTime() > deadline) {
+        return false;
+      }
+      Thread.sleep(5);
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    synchronized (sockets) {
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+    }
+  }
+
+  private void accept() {
+    try {
+      while (true) {
+        final Socket socket = serverSocket.accept();
+        long disconnected = lastDisconnectNanos.getAndSet(0);
+        if (disconnected > 0) {
+          reconnectNanos.add(System.nanoTime() - disconnected);
+        }
+        connections.incrementAndGet();
+        sockets.add(socket);
+        Script next = scripts.poll();
+        final Script script = next != null ? next : defaultScript;
+        Thread handler = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              serve(socket, script);
+            } catch (IOException e) {
+              // the client went away
+            } catch (InterruptedException e) {
+              // closing
+            } finally {
+              lastDisconnectNanos.set(System.nanoTime());
+              sockets.remove(socket);
+              try {
+                socket.close();
+              } catch (IOException e) {
+                // closing anyway
+              }
+            }
+          }
+        }, "streaming-server-connection");
+        handler.setDaemon(true);
+        handler.start();
+      }
+    } catch (IOException e) {
+      // closed
+    }
+  }
+
+  private void serve(Socket socket, Script script) throws IOException, InterruptedException {
+    socket.setTcpNoDelay(true);
+    boolean acceptsGzip = readRequest(new BufferedInputStream(socket.getInputStream()));
+    OutputStream socketOut = new BufferedOutputStream(socket.getOutputStream(), 65536);
+
+    if (script.status != 200) {
+      byte[] body = ("{\"errors\":[{\"message\":\"status " + script.status + "\"}]}").getBytes(Charsets.UTF_8);
+      socketOut.write(("HTTP/1.1 " + script.status + " Error\r\nContent-Type: application/json\r\nContent-Length: " +
+        body.length + "\r\nConnection: close\r\n\r\n").getBytes(Charsets.UTF_8));
+      socketOut.write(body);
+      socketOut.flush();
+      return;
+    }
+
+    boolean gzip = script.gzip && acceptsGzip;
+    socketOut.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\n" +
+      (gzip ? "Content-Encoding: gzip\r\n" : "") + "\r\n").getBytes(Charsets.UTF_8));
+    ChunkedOutputStream chunked = new ChunkedOutputStream(socketOut);
+    OutputStream body = gzip ? new SyncFlushingGzipStream(chunked) : chunked;
+    OutputStream out = new BufferedOutputStream(body, 8192);
+
+    long start = System.nanoTime();
+    long firstTimelineId = (long) Math.ceil((start - startNanos) * script.timelineRate / 1e9);
+    for (long sent = 0; sent < script.messages; sent++) {
+      if (sent == script.stallAfter) {
+        out.flush();
+        Thread.sleep(script.stallMillis);
+      }
+      if (script.messagesPerSecond > 0) {
+        long dueNanos = start + (long) (sent * 1e9 / script.messagesPerSecond) - System.nanoTime();
+        if (dueNanos > 0) {
+          out.flush();
+          TimeUnit.NANOSECONDS.sleep(dueNanos);
+        }
+      }
+      long id;
+      if (script.timelineRate > 0) {
+        id = firstTimelineId + sent;
+        long dueNanos = startNanos + (long) (id * 1e9 / script.timelineRate) - System.nanoTime();
+        if (dueNanos > 0) {
+          out.flush();
+          TimeUnit.NANOSECONDS.sleep(dueNanos);
+        }
+      } else {
+        id = nextId.getAndIncrement();
+      }
+      byte[] message = delimited(message(id, script.messageSize));
+      if (script.dripChunkSize > 0) {
+        for (int offset = 0; offset < message.length; offset += script.dripChunkSize) {
+          out.write(message, offset, Math.min(script.dripChunkSize, message.length - offset));
+          out.flush();
+          Thread.sleep(script.dripPauseMillis);
+        }
+      } else {
+        out.write(message);
+      }
+    }
+    if (script.disconnectMessage) {
+      out.write(delimited("{\"disconnect\":{\"code\":7,\"stream_name\":\"test\",\"reason\":\"Admin logout\"}}"));
+    }
+    out.close();
+  }
+
+  /**
+   * Reads the request up to its end
+   * @return whether the client accepts gzip
+   */
+  private static boolean readRequest(InputStream in) throws IOException {
+    boolean acceptsGzip = false;
+    int contentLength = 0;
+    String line;
+    while ((line = readLine(in)) != null && !line.isEmpty()) {
+      String lower = line.toLowerCase();
+      if (lower.startsWith("accept-encoding:") && lower.contains("gzip")) {
+        acceptsGzip = true;
+      } else if (lower.startsWith("content-length:")) {
+        contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+      }
+    }
+    for (int i = 0; i < contentLength && in.read() >= 0; i++) {
+      // skip the body
+    }
+    return acceptsGzip;
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int b;
+    while ((b = in.read()) >= 0 && b != '\n') {
+      if (b != '\r') {
+        line.append((char) b);
+      }
+    }
+    return b < 0 && line.length() == 0 ? null : line.toString();
+  }
+
+  private static String message(long id, int size) {
+    StringBuilder message = new StringBuilder(size);
+    message.append("{\"id\":").append(id).append(",\"id_str\":\"").append(id).append("\",\"text\":\"");
+    while (message.length() < size - 2) {
+      message.append('x');
+    }
+    return message.append("\"}").toString();
+  }
+
+  private static byte[] delimited(String message) {
+    byte[] bytes = message.getBytes(Charsets.UTF_8);
+    byte[] length = Integer.toString(bytes.length + CRLF.length).getBytes(Charsets.UTF_8);
+    byte[] delimited = new byte[length.length + CRLF.length + bytes.length + CRLF.length];
+    System.arraycopy(length, 0, delimited, 0, length.length);
+    System.arraycopy(CRLF, 0, delimited, length.length, CRLF.length);
+    System.arraycopy(bytes, 0, delimited, length.length + CRLF.length, bytes.length);
+    System.arraycopy(CRLF, 0, delimited, delimited.length - CRLF.length, CRLF.length);
+    return delimited;
+  }
+
+  /**
+   * Writes each write as one http chunk, and the last chunk on close
+   */
+  private static class ChunkedOutputStream extends FilterOutputStream {
+    ChunkedOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      out.write(Integer.toHexString(len).getBytes(Charsets.UTF_8));
+      out.write(CRLF);
+      out.write(b, off, len);
+      out.write(CRLF);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.write('0');
+      out.write(CRLF);
+      out.write(CRLF);
+      out.flush();
+    }
+  }
+
+  /**
+   * A gzip stream that hands over everything written so far on flush, like a streaming server does
+   */
+  private static class SyncFlushingGzipStream extends GZIPOutputStream {
+    SyncFlushingGzipStream(OutputStream out) throws IOException {
+      super(out, 8192);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      // there is no sync flush before java 7, but changing the level makes the deflater hand over what it holds
+      def.setLevel(Deflater.NO_COMPRESSION);
+      drain();
+      def.setLevel(Deflater.DEFAULT_COMPRESSION);
+      drain();
+      out.flush();
+    }
+
+    private void drain() throws IOException {
+      int length;
+      do {
+        length = def.deflate(buf, 0, buf.length);
+        out.write(buf, 0, length);
+      } while (length == buf.length);
+    }
+  }
+}
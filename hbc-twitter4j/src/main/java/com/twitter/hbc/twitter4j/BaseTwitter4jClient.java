@@ -15,17 +15,25 @@ package com.twitter.hbc.twitter4j;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.twitter.hbc.StallDetector;
 import com.twitter.hbc.core.Client;
 import com.twitter.hbc.core.StatsReporter;
 import com.twitter.hbc.core.endpoint.StreamingEndpoint;
+import com.twitter.hbc.twitter4j.dispatch.KeyedDispatcher;
 import com.twitter.hbc.twitter4j.message.DisconnectMessage;
 import com.twitter.hbc.twitter4j.message.StallWarningMessage;
 import com.twitter.hbc.twitter4j.parser.JSONObjectParser;
+import com.twitter.hbc.twitter4j.parser.JSONObjectTypeScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import twitter4j.*;
 import twitter4j.conf.ConfigurationBuilder;
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 
@@ -38,12 +46,27 @@ class BaseTwitter4jClient implements Twitter4jClient {
   protected final Client client;
   private final BlockingQueue<String> messageQueue;
   private final ExecutorService executorService;
+  private final boolean ownsExecutor;
   private final PublicObjectFactory factory;
+  private volatile Set<JSONObjectType.Type> ignoredTypes = ImmutableSet.of();
+  @Nullable
+  private volatile StallDetector stallDetector;
 
   protected BaseTwitter4jClient(Client client, BlockingQueue<String> blockingQueue, ExecutorService executorService) {
+    this(client, blockingQueue, executorService, true);
+  }
+
+  /**
+   * @param ownsExecutor whether stopping the client should shut down the executor. Pass false when the executor is
+   *                     shared, e.g. a {@link com.twitter.hbc.common.VirtualThreads#newThreadPerTaskExecutor(String)}
+   *                     executor shared by many clients.
+   */
+  protected BaseTwitter4jClient(Client client, BlockingQueue<String> blockingQueue, ExecutorService executorService,
+                                boolean ownsExecutor) {
     this.client = Preconditions.checkNotNull(client);
     this.messageQueue = Preconditions.checkNotNull(blockingQueue);
     this.executorService = Preconditions.checkNotNull(executorService);
+    this.ownsExecutor = ownsExecutor;
     this.factory = new PublicObjectFactory(new ConfigurationBuilder().build());
   }
 
@@ -89,18 +112,83 @@ class BaseTwitter4jClient implements Twitter4jClient {
   }
 
   /**
-   * Stops the client, and shuts down the executor service
+   * Like {@link #process()}, but only reads messages off the queue with the executor provided: parsing and the
+   * listener calls are handed to the dispatcher, which runs them in parallel while keeping the messages in order
+   * per key. The listeners must be threadsafe.
+   */
+  public void process(final KeyedDispatcher dispatcher) {
+    Preconditions.checkNotNull(dispatcher);
+    if (client.isDone() || executorService.isTerminated()) {
+      throw new IllegalStateException("Client is already stopped");
+    }
+    Runnable reader = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (!client.isDone()) {
+            final String msg = messageQueue.take();
+            dispatcher.execute(msg, new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  parseMessage(msg);
+                } catch (Exception e) {
+                  logger.warn("Exception thrown during parsing msg " + msg, e);
+                  onException(e);
+                }
+              }
+            });
+          }
+        } catch (Exception e) {
+          onException(e);
+        }
+      }
+    };
+
+    executorService.execute(reader);
+  }
+
+  /**
+   * Stops the client, and shuts down the executor service if the client owns it
    */
   @Override
   public void stop() {
     client.stop();
-    executorService.shutdown();
+    shutdownExecutor();
   }
 
   @Override
   public void stop(int millis) {
     client.stop(millis);
-    executorService.shutdown();
+    shutdownExecutor();
+  }
+
+  private void shutdownExecutor() {
+    if (ownsExecutor) {
+      executorService.shutdown();
+    }
+  }
+
+  /**
+   * Drops messages of the given types without parsing them into the twitter4j model, replacing any types ignored
+   * before. The type is found with a single scan over the message's top level keys, so e.g. a firehose consumer that
+   * has no use for deletion notices pays next to nothing for them by ignoring DELETE.
+   *
+   * UNKNOWN can't be ignored, since it also covers retweets and control messages. Note that a malformed message of
+   * an ignored type may be dropped without an {@link #onException(Exception)}.
+   */
+  public void ignoreMessageTypes(JSONObjectType.Type... types) {
+    Preconditions.checkArgument(!Arrays.asList(types).contains(JSONObjectType.Type.UNKNOWN),
+      "UNKNOWN messages can't be ignored");
+    this.ignoredTypes = Sets.immutableEnumSet(Arrays.asList(types));
+  }
+
+  /**
+   * Passes the percent_full of each stall warning to the client's {@link StallDetector}, so that the client reconnects
+   * once the server-side queue is full enough, before the handlers see the warning.
+   */
+  public void forwardStallWarnings(StallDetector stallDetector) {
+    this.stallDetector = Preconditions.checkNotNull(stallDetector);
   }
 
   @Override
@@ -124,11 +212,26 @@ class BaseTwitter4jClient implements Twitter4jClient {
   }
 
   protected void parseMessage(String msg) throws JSONException, TwitterException, IOException {
+    Set<JSONObjectType.Type> ignored = ignoredTypes;
+    if (!ignored.isEmpty()) {
+      JSONObjectType.Type type = JSONObjectTypeScanner.determine(msg, hasSitestreamEnvelope());
+      if (type != null && ignored.contains(type)) {
+        return;
+      }
+    }
     JSONObject json = new JSONObject(msg);
     long sitestreamUser = getSitestreamUser(json);
     processMessage(sitestreamUser, preprocessMessage(json));
   }
 
+  /**
+   * @return whether messages may be wrapped in a sitestreams envelope, which {@link #preprocessMessage(JSONObject)}
+   * removes
+   */
+  protected boolean hasSitestreamEnvelope() {
+    return false;
+  }
+
   /**
    * @return the user id of the message if its for a sitestreams connection. -1 otherwise
    */
@@ -254,6 +357,11 @@ class BaseTwitter4jClient implements Twitter4jClient {
     String message = ((String) warning.opt("message"));
     int percentFull = warning.getInt("percent_full");
 
+    StallDetector detector = stallDetector;
+    if (detector != null) {
+      detector.onStallWarning(percentFull);
+    }
+
     onStallWarning(new StallWarningMessage(code, message, percentFull));
   }
 
@@ -15,6 +15,7 @@ package com.twitter.hbc.twitter4j;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.twitter.hbc.SitestreamPool;
 import com.twitter.hbc.core.Client;
 import com.twitter.hbc.twitter4j.handler.SitestreamHandler;
 import com.twitter.hbc.twitter4j.message.DisconnectMessage;
@@ -28,18 +29,31 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 
-public class Twitter4jSitestreamClient extends BaseTwitter4jClient {
+public class Twitter4jSitestreamClient extends BaseTwitter4jClient implements SitestreamPool.Connection {
 
   private final List<SiteStreamsListener> sitestreamListeners;
   private final AtomicReference<String> streamId;
 
   public Twitter4jSitestreamClient(Client client, BlockingQueue<String> blockingQueue, List<SiteStreamsListener> listeners, ExecutorService executorService) {
-    super(client, blockingQueue, executorService);
+    this(client, blockingQueue, listeners, executorService, true);
+  }
+
+  /**
+   * @param ownsExecutor whether stopping the client should shut down the executor
+   */
+  public Twitter4jSitestreamClient(Client client, BlockingQueue<String> blockingQueue, List<SiteStreamsListener> listeners, ExecutorService executorService,
+                                   boolean ownsExecutor) {
+    super(client, blockingQueue, executorService, ownsExecutor);
     Preconditions.checkNotNull(listeners);
     this.sitestreamListeners = ImmutableList.copyOf(listeners);
     this.streamId = new AtomicReference<String>();
   }
 
+  @Override
+  protected boolean hasSitestreamEnvelope() {
+    return true;
+  }
+
   @Override
   protected long getSitestreamUser(JSONObject json) throws JSONException {
     try {
@@ -36,7 +36,15 @@ public class Twitter4jStatusClient extends BaseTwitter4jClient {
   private final List<? extends StatusListener> statusListeners;
 
   public Twitter4jStatusClient(Client client, BlockingQueue<String> blockingQueue, List<? extends StatusListener> listeners, ExecutorService executorService) {
-    super(client, blockingQueue, executorService);
+    this(client, blockingQueue, listeners, executorService, true);
+  }
+
+  /**
+   * @param ownsExecutor whether stopping the client should shut down the executor
+   */
+  public Twitter4jStatusClient(Client client, BlockingQueue<String> blockingQueue, List<? extends StatusListener> listeners, ExecutorService executorService,
+                               boolean ownsExecutor) {
+    super(client, blockingQueue, executorService, ownsExecutor);
     Preconditions.checkNotNull(listeners);
     this.statusListeners = ImmutableList.copyOf(listeners);
   }
@@ -31,7 +31,15 @@ public class Twitter4jUserstreamClient extends BaseTwitter4jClient {
   private final List<UserStreamListener> userstreamListeners;
 
   public Twitter4jUserstreamClient(Client client, BlockingQueue<String> blockingQueue, List<UserStreamListener> listeners, ExecutorService executorService) {
-    super(client, blockingQueue, executorService);
+    this(client, blockingQueue, listeners, executorService, true);
+  }
+
+  /**
+   * @param ownsExecutor whether stopping the client should shut down the executor
+   */
+  public Twitter4jUserstreamClient(Client client, BlockingQueue<String> blockingQueue, List<UserStreamListener> listeners, ExecutorService executorService,
+                                   boolean ownsExecutor) {
+    super(client, blockingQueue, executorService, ownsExecutor);
     Preconditions.checkNotNull(listeners);
     this.userstreamListeners = ImmutableList.copyOf(listeners);
   }
@@ -0,0 +1,23 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j.dispatch;
+
+/**
+ * Picks the key a message is ordered by in a {@link KeyedDispatcher}: messages with the same key are delivered in
+ * the order they were read off the stream. Called once per message on the thread reading the stream, so it should
+ * be cheap, e.g. a {@link com.twitter.hbc.twitter4j.parser.JSONPathScanner} lookup rather than a full parse.
+ */
+public interface DispatchKey {
+  long keyOf(String message);
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j.dispatch;
+
+import com.twitter.hbc.twitter4j.parser.JSONPathScanner;
+
+/**
+ * Common {@link DispatchKey}s. Messages without the key (limit notices, control messages, etc) all get
+ * {@link #NO_KEY}, and so are ordered with respect to each other.
+ */
+public final class DispatchKeys {
+
+  public static final long NO_KEY = 0;
+
+  private static final String[] FOR_USER_PATH = { "for_user" };
+
+  private static final String[][] USER_ID_PATHS = {
+    { "user", "id" },
+    { "delete", "status", "user_id" },
+    { "source", "id" },
+    { "direct_message", "sender_id" },
+    { "scrub_geo", "user_id" }
+  };
+
+  private static final String[][] STATUS_ID_PATHS = {
+    { "delete", "status", "id" },
+    { "id" },
+    { "target_object", "id" }
+  };
+
+  private DispatchKeys() {}
+
+  /**
+   * The sitestreams for_user, so each user's messages are delivered in order
+   */
+  public static final DispatchKey FOR_USER = new DispatchKey() {
+    @Override
+    public long keyOf(String message) {
+      return JSONPathScanner.findLong(message, NO_KEY, FOR_USER_PATH);
+    }
+  };
+
+  /**
+   * The user a message is about: a status' author, the user whose status was deleted, an event's source or a
+   * direct message's sender. A deletion notice is then delivered after the status it deletes.
+   */
+  public static final DispatchKey USER_ID = new DispatchKey() {
+    @Override
+    public long keyOf(String message) {
+      return firstOf(message, USER_ID_PATHS);
+    }
+  };
+
+  /**
+   * The status a message is about: a status' id, a deleted status' id or the target of an event like a favorite.
+   * This spreads the stream more evenly than {@link #USER_ID}, but only orders a status with its own deletion and
+   * events.
+   */
+  public static final DispatchKey STATUS_ID = new DispatchKey() {
+    @Override
+    public long keyOf(String message) {
+      return firstOf(message, STATUS_ID_PATHS);
+    }
+  };
+
+  private static long firstOf(String message, String[][] paths) {
+    for (String[] path : paths) {
+      long key = JSONPathScanner.findLong(message, Long.MIN_VALUE, path);
+      if (key != Long.MIN_VALUE) {
+        return key;
+      }
+    }
+    return NO_KEY;
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j.dispatch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes messages in parallel while keeping them in order per key. Each message goes to one of a fixed number of
+ * lanes, picked by its {@link DispatchKey}; a lane runs its messages one at a time, in the order they came in, on the
+ * executor's threads. Messages with the same key always share a lane, so they're parsed and delivered to the
+ * listeners in stream order, while a slow listener only holds up the messages in its lane.
+ *
+ * At most maxPending messages are queued across all lanes; past that {@link #execute(String, Runnable)} blocks, which
+ * leaves the backlog in the client's message queue, where it shows up in the client's stats.
+ *
+ * Threadsafe. The executor isn't shut down by the dispatcher, and may be shared.
+ */
+public class KeyedDispatcher {
+
+  private final static Logger logger = LoggerFactory.getLogger(KeyedDispatcher.class);
+
+  /**
+   * How many messages a lane processes before giving up its thread to the other lanes
+   */
+  private static final int BATCH_SIZE = 64;
+
+  private final Executor executor;
+  private final DispatchKey dispatchKey;
+  private final Lane[] lanes;
+  private final int maxPending;
+  private final Semaphore permits;
+  private final ConcurrentMap<String, ListenerStats> listenerStats;
+
+  /**
+   * @param executor runs the lanes. If it's also the client's executor, it needs a thread for the client's reader on
+   *                 top of the ones for the lanes.
+   * @param lanes how many messages may be processed at once; more lanes than threads evens out slow keys
+   */
+  public KeyedDispatcher(Executor executor, DispatchKey dispatchKey, int lanes, int maxPending) {
+    Preconditions.checkArgument(lanes > 0, "lanes must be positive");
+    Preconditions.checkArgument(maxPending > 0, "maxPending must be positive");
+    this.executor = Preconditions.checkNotNull(executor);
+    this.dispatchKey = Preconditions.checkNotNull(dispatchKey);
+    this.lanes = new Lane[lanes];
+    for (int i = 0; i < lanes; i++) {
+      this.lanes[i] = new Lane();
+    }
+    this.maxPending = maxPending;
+    this.permits = new Semaphore(maxPending);
+    this.listenerStats = Maps.newConcurrentMap();
+  }
+
+  /**
+   * Queues the task on the lane for the message's key, blocking while maxPending messages are queued already
+   */
+  public void execute(String message, Runnable task) throws InterruptedException {
+    Preconditions.checkNotNull(task);
+    Lane lane = lanes[laneOf(dispatchKey.keyOf(message))];
+    permits.acquire();
+    lane.add(task);
+  }
+
+  private int laneOf(long key) {
+    // spread out sequential keys, like user ids handed out in order
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) ((hash >>> 33) % lanes.length);
+  }
+
+  /**
+   * Wraps the listener so the time spent in each call is recorded under the given name, and reported in
+   * {@link #getListenerStats()}. The wrapper implements every interface of the listener (e.g. a
+   * {@link com.twitter.hbc.twitter4j.handler.StatusStreamHandler}), so it can be passed to a client in its place.
+   */
+  public <T> T timed(String name, Class<T> listenerInterface, final T listener) {
+    Preconditions.checkArgument(listenerInterface.isInterface(), "%s is not an interface", listenerInterface);
+    Preconditions.checkNotNull(listener);
+    final ListenerStats stats = new ListenerStats(name);
+    Preconditions.checkArgument(listenerStats.putIfAbsent(name, stats) == null, "%s is already timed", name);
+
+    Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+    interfaces.add(listenerInterface);
+    for (Class<?> c = listener.getClass(); c != null; c = c.getSuperclass()) {
+      for (Class<?> i : c.getInterfaces()) {
+        interfaces.add(i);
+      }
+    }
+    Object proxy = Proxy.newProxyInstance(listener.getClass().getClassLoader(),
+      interfaces.toArray(new Class<?>[interfaces.size()]),
+      new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          boolean timed = method.getDeclaringClass() != Object.class;
+          long start = timed ? System.nanoTime() : 0;
+          try {
+            return method.invoke(listener, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          } finally {
+            if (timed) {
+              stats.record(System.nanoTime() - start);
+            }
+          }
+        }
+      });
+    return listenerInterface.cast(proxy);
+  }
+
+  /**
+   * @return the stats of the listeners wrapped with {@link #timed(String, Class, Object)}, by name
+   */
+  public Map<String, ListenerStats> getListenerStats() {
+    return ImmutableMap.copyOf(listenerStats);
+  }
+
+  /**
+   * @return the number of messages queued or being processed, across all lanes
+   */
+  public int getQueueDepth() {
+    return maxPending - permits.availablePermits();
+  }
+
+  /**
+   * @return the number of messages queued or being processed in each lane
+   */
+  public int[] getLaneDepths() {
+    int[] depths = new int[lanes.length];
+    for (int i = 0; i < lanes.length; i++) {
+      depths[i] = lanes[i].depth.get();
+    }
+    return depths;
+  }
+
+  public int getNumLanes() {
+    return lanes.length;
+  }
+
+  private class Lane implements Runnable {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    // tasks queued or running; the lane is scheduled on the executor whenever this is non-zero
+    private final AtomicInteger depth = new AtomicInteger();
+
+    void add(Runnable task) {
+      tasks.add(task);
+      if (depth.getAndIncrement() == 0) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      int processed = 0;
+      int remaining;
+      do {
+        Runnable task = tasks.poll();
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          logger.warn("Exception thrown by a dispatched task", e);
+        } finally {
+          permits.release();
+        }
+        processed++;
+        remaining = depth.decrementAndGet();
+      } while (remaining > 0 && processed < BATCH_SIZE);
+
+      // the lane is still ours while remaining > 0, so requeue it behind the other lanes
+      if (remaining > 0) {
+        executor.execute(this);
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j.dispatch;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How long calls into a listener take. Threadsafe: a listener is called from every lane of a
+ * {@link KeyedDispatcher}.
+ */
+public class ListenerStats {
+
+  private final String name;
+  private final AtomicLong calls;
+  private final AtomicLong totalNanos;
+  private final AtomicLong maxNanos;
+
+  ListenerStats(String name) {
+    this.name = Preconditions.checkNotNull(name);
+    this.calls = new AtomicLong();
+    this.totalNanos = new AtomicLong();
+    this.maxNanos = new AtomicLong();
+  }
+
+  void record(long nanos) {
+    calls.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getCalls() {
+    return calls.get();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.get();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  public long getMeanNanos() {
+    long n = calls.get();
+    return n == 0 ? 0 : totalNanos.get() / n;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: %d calls, mean %dus, max %dus", name, getCalls(),
+      TimeUnit.NANOSECONDS.toMicros(getMeanNanos()), TimeUnit.NANOSECONDS.toMicros(getMaxNanos()));
+  }
+}
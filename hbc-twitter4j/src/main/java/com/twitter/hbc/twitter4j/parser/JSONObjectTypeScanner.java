@@ -0,0 +1,194 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j.parser;
+
+import twitter4j.JSONObjectType;
+
+import javax.annotation.Nullable;
+
+import static com.twitter.hbc.twitter4j.parser.JSONScanning.*;
+
+/**
+ * Determines a message's {@link JSONObjectType.Type} straight from its text, without building a JSONObject.
+ * It walks the top level keys, skipping over their values, and applies the same rules as
+ * {@link JSONObjectType#determine(twitter4j.JSONObject)}: a key counts when it's present and not null, checked in
+ * the order sender, text, direct_message, delete, limit, warning, scrub_geo, friends, event, disconnect.
+ *
+ * Nothing is allocated, so classifying a message costs a single pass over its characters.
+ */
+public final class JSONObjectTypeScanner {
+
+  private static final String[] KEYS = {
+    "sender", "text", "direct_message", "delete", "limit", "warning", "scrub_geo", "friends"
+  };
+  private static final JSONObjectType.Type[] KEY_TYPES = {
+    JSONObjectType.Type.SENDER,
+    JSONObjectType.Type.STATUS,
+    JSONObjectType.Type.DIRECT_MESSAGE,
+    JSONObjectType.Type.DELETE,
+    JSONObjectType.Type.LIMIT,
+    JSONObjectType.Type.STALL_WARNING,
+    JSONObjectType.Type.SCRUB_GEO,
+    JSONObjectType.Type.FRIENDS
+  };
+
+  private static final String[] EVENTS = {
+    "favorite", "unfavorite", "follow", "unfollow", "list_member_added", "list_member_removed",
+    "list_user_subscribed", "list_user_unsubscribed", "list_created", "list_updated", "list_destroyed",
+    "user_update", "block", "unblock"
+  };
+  private static final JSONObjectType.Type[] EVENT_TYPES = {
+    JSONObjectType.Type.FAVORITE,
+    JSONObjectType.Type.UNFAVORITE,
+    JSONObjectType.Type.FOLLOW,
+    JSONObjectType.Type.UNFOLLOW,
+    JSONObjectType.Type.USER_LIST_MEMBER_ADDED,
+    JSONObjectType.Type.USER_LIST_MEMBER_DELETED,
+    JSONObjectType.Type.USER_LIST_SUBSCRIBED,
+    JSONObjectType.Type.USER_LIST_UNSUBSCRIBED,
+    JSONObjectType.Type.USER_LIST_CREATED,
+    JSONObjectType.Type.USER_LIST_UPDATED,
+    JSONObjectType.Type.USER_LIST_DESTROYED,
+    JSONObjectType.Type.USER_UPDATE,
+    JSONObjectType.Type.BLOCK,
+    JSONObjectType.Type.UNBLOCK
+  };
+
+  private JSONObjectTypeScanner() {}
+
+  /**
+   * @return the type of the message, or null if it can't be told without fully parsing the message, e.g. because it
+   * is malformed or one of the keys we look at is escaped
+   */
+  @Nullable
+  public static JSONObjectType.Type determine(String json) {
+    return determine(json, false);
+  }
+
+  /**
+   * @param sitestreamEnvelope whether the message may be wrapped in a sitestreams envelope
+   *                           ({"for_user": ..., "message": {...}}), in which case the wrapped message is classified
+   * @return the type of the message, or null if it can't be told without fully parsing the message
+   */
+  @Nullable
+  public static JSONObjectType.Type determine(String json, boolean sitestreamEnvelope) {
+    return scanObject(json, 0, sitestreamEnvelope);
+  }
+
+  @Nullable
+  private static JSONObjectType.Type scanObject(String json, int start, boolean sitestreamEnvelope) {
+    int i = skipWhitespace(json, start);
+    if (i >= json.length() || json.charAt(i) != '{') {
+      return null;
+    }
+    i = skipWhitespace(json, i + 1);
+    if (i >= json.length()) {
+      return null;
+    }
+
+    int present = 0;
+    boolean hasEvent = false;
+    int eventStart = -1;
+    int eventEnd = -1;
+    boolean hasDisconnect = false;
+    int messageStart = -1;
+
+    if (json.charAt(i) == '}') {
+      return JSONObjectType.Type.UNKNOWN;
+    }
+    while (true) {
+      if (json.charAt(i) != '"') {
+        return null;
+      }
+      int keyStart = i + 1;
+      int keyEnd = stringEnd(json, i) - 1;
+      if (keyEnd < keyStart || hasEscape(json, keyStart, keyEnd)) {
+        return null;
+      }
+      i = skipWhitespace(json, keyEnd + 1);
+      if (i >= json.length() || json.charAt(i) != ':') {
+        return null;
+      }
+      int valueStart = skipWhitespace(json, i + 1);
+      int valueEnd = skipValue(json, valueStart);
+      if (valueEnd < 0) {
+        return null;
+      }
+      boolean isNull = valueEnd - valueStart == 4 && json.startsWith("null", valueStart);
+
+      if (sitestreamEnvelope && matches(json, keyStart, keyEnd, "message")) {
+        if (json.charAt(valueStart) != '{') {
+          return null;
+        }
+        messageStart = valueStart;
+      } else if (!isNull) {
+        if (matches(json, keyStart, keyEnd, "event")) {
+          // JSONObjectType reads the event as a string
+          if (json.charAt(valueStart) != '"' || hasEscape(json, valueStart + 1, valueEnd - 1)) {
+            return null;
+          }
+          hasEvent = true;
+          eventStart = valueStart + 1;
+          eventEnd = valueEnd - 1;
+        } else if (matches(json, keyStart, keyEnd, "disconnect")) {
+          hasDisconnect = true;
+        } else {
+          for (int k = 0; k < KEYS.length; k++) {
+            if (matches(json, keyStart, keyEnd, KEYS[k])) {
+              present |= 1 << k;
+              break;
+            }
+          }
+        }
+      }
+
+      i = skipWhitespace(json, valueEnd);
+      if (i >= json.length()) {
+        return null;
+      }
+      char c = json.charAt(i);
+      if (c == '}') {
+        break;
+      } else if (c != ',') {
+        return null;
+      }
+      i = skipWhitespace(json, i + 1);
+      if (i >= json.length()) {
+        return null;
+      }
+    }
+
+    if (messageStart >= 0) {
+      return scanObject(json, messageStart, false);
+    }
+    for (int k = 0; k < KEYS.length; k++) {
+      if ((present & (1 << k)) != 0) {
+        return KEY_TYPES[k];
+      }
+    }
+    if (hasEvent) {
+      for (int e = 0; e < EVENTS.length; e++) {
+        if (matches(json, eventStart, eventEnd, EVENTS[e])) {
+          return EVENT_TYPES[e];
+        }
+      }
+      // an unrecognized event (e.g. a retweet) is never a disconnect message
+      return JSONObjectType.Type.UNKNOWN;
+    }
+    if (hasDisconnect) {
+      return JSONObjectType.Type.DISCONNECTION;
+    }
+    return JSONObjectType.Type.UNKNOWN;
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j.parser;
+
+import static com.twitter.hbc.twitter4j.parser.JSONScanning.*;
+
+/**
+ * Reads a single value out of a message's text without building a JSONObject, by following a path of keys down
+ * through nested objects and skipping over everything else.
+ */
+public final class JSONPathScanner {
+
+  private JSONPathScanner() {}
+
+  /**
+   * @param path the keys leading to the value, e.g. {"delete", "status", "id"}
+   * @return the integer at the path, which may also be given as a string (like for_user), or defaultValue if there's
+   * no such integer
+   */
+  public static long findLong(String json, long defaultValue, String... path) {
+    int i = 0;
+    for (String key : path) {
+      i = valueStart(json, i, key);
+      if (i < 0) {
+        return defaultValue;
+      }
+    }
+    return parseLong(json, i, defaultValue);
+  }
+
+  /**
+   * @return the index of the value of key in the object starting at i, or -1 if there's none
+   */
+  private static int valueStart(String json, int i, String key) {
+    i = skipWhitespace(json, i);
+    if (i >= json.length() || json.charAt(i) != '{') {
+      return -1;
+    }
+    i = skipWhitespace(json, i + 1);
+    while (i < json.length() && json.charAt(i) == '"') {
+      int keyStart = i + 1;
+      int keyEnd = stringEnd(json, i) - 1;
+      if (keyEnd < keyStart) {
+        return -1;
+      }
+      i = skipWhitespace(json, keyEnd + 1);
+      if (i >= json.length() || json.charAt(i) != ':') {
+        return -1;
+      }
+      int valueStart = skipWhitespace(json, i + 1);
+      if (matches(json, keyStart, keyEnd, key)) {
+        return valueStart;
+      }
+      int valueEnd = skipValue(json, valueStart);
+      if (valueEnd < 0) {
+        return -1;
+      }
+      i = skipWhitespace(json, valueEnd);
+      if (i >= json.length() || json.charAt(i) != ',') {
+        return -1;
+      }
+      i = skipWhitespace(json, i + 1);
+    }
+    return -1;
+  }
+
+  private static long parseLong(String json, int i, long defaultValue) {
+    boolean quoted = i < json.length() && json.charAt(i) == '"';
+    if (quoted) {
+      i++;
+    }
+    boolean negative = i < json.length() && json.charAt(i) == '-';
+    if (negative) {
+      i++;
+    }
+    int start = i;
+    long value = 0;
+    while (i < json.length()) {
+      char c = json.charAt(i);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      value = value * 10 + (c - '0');
+      i++;
+    }
+    // a 19 digit number past Long.MAX_VALUE wraps around to a negative value
+    if (i == start || i - start > 19 || value < 0) {
+      return defaultValue;
+    }
+    if (i < json.length()) {
+      char c = json.charAt(i);
+      if (quoted ? c != '"' : (c == '.' || c == 'e' || c == 'E')) {
+        return defaultValue;
+      }
+    } else if (quoted) {
+      return defaultValue;
+    }
+    return negative ? -value : value;
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j.parser;
+
+/**
+ * Helpers for the scanners, which find what they need in a message's text without building a JSONObject
+ */
+final class JSONScanning {
+
+  private JSONScanning() {}
+
+  static boolean matches(String json, int start, int end, String key) {
+    return end - start == key.length() && json.startsWith(key, start);
+  }
+
+  static boolean hasEscape(String json, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (json.charAt(i) == '\\') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static int skipWhitespace(String json, int i) {
+    while (i < json.length()) {
+      char c = json.charAt(i);
+      if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * @param i the index of the opening quote
+   * @return the index just past the closing quote, or -1 if the string isn't terminated
+   */
+  static int stringEnd(String json, int i) {
+    int j = i + 1;
+    while (j < json.length()) {
+      char c = json.charAt(j);
+      if (c == '\\') {
+        j += 2;
+      } else if (c == '"') {
+        return j + 1;
+      } else {
+        j++;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the index just past the value starting at i, or -1 if it's malformed
+   */
+  static int skipValue(String json, int i) {
+    if (i >= json.length()) {
+      return -1;
+    }
+    char c = json.charAt(i);
+    if (c == '"') {
+      return stringEnd(json, i);
+    }
+    if (c == '{' || c == '[') {
+      int depth = 0;
+      while (i < json.length()) {
+        c = json.charAt(i);
+        if (c == '"') {
+          i = stringEnd(json, i);
+          if (i < 0) {
+            return -1;
+          }
+          continue;
+        }
+        if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          if (--depth == 0) {
+            return i + 1;
+          }
+        }
+        i++;
+      }
+      return -1;
+    }
+    // a number, true, false or null
+    int start = i;
+    while (i < json.length()) {
+      c = json.charAt(i);
+      if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+        break;
+      }
+      i++;
+    }
+    return i == start ? -1 : i;
+  }
+}
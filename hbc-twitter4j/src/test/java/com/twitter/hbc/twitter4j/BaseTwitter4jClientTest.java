@@ -13,15 +13,21 @@
 
 package com.twitter.hbc.twitter4j;
 
+import com.twitter.hbc.StallDetector;
 import com.twitter.hbc.httpclient.BasicClient;
+import com.twitter.hbc.twitter4j.dispatch.DispatchKeys;
+import com.twitter.hbc.twitter4j.dispatch.KeyedDispatcher;
 import com.twitter.hbc.twitter4j.message.DisconnectMessage;
+import com.twitter.hbc.twitter4j.message.StallWarningMessage;
 import org.junit.Before;
 import org.junit.Test;
 import twitter4j.*;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.mockito.Matchers.any;
@@ -74,6 +80,14 @@ public class BaseTwitter4jClientTest {
     verify(executor).shutdown();
   }
 
+  @Test
+  public void testSharedExecutorIsNotShutDown() {
+    BaseTwitter4jClient client = new BaseTwitter4jClient(mockClient, queue, executor, false);
+    client.stop();
+    verify(mockClient).stop();
+    verify(executor, never()).shutdown();
+  }
+
   @Test
   public void testClientMultipleProcessCalls() {
     t4jClient.connect();
@@ -114,6 +128,16 @@ public class BaseTwitter4jClientTest {
     verify(t4jClient).onScrubGeo(anyInt(), anyInt(), anyInt());
   }
 
+  @Test
+  public void testStallWarningsForwarded() throws TwitterException, IOException, JSONException {
+    StallDetector detector = mock(StallDetector.class);
+    t4jClient.forwardStallWarnings(detector);
+    t4jClient.processMessage(-1,
+      new JSONObject("{\"warning\":{\"code\":\"FALLING_BEHIND\",\"message\":\"behind\",\"percent_full\":95}}"));
+    verify(detector).onStallWarning(95);
+    verify(t4jClient).onStallWarning(any(StallWarningMessage.class));
+  }
+
   @Test
   public void testDirectMessageListener() throws TwitterException, IOException, JSONException {
     t4jClient.processMessage(-1, new JSONObject(directMessage));
@@ -248,4 +272,52 @@ public class BaseTwitter4jClientTest {
     t4jClient.processMessage(-1, new JSONObject(disconnectMessage));
     verify(t4jClient).onDisconnectMessage(any(DisconnectMessage.class));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testIgnoredMessageTypesAreDropped() throws TwitterException, IOException, JSONException {
+    t4jClient.ignoreMessageTypes(JSONObjectType.Type.DELETE, JSONObjectType.Type.LIMIT);
+    t4jClient.parseMessage(statusDeletionNotice);
+    t4jClient.parseMessage(limit);
+    t4jClient.parseMessage(status);
+    verify(t4jClient, never()).onDelete(anyLong(), any(StatusDeletionNotice.class));
+    verify(t4jClient, never()).onTrackLimitationNotice(anyLong(), anyInt());
+    verify(t4jClient).onStatus(anyLong(), any(Status.class));
+    verify(t4jClient, times(1)).processMessage(anyLong(), any(JSONObject.class));
+
+    t4jClient.ignoreMessageTypes();
+    t4jClient.parseMessage(statusDeletionNotice);
+    verify(t4jClient).onDelete(anyLong(), any(StatusDeletionNotice.class));
+  }
+
+  @Test
+  public void testIgnoredSitestreamMessagesAreDropped() throws TwitterException, IOException, JSONException {
+    Twitter4jSitestreamClient client = spy(new Twitter4jSitestreamClient(mockClient, queue,
+      Collections.<SiteStreamsListener>emptyList(), executor));
+    client.ignoreMessageTypes(JSONObjectType.Type.FRIENDS);
+    client.parseMessage(reader.readFile("sitestream-friends-list.json"));
+    verify(client, never()).onFriends(anyLong(), any(long[].class));
+
+    client.parseMessage(statusDeletionNotice);
+    verify(client).onDelete(anyLong(), any(StatusDeletionNotice.class));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownMessagesCannotBeIgnored() {
+    t4jClient.ignoreMessageTypes(JSONObjectType.Type.UNKNOWN);
+  }
+
+  @Test
+  public void testProcessWithDispatcher() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(3);
+    try {
+      BaseTwitter4jClient client = spy(new BaseTwitter4jClient(mockClient, queue, pool));
+      client.process(new KeyedDispatcher(pool, DispatchKeys.USER_ID, 4, 10));
+      queue.put(status);
+      queue.put(statusDeletionNotice);
+      verify(client, timeout(5000)).onStatus(anyLong(), any(Status.class));
+      verify(client, timeout(5000)).onDelete(anyLong(), any(StatusDeletionNotice.class));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j;
+
+import com.twitter.hbc.twitter4j.dispatch.DispatchKeys;
+import com.twitter.hbc.twitter4j.parser.JSONPathScanner;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+
+public class DispatchKeysTest {
+
+  private final ResourceReader reader = new ResourceReader();
+
+  @Test
+  public void testFindLong() {
+    String json = "{\"id\": 1, \"user\": {\"name\": \"{\\\"id\\\": 2}\", \"entities\": [{\"id\": 3}], \"id\": 4}}";
+    assertEquals(1, JSONPathScanner.findLong(json, -1, "id"));
+    assertEquals(4, JSONPathScanner.findLong(json, -1, "user", "id"));
+    assertEquals(-1, JSONPathScanner.findLong(json, -1, "user", "name"));
+    assertEquals(-1, JSONPathScanner.findLong(json, -1, "entities"));
+    assertEquals(-1, JSONPathScanner.findLong(json, -1, "id", "user"));
+  }
+
+  @Test
+  public void testFindLongFormats() {
+    assertEquals(1888, JSONPathScanner.findLong("{\"for_user\":\"1888\"}", -1, "for_user"));
+    assertEquals(-7, JSONPathScanner.findLong("{\"n\":-7}", 0, "n"));
+    assertEquals(Long.MAX_VALUE, JSONPathScanner.findLong("{\"n\":9223372036854775807}", -1, "n"));
+    assertEquals(-1, JSONPathScanner.findLong("{\"n\":9223372036854775808}", -1, "n"));
+    assertEquals(-1, JSONPathScanner.findLong("{\"n\":1.5}", -1, "n"));
+    assertEquals(-1, JSONPathScanner.findLong("{\"n\":\"12ab\"}", -1, "n"));
+    assertEquals(-1, JSONPathScanner.findLong("{\"n\":null}", -1, "n"));
+    assertEquals(-1, JSONPathScanner.findLong("{\"m\":1 \"n\":2}", -1, "n"));
+  }
+
+  @Test
+  public void testUserId() throws IOException {
+    assertEquals(3, DispatchKeys.USER_ID.keyOf(reader.readFile("status-deletion.json")));
+    assertEquals(1, DispatchKeys.USER_ID.keyOf("{\"id\":10,\"text\":\"hi\",\"user\":{\"id\":1}}"));
+    assertEquals(2, DispatchKeys.USER_ID.keyOf("{\"event\":\"follow\",\"target\":{\"id\":1},\"source\":{\"id\":2}}"));
+    assertEquals(DispatchKeys.NO_KEY, DispatchKeys.USER_ID.keyOf(reader.readFile("limit.json")));
+  }
+
+  @Test
+  public void testStatusId() throws IOException {
+    assertEquals(1234, DispatchKeys.STATUS_ID.keyOf(reader.readFile("status-deletion.json")));
+    assertEquals(1234, DispatchKeys.STATUS_ID.keyOf("{\"id\":1234,\"text\":\"hi\",\"user\":{\"id\":1}}"));
+    assertEquals(DispatchKeys.NO_KEY, DispatchKeys.STATUS_ID.keyOf(reader.readFile("control-message.json")));
+  }
+
+  @Test
+  public void testForUser() throws IOException {
+    assertEquals(1888, DispatchKeys.FOR_USER.keyOf(reader.readFile("sitestream-friends-list.json")));
+    assertEquals(DispatchKeys.NO_KEY, DispatchKeys.FOR_USER.keyOf(reader.readFile("control-message.json")));
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j;
+
+import com.twitter.hbc.twitter4j.parser.JSONObjectTypeScanner;
+import org.junit.Test;
+import twitter4j.JSONException;
+import twitter4j.JSONObject;
+import twitter4j.JSONObjectType;
+
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class JSONObjectTypeScannerTest {
+
+  private final ResourceReader reader = new ResourceReader();
+
+  private void assertSameType(String json) throws JSONException {
+    assertEquals(JSONObjectType.determine(new JSONObject(json)), JSONObjectTypeScanner.determine(json));
+  }
+
+  @Test
+  public void testAgreesWithJSONObjectType() throws IOException, JSONException {
+    String[] files = {
+      "status.json", "user.json", "status-deletion.json", "limit.json", "scrub-geo.json", "friends-list.json",
+      "disconnect-message.json", "control-message.json", "direct-message.json", "direct-message-delete.json"
+    };
+    for (String file : files) {
+      assertSameType(reader.readFile(file));
+    }
+  }
+
+  @Test
+  public void testEvents() throws IOException, JSONException {
+    String user = reader.readFile("user.json");
+    String status = reader.readFile("status.json");
+    String[] events = {
+      "favorite", "unfavorite", "follow", "unfollow", "list_member_added", "list_member_removed",
+      "list_user_subscribed", "list_user_unsubscribed", "list_created", "list_updated", "list_destroyed",
+      "user_update", "block", "unblock", "retweet", "something_new"
+    };
+    for (String event : events) {
+      assertSameType(CreateEvent.createEvent(event, user, user, status).toString());
+    }
+  }
+
+  @Test
+  public void testKeyPriority() throws JSONException {
+    assertSameType("{\"text\":\"hi\",\"sender\":{\"id\":1}}");
+    assertSameType("{\"delete\":{},\"text\":\"hi\"}");
+    assertSameType("{\"disconnect\":{\"code\":1},\"event\":\"follow\"}");
+    assertSameType("{\"disconnect\":{\"code\":1},\"event\":\"retweet\"}");
+    assertSameType("{\"disconnect\":{\"code\":1}}");
+    assertSameType("{}");
+  }
+
+  @Test
+  public void testNullValuesDoNotCount() throws JSONException {
+    assertSameType("{\"text\":null,\"delete\":{\"status\":{\"id\":1}}}");
+    assertSameType("{ \"sender\" : null , \"limit\" : { \"track\" : 3 } }");
+    assertSameType("{\"event\":null,\"disconnect\":{\"code\":1}}");
+  }
+
+  @Test
+  public void testNestedKeysAreSkipped() throws JSONException {
+    assertSameType("{\"user\":{\"text\":\"nested\",\"delete\":true},\"limit\":{\"track\":1}}");
+    assertSameType("{\"entities\":[{\"text\":\"a\"},[\"sender\"]],\"id\":1}");
+    assertSameType("{\"id\":1,\"source\":\"\\\"}{,\\\\\",\"text\":\"} ] {\"}");
+  }
+
+  @Test
+  public void testMalformedMessages() {
+    assertNull(JSONObjectTypeScanner.determine(""));
+    assertNull(JSONObjectTypeScanner.determine("[1, 2]"));
+    assertNull(JSONObjectTypeScanner.determine("{\"delete\":{\"status\":"));
+    assertNull(JSONObjectTypeScanner.determine("{\"text\" \"hi\"}"));
+    assertNull(JSONObjectTypeScanner.determine("{\"text\":\"hi\" \"id\":1}"));
+    assertNull(JSONObjectTypeScanner.determine("{\"te\\u0078t\":\"hi\"}"));
+    assertNull(JSONObjectTypeScanner.determine("{\"event\":1}"));
+  }
+
+  @Test
+  public void testSitestreamEnvelope() throws IOException {
+    String friends = reader.readFile("sitestream-friends-list.json");
+    assertEquals(JSONObjectType.Type.FRIENDS, JSONObjectTypeScanner.determine(friends, true));
+    assertEquals(JSONObjectType.Type.UNKNOWN, JSONObjectTypeScanner.determine(friends, false));
+
+    String delete = "{\"for_user\":1888,\"message\":" + reader.readFile("status-deletion.json") + "}";
+    assertEquals(JSONObjectType.Type.DELETE, JSONObjectTypeScanner.determine(delete, true));
+
+    String control = reader.readFile("control-message.json");
+    assertEquals(JSONObjectType.Type.UNKNOWN, JSONObjectTypeScanner.determine(control, true));
+
+    assertNull(JSONObjectTypeScanner.determine("{\"for_user\":1888,\"message\":null}", true));
+  }
+}
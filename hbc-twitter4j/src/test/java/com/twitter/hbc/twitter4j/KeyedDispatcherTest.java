@@ -0,0 +1,226 @@
+/**
+ * Copyright 2014 Twitter, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.twitter.hbc.twitter4j;
+
+import com.twitter.hbc.twitter4j.dispatch.DispatchKey;
+import com.twitter.hbc.twitter4j.dispatch.KeyedDispatcher;
+import com.twitter.hbc.twitter4j.dispatch.ListenerStats;
+import com.twitter.hbc.twitter4j.handler.StatusStreamHandler;
+import com.twitter.hbc.twitter4j.message.DisconnectMessage;
+import com.twitter.hbc.twitter4j.message.StallWarningMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import twitter4j.StallWarning;
+import twitter4j.Status;
+import twitter4j.StatusDeletionNotice;
+import twitter4j.StatusListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class KeyedDispatcherTest {
+
+  // messages look like "key:sequence"
+  private static final DispatchKey PREFIX = new DispatchKey() {
+    @Override
+    public long keyOf(String message) {
+      return Long.parseLong(message.substring(0, message.indexOf(':')));
+    }
+  };
+
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void teardown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testOrderedPerKey() throws InterruptedException {
+    int keys = 20;
+    int messagesPerKey = 500;
+    KeyedDispatcher dispatcher = new KeyedDispatcher(executor, PREFIX, 8, 100);
+    final List<List<Integer>> received = new ArrayList<List<Integer>>();
+    for (int k = 0; k < keys; k++) {
+      received.add(Collections.synchronizedList(new ArrayList<Integer>()));
+    }
+    final CountDownLatch done = new CountDownLatch(keys * messagesPerKey);
+
+    for (int i = 0; i < messagesPerKey; i++) {
+      for (int k = 0; k < keys; k++) {
+        final int key = k;
+        final int sequence = i;
+        dispatcher.execute(key + ":" + sequence, new Runnable() {
+          @Override
+          public void run() {
+            if (sequence % 50 == 0) {
+              Thread.yield();
+            }
+            received.get(key).add(sequence);
+            done.countDown();
+          }
+        });
+      }
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    for (List<Integer> sequences : received) {
+      assertEquals(messagesPerKey, sequences.size());
+      for (int i = 0; i < messagesPerKey; i++) {
+        assertEquals(i, (int) sequences.get(i));
+      }
+    }
+    assertEquals(0, dispatcher.getQueueDepth());
+  }
+
+  @Test
+  public void testBlocksPastMaxPending() throws InterruptedException {
+    final KeyedDispatcher dispatcher = new KeyedDispatcher(executor, PREFIX, 2, 2);
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocked = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    dispatcher.execute("1:0", blocked);
+    dispatcher.execute("1:1", blocked);
+    assertEquals(2, dispatcher.getQueueDepth());
+
+    final CountDownLatch queued = new CountDownLatch(1);
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          dispatcher.execute("2:0", new Runnable() {
+            @Override
+            public void run() {}
+          });
+          queued.countDown();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    producer.start();
+    assertFalse(queued.await(200, TimeUnit.MILLISECONDS));
+
+    release.countDown();
+    assertTrue(queued.await(5, TimeUnit.SECONDS));
+    producer.join();
+  }
+
+  @Test
+  public void testExceptionsDoNotStopTheLane() throws InterruptedException {
+    KeyedDispatcher dispatcher = new KeyedDispatcher(executor, PREFIX, 1, 10);
+    final CountDownLatch done = new CountDownLatch(1);
+    dispatcher.execute("1:0", new Runnable() {
+      @Override
+      public void run() {
+        throw new RuntimeException("listener failed");
+      }
+    });
+    dispatcher.execute("1:1", new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testTimedListener() {
+    KeyedDispatcher dispatcher = new KeyedDispatcher(executor, PREFIX, 1, 10);
+    Handler handler = new Handler();
+    StatusListener timed = dispatcher.timed("handler", StatusListener.class, handler);
+
+    assertTrue(timed instanceof StatusStreamHandler);
+    timed.onTrackLimitationNotice(5);
+    ((StatusStreamHandler) timed).onUnknownMessageType("{}");
+    try {
+      timed.onScrubGeo(1, 2);
+      fail();
+    } catch (IllegalStateException e) {
+      // the listener's own exception is rethrown
+    }
+    timed.toString();
+
+    assertEquals(5, handler.limit);
+    ListenerStats stats = dispatcher.getListenerStats().get("handler");
+    assertEquals("handler", stats.getName());
+    assertEquals(3, stats.getCalls());
+    assertTrue(stats.getMaxNanos() > 0);
+    assertTrue(stats.getMaxNanos() <= stats.getTotalNanos());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateListenerNames() {
+    KeyedDispatcher dispatcher = new KeyedDispatcher(executor, PREFIX, 1, 10);
+    dispatcher.timed("handler", StatusListener.class, new Handler());
+    dispatcher.timed("handler", StatusListener.class, new Handler());
+  }
+
+  private static class Handler implements StatusStreamHandler {
+    private int limit;
+
+    @Override
+    public void onStatus(Status status) {}
+
+    @Override
+    public void onDeletionNotice(StatusDeletionNotice statusDeletionNotice) {}
+
+    @Override
+    public void onTrackLimitationNotice(int numberOfLimitedStatuses) {
+      limit = numberOfLimitedStatuses;
+    }
+
+    @Override
+    public void onScrubGeo(long userId, long upToStatusId) {
+      throw new IllegalStateException();
+    }
+
+    @Override
+    public void onStallWarning(StallWarning warning) {}
+
+    @Override
+    public void onException(Exception ex) {}
+
+    @Override
+    public void onDisconnectMessage(DisconnectMessage message) {}
+
+    @Override
+    public void onStallWarningMessage(StallWarningMessage warning) {}
+
+    @Override
+    public void onUnknownMessageType(String msg) {}
+  }
+}